@@ -16,13 +16,9 @@ limitations under the License.
 package bftsmart.clientsmanagement;
 
 import bftsmart.tom.core.messages.TOMMessage;
-import bftsmart.tom.util.TOMUtil;
 import org.slf4j.LoggerFactory;
 
 import java.security.PublicKey;
-import java.security.Signature;
-import java.security.SignatureException;
-import java.util.Iterator;
 import java.util.concurrent.locks.ReentrantLock;
 
 
@@ -33,7 +29,6 @@ public class ClientData {
     ReentrantLock clientLock = new ReentrantLock();
 
     private int clientId;
-    //private PublicKey publicKey = null;
 
     private int session = -1;
 
@@ -46,26 +41,23 @@ public class ClientData {
     //anb: new code to deal with client requests that arrive after their execution
     private RequestList orderedRequests = new RequestList(5);
 
-    private Signature signatureVerificator = null;
+    // number of pending requests which were not proposed yet (guarded by clientLock)
+    private int unproposed = 0;
+    // is this client in the ready queue of the clients manager? (guarded by clientLock)
+    boolean ready = false;
+
+    private final PublicKey publicKey;
     
     /**
-     * Class constructor. Just store the clientId and creates a signature
-     * verificator for a given client public key.
+     * Class constructor. Just store the clientId and the client public key,
+     * which is used to verify the signatures of its requests.
      *
      * @param clientId client unique id
      * @param publicKey client public key
      */
     public ClientData(int clientId, PublicKey publicKey) {
         this.clientId = clientId;
-        if(publicKey != null) {
-            try {
-                signatureVerificator = Signature.getInstance("SHA1withRSA");
-                signatureVerificator.initVerify(publicKey);
-                LOGGER.debug("Signature verifier initialized for client {}", clientId);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
-        }
+        this.publicKey = publicKey;
     }
 
     public int getClientId() {
@@ -112,47 +104,115 @@ public class ClientData {
         return lastMessageReceivedTime;
     }
 
+    /**
+     * The public key of this client, or null if signatures are not used.
+     */
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Verifies a signature of this client. The verification uses a signature
+     * engine of the calling thread, so it does not need the client lock.
+     */
     public boolean verifySignature(byte[] message, byte[] signature) {
-        if(signatureVerificator != null) {
-            try {
-                return TOMUtil.verifySignature(signatureVerificator, message, signature);
-            } catch (SignatureException ex) {
-                System.err.println("Error in processing client "+clientId+" signature: "+ex.getMessage());
-            }
+        if(publicKey != null) {
+            return RequestSignatureVerifier.verify(publicKey, message, signature);
         }
         return false;
     }
 
-    public boolean removeOrderedRequest(TOMMessage request) {
-        if(pendingRequests.remove(request)) {
-            //anb: new code to deal with client requests that arrive after their execution
-            orderedRequests.addLast(request);
-            return true;
+    /**
+     * Adds a request to the pending requests of this client.
+     *
+     * @param request the request received
+     */
+    public void addPendingRequest(TOMMessage request) {
+        pendingRequests.add(request);
+        if (!request.alreadyProposed) {
+            unproposed++;
         }
-        return false;
     }
 
-    public boolean removePendingRequest(TOMMessage request) {
-        if(pendingRequests.remove(request)) {
-            return true;
+    /**
+     * Takes the oldest pending request which was not proposed yet and marks it as
+     * proposed.
+     *
+     * @return the request, or null if all pending requests were already proposed
+     */
+    public TOMMessage proposeNext() {
+        if (unproposed == 0) {
+            return null;
         }
-        return false;
+        TOMMessage request = pendingRequests.proposeNext();
+        if (request != null) {
+            unproposed--;
+        }
+        return request;
     }
 
-    public boolean removeRequest(TOMMessage request) {
-	lastMessageExecuted = request.getSequence();
-	boolean result = pendingRequests.remove(request);
-        //anb: new code to deal with client requests that arrive after their execution
-        orderedRequests.addLast(request);
+    /**
+     * Marks a pending request as not proposed, so it is taken again by
+     * {@link #proposeNext()}.
+     *
+     * @param request the request to propose again
+     * @return true if the request was pending and proposed
+     */
+    public boolean unpropose(TOMMessage request) {
+        if (pendingRequests.unpropose(request) == null) {
+            return false;
+        }
+        unproposed++;
+        return true;
+    }
+
+    /**
+     * @return the number of pending requests which were not proposed yet
+     */
+    public int getUnproposedCount() {
+        return unproposed;
+    }
 
-	for(Iterator<TOMMessage> it = pendingRequests.iterator();it.hasNext();){
-		TOMMessage msg = it.next();
-		if(msg.getSequence()<request.getSequence()){
-			it.remove();
-		}
-	}
+    /**
+     * Removes all pending requests of this client.
+     *
+     * @return the number of removed requests which were not proposed yet
+     */
+    public int clearPendingRequests() {
+        int removed = unproposed;
+        pendingRequests.clear();
+        unproposed = 0;
+        return removed;
+    }
 
-    	return result;
+    /**
+     * Removes an ordered request from the pending requests, keeping it in the
+     * ordered requests to be able to reply to retransmissions.
+     *
+     * @param request the ordered request
+     * @return the pending instance that was removed, or null if there was none
+     */
+    public TOMMessage removeOrderedRequest(TOMMessage request) {
+        TOMMessage pending = removePendingRequest(request);
+        if (pending != null) {
+            //anb: new code to deal with client requests that arrive after their execution
+            orderedRequests.addLast(request);
+        }
+        return pending;
+    }
+
+    /**
+     * Removes a request from the pending requests.
+     *
+     * @param request the request to remove
+     * @return the pending instance that was removed, or null if there was none
+     */
+    public TOMMessage removePendingRequest(TOMMessage request) {
+        TOMMessage pending = pendingRequests.removeEqual(request);
+        if (pending != null && !pending.alreadyProposed) {
+            unproposed--;
+        }
+        return pending;
     }
 
     public TOMMessage getReply(int reqSequence) {
@@ -21,17 +21,24 @@ import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.leaderchange.RequestsTimer;
 import bftsmart.tom.server.RequestVerifier;
 import org.slf4j.LoggerFactory;
-import utils.codec.Base58Utils;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
+ * Keeps the requests received from the clients until they are ordered.
+ * <p>
+ * The clients table is a {@link ConcurrentHashMap} and every client has its own
+ * lock, so the intake of requests from different clients never contends on a
+ * global lock. Clients with requests that were not proposed yet are kept in a
+ * ready queue, which lets the leader build a batch in a round-robin fashion
+ * without scanning every client.
  *
  * @author alysson
  */
@@ -39,18 +46,29 @@ public class ClientsManager {
 
     private ViewTopology controller;
     private RequestsTimer timer;
-    private HashMap<Integer, ClientData> clientsData = new HashMap<Integer, ClientData>();
+    private final ConcurrentHashMap<Integer, ClientData> clientsData = new ConcurrentHashMap<Integer, ClientData>();
     private RequestVerifier verifier;
+    private final RequestSignatureVerifier signatureVerifier;
 
     private AtomicLong clientDatasTotal = new AtomicLong(0);
 
-    private ReentrantLock clientsLock = new ReentrantLock();
+    // number of pending requests of all clients which were not proposed yet
+    private final AtomicLong unproposedTotal = new AtomicLong(0);
+
+    // clients with requests not proposed yet, in round-robin order (reconfiguration clients excluded)
+    private final Queue<ClientData> readyClients = new ConcurrentLinkedQueue<ClientData>();
+
+    // clients with negative ids, which send reconfiguration requests
+    private final Set<ClientData> reconfigClients = ConcurrentHashMap.newKeySet();
+
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(ClientsManager.class);
 
     public ClientsManager(ViewTopology controller, RequestsTimer timer, RequestVerifier verifier) {
         this.controller = controller;
         this.timer = timer;
         this.verifier = verifier;
+        this.signatureVerifier = new RequestSignatureVerifier(id -> getClientData(id).getPublicKey(),
+                RequestSignatureVerifier.DEFAULT_CACHE_CAPACITY);
     }
 
     /**
@@ -60,43 +78,35 @@ public class ClientsManager {
      * @return the total number
      */
     public long getClientDatasTotal() {
-        long total;
-
-        clientsLock.lock();
-        total =  clientDatasTotal.get();
-        clientsLock.unlock();
-//        System.out.println("I am proc " + this.controller.getStaticConf().getProcessId() + " , the client data total is " + total);
-        return total;
+        return clientDatasTotal.get();
     }
+
     /**
-     * We are assuming that no more than one thread will access
-     * the same clientData during creation.
-     *
+     * Return the ClientData of the specified client, creating it if it does not
+     * exist yet.
      *
      * @param clientId
      * @return the ClientData stored on the manager
      */
     public ClientData getClientData(int clientId) {
-        clientsLock.lock();
-        /******* BEGIN CLIENTS CRITICAL SECTION ******/
         ClientData clientData = clientsData.get(clientId);
-
-        if (clientData == null) {
-           LOGGER.debug("(ClientsManager.getClientData) Creating new client data, client id = {}", clientId);
+        if (clientData != null) {
+            return clientData;
+        }
+        return clientsData.computeIfAbsent(clientId, id -> {
+            LOGGER.debug("(ClientsManager.getClientData) Creating new client data, client id = {}", id);
 
             //******* EDUARDO BEGIN **************//
-            clientData = new ClientData(clientId,
+            ClientData newClientData = new ClientData(id,
                     (controller.getStaticConf().isUseSignatures())
-                    ? controller.getStaticConf().getRSAPublicKey(clientId)
+                    ? controller.getStaticConf().getRSAPublicKey(id)
                     : null);
             //******* EDUARDO END **************//
-            clientsData.put(clientId, clientData);
-        }
-
-        /******* END CLIENTS CRITICAL SECTION ******/
-        clientsLock.unlock();
-
-        return clientData;
+            if (id < 0) {
+                reconfigClients.add(newClientData);
+            }
+            return newClientData;
+        });
     }
 
     /**
@@ -108,109 +118,94 @@ public class ClientsManager {
     public RequestList getPendingRequests() {
         RequestList allReq = new RequestList();
 
-        clientsLock.lock();
-        try {
-            /******* BEGIN CLIENTS CRITICAL SECTION ******/
-
-            // id为负的消息(Reconfig 消息类型)单独打包
-            Set<Integer> ids = clientsData.keySet();
-            for(Integer id : ids) {
-                if (id < 0) {
-                    ClientData clientData = clientsData.get(id);
-                    RequestList clientPendingRequests = clientData.getPendingRequests();
-                    clientData.clientLock.lock();
-                    TOMMessage request = clientPendingRequests.size() > 0 ? clientPendingRequests.get(0) : null;
-                    clientData.clientLock.unlock();
-                    if (request != null) {
-                        if (!request.alreadyProposed) {
-                            //this client have pending message
-                            request.alreadyProposed = true;
-                            allReq.addLast(request);
-                            return allReq;
-                        }
-                    }
+        // id为负的消息(Reconfig 消息类型)单独打包
+        for (ClientData clientData : reconfigClients) {
+            clientData.clientLock.lock();
+            try {
+                TOMMessage request = clientData.getPendingRequests().isEmpty() ? null
+                        : clientData.getPendingRequests().getFirst();
+                if (request != null && !request.alreadyProposed && clientData.proposeNext() == request) {
+                    //this client have pending message
+                    unproposedTotal.decrementAndGet();
+                    allReq.addLast(request);
+                    return allReq;
                 }
+            } finally {
+                clientData.clientLock.unlock();
             }
+        }
 
-            Set<Entry<Integer, ClientData>> clientsEntrySet = clientsData.entrySet();
-
-            for (int i = 0; true; i++) {
-                Iterator<Entry<Integer, ClientData>> it = clientsEntrySet.iterator();
-                int noMoreMessages = 0;
-
-                while (it.hasNext()
-                        && allReq.size() < controller.getStaticConf().getMaxBatchSize()
-                        && noMoreMessages < clientsEntrySet.size()) {
-
-                    ClientData clientData = it.next().getValue();
-                    RequestList clientPendingRequests = clientData.getPendingRequests();
-
-                    clientData.clientLock.lock();
-                    /******* BEGIN CLIENTDATA CRITICAL SECTION ******/
-                    TOMMessage request = (clientPendingRequests.size() > i) ? clientPendingRequests.get(i) : null;
-
-                    /******* END CLIENTDATA CRITICAL SECTION ******/
-                    clientData.clientLock.unlock();
+        int maxBatchSize = controller.getStaticConf().getMaxBatchSize();
+        while (allReq.size() < maxBatchSize) {
+            ClientData clientData = readyClients.poll();
+            if (clientData == null) {
+                //no client has more pending requests
+                break;
+            }
 
-                    if (request != null) {
-                        if (!request.alreadyProposed) {
-                            //this client have pending message
-                            request.alreadyProposed = true;
-                            allReq.addLast(request);
-                        }
-                    } else {
-                        //this client don't have more pending requests
-                        noMoreMessages++;
-                    }
+            clientData.clientLock.lock();
+            /******* BEGIN CLIENTDATA CRITICAL SECTION ******/
+            try {
+                TOMMessage request = clientData.proposeNext();
+                if (request != null) {
+                    unproposedTotal.decrementAndGet();
+                    allReq.addLast(request);
                 }
-
-                if (allReq.size() == controller.getStaticConf().getMaxBatchSize() ||
-                        noMoreMessages == clientsEntrySet.size()) {
-
-                    break;
+                if (clientData.getUnproposedCount() > 0) {
+                    // go to the end of the queue, so the next request of this client
+                    // is only taken after one request of every other client
+                    readyClients.add(clientData);
+                } else {
+                    clientData.ready = false;
                 }
+            } finally {
+                /******* END CLIENTDATA CRITICAL SECTION ******/
+                clientData.clientLock.unlock();
             }
-
-            return allReq;
-        } finally {
-            /******* END CLIENTS CRITICAL SECTION ******/
-            clientsLock.unlock();
         }
+
+        return allReq;
     }
 
     /**
-     * We've implemented some protection for individual client
-     * data, but the clients table can change during the operation.
+     * Makes the requests of a proposal that will not be decided available to
+     * the next batches again, e.g. when the consensus instance that proposed
+     * them is discarded by a leader change. Requests that are no longer pending
+     * or were not proposed are ignored.
      *
-     * @return true if there are some pending requests and false otherwise
+     * @param requests the requests of the abandoned proposal
      */
-    public boolean havePendingRequests() {
-        boolean havePending = false;
-
-        clientsLock.lock();
-        /******* BEGIN CLIENTS CRITICAL SECTION ******/        
-        
-        Iterator<Entry<Integer, ClientData>> it = clientsData.entrySet().iterator();
-
-        while (it.hasNext() && !havePending) {
-            ClientData clientData = it.next().getValue();
-            
+    public void unpropose(TOMMessage[] requests) {
+        for (TOMMessage request : requests) {
+            ClientData clientData = clientsData.get(request.getSender());
+            if (clientData == null) {
+                continue;
+            }
             clientData.clientLock.lock();
-            RequestList reqs = clientData.getPendingRequests();
-            if (!reqs.isEmpty()) {
-                for(TOMMessage msg:reqs) {
-                    if(!msg.alreadyProposed) {
-                        havePending = true;
-                        break;
+            /******* BEGIN CLIENTDATA CRITICAL SECTION ******/
+            try {
+                if (clientData.unpropose(request)) {
+                    unproposedTotal.incrementAndGet();
+                    if (!clientData.ready && clientData.getClientId() >= 0) {
+                        clientData.ready = true;
+                        readyClients.add(clientData);
                     }
                 }
+            } finally {
+                /******* END CLIENTDATA CRITICAL SECTION ******/
+                clientData.clientLock.unlock();
             }
-            clientData.clientLock.unlock();
         }
+    }
 
-        /******* END CLIENTS CRITICAL SECTION ******/
-        clientsLock.unlock();
-        return havePending;
+    /**
+     * Checks if there are requests which were not proposed yet. This only reads
+     * a counter, so it does not depend on the number of clients.
+     *
+     * @return true if there are some pending requests and false otherwise
+     */
+    public boolean havePendingRequests() {
+        return unproposedTotal.get() > 0;
     }
 
     /**
@@ -220,34 +215,28 @@ public class ClientsManager {
      * @return void
      */
     public void clearObsoleteRequests() {
-        clientsLock.lock();
-
-        try {
-            Iterator<Entry<Integer, ClientData>> it = clientsData.entrySet().iterator();
-
-            while (it.hasNext()) {
-                ClientData clientData = it.next().getValue();
-                clientData.clientLock.lock();
-                try {
-                    RequestList reqs = clientData.getPendingRequests();
-                    if (!reqs.isEmpty()) {
-                        for(TOMMessage msg:reqs) {
-                            if((System.currentTimeMillis() - msg.receptionTime) < (this.controller.getStaticConf().getRequestTimeout()) ) {
-                                break;
-                            }
-                            else {
-                                clientData.removePendingRequest(msg);
-                                timer.unwatch(msg);
-                                LOGGER.error("(ClientsManager.clearObsoleteRequests) I am proc {}, the client data total is too big, need clear!", this.controller.getStaticConf().getProcessId());
-                            }
+        long now = System.currentTimeMillis();
+        for (ClientData clientData : clientsData.values()) {
+            clientData.clientLock.lock();
+            try {
+                RequestList reqs = clientData.getPendingRequests();
+                if (!reqs.isEmpty()) {
+                    List<TOMMessage> obsoleteRequests = new ArrayList<TOMMessage>();
+                    for(TOMMessage msg:reqs) {
+                        if((now - msg.receptionTime) < (this.controller.getStaticConf().getRequestTimeout()) ) {
+                            break;
                         }
+                        obsoleteRequests.add(msg);
+                    }
+                    for (TOMMessage msg : obsoleteRequests) {
+                        removePendingRequest(clientData, msg);
+                        timer.unwatch(msg);
+                        LOGGER.error("(ClientsManager.clearObsoleteRequests) I am proc {}, the client data total is too big, need clear!", this.controller.getStaticConf().getProcessId());
                     }
-                } finally {
-                    clientData.clientLock.unlock();
                 }
+            } finally {
+                clientData.clientLock.unlock();
             }
-        } finally {
-            clientsLock.unlock();
         }
     }
 
@@ -280,10 +269,47 @@ public class ClientsManager {
         return pendingMessage;
     }
 
+    /**
+     * Verifies the client signatures of the requests in parallel. The results
+     * are cached, so the subsequent {@link #requestReceived(TOMMessage, boolean)}
+     * of these requests, and of requests already verified on intake from the
+     * clients, do not verify the signatures again.
+     *
+     * @param requests the requests of a proposed batch
+     * @return true if every request is signed and its signature is valid, false
+     *         if any request is unsigned or has an invalid signature
+     */
+    public boolean verifySignatures(TOMMessage[] requests) {
+        return signatureVerifier.verifyAll(requests);
+    }
+
     public boolean requestReceived(TOMMessage request, boolean fromClient) {
         return requestReceived(request, fromClient, null);
     }
 
+    /**
+     * Verifies the content of a request: a client batch of commands must be well
+     * formed, and in BFT mode every command must be valid to the application.
+     *
+     * @param request the request to be verified
+     * @return true if the content of the request is valid
+     */
+    public boolean isValidRequest(TOMMessage request) {
+        byte[][] commands = request.getCommands();
+        if (commands == null) {
+            LOGGER.warn("Malformed command batch from client {} with sequence number {}", request.getSender(), request.getSequence());
+            return false;
+        }
+        if (controller.getStaticConf().isBFT()) {
+            for (byte[] command : commands) {
+                if (!verifier.isValidRequest(command)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Notifies the ClientsManager that a new request from a client arrived.
      * This method updates the ClientData of the client request.getSender().
@@ -304,7 +330,7 @@ public class ClientsManager {
         }
 
         // if the content of the request is invalid, ignore it
-        if (controller.getStaticConf().isBFT() && !verifier.isValidRequest(request.getContent())) return false;
+        if (!isValidRequest(request)) return false;
         
 //        request.receptionTime = System.nanoTime();
 
@@ -342,7 +368,7 @@ public class ClientsManager {
             clientData.setSession(request.getSession());
             clientData.setLastMessageReceived(-1);
             clientData.getOrderedRequests().clear();
-            clientData.getPendingRequests().clear();
+            unproposedTotal.addAndGet(-clientData.clearPendingRequests());
         }
 
         if ((clientData.getLastMessageReceived() == -1) || //first message received or new session (see above)
@@ -350,15 +376,14 @@ public class ClientsManager {
                 ((request.getSequence() > clientData.getLastMessageReceived()) && !fromClient)) {
 
             //it is a new message and I have to verify it's signature
-            if (!request.signed
-                    || clientData.verifySignature(request.serializedMessage,
-                    request.serializedMessageSignature)) {
+            //(requests of a proposed batch were usually verified already, see verifySignatures)
+            if (signatureVerifier.verify(request)) {
 
                 //I don't have the message but it is valid, I will
                 //insert it in the pending requests of this client
 
                 request.recvFromClient = fromClient;
-                clientData.getPendingRequests().add(request); 
+                addPendingRequest(clientData, request);
                 clientData.setLastMessageReceived(request.getSequence());
                 clientData.setLastMessageReceivedTime(request.receptionTime);
                 clientDatasTotal.getAndIncrement();
@@ -404,39 +429,68 @@ public class ClientsManager {
         return accounted;
     }
 
+    /**
+     * Adds a request to the pending requests of the client, making the client
+     * ready for the next batch if this request was not proposed yet. Must be
+     * called holding the client lock.
+     */
+    private void addPendingRequest(ClientData clientData, TOMMessage request) {
+        clientData.addPendingRequest(request);
+        if (!request.alreadyProposed) {
+            unproposedTotal.incrementAndGet();
+            if (!clientData.ready && clientData.getClientId() >= 0) {
+                clientData.ready = true;
+                readyClients.add(clientData);
+            }
+        }
+    }
+
+    /**
+     * Removes a request from the pending requests of the client. Must be called
+     * holding the client lock.
+     */
+    private boolean removePendingRequest(ClientData clientData, TOMMessage request) {
+        TOMMessage pending = clientData.removePendingRequest(request);
+        if (pending != null && !pending.alreadyProposed) {
+            unproposedTotal.decrementAndGet();
+        }
+        return pending != null;
+    }
+
     /**
      * Notifies the ClientsManager that these requests were already executed.
      * 
      * @param requests the array of requests to account as ordered
      */
     public void requestsOrdered(TOMMessage[] requests) {
-        clientsLock.lock();
        LOGGER.debug("(ClientsManager.requestOrdered) Updating client manager");
+        //stops the timers associated with these messages
+        if (timer != null) {
+            timer.unwatch(requests);
+        }
         for (TOMMessage request : requests) {
             requestOrdered(request);
         }
        LOGGER.debug("(ClientsManager.requestOrdered) Finished updating client manager");
-        clientsLock.unlock();
     }
 
     /**
      * Cleans all state for this request (e.g., removes it from the pending
-     * requests queue and stop any timer for it).
+     * requests queue). The timers of the ordered requests are stopped in
+     * batch by {@link #requestsOrdered(TOMMessage[])}.
      *
      * @param request the request ordered by the consensus
      */
     private void requestOrdered(TOMMessage request) {
-        //stops the timer associated with this message
-        if (timer != null) {
-            timer.unwatch(request);
-        }
-
         ClientData clientData = getClientData(request.getSender());
 
         clientData.clientLock.lock();
         /******* BEGIN CLIENTDATA CRITICAL SECTION ******/
-        if (!clientData.removeOrderedRequest(request)) {
+        TOMMessage pending = clientData.removeOrderedRequest(request);
+        if (pending == null) {
            LOGGER.debug("(ClientsManager.requestOrdered) Request {} does not exist in pending requests", request);
+        } else if (!pending.alreadyProposed) {
+            unproposedTotal.decrementAndGet();
         }
 
         clientDatasTotal.getAndDecrement();
@@ -453,13 +507,11 @@ public class ClientsManager {
      * @param requests the array of requests will be removed
      */
     public void requestsPending(TOMMessage[] requests) {
-        clientsLock.lock();
        LOGGER.debug("(ClientsManager.requestOrdered) Updating client manager");
         for (TOMMessage request : requests) {
             requestPending(request);
         }
        LOGGER.debug("(ClientsManager.requestOrdered) Finished updating client manager");
-        clientsLock.unlock();
     }
 
     /**
@@ -478,7 +530,7 @@ public class ClientsManager {
 
         clientData.clientLock.lock();
         /******* BEGIN CLIENTDATA CRITICAL SECTION ******/
-        if (!clientData.removePendingRequest(request)) {
+        if (!removePendingRequest(clientData, request)) {
            LOGGER.debug("(ClientsManager.requestPending) Request {} does not exist in pending requests", request);
         }
 
@@ -487,14 +539,11 @@ public class ClientsManager {
         clientData.clientLock.unlock();
     }
 
-    public ReentrantLock getClientsLock() {
-        return clientsLock;
-    }
-    
     public void clear() {
-        clientsLock.lock();
         clientsData.clear();
-        clientsLock.unlock();
+        readyClients.clear();
+        reconfigClients.clear();
+        unproposedTotal.set(0);
         LOGGER.info("ClientsManager cleared.");
 
     }
@@ -17,106 +17,398 @@ package bftsmart.clientsmanagement;
 
 import bftsmart.tom.core.messages.TOMMessage;
 
+import java.util.AbstractCollection;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
- * Extended LinkedList used to store pending requests issued by a client.
+ * List of requests used to store pending requests issued by a client, kept in
+ * arrival order.
+ * <p>
+ * Requests are linked in a deque and indexed by id and by sequence, so lookups
+ * and removals of a given request don't need to scan the list. A cursor
+ * remembers the oldest request which may not have been proposed yet, so
+ * {@link #proposeNext()} does not re-scan the requests already proposed.
  *
  * @author alysson
  */
-public class RequestList extends LinkedList<TOMMessage> {
-	
-	private static final long serialVersionUID = -3639222602426147629L;
-	
-	private int maxSize = Integer.MAX_VALUE;
+public class RequestList extends AbstractCollection<TOMMessage> {
+
+    private int maxSize = Integer.MAX_VALUE;
+
+    private Node head;
+    private Node tail;
+    private int size;
+    private int modCount;
+
+    // every request before the cursor was already proposed
+    private Node cursor;
+
+    private final Map<Integer, Node> idIndex = new HashMap<>();
+    private final Map<Integer, Node> sequenceIndex = new HashMap<>();
 
     public RequestList() {
     }
 
     public RequestList(int maxSize) {
-        super();
         this.maxSize = maxSize;
     }
 
     @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(TOMMessage msg) {
+        addLast(msg);
+        return true;
+    }
+
     public void addLast(TOMMessage msg) {
-        super.addLast(msg);
-        if(size() > maxSize) {
-            super.removeFirst();
+        Node node = new Node(msg);
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+            node.prev = tail;
+        }
+        tail = node;
+        size++;
+        modCount++;
+
+        linkToIndex(idIndex, msg.getId(), node);
+        linkToIndex(sequenceIndex, msg.getSequence(), node);
+
+        if (cursor == null && !msg.alreadyProposed) {
+            cursor = node;
+        }
+
+        if (size > maxSize) {
+            removeFirst();
+        }
+    }
+
+    public TOMMessage getFirst() {
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        return head.msg;
+    }
+
+    public TOMMessage getLast() {
+        if (tail == null) {
+            throw new NoSuchElementException();
+        }
+        return tail.msg;
+    }
+
+    public TOMMessage removeFirst() {
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        TOMMessage msg = head.msg;
+        unlink(head);
+        return msg;
+    }
+
+    /**
+     * Takes the oldest request which was not proposed yet and marks it as
+     * proposed.
+     *
+     * @return the request, or null if all requests were already proposed
+     */
+    public TOMMessage proposeNext() {
+        Node node = skipProposed(cursor);
+        if (node == null) {
+            cursor = null;
+            return null;
+        }
+        node.msg.alreadyProposed = true;
+        cursor = node.next;
+        return node.msg;
+    }
+
+    /**
+     * Marks a proposed request as not proposed again, e.g. because the consensus
+     * instance that proposed it was discarded. The cursor goes back to the head
+     * of the list, so the request is taken again in arrival order.
+     *
+     * @param request the request to propose again
+     * @return the pending instance, or null if there is no such request or it was
+     *         not proposed
+     */
+    public TOMMessage unpropose(TOMMessage request) {
+        Node node = find(request);
+        if (node == null || !node.msg.alreadyProposed) {
+            return null;
+        }
+        node.msg.alreadyProposed = false;
+        cursor = head;
+        return node.msg;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof TOMMessage)) {
+            return false;
+        }
+        return removeEqual((TOMMessage) o) != null;
+    }
+
+    /**
+     * Removes the request equal to the given one.
+     *
+     * @param request the request to remove
+     * @return the instance that was removed, or null if there was none
+     */
+    public TOMMessage removeEqual(TOMMessage request) {
+        Node node = find(request);
+        if (node == null) {
+            return null;
         }
+        unlink(node);
+        return node.msg;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof TOMMessage)) {
+            return false;
+        }
+        return find((TOMMessage) o) != null;
+    }
+
+    @Override
+    public void clear() {
+        head = null;
+        tail = null;
+        cursor = null;
+        size = 0;
+        modCount++;
+        idIndex.clear();
+        sequenceIndex.clear();
     }
 
     public TOMMessage remove(byte[] serializedMessage) {
-        for(ListIterator<TOMMessage> li = listIterator(); li.hasNext(); ) {
-            TOMMessage msg = li.next();
-            if(Arrays.equals(serializedMessage,msg.serializedMessage)) {
-                li.remove();
-                return msg;
-            }
+        Node node = find(serializedMessage);
+        if (node == null) {
+            return null;
         }
-        return null;
+        unlink(node);
+        return node.msg;
     }
 
-    public TOMMessage removeById(int id){
-        for(ListIterator<TOMMessage> li = listIterator(); li.hasNext(); ) {
-            TOMMessage msg = li.next();
-            if(msg.getId() == id) {
-                li.remove();
-                return msg;
-            }
+    public TOMMessage removeById(int id) {
+        Node node = idIndex.get(id);
+        if (node == null) {
+            return null;
         }
-        return null;
+        unlink(node);
+        return node.msg;
     }
 
      // I think this method can be removed in future versions of JBP
-    public int[] getIds(){
-        int ids[] = new int[size()];
-        for(int i = 0; i < ids.length; i++){
-            ids[i] = get(i).getId();
+    public int[] getIds() {
+        int ids[] = new int[size];
+        int i = 0;
+        for (Node node = head; node != null; node = node.next) {
+            ids[i++] = node.msg.getId();
         }
-
         return ids;
     }
 
-    public TOMMessage get(byte[] serializedMessage){
-        for(ListIterator<TOMMessage> li = listIterator(); li.hasNext(); ) {
-            TOMMessage msg = li.next();
-            if(Arrays.equals(serializedMessage,msg.serializedMessage)) {
-                return msg;
+    public TOMMessage get(byte[] serializedMessage) {
+        Node node = find(serializedMessage);
+        return node == null ? null : node.msg;
+    }
+
+    public TOMMessage getById(int id) {
+        Node node = idIndex.get(id);
+        return node == null ? null : node.msg;
+    }
+
+    public TOMMessage getBySequence(int sequence) {
+        Node node = sequenceIndex.get(sequence);
+        return node == null ? null : node.msg;
+    }
+
+    public boolean contains(int id) {
+        return idIndex.containsKey(id);
+    }
+
+    @Override
+    public Iterator<TOMMessage> iterator() {
+        return new Itr();
+    }
+
+    private static Node skipProposed(Node node) {
+        while (node != null && node.msg.alreadyProposed) {
+            node = node.next;
+        }
+        return node;
+    }
+
+    private Node find(TOMMessage request) {
+        for (Node node = idIndex.get(request.getId()); node != null; node = node.sameId.next) {
+            if (request.equals(node.msg)) {
+                return node;
             }
         }
         return null;
     }
 
-
-    public TOMMessage getById(int id){
-        for(ListIterator<TOMMessage> li = listIterator(); li.hasNext(); ) {
-            TOMMessage msg = li.next();
-            if(msg.getId() == id) {
-                return msg;
+    /**
+     * Finds the request with the given serialized form, looking it up by the id
+     * read from the header of the serialized message.
+     */
+    private Node find(byte[] serializedMessage) {
+        if (serializedMessage == null || serializedMessage.length < 20) {
+            return null;
+        }
+        for (Node node = idIndex.get(TOMMessage.getId(serializedMessage)); node != null; node = node.sameId.next) {
+            if (Arrays.equals(serializedMessage, node.msg.getSerializedMessage())) {
+                return node;
             }
         }
         return null;
     }
-    
-    public TOMMessage getBySequence(int sequence){
-        for(ListIterator<TOMMessage> li = listIterator(); li.hasNext(); ) {
-            TOMMessage msg = li.next();
-            if(msg.getSequence() == sequence) {
-                return msg;
+
+    /**
+     * Appends the node to the chain of nodes with the same key, keeping the
+     * oldest node as the head of the chain. A sequence chain holds the requests
+     * of different sessions or clients with the same sequence, as in the batches
+     * of several clients. An id chain holds the requests whose sender, session
+     * and sequence hash to the same id, and the copies of a request added again.
+     * The head of a chain remembers its last node, so appending does not walk
+     * the chain.
+     */
+    private void linkToIndex(Map<Integer, Node> index, int key, Node node) {
+        Node first = index.putIfAbsent(key, node);
+        Link link = node.link(index);
+        if (first == null) {
+            link.last = node;
+        } else {
+            Link firstLink = first.link(index);
+            Node last = firstLink.last;
+            last.link(index).next = node;
+            link.prev = last;
+            firstLink.last = node;
+        }
+    }
+
+    private void unlinkFromIndex(Map<Integer, Node> index, int key, Node node) {
+        Link link = node.link(index);
+        Node prev = link.prev;
+        Node next = link.next;
+        if (prev == null) {
+            if (next == null) {
+                index.remove(key);
+            } else {
+                next.link(index).prev = null;
+                next.link(index).last = link.last;
+                index.put(key, next);
+            }
+        } else {
+            prev.link(index).next = next;
+            if (next == null) {
+                index.get(key).link(index).last = prev;
+            } else {
+                next.link(index).prev = prev;
             }
         }
-        return null;
+        link.prev = null;
+        link.next = null;
+        link.last = null;
     }
-    public boolean contains(int id){
-        for(ListIterator<TOMMessage> li = listIterator(); li.hasNext(); ) {
-            TOMMessage msg = li.next();
-            if(msg.getId() == id) {
-                return true;
+
+    private void unlink(Node node) {
+        if (cursor == node) {
+            cursor = node.next;
+        }
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        unlinkFromIndex(idIndex, node.msg.getId(), node);
+        unlinkFromIndex(sequenceIndex, node.msg.getSequence(), node);
+        size--;
+        modCount++;
+    }
+
+    private final class Node {
+
+        private final TOMMessage msg;
+        private Node prev;
+        private Node next;
+        private final Link sameId = new Link();
+        private final Link sameSequence = new Link();
+
+        private Node(TOMMessage msg) {
+            this.msg = msg;
+        }
+
+        private Link link(Map<Integer, Node> index) {
+            return index == idIndex ? sameId : sameSequence;
+        }
+    }
+
+    /**
+     * Links of a node in the chain of nodes with the same key; only the head of
+     * the chain keeps the last node.
+     */
+    private static final class Link {
+
+        private Node prev;
+        private Node next;
+        private Node last;
+    }
+
+    private final class Itr implements Iterator<TOMMessage> {
+
+        private Node next = head;
+        private Node lastReturned;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public TOMMessage next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next;
+            next = next.next;
+            return lastReturned.msg;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
             }
+            unlink(lastReturned);
+            lastReturned = null;
+            expectedModCount = modCount;
         }
-        return false;
     }
 }
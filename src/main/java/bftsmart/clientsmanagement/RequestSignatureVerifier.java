@@ -0,0 +1,164 @@
+package bftsmart.clientsmanagement;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bftsmart.consensus.app.SHA256Utils;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.util.SignatureScheme;
+
+/**
+ * 客户端请求的签名验证器；
+ * <p>
+ *
+ * 1. 按客户端公钥的类型确定签名方案（{@link SignatureScheme}），每个线程使用各自的签名实例，不同客户端、同一客户端的请求都可以并发验证；<br>
+ * 2. 验证通过的请求按序列化消息连同签名的哈希缓存，从客户端接入时已验证的请求出现在领导者的提议中时不再重复验证；<br>
+ * 签名不同的同一消息不会命中缓存，领导者不能以伪造的签名替换已验证的签名；<br>
+ * 缓存只记录验证通过的结果，按加入的先后顺序淘汰超出容量的记录；<br>
+ * 3. 提议中的一批请求通过 {@link #verifyAll(TOMMessage[])} 并行验证，其中未签名的请求视为无效；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class RequestSignatureVerifier {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RequestSignatureVerifier.class);
+
+	/**
+	 * 默认缓存的已验证请求数；
+	 */
+	public static final int DEFAULT_CACHE_CAPACITY = 65536;
+
+	private static final SHA256Utils HASH = new SHA256Utils();
+
+	private final IntFunction<PublicKey> publicKeys;
+
+	private final int cacheCapacity;
+
+	private final Map<ByteBuffer, Boolean> verified = new ConcurrentHashMap<ByteBuffer, Boolean>();
+
+	private final Queue<ByteBuffer> verifiedOrder = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	private final AtomicInteger cacheSize = new AtomicInteger();
+
+	/**
+	 * @param publicKeys    根据客户端 ID 返回其公钥；未知的客户端返回 null；
+	 * @param cacheCapacity 缓存的已验证请求数；为 0 时不缓存；
+	 */
+	public RequestSignatureVerifier(IntFunction<PublicKey> publicKeys, int cacheCapacity) {
+		if (cacheCapacity < 0) {
+			throw new IllegalArgumentException("Negative cache capacity!");
+		}
+		this.publicKeys = publicKeys;
+		this.cacheCapacity = cacheCapacity;
+	}
+
+	/**
+	 * 验证请求的签名；未签名的请求视为有效；
+	 *
+	 * @param request
+	 * @return
+	 */
+	public boolean verify(TOMMessage request) {
+		if (!request.signed) {
+			return true;
+		}
+		byte[] message = request.getSerializedMessage();
+		byte[] signature = request.serializedMessageSignature;
+		if (message == null || signature == null) {
+			return false;
+		}
+		// 以消息的长度分隔消息和签名，不同的切分不会得到相同的哈希；
+		ByteBuffer digest = cacheCapacity == 0 ? null
+				: ByteBuffer.wrap(HASH.hash((ByteBuffer) ByteBuffer.allocate(4).putInt(message.length).flip(),
+						ByteBuffer.wrap(message), ByteBuffer.wrap(signature)));
+		if (digest != null && verified.containsKey(digest)) {
+			return true;
+		}
+
+		PublicKey publicKey = publicKeys.apply(request.getSender());
+		if (publicKey == null || !verify(publicKey, message, signature)) {
+			return false;
+		}
+		if (digest != null) {
+			cache(digest);
+		}
+		return true;
+	}
+
+	/**
+	 * 并行验证一批请求的签名；
+	 * <p>
+	 *
+	 * 用于验证启用签名时领导者提议的请求：提议中的请求都必须带有签名，未签名的请求视为无效，以免领导者去掉签名绕过验证；
+	 *
+	 * @param requests
+	 * @return 全部请求都已签名且签名有效时返回 true；
+	 */
+	public boolean verifyAll(TOMMessage[] requests) {
+		if (requests.length < 2) {
+			return requests.length == 0 || verifySigned(requests[0]);
+		}
+		return IntStream.range(0, requests.length).parallel().allMatch(i -> verifySigned(requests[i]));
+	}
+
+	private boolean verifySigned(TOMMessage request) {
+		if (!request.signed) {
+			LOGGER.warn("Unsigned request from client {} with sequence number {}", request.getSender(),
+					request.getSequence());
+			return false;
+		}
+		return verify(request);
+	}
+
+	/**
+	 * 已缓存的验证结果数；
+	 *
+	 * @return
+	 */
+	public int getCacheSize() {
+		return cacheSize.get();
+	}
+
+	private void cache(ByteBuffer digest) {
+		if (verified.putIfAbsent(digest, Boolean.TRUE) != null) {
+			return;
+		}
+		verifiedOrder.offer(digest);
+		if (cacheSize.incrementAndGet() > cacheCapacity) {
+			ByteBuffer eldest = verifiedOrder.poll();
+			if (eldest != null) {
+				verified.remove(eldest);
+				cacheSize.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * 以当前线程的签名实例验证签名；不缓存结果；
+	 *
+	 * @param publicKey
+	 * @param message
+	 * @param signature
+	 * @return
+	 */
+	public static boolean verify(PublicKey publicKey, byte[] message, byte[] signature) {
+		try {
+			return SignatureScheme.of(publicKey).verify(publicKey, message, signature);
+		} catch (Exception e) {
+			LOGGER.warn("Error occurred while verifying the signature of client request! --" + e.getMessage(), e);
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package bftsmart.communication;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bftsmart.communication.impl.MessageListener;
+import bftsmart.consensus.messages.ConsensusMessage;
+
+/**
+ * 共识消息分发器；
+ * <p>
+ *
+ * 按共识编号（cid）把共识消息分配到固定的工作线程：同一共识的消息总是由同一线程按接收顺序处理，不同共识的消息可并行处理；<br>
+ * 同一共识内的并发控制仍由 {@link bftsmart.consensus.Consensus#lock} 负责；
+ *
+ * @author huanghaiquan
+ *
+ */
+class ConsensusMessageDispatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConsensusMessageDispatcher.class);
+
+	private final Worker[] workers;
+
+	private final MessageListener listener;
+
+	private volatile boolean doWork = false;
+
+	/**
+	 * @param workerCount   工作线程数；
+	 * @param queueCapacity 每个工作线程的待处理消息队列的容量；队列已满时分发操作将阻塞；
+	 * @param listener      消息处理器；
+	 */
+	public ConsensusMessageDispatcher(int workerCount, int queueCapacity, MessageListener listener) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("The number of consensus workers is less than 1!");
+		}
+		this.listener = listener;
+		this.workers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Worker(i, queueCapacity);
+		}
+	}
+
+	public int getWorkerCount() {
+		return workers.length;
+	}
+
+	public synchronized void start() {
+		if (doWork) {
+			return;
+		}
+		doWork = true;
+		for (Worker worker : workers) {
+			worker.start();
+		}
+	}
+
+	public synchronized void stop() {
+		if (!doWork) {
+			return;
+		}
+		doWork = false;
+		for (Worker worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * 分发共识消息；
+	 * <p>
+	 *
+	 * 工作线程的队列已满时阻塞，直到有空间为止；
+	 *
+	 * @param message
+	 * @throws InterruptedException
+	 */
+	public void dispatch(ConsensusMessage message) throws InterruptedException {
+		workers[indexOf(message.getNumber(), workers.length)].queue.put(message);
+	}
+
+	/**
+	 * 返回处理指定共识的工作线程的序号；
+	 *
+	 * @param cid         共识编号；
+	 * @param workerCount 工作线程数；
+	 * @return
+	 */
+	static int indexOf(int cid, int workerCount) {
+		return Math.floorMod(cid, workerCount);
+	}
+
+	private class Worker extends Thread {
+
+		private final BlockingQueue<ConsensusMessage> queue;
+
+		private Worker(int index, int queueCapacity) {
+			super("CONSENSUS-WORKER-[" + index + "]");
+			this.queue = new LinkedBlockingQueue<ConsensusMessage>(queueCapacity);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (doWork) {
+				ConsensusMessage message;
+				try {
+					message = queue.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				try {
+					listener.onReceived(message);
+				} catch (Throwable e) {
+					LOGGER.error("Error occurred while processing consensus message! --" + e.getMessage(), e);
+				}
+			}
+			queue.clear();
+		}
+	}
+}
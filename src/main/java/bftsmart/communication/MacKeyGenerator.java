@@ -5,8 +5,6 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.Signature;
-import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 
 import javax.crypto.Mac;
@@ -16,6 +14,8 @@ import javax.crypto.spec.PBEKeySpec;
 
 import org.bouncycastle.util.Arrays;
 
+import bftsmart.tom.util.SignatureScheme;
+
 import utils.io.BytesUtils;
 
 public class MacKeyGenerator {
@@ -89,6 +89,32 @@ public class MacKeyGenerator {
 		return dhPubKeyCert;
 	}
 
+	/**
+	 * 返回“密钥交互公钥凭证”编码的长度；
+	 * <p>
+	 *
+	 * 连接握手时凭证之后可以附加其它信息（例如支持的消息格式），旧版本的节点解析凭证时将忽略这些信息；
+	 *
+	 * @param bytes  包含“密钥交互公钥凭证”的字节数组；
+	 * @param offset 凭证的起始位置；
+	 * @return 凭证的字节数；如果数据不完整，则返回 -1；
+	 */
+	public static int getEncodedLength(byte[] bytes, int offset) {
+		if (bytes.length < offset + 4) {
+			return -1;
+		}
+		int dhPubKeyLength = BytesUtils.toInt(bytes, offset);
+		if (dhPubKeyLength <= 0 || bytes.length - offset - 8 < dhPubKeyLength) {
+			return -1;
+		}
+		int signatureLength = BytesUtils.toInt(bytes, offset + 4 + dhPubKeyLength);
+		int length = 4 + dhPubKeyLength + 4 + signatureLength;
+		if (signatureLength < 0 || bytes.length - offset < length) {
+			return -1;
+		}
+		return length;
+	}
+
 	/**
 	 * 解析并验证指定的“密钥交互公钥凭证”是否是由指定公钥代表的身份进行签发的；
 	 * 
@@ -135,29 +161,11 @@ public class MacKeyGenerator {
 	}
 
 	private static byte[] sign(PrivateKey key, byte[] bytes) {
-		try {
-			Signature signatureEngine = Signature.getInstance("SHA1withRSA");
-			signatureEngine.initSign(key);
-
-			signatureEngine.update(bytes);
-
-			byte[] signature = signatureEngine.sign();
-			return signature;
-		} catch (InvalidKeyException | NoSuchAlgorithmException | SignatureException e) {
-			throw new IllegalStateException(e.getMessage(), e);
-		}
+		return SignatureScheme.of(key).sign(key, bytes);
 	}
 
 	public static boolean verify(PublicKey key, byte[] bytes, byte[] signature) {
-		try {
-			Signature signatureEngine = Signature.getInstance("SHA1withRSA");
-			signatureEngine.initVerify(key);
-
-			signatureEngine.update(bytes);
-			return signatureEngine.verify(signature);
-		} catch (InvalidKeyException | NoSuchAlgorithmException | SignatureException e) {
-			throw new IllegalStateException(e.getMessage(), e);
-		}
+		return SignatureScheme.of(key).verify(key, bytes, signature);
 	}
 
 	private static class MacKeyEntry implements MacKey {
@@ -15,9 +15,6 @@
  */
 package bftsmart.communication;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -26,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.ConsensusMessageSerializer;
 import bftsmart.consensus.messages.MessageFactory;
 import bftsmart.consensus.roles.Acceptor;
 import bftsmart.reconfiguration.views.View;
@@ -87,26 +85,22 @@ public class MessageHandler {
 				ConsensusMessage cm = new ConsensusMessage(MessageFactory.ACCEPT, consMsg.getNumber(),
 						consMsg.getEpoch(), consMsg.getSender(), consMsg.getValue());
 
-				ByteArrayOutputStream bOut = new ByteArrayOutputStream(248);
-				try {
-					new ObjectOutputStream(bOut).writeObject(cm);
-				} catch (IOException ex) {
-					throw new IllegalStateException("Error occurred while serializing ConsensusMessage[" + cm.toString()
-							+ "]! --" + ex.getMessage(), ex);
-				}
-
-				byte[] data = bOut.toByteArray();
-
 				// byte[] hash = tomLayer.computeHash(data);
 
-				byte[] myMAC = null;
 				MacMessageCodec<SystemMessage> msgCodec = tomLayer.getCommunication().getServersCommunication().getMessageCodec(consMsg.getSender());
 				MacKey macKey = msgCodec.getMacKey();
-				if (macKey != null) {
-					myMAC = macKey.generateMac(data);
+
+				// 发送方可能采用不同的格式生成证明，依次尝试各个格式；
+				boolean macMatch = false;
+				if (recvMAC != null && macKey != null) {
+					for (int format = SystemMessageCodecRegistry.LATEST_FORMAT; !macMatch
+							&& format >= SystemMessageCodecRegistry.LEGACY_FORMAT; format--) {
+						byte[] data = ConsensusMessageSerializer.toProofData(cm, format);
+						macMatch = Arrays.equals(recvMAC, macKey.generateMac(data));
+					}
 				}
 
-				if (recvMAC != null && myMAC != null && Arrays.equals(recvMAC, myMAC))
+				if (macMatch)
 					acceptor.deliver(consMsg);
 				else {
 					LOGGER.error("(MessageHandler.processData) WARNING: invalid MAC from {}", sm.getSender());
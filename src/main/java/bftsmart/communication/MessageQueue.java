@@ -8,6 +8,7 @@ import bftsmart.tom.leaderchange.LeaderStatusRequestMessage;
 import bftsmart.tom.leaderchange.LeaderStatusResponseMessage;
 
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public interface MessageQueue {
 
@@ -21,6 +22,22 @@ public interface MessageQueue {
 	 */
 	boolean offer(SystemMessageType type, SystemMessage sm);
 
+	/**
+	 * 将从远端接收的消息放入队列；
+	 * <p>
+	 * 
+	 * 支持背压的队列在积压时通过指定的流量控制暂停读取该远端的消息，并在积压消除后恢复，而不是丢弃消息；<br>
+	 * 默认实现忽略流量控制，等同于 {@link #offer(SystemMessageType, SystemMessage)}；
+	 * 
+	 * @param type        消息类型
+	 * @param sm          消息对象
+	 * @param flowControl 消息来源的流量控制；
+	 * @return 是否放入成功
+	 */
+	default boolean offer(SystemMessageType type, SystemMessage sm, FlowControl flowControl) {
+		return offer(type, sm);
+	}
+
 	/**
 	 * 将消息放入队列中
 	 *
@@ -47,6 +64,41 @@ public interface MessageQueue {
 	 */
 	SystemMessage take(SystemMessageType type) throws InterruptedException;
 
+	/**
+	 * 批量取出指定类型的消息，不等待；
+	 * 
+	 * @param type        消息类型
+	 * @param consumer    消息的处理者；
+	 * @param maxMessages 最多取出的消息数；
+	 * @return 取出的消息数；
+	 */
+	default int drain(SystemMessageType type, Consumer<SystemMessage> consumer, int maxMessages)
+			throws InterruptedException {
+		int count = 0;
+		SystemMessage message;
+		while (count < maxMessages && (message = poll(type, 0, TimeUnit.MILLISECONDS)) != null) {
+			consumer.accept(message);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * 消息来源（远端节点的连接）的流量控制；
+	 */
+	public static interface FlowControl {
+
+		/**
+		 * 暂停读取消息；
+		 */
+		void pause();
+
+		/**
+		 * 恢复读取消息；
+		 */
+		void resume();
+	}
+
 	public static enum QueueDirection {
 		/**
 		 * Socket消息接收队列
@@ -20,6 +20,7 @@ import org.slf4j.LoggerFactory;
 
 import bftsmart.communication.client.ClientCommunicationServerSide;
 import bftsmart.communication.impl.MessageListener;
+import bftsmart.consensus.messages.ConsensusMessage;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.reconfiguration.ViewTopology;
 import bftsmart.tom.core.messages.TOMMessage;
@@ -46,6 +47,7 @@ public class ServerCommunicationSystemImpl implements ServerCommunicationSystem
 	private CommunicationLayer serversCommunication;
 	private final ClientCommunicationServerSide clientCommunication;
 	private ViewTopology controller;
+	private ConsensusMessageHandler consensusMessageHandler;
 	private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(ServerCommunicationSystemImpl.class);
 
 	/**
@@ -58,11 +60,21 @@ public class ServerCommunicationSystemImpl implements ServerCommunicationSystem
 
 	public ServerCommunicationSystemImpl(ClientCommunicationServerSide clientCommunication,
 										 MessageHandler messageHandler, ServerViewController controller, String realmName, SSLSecurity sslSecurity) {
+		this(clientCommunication, messageHandler, controller,
+				new NettyServerCommunicationLayer(realmName, controller, sslSecurity));
+	}
+
+	/**
+	 * Creates a new instance of ServerCommunicationSystem over the specified
+	 * replica-to-replica communication layer, e.g. an in-memory one for tests.
+	 */
+	public ServerCommunicationSystemImpl(ClientCommunicationServerSide clientCommunication,
+										 MessageHandler messageHandler, ServerViewController controller, CommunicationLayer serversCommunication) {
 		this.clientCommunication = clientCommunication;
 		this.messageHandler = messageHandler;
 		this.controller = controller;
 
-		this.serversCommunication = new NettyServerCommunicationLayer(realmName, controller, sslSecurity);
+		this.serversCommunication = serversCommunication;
 
 		// 创建消息处理器
 		// 遍历枚举类
@@ -70,7 +82,10 @@ public class ServerCommunicationSystemImpl implements ServerCommunicationSystem
 			MessageHandlerAdapter handler;
 			switch (msgType) {
 			case CONSENSUS:
-				handler = new ConsensusMessageHandler(messageHandler);
+				consensusMessageHandler = new ConsensusMessageHandler(messageHandler,
+						controller.getStaticConf().getConsensusWorkers(),
+						controller.getStaticConf().getInQueueSize());
+				handler = consensusMessageHandler;
 				break;
 			case HEART:
 				handler = new HeartbeatMessageHandler(messageHandler);
@@ -108,6 +123,7 @@ public class ServerCommunicationSystemImpl implements ServerCommunicationSystem
 		}
 
 		messageHandler.getAcceptor().start();
+		consensusMessageHandler.start();
 	}
 
 	/**
@@ -196,6 +212,7 @@ public class ServerCommunicationSystemImpl implements ServerCommunicationSystem
 			LOGGER.warn("Server Connections shutdown error of node[" + controller.getCurrentProcessId() + "]! --"
 					+ e.getMessage(), e);
 		}
+		consensusMessageHandler.stop();
 		try {
 			messageHandler.getAcceptor().shutdown();
 		} catch (Exception e) {
@@ -242,18 +259,50 @@ public class ServerCommunicationSystemImpl implements ServerCommunicationSystem
 
 		private MessageHandler messageHandler;
 
-		public ConsensusMessageHandler(MessageHandler messageHandler) {
+		/**
+		 * 多线程处理共识消息时的分发器；单线程处理时为 null；
+		 */
+		private ConsensusMessageDispatcher dispatcher;
+
+		public ConsensusMessageHandler(MessageHandler messageHandler, int workers, int queueCapacity) {
 			super(MessageQueue.SystemMessageType.CONSENSUS);
 			this.messageHandler = messageHandler;
+			if (workers > 1) {
+				this.dispatcher = new ConsensusMessageDispatcher(workers, queueCapacity, new MessageListener() {
+					@Override
+					public void onReceived(SystemMessage message) {
+						ConsensusMessageHandler.this.messageHandler.processData(message);
+					}
+				});
+			}
 		}
 
 		@Override
 		protected void processMessage(SystemMessage sm) {
-			if (sm != null) {
-				messageHandler.processData(sm);
-			} else {
+			if (sm == null) {
 				// TODO: 优化潜在缺陷：当不传入 null 值的时候将不会触发对过期消息的处理；
 				messageHandler.verifyPending();
+			} else if (dispatcher == null) {
+				messageHandler.processData(sm);
+			} else {
+				try {
+					dispatcher.dispatch((ConsensusMessage) sm);
+				} catch (InterruptedException e) {
+					LOGGER.warn("Consensus message[{}] from node[{}] is dropped because of interruption!",
+							((ConsensusMessage) sm).getNumber(), sm.getSender());
+				}
+			}
+		}
+
+		private void start() {
+			if (dispatcher != null) {
+				dispatcher.start();
+			}
+		}
+
+		private void stop() {
+			if (dispatcher != null) {
+				dispatcher.stop();
 			}
 		}
 	}
@@ -2,7 +2,6 @@ package bftsmart.communication;
 
 import utils.io.BytesUtils;
 import utils.io.NumberMask;
-import utils.serialize.binary.BinarySerializeUtils;
 
 public class SystemMessageCodec implements MacMessageCodec<SystemMessage> {
 
@@ -13,6 +12,8 @@ public class SystemMessageCodec implements MacMessageCodec<SystemMessage> {
 	private boolean useMac;
 	private volatile MacKey macKey;
 
+	private volatile int format = SystemMessageCodecRegistry.LATEST_FORMAT;
+
 	public SystemMessageCodec() {
 	}
 
@@ -41,6 +42,38 @@ public class SystemMessageCodec implements MacMessageCodec<SystemMessage> {
 		this.useMac = useMac;
 	}
 
+	/**
+	 * 编码消息时采用的序列化格式；解码时自动识别格式；
+	 * 
+	 * @return
+	 */
+	public int getFormat() {
+		return format;
+	}
+
+	/**
+	 * 设置编码消息时采用的序列化格式，通常是连接建立时与远端协商的结果；
+	 * 
+	 * @param format {@link SystemMessageCodecRegistry#LEGACY_FORMAT} 或
+	 *               {@link SystemMessageCodecRegistry#BINARY_FORMAT}；
+	 */
+	public void setFormat(int format) {
+		if (format < SystemMessageCodecRegistry.LEGACY_FORMAT || format > SystemMessageCodecRegistry.LATEST_FORMAT) {
+			throw new IllegalArgumentException("Unsupported message format[" + format + "]!");
+		}
+		this.format = format;
+	}
+
+	/**
+	 * 已序列化的消息是否可以直接由此编解码器编码输出，即消息的格式不高于此编解码器采用的格式；
+	 * 
+	 * @param messageBytes 由 {@link #serialize(SystemMessage)} 输出的消息字节；
+	 * @return
+	 */
+	public boolean isCompatible(byte[] messageBytes) {
+		return SystemMessageCodecRegistry.formatOf(messageBytes, 0) <= format;
+	}
+
 	/**
 	 * 编码系统消息；
 	 * <p>
@@ -53,15 +86,43 @@ public class SystemMessageCodec implements MacMessageCodec<SystemMessage> {
 	 */
 	@Override
 	public byte[] encode(SystemMessage message) {
-		byte[] messageBytes = BinarySerializeUtils.serialize(message);
+		return encodeSerialized(serialize(message, format));
+	}
 
-		byte[] macBytes = BytesUtils.EMPTY_BYTES;
-		if (useMac) {
-			if (macKey == null) {
-				throw new IllegalStateException("Mac key is not ready!");
-			}
-			macBytes = macKey.generateMac(messageBytes);
-		}
+	/**
+	 * 序列化系统消息；
+	 * <p>
+	 * 
+	 * 广播时消息只需序列化一次，再由各个连接通过 {@link #encodeSerialized(byte[])} 或
+	 * {@link #encodeMacTrailer(byte[])} 附加各自的 MAC；<br>
+	 * 采用当前版本支持的最高格式；对于协商了较低格式的连接，需先通过 {@link #isCompatible(byte[])} 检查；
+	 * 
+	 * @param message
+	 * @return
+	 */
+	public static byte[] serialize(SystemMessage message) {
+		return serialize(message, SystemMessageCodecRegistry.LATEST_FORMAT);
+	}
+
+	/**
+	 * 以指定的格式序列化系统消息；
+	 * 
+	 * @param message
+	 * @param format
+	 * @return
+	 */
+	public static byte[] serialize(SystemMessage message, int format) {
+		return SystemMessageCodecRegistry.getDefault().serialize(message, format);
+	}
+
+	/**
+	 * 编码已序列化的系统消息，输出格式同 {@link #encode(SystemMessage)}；
+	 * 
+	 * @param messageBytes 由 {@link #serialize(SystemMessage)} 输出的消息字节；
+	 * @return
+	 */
+	public byte[] encodeSerialized(byte[] messageBytes) {
+		byte[] macBytes = generateMac(messageBytes);
 		int messageSize = messageBytes.length;
 		byte macSize = (byte) macBytes.length;
 
@@ -80,6 +141,47 @@ public class SystemMessageCodec implements MacMessageCodec<SystemMessage> {
 		return outputBytes;
 	}
 
+	/**
+	 * 编码消息长度头，即 {@link #encode(SystemMessage)} 输出的第 1 部分；
+	 * 
+	 * @param messageBytes 已序列化的消息字节；
+	 * @return
+	 */
+	public byte[] encodeHeader(byte[] messageBytes) {
+		byte[] headerBytes = new byte[MESSAGE_HEADER_SIZE];
+		BytesUtils.toBytes_BigEndian(messageBytes.length, headerBytes, 0);
+		return headerBytes;
+	}
+
+	/**
+	 * 编码 MAC 长度头和 MAC 内容，即 {@link #encode(SystemMessage)} 输出的第 3、4 部分；
+	 * <p>
+	 * 
+	 * 按顺序输出 {@link #encodeHeader(byte[])}、消息字节和此方法的结果，与
+	 * {@link #encodeSerialized(byte[])} 的输出一致，但无需复制消息字节；
+	 * 
+	 * @param messageBytes 已序列化的消息字节；
+	 * @return
+	 */
+	public byte[] encodeMacTrailer(byte[] messageBytes) {
+		byte[] macBytes = generateMac(messageBytes);
+		byte[] trailerBytes = new byte[MAC_HEADER_SIZE + macBytes.length];
+		trailerBytes[0] = (byte) macBytes.length;
+		System.arraycopy(macBytes, 0, trailerBytes, MAC_HEADER_SIZE, macBytes.length);
+		return trailerBytes;
+	}
+
+	private byte[] generateMac(byte[] messageBytes) {
+		if (!useMac) {
+			return BytesUtils.EMPTY_BYTES;
+		}
+		MacKey key = macKey;
+		if (key == null) {
+			throw new IllegalStateException("Mac key is not ready!");
+		}
+		return key.generateMac(messageBytes);
+	}
+
 	@Override
 	public synchronized SystemMessage decode(byte[] encodedMessageBytes)
 			throws MessageAuthenticationException, IllegalMessageException {
@@ -112,7 +214,8 @@ public class SystemMessageCodec implements MacMessageCodec<SystemMessage> {
 			}
 		}
 
-		SystemMessage sm = BinarySerializeUtils.deserialize(encodedMessageBytes, MESSAGE_HEADER_SIZE, messageSize);
+		SystemMessage sm = SystemMessageCodecRegistry.getDefault().deserialize(encodedMessageBytes,
+				MESSAGE_HEADER_SIZE, messageSize);
 		sm.authenticated = useMac;
 		return sm;
 	}
@@ -0,0 +1,346 @@
+package bftsmart.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.ConsensusMessageSerializer;
+import bftsmart.statemanagement.strategy.StandardSMMessage;
+import bftsmart.statemanagement.strategy.StandardSMMessageSerializer;
+import bftsmart.statemanagement.strategy.durability.CSTSMMessage;
+import bftsmart.statemanagement.strategy.durability.CSTSMMessageSerializer;
+import bftsmart.tom.core.messages.ForwardedMessage;
+import bftsmart.tom.core.messages.ForwardedMessageSerializer;
+import bftsmart.tom.leaderchange.HeartBeatMessage;
+import bftsmart.tom.leaderchange.HeartBeatMessageSerializer;
+import bftsmart.tom.leaderchange.LCMessage;
+import bftsmart.tom.leaderchange.LCMessageSerializer;
+import utils.serialize.binary.BinarySerializeUtils;
+
+/**
+ * 系统消息的序列化格式注册表；
+ * <p>
+ *
+ * 支持两种格式：<br>
+ * 1. {@link #LEGACY_FORMAT}：Java 对象序列化，输出以 Java 序列化流的魔数 0xACED 开头；<br>
+ * 2. {@link #BINARY_FORMAT}：手写的二进制格式，输出为“格式版本(1字节) + 类型标签(1字节) + 消息字段”；
+ * <p>
+ *
+ * 序列化的结果是自描述的，反序列化时根据首字节识别格式，因此总能解析两种格式；<br>
+ * 未注册序列化器的消息类型总是采用 {@link #LEGACY_FORMAT}；
+ * <p>
+ *
+ * 连接建立时双方交换各自支持的最高格式版本，发送时采用双方都支持的格式，以便不同版本的节点在升级期间可以互通；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class SystemMessageCodecRegistry {
+
+	/**
+	 * Java 对象序列化格式；
+	 */
+	public static final int LEGACY_FORMAT = 0;
+
+	/**
+	 * 二进制格式；
+	 */
+	public static final int BINARY_FORMAT = 1;
+
+	/**
+	 * 当前版本支持的最高格式；
+	 */
+	public static final int LATEST_FORMAT = BINARY_FORMAT;
+
+	private static final int MAX_TAG = 255;
+
+	private static final int BINARY_HEADER_SIZE = 2;
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	private static final SystemMessageCodecRegistry DEFAULT = createDefault();
+
+	private final Map<Class<?>, Entry<?>> entriesByType = new ConcurrentHashMap<Class<?>, Entry<?>>();
+
+	private volatile Entry<?>[] entriesByTag = new Entry<?>[MAX_TAG + 1];
+
+	/**
+	 * 默认的注册表，已注册 {@link ConsensusMessage}、{@link HeartBeatMessage}、{@link LCMessage}、
+	 * {@link ForwardedMessage}、{@link StandardSMMessage} 和 {@link CSTSMMessage}；
+	 *
+	 * @return
+	 */
+	public static SystemMessageCodecRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	private static SystemMessageCodecRegistry createDefault() {
+		SystemMessageCodecRegistry registry = new SystemMessageCodecRegistry();
+		// 类型标签写入了消息，一经分配不能修改；
+		registry.register(1, ConsensusMessage.class, new ConsensusMessageSerializer());
+		registry.register(2, HeartBeatMessage.class, new HeartBeatMessageSerializer());
+		registry.register(3, LCMessage.class, new LCMessageSerializer());
+		registry.register(4, ForwardedMessage.class, new ForwardedMessageSerializer());
+		registry.register(5, StandardSMMessage.class, new StandardSMMessageSerializer());
+		registry.register(6, CSTSMMessage.class, new CSTSMMessageSerializer());
+		return registry;
+	}
+
+	/**
+	 * 注册消息类型的序列化器；
+	 * <p>
+	 *
+	 * 只匹配指定的类型，不匹配其子类；
+	 *
+	 * @param tag        类型标签，取值范围 [1 - 255]；
+	 * @param type       消息类型；
+	 * @param serializer 序列化器；
+	 */
+	public synchronized <T extends SystemMessage> void register(int tag, Class<T> type,
+			SystemMessageSerializer<T> serializer) {
+		if (tag < 1 || tag > MAX_TAG) {
+			throw new IllegalArgumentException("The tag of message type is out of range[1 - 255]! --" + tag);
+		}
+		if (entriesByTag[tag] != null) {
+			throw new IllegalStateException("The tag[" + tag + "] has been registered by message type["
+					+ entriesByTag[tag].type.getName() + "]!");
+		}
+		if (entriesByType.containsKey(type)) {
+			throw new IllegalStateException("The message type[" + type.getName() + "] has been registered!");
+		}
+		Entry<T> entry = new Entry<T>(tag, type, serializer);
+		Entry<?>[] entries = entriesByTag.clone();
+		entries[tag] = entry;
+		entriesByTag = entries;
+		entriesByType.put(type, entry);
+	}
+
+	/**
+	 * 以指定的格式序列化消息；
+	 * <p>
+	 *
+	 * 消息类型未注册序列化器时采用 {@link #LEGACY_FORMAT}；
+	 *
+	 * @param message
+	 * @param format
+	 * @return
+	 */
+	public byte[] serialize(SystemMessage message, int format) {
+		if (format >= BINARY_FORMAT) {
+			Entry<?> entry = entriesByType.get(message.getClass());
+			if (entry != null) {
+				return serializeBinary(entry, message);
+			}
+		}
+		return BinarySerializeUtils.serialize(message);
+	}
+
+	private static <T extends SystemMessage> byte[] serializeBinary(Entry<T> entry, SystemMessage message) {
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+		DataOutputStream out = new DataOutputStream(bytesOut);
+		try {
+			out.writeByte(BINARY_FORMAT);
+			out.writeByte(entry.tag);
+			entry.serializer.write(entry.type.cast(message), out);
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("Error occurred while serializing message[" + message.getClass().getName()
+					+ "]! --" + e.getMessage(), e);
+		}
+		return bytesOut.toByteArray();
+	}
+
+	/**
+	 * 反序列化消息，自动识别消息的格式；
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws IllegalMessageException
+	 */
+	public SystemMessage deserialize(byte[] bytes, int offset, int length) throws IllegalMessageException {
+		if (length < 1) {
+			throw new IllegalMessageException("The serialized message is empty!");
+		}
+		if (formatOf(bytes, offset) == LEGACY_FORMAT) {
+			return BinarySerializeUtils.deserialize(bytes, offset, length);
+		}
+		if (length < BINARY_HEADER_SIZE) {
+			throw new IllegalMessageException("Too short length of serialized message!");
+		}
+		int tag = 0xFF & bytes[offset + 1];
+		Entry<?> entry = entriesByTag[tag];
+		if (entry == null) {
+			throw new IllegalMessageException("Unknown message type tag[" + tag + "]!");
+		}
+		DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(bytes, offset + BINARY_HEADER_SIZE, length - BINARY_HEADER_SIZE));
+		try {
+			return entry.serializer.read(in);
+		} catch (IOException | RuntimeException e) {
+			throw new IllegalMessageException("Illegal serialized message of type[" + entry.type.getName() + "]! --"
+					+ e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * 返回序列化消息的格式；
+	 *
+	 * @param bytes
+	 * @param offset 序列化消息的起始位置；
+	 * @return
+	 */
+	public static int formatOf(byte[] bytes, int offset) {
+		return bytes[offset] == BINARY_FORMAT ? BINARY_FORMAT : LEGACY_FORMAT;
+	}
+
+	/**
+	 * 返回双方都支持的格式；
+	 *
+	 * @param localFormat  本地支持的最高格式；
+	 * @param remoteFormat 远端支持的最高格式；
+	 * @return
+	 */
+	public static int negotiate(int localFormat, int remoteFormat) {
+		return Math.max(LEGACY_FORMAT, Math.min(LATEST_FORMAT, Math.min(localFormat, remoteFormat)));
+	}
+
+	// ---------------- 供各个消息的序列化器使用的工具方法 ----------------
+
+	/**
+	 * 输出字节数组，允许为 null；
+	 *
+	 * @param bytes
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeBytes(byte[] bytes, DataOutput out) throws IOException {
+		if (bytes == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * 读取由 {@link #writeBytes(byte[], DataOutput)} 输出的字节数组；
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] readBytes(DataInput in) throws IOException {
+		int length = readLength(in);
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * 输出整数数组，允许为 null；
+	 *
+	 * @param values
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeInts(int[] values, DataOutput out) throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	/**
+	 * 读取由 {@link #writeInts(int[], DataOutput)} 输出的整数数组；
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static int[] readInts(DataInput in) throws IOException {
+		int length = readLength(in);
+		if (length < 0) {
+			return null;
+		}
+		int[] values = new int[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	/**
+	 * 以 Java 对象序列化输出对象，允许为 null；
+	 * <p>
+	 * 只用于非性能关键的字段，例如状态传输的应用状态；
+	 *
+	 * @param obj
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeObject(Object obj, DataOutput out) throws IOException {
+		writeBytes(obj == null ? null : BinarySerializeUtils.serialize(obj), out);
+	}
+
+	/**
+	 * 读取由 {@link #writeObject(Object, DataOutput)} 输出的对象；
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static <T> T readObject(DataInput in) throws IOException {
+		byte[] bytes = readBytes(in);
+		if (bytes == null) {
+			return null;
+		}
+		return BinarySerializeUtils.deserialize(bytes);
+	}
+
+	/**
+	 * 读取长度头；长度超过剩余的字节数时视为非法消息，避免按伪造的长度分配内存；
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private static int readLength(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < -1 || (in instanceof InputStream && length > ((InputStream) in).available())) {
+			throw new IOException("Illegal length[" + length + "] of the field!");
+		}
+		return length;
+	}
+
+	private static class Entry<T extends SystemMessage> {
+
+		private final int tag;
+
+		private final Class<T> type;
+
+		private final SystemMessageSerializer<T> serializer;
+
+		private Entry(int tag, Class<T> type, SystemMessageSerializer<T> serializer) {
+			this.tag = tag;
+			this.type = type;
+			this.serializer = serializer;
+		}
+	}
+}
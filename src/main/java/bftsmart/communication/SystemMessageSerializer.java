@@ -0,0 +1,39 @@
+package bftsmart.communication;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 系统消息的二进制序列化器；
+ * <p>
+ *
+ * 每种消息类型的序列化器通过 {@link SystemMessageCodecRegistry#register(int, Class, SystemMessageSerializer)}
+ * 以唯一的类型标签注册；<br>
+ * 序列化器只负责消息的字段，格式版本和类型标签由注册表输出；
+ *
+ * @author huanghaiquan
+ *
+ * @param <T>
+ */
+public interface SystemMessageSerializer<T extends SystemMessage> {
+
+	/**
+	 * 输出消息的字段；
+	 *
+	 * @param message
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(T message, DataOutput out) throws IOException;
+
+	/**
+	 * 读取消息的字段，并创建消息；
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	T read(DataInput in) throws IOException;
+
+}
@@ -17,6 +17,8 @@ package bftsmart.communication.client;
 
 import bftsmart.tom.core.messages.TOMMessage;
 
+import java.util.List;
+
 /**
  * Methods that should be implemented by the server side of the client-server communication system
  *
@@ -24,6 +26,11 @@ import bftsmart.tom.core.messages.TOMMessage;
  */
 public interface ClientCommunicationServerSide {   
    public void send(int[] targets, TOMMessage sm, boolean serializeClassHeaders);
+   /**
+    * Sends several messages to one client, written together to its connection
+    * with a single flush. The messages are delivered in the order of the list.
+    */
+   public void send(int target, List<TOMMessage> sms);
    public int[] getClients();
    public void setRequestReceiver(RequestReceiver requestReceiver);
    public void shutdown();
@@ -45,7 +45,6 @@ import java.nio.channels.ClosedChannelException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
-import java.security.Signature;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -78,8 +77,7 @@ public class NettyClientServerCommunicationSystemClientSide extends SimpleChanne
     //******* EDUARDO END **************//
     private Map<Integer,NettyClientServerSession> sessionTable = new ConcurrentHashMap<>();
     private ReentrantReadWriteLock rl;
-    //the signature engine used in the system
-    private Signature signatureEngine;
+    //the size of the signatures on the wire, see TOMUtil.getSignatureSize
     private int signatureLength;
     private volatile boolean closed = false;
 
@@ -425,14 +423,8 @@ public class NettyClientServerCommunicationSystemClientSide extends SimpleChanne
     public byte[] signMessage(PrivateKey key, byte[] message) {
         //long startTime = System.nanoTime();
         try {
-            if (signatureEngine == null) {
-                    signatureEngine = Signature.getInstance("SHA1withRSA");
-            }
-            byte[] result = null;
-
-            signatureEngine.initSign(key);
-            signatureEngine.update(message);
-            result = signatureEngine.sign();
+            //the signature scheme follows the key, the engine is per thread
+            byte[] result = TOMUtil.signMessage(key, message);
 
             //st.store(System.nanoTime() - startTime);
             return result;
@@ -35,14 +35,12 @@ import utils.net.SSLSecurity;
 
 import javax.crypto.Mac;
 import javax.net.ssl.SSLEngine;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -269,104 +267,101 @@ public class NettyClientServerCommunicationSystemServerSide extends SimpleChanne
 	@Override
 	public void send(int[] targets, TOMMessage sm, boolean serializeClassHeaders) {
 
-		// serialize message
-		DataOutputStream dos = null;
-
-		byte[] data = null;
-		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			dos = new DataOutputStream(baos);
-			sm.wExternal(dos);
-			dos.flush();
-			data = baos.toByteArray();
-			sm.serializedMessage = data;
-		} catch (IOException ex) {
-			LOGGER.error("Error enconding message.");
-		} finally {
-			try {
-				dos.close();
-			} catch (IOException ex) {
-				LOGGER.error("Exception closing DataOutputStream: {}", ex.getMessage());
-			}
-		}
-
-		// replies are not signed in the current JBP version
+		// replies are not signed in the current JBP version; the message is serialized
+		// straight into a pooled buffer by NettyTOMMessageEncoder
 		sm.signed = false;
-		// produce signature if necessary (never in the current version)
-		if (sm.signed) {
-			// ******* EDUARDO BEGIN **************//
-			byte[] data2 = TOMUtil.signMessage(controller.getStaticConf().getRSAPrivateKey(), data);
-			// ******* EDUARDO END **************//
-			sm.serializedMessageSignature = data2;
-		}
 
 		for (int i = 0; i < targets.length; i++) {
-			rl.readLock().lock();
-			// sendLock.lock();
-			try {
-				NettyClientServerSession ncss = (NettyClientServerSession) sessionTable.get(targets[i]);
-				if (ncss != null) {
-					Channel session = ncss.getChannel();
-					sm.destination = targets[i];
-					// send message
-					session.writeAndFlush(sm); // This used to invoke "await". Removed to avoid blockage and race
-												// condition.
-
-					/////// TODO: replace this patch for a proper client preamble
-				} else if (sm.getSequence() >= 0 && sm.getSequence() <= 5) {
-
-					final int id = targets[i];
-					final TOMMessage msg = sm;
-
-					Thread t = new Thread() {
-
-						public void run() {
-
-							LOGGER.debug(
-									"Received request from {} before establishing Netty connection. Re-trying until connection is established",
-									id);
-
-							NettyClientServerSession ncss = null;
-							while (ncss == null) {
-
-								rl.readLock().lock();
-
-								try {
-									Thread.sleep(1000);
-								} catch (InterruptedException ex) {
-									java.util.logging.Logger
-											.getLogger(NettyClientServerCommunicationSystemServerSide.class.getName())
-											.log(Level.SEVERE, null, ex);
-								}
-
-								ncss = (NettyClientServerSession) sessionTable.get(id);
-								if (ncss != null) {
-									Channel session = ncss.getChannel();
-									msg.destination = id;
-									// send message
-									session.writeAndFlush(msg);
-								}
-
-								rl.readLock().unlock();
+			Channel session = getChannel(targets[i]);
+			if (session != null) {
+				sm.destination = targets[i];
+				// send message
+				session.writeAndFlush(sm); // This used to invoke "await". Removed to avoid blockage and race
+											// condition.
+
+				/////// TODO: replace this patch for a proper client preamble
+			} else if (sm.getSequence() >= 0 && sm.getSequence() <= 5) {
+
+				final int id = targets[i];
+				final TOMMessage msg = sm;
+
+				Thread t = new Thread() {
+
+					public void run() {
+
+						LOGGER.debug(
+								"Received request from {} before establishing Netty connection. Re-trying until connection is established",
+								id);
+
+						NettyClientServerSession ncss = null;
+						while (ncss == null) {
+
+							rl.readLock().lock();
+
+							try {
+								Thread.sleep(1000);
+							} catch (InterruptedException ex) {
+								java.util.logging.Logger
+										.getLogger(NettyClientServerCommunicationSystemServerSide.class.getName())
+										.log(Level.SEVERE, null, ex);
+							}
 
+							ncss = (NettyClientServerSession) sessionTable.get(id);
+							if (ncss != null) {
+								Channel session = ncss.getChannel();
+								msg.destination = id;
+								// send message
+								session.writeAndFlush(msg);
 							}
 
-							LOGGER.debug("Connection with {} established", id);
+							rl.readLock().unlock();
 
 						}
 
-					};
+						LOGGER.debug("Connection with {} established", id);
 
-					t.start();
-					///////////////////////////////////////////
-				} else {
-					LOGGER.debug("!!!!!!!!NettyClientServerSession NULL !!!!!! sequence: {}, ID: {}", sm.getSequence(),
-							targets[i]);
-				}
-			} finally {
-				// sendLock.unlock();
-				rl.readLock().unlock();
+					}
+
+				};
+
+				t.start();
+				///////////////////////////////////////////
+			} else {
+				LOGGER.debug("!!!!!!!!NettyClientServerSession NULL !!!!!! sequence: {}, ID: {}", sm.getSequence(),
+						targets[i]);
+			}
+		}
+	}
+
+	@Override
+	public void send(int target, List<TOMMessage> sms) {
+		Channel session = getChannel(target);
+		if (session == null) {
+			// the client may still be connecting, which is handled message by message
+			for (TOMMessage sm : sms) {
+				send(new int[] { target }, sm, false);
 			}
+			return;
+		}
+		for (TOMMessage sm : sms) {
+			sm.signed = false;
+			sm.destination = target;
+			session.write(sm);
+		}
+		session.flush();
+	}
+
+	/**
+	 * Returns the channel of the client, or null if it is not connected. The
+	 * session table is only locked for the lookup, not while writing.
+	 */
+	private Channel getChannel(int clientId) {
+		rl.readLock().lock();
+		try {
+			NettyClientServerSession ncss = (NettyClientServerSession) sessionTable.get(clientId);
+			return ncss == null ? null : ncss.getChannel();
+		} finally {
+			rl.readLock().unlock();
 		}
 	}
 
@@ -17,6 +17,7 @@ package bftsmart.communication.client.netty;
 
 import bftsmart.reconfiguration.ViewTopology;
 import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.util.TOMUtil;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
@@ -26,11 +27,13 @@ import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -65,6 +68,21 @@ public class NettyTOMMessageDecoder extends ByteToMessageDecoder {
     
     private boolean useMAC;
 
+    /**
+     * messages received while the session of the client is being created; only
+     * accessed from the event loop of the channel
+     */
+    private List<PendingMessage> pendingMessages;
+
+    /**
+     * creates the sessions of new clients off the I/O threads
+     */
+    private static final ExecutorService SESSION_SETUP_EXECUTOR = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "client session setup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(NettyTOMMessageDecoder.class);
 
     
@@ -99,6 +117,7 @@ public class NettyTOMMessageDecoder extends ByteToMessageDecoder {
 
         // Skip the length field because we know it already.
         buffer.skipBytes(4);
+        int frameEnd = buffer.readerIndex() + dataLength;
 
         int totalLength = dataLength - 1;
 
@@ -107,50 +126,52 @@ public class NettyTOMMessageDecoder extends ByteToMessageDecoder {
 
         int authLength = 0;
 
+        //read the size of the signature, unless it has the fixed size of the legacy format
+        int signatureSize = 0;
         if (signed == 1) {
+            if (this.signatureSize == TOMUtil.VARIABLE_SIGNATURE_SIZE) {
+                signatureSize = buffer.readInt();
+                totalLength -= 4;
+            } else {
+                signatureSize = this.signatureSize;
+            }
             authLength += signatureSize;
         }
         if (useMAC) {
             authLength += macSize;
         }
 
-        byte[] data = new byte[totalLength - authLength];
-        buffer.readBytes(data);
-
-        byte[] digest = null;
-        if (useMAC) {
-            digest = new byte[macSize];
-            buffer.readBytes(digest);
-        }
-
-        byte[] signature = null;
-        if (signed == 1) {
-            signature = new byte[signatureSize];
-            buffer.readBytes(signature);
-        }
-
-        DataInputStream dis = null;
-        TOMMessage sm = null;
+        // the parts of the frame are accessed in place, the frame is consumed at once
+        int dataStart = buffer.readerIndex();
+        int dataSize = totalLength - authLength;
+        int digestStart = dataStart + dataSize;
+        int signatureStart = digestStart + (useMAC ? macSize : 0);
+        buffer.readerIndex(frameEnd);
 
         try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(data);
-            dis = new DataInputStream(bais);
-            sm = new TOMMessage();
-            sm.rExternal(dis);
+            if (dataSize < 0 || signatureSize < 0 || signatureStart + signatureSize != frameEnd) {
+                throw new IOException("Malformed frame!");
+            }
+
+            // The message is copied once out of the pooled buffer: the copy is kept as
+            // the serialized message (for signatures and batching), and the headers and
+            // content are parsed in place from it.
+            byte[] data = new byte[dataSize];
+            buffer.getBytes(dataStart, data);
+            TOMMessage sm = TOMMessage.fromBytes(data, 0, dataSize);
             sm.serializedMessage = data;
 
             if (signed == 1) {
+                byte[] signature = new byte[signatureSize];
+                buffer.getBytes(signatureStart, signature);
                 sm.serializedMessageSignature = signature;
                 sm.signed = true;
             }
-            if (useMAC) {
-                sm.serializedMessageMAC = digest;
-            }
 
             if (isClient) {
                 //verify MAC
                 if (useMAC) {
-                    if (!verifyMAC(sm.getSender(), data, digest)) {
+                    if (!verifyMAC(sm.getSender(), buffer.nioBuffer(dataStart, dataSize), buffer.nioBuffer(digestStart, macSize))) {
                         LOGGER.error("MAC error: message discarded");
                         return;
                     }
@@ -158,41 +179,33 @@ public class NettyTOMMessageDecoder extends ByteToMessageDecoder {
             } else { /* it's a server */
                 //verifies MAC if it's not the first message received from the client
                 rl.readLock().lock();
-                if (sessionTable.containsKey(sm.getSender())) {
+                boolean knownClient;
+                try {
+                    knownClient = sessionTable.containsKey(sm.getSender());
+                } finally {
                     rl.readLock().unlock();
+                }
+                if (knownClient && pendingMessages == null) {
                     if (useMAC) {
-                        if (!verifyMAC(sm.getSender(), data, digest)) {
+                        if (!verifyMAC(sm.getSender(), buffer.nioBuffer(dataStart, dataSize), buffer.nioBuffer(digestStart, macSize))) {
                             LOGGER.error("MAC error: message discarded");
                             return;
                         }
                     }
                 } else {
-                    //creates MAC/publick key stuff if it's the first message received from the client
-                    LOGGER.debug("Creating MAC/public key stuff, first message from client {}", sm.getSender());
-                    LOGGER.debug("sessionTable size {}", sessionTable.size());
-
-                    rl.readLock().unlock();
-                    
-                    SecretKeyFactory fac = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
-                    String str = sm.getSender() + ":" + this.controller.getStaticConf().getProcessId();                                        
-                    PBEKeySpec spec = new PBEKeySpec(str.toCharArray());
-                    SecretKey authKey = fac.generateSecret(spec);
-            
-                    Mac macSend = Mac.getInstance(controller.getStaticConf().getHmacAlgorithm());
-                    macSend.init(authKey);
-                    Mac macReceive = Mac.getInstance(controller.getStaticConf().getHmacAlgorithm());
-                    macReceive.init(authKey);
-                    NettyClientServerSession cs = new NettyClientServerSession(context.channel(), macSend, macReceive, sm.getSender());
-                                       
-                    rl.writeLock().lock();
-//                    LOGGER.debug("PUT INTO SESSIONTABLE - [client id]:"+sm.getSender()+" [channel]: "+cs.getChannel());
-                    sessionTable.put(sm.getSender(), cs);
-                    LOGGER.debug("#active clients {}", sessionTable.size());
-                    rl.writeLock().unlock();
-                    if (useMAC && !verifyMAC(sm.getSender(), data, digest)) {
-                        LOGGER.error("MAC error: message discarded");
-                        return;
+                    // The MAC/public key stuff of the client is created off the I/O thread; the
+                    // messages received meanwhile are delivered in order once it is done.
+                    byte[] digest = null;
+                    if (useMAC) {
+                        digest = new byte[macSize];
+                        buffer.getBytes(digestStart, digest);
+                    }
+                    if (pendingMessages == null) {
+                        pendingMessages = new ArrayList<PendingMessage>();
+                        createSession(context, sm.getSender());
                     }
+                    pendingMessages.add(new PendingMessage(sm, digest));
+                    return;
                 }
             }
             LOGGER.debug("Decoded reply from {} with sequence number {}", sm.getSender(), sm.getSequence());
@@ -204,15 +217,105 @@ public class NettyTOMMessageDecoder extends ByteToMessageDecoder {
         return;
     }
 
-    boolean verifyMAC(int id, byte[] data, byte[] digest) {
+    /**
+     * Creates the MAC/public key stuff of a client on its first message. The key
+     * derivation runs on {@link #SESSION_SETUP_EXECUTOR}, and the result is handed
+     * back to the event loop of the channel.
+     */
+    private void createSession(ChannelHandlerContext context, int clientId) {
+        LOGGER.debug("Creating MAC/public key stuff, first message from client {}", clientId);
+        LOGGER.debug("sessionTable size {}", sessionTable.size());
+
+        SESSION_SETUP_EXECUTOR.execute(() -> {
+            NettyClientServerSession session = null;
+            Exception error = null;
+            try {
+                SecretKeyFactory fac = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
+                String str = clientId + ":" + this.controller.getStaticConf().getProcessId();
+                PBEKeySpec spec = new PBEKeySpec(str.toCharArray());
+                SecretKey authKey = fac.generateSecret(spec);
+
+                Mac macSend = Mac.getInstance(controller.getStaticConf().getHmacAlgorithm());
+                macSend.init(authKey);
+                Mac macReceive = Mac.getInstance(controller.getStaticConf().getHmacAlgorithm());
+                macReceive.init(authKey);
+                session = new NettyClientServerSession(context.channel(), macSend, macReceive, clientId);
+            } catch (Exception e) {
+                error = e;
+            }
+            final NettyClientServerSession cs = session;
+            final Exception ex = error;
+            context.executor().execute(() -> sessionCreated(context, clientId, cs, ex));
+        });
+    }
+
+    private void sessionCreated(ChannelHandlerContext context, int clientId, NettyClientServerSession cs, Exception error) {
+        List<PendingMessage> messages = pendingMessages;
+        pendingMessages = null;
+        if (cs == null) {
+            LOGGER.error("Impossible to create the session of client " + clientId + ", " + messages.size()
+                    + " messages discarded: " + error.getMessage(), error);
+            return;
+        }
+        if (!context.channel().isActive()) {
+            return;
+        }
+
+        rl.writeLock().lock();
+        try {
+//            LOGGER.debug("PUT INTO SESSIONTABLE - [client id]:"+clientId+" [channel]: "+cs.getChannel());
+            sessionTable.put(clientId, cs);
+            LOGGER.debug("#active clients {}", sessionTable.size());
+        } finally {
+            rl.writeLock().unlock();
+        }
+
+        for (PendingMessage message : messages) {
+            TOMMessage sm = message.message;
+            if (useMAC && !verifyMAC(sm.getSender(), ByteBuffer.wrap(sm.serializedMessage), ByteBuffer.wrap(message.digest))) {
+                LOGGER.error("MAC error: message discarded");
+                continue;
+            }
+            context.fireChannelRead(sm);
+        }
+    }
+
+    boolean verifyMAC(int id, ByteBuffer data, ByteBuffer digest) {
         //long startInstant = System.nanoTime();
         rl.readLock().lock();
-        Mac macReceive = ((NettyClientServerSession) sessionTable.get(id)).getMacReceive();
+        NettyClientServerSession session = sessionTable.get(id);
         rl.readLock().unlock();
-        boolean result = Arrays.equals(macReceive.doFinal(data), digest);
+        if (session == null) {
+            return false;
+        }
+        Mac macReceive = session.getMacReceive();
+        macReceive.update(data);
+        byte[] expected = macReceive.doFinal();
+        // compares the digest in place, in constant time
+        boolean result = digest.remaining() == expected.length;
+        int diff = 0;
+        for (int i = 0; result && i < expected.length; i++) {
+            diff |= expected[i] ^ digest.get(digest.position() + i);
+        }
+        result = result && diff == 0;
         //long duration = System.nanoTime() - startInstant;
         //st.store(duration);
         return result;
     }
 
+    /**
+     * A message received before the session of its client was created.
+     */
+    private static class PendingMessage {
+
+        private final TOMMessage message;
+
+        private final byte[] digest;
+
+        private PendingMessage(TOMMessage message, byte[] digest) {
+            this.message = message;
+            this.digest = digest;
+        }
+    }
+
 }
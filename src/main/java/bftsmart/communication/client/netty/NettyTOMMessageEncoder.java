@@ -17,12 +17,15 @@ package bftsmart.communication.client.netty;
 
 
 import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.util.TOMUtil;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.Mac;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -48,6 +51,10 @@ public class NettyTOMMessageEncoder extends MessageToByteEncoder<TOMMessage> {
 
     @Override
 	protected void encode(ChannelHandlerContext context, TOMMessage sm, ByteBuf buffer) throws Exception {
+        if (!isClient) {
+            encodeReply(sm, buffer);
+            return;
+        }
         byte[] msgData;
         byte[] macData = null;
         byte[] signatureData = null;
@@ -56,10 +63,11 @@ public class NettyTOMMessageEncoder extends MessageToByteEncoder<TOMMessage> {
         if (sm.signed){
             //signature was already produced before            
             signatureData = sm.serializedMessageSignature;
-            if (signatureData.length != signatureLength) {
+            if (signatureLength != TOMUtil.VARIABLE_SIGNATURE_SIZE && signatureData.length != signatureLength) {
                 LOGGER.warn("WARNING: message signature has size {} and should have {}", signatureData.length, signatureLength);
             }
         }
+        boolean writeSignatureSize = signatureData != null && signatureLength == TOMUtil.VARIABLE_SIGNATURE_SIZE;
         
         if (useMAC) {
             macData = produceMAC(sm.destination, msgData, sm.getSender());
@@ -70,13 +78,16 @@ public class NettyTOMMessageEncoder extends MessageToByteEncoder<TOMMessage> {
         }
 
         int dataLength = 1+msgData.length+(macData==null?0:macData.length)+
-                (signatureData==null?0:signatureData.length);
+                (signatureData==null?0:signatureData.length)+(writeSignatureSize?4:0);
 
         //Logger.println("Sending message with "+dataLength+" bytes.");
         /* msg size */
         buffer.writeInt(dataLength);
         /* control byte indicating if the message is signed or not */
-        buffer.writeByte(sm.signed==true?(byte)1:(byte)0);       
+        buffer.writeByte(signatureData!=null?(byte)1:(byte)0);
+        /* signature size, it depends on the signature scheme (not in the legacy format) */
+        if (writeSignatureSize)
+        	buffer.writeInt(signatureData.length);
         /* data to be sent */
         buffer.writeBytes(msgData);
          /* MAC */
@@ -85,18 +96,49 @@ public class NettyTOMMessageEncoder extends MessageToByteEncoder<TOMMessage> {
         /* signature */
         if (signatureData != null)
         	buffer.writeBytes(signatureData);
+        // flushing is left to the sender, so that several messages written to
+        // the channel can go out with a single flush
+    }
 
-        context.flush();
+    /**
+     * Replies are never signed: they are serialized straight into the (pooled)
+     * buffer of the channel, without an intermediate byte array.
+     */
+    private void encodeReply(TOMMessage sm, ByteBuf buffer) throws Exception {
+        int start = buffer.writerIndex();
+        /* msg size, set after the message is written */
+        buffer.writeInt(0);
+        /* control byte indicating that the message is not signed */
+        buffer.writeByte((byte) 0);
+        /* data to be sent */
+        sm.wExternal(new ByteBufOutputStream(buffer));
+        int msgLength = buffer.writerIndex() - start - 5;
+        /* MAC */
+        if (useMAC) {
+            byte[] macData = produceMAC(sm.destination, buffer.nioBuffer(start + 5, msgLength), sm.getSender());
+            if (macData == null) {
+                LOGGER.error("uses MAC and the MAC returned is null. Won't write to channel");
+                buffer.writerIndex(start);
+                return;
+            }
+            buffer.writeBytes(macData);
+        }
+        buffer.setInt(start, buffer.writerIndex() - start - 4);
     }
 
     byte[] produceMAC(int id, byte[] data, int me) {
+        return produceMAC(id, ByteBuffer.wrap(data), me);
+    }
+
+    byte[] produceMAC(int id, ByteBuffer data, int me) {
         NettyClientServerSession session = (NettyClientServerSession)sessionTable.get(id);
         if(session == null) {
         	LOGGER.error("NettyTOMMessageEncoder.produceMAC(). session for client {} is null", id);
         	return null;
         }
         Mac macSend = session.getMacSend();
-        return macSend.doFinal(data);
+        macSend.update(data);
+        return macSend.doFinal();
     }
 
 }
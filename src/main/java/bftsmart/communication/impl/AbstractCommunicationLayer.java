@@ -13,6 +13,7 @@ import bftsmart.communication.CommunicationLayer;
 import bftsmart.communication.MacMessageCodec;
 import bftsmart.communication.MessageQueue;
 import bftsmart.communication.SystemMessage;
+import bftsmart.communication.SystemMessageCodec;
 import bftsmart.communication.MessageQueue.SystemMessageType;
 import bftsmart.reconfiguration.ViewTopology;
 
@@ -43,6 +44,11 @@ public abstract class AbstractCommunicationLayer implements CommunicationLayer {
 
 	private int messageTimeout = 2000;
 
+	/**
+	 * 每次取到消息之后，最多连续取出的消息数；
+	 */
+	private static final int MAX_DRAIN_MESSAGES = 256;
+
 	private final Map<SystemMessageType, AggregatedListeners> listeners = new ConcurrentHashMap<MessageQueue.SystemMessageType, AbstractCommunicationLayer.AggregatedListeners>();
 
 	protected volatile boolean doWork = false;
@@ -50,7 +56,7 @@ public abstract class AbstractCommunicationLayer implements CommunicationLayer {
 	public AbstractCommunicationLayer(String realmName, ViewTopology topology) {
 		this.topology = topology;
 		this.messageInQueue = MessageQueueFactory.newMessageQueue(MessageQueue.QueueDirection.IN,
-				topology.getStaticConf().getInQueueSize());
+				topology.getStaticConf().getInQueueSize(), topology.getStaticConf().getInQueueType());
 		this.me = topology.getCurrentProcessId();
 		this.realmName = realmName;
 
@@ -204,13 +210,25 @@ public abstract class AbstractCommunicationLayer implements CommunicationLayer {
 			throw new CommunicationException("ServerCommunicationLayer has stopped!");
 		}
 
+		// 广播到多个远端节点时，消息以本节点配置的格式只序列化一次，由各个连接共享，各连接只生成自己的 MAC；
+		// 协商了更低格式的连接由其自行重新序列化；
+		byte[] serializedMessage = null;
+		if (countRemoteTargets(targets) > 1) {
+			try {
+				serializedMessage = SystemMessageCodec.serialize(sm, topology.getStaticConf().getMessageFormat());
+			} catch (Exception ex) {
+				// 由各个连接自行序列化并报告错误；
+				LOGGER.error("Failed to serialize message[" + sm.getClass().getName() + "]! --" + ex.getMessage(), ex);
+			}
+		}
+
 		@SuppressWarnings("unchecked")
 		AsyncFuture<SystemMessage, Void>[] futures = new AsyncFuture[targets.length];
 		int i = 0;
 		for (int pid : targets) {
 			try {
 				// 对包括对当前节点的连接都统一抽象为 MessageConnection;
-				futures[i] = ensureConnection(pid).send(sm, retrySending, new CompletedCallback<SystemMessage, Void>() {
+				futures[i] = ensureConnection(pid).send(sm, serializedMessage, retrySending, new CompletedCallback<SystemMessage, Void>() {
 					@Override
 					public void onCompleted(SystemMessage source, Void result, Throwable error) {
 						if (error != null) {
@@ -227,6 +245,16 @@ public abstract class AbstractCommunicationLayer implements CommunicationLayer {
 		}
 	}
 
+	private int countRemoteTargets(int[] targets) {
+		int count = 0;
+		for (int pid : targets) {
+			if (pid != me) {
+				count++;
+			}
+		}
+		return count;
+	}
+
 	@Override
 	public void addMessageListener(SystemMessageType type, MessageListener listener) {
 		AggregatedListeners aggListeners = getListeners(type);
@@ -278,6 +306,15 @@ public abstract class AbstractCommunicationLayer implements CommunicationLayer {
 //			}
 
 			listener.onReceived(message);
+
+			// 队列中积压的消息一次性批量取出，减少等待与唤醒的开销；
+			if (message != null) {
+				try {
+					messageInQueue.drain(messageType, listener::onReceived, MAX_DRAIN_MESSAGES);
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
 		}
 
 	}
@@ -45,7 +45,25 @@ public interface MessageConnection extends Closeable {
 	 */
 	AsyncFuture<SystemMessage, Void> send(SystemMessage message, boolean retrySending,
 			CompletedCallback<SystemMessage, Void> callback);
-	
+
+	/**
+	 * 发送已经序列化的消息；
+	 * <p>
+	 * 
+	 * 用于广播：消息只序列化一次，各个连接共享序列化结果，只生成各自的 MAC；<br>
+	 * 默认忽略序列化结果，与 {@link #send(SystemMessage, boolean, CompletedCallback)} 相同；
+	 * 
+	 * @param message           要发送的消息；
+	 * @param serializedMessage 消息的序列化结果，各连接共享，不可修改；
+	 * @param retrySending      当发送失败时，是否要重试；
+	 * @param callback          发送完成回调；
+	 * @return
+	 */
+	default AsyncFuture<SystemMessage, Void> send(SystemMessage message, byte[] serializedMessage,
+			boolean retrySending, CompletedCallback<SystemMessage, Void> callback) {
+		return send(message, retrySending, callback);
+	}
+
 
 	/**
 	 * 开始连接的数据处理；
@@ -4,6 +4,16 @@ import bftsmart.communication.MessageQueue;
 
 public class MessageQueueFactory {
 
+    /**
+     * 基于阻塞链表的队列；
+     */
+    public static final String LINKED_QUEUE = "linked";
+
+    /**
+     * 基于无锁环形缓冲区的队列；
+     */
+    public static final String RING_QUEUE = "ring";
+
     /**
      * 创建新的消息队列
      *
@@ -26,14 +36,36 @@ public class MessageQueueFactory {
      * @return
      */
     public static MessageQueue newMessageQueue(MessageQueue.QueueDirection type, int capacity) {
+        return newMessageQueue(type, capacity, LINKED_QUEUE);
+    }
+
+    /**
+     * 新的消息队列
+     *
+     * @param type
+     *         队列类型
+     *
+     * @param capacity
+     *         队列容量
+     *
+     * @param implType
+     *         队列的实现类型，取值为 {@link #LINKED_QUEUE} 或 {@link #RING_QUEUE}；
+     * @return
+     */
+    public static MessageQueue newMessageQueue(MessageQueue.QueueDirection type, int capacity, String implType) {
         /**
          * 暂时只支持接收Socket消息队列
          */
-        if (type == MessageQueue.QueueDirection.IN) {
-            return new LinkedBlockingMessageQueue(capacity);
-        } else {
+        if (type != MessageQueue.QueueDirection.IN) {
             throw new IllegalArgumentException("Factory can create in queue only !!!");
         }
+        if (implType == null || LINKED_QUEUE.equalsIgnoreCase(implType)) {
+            return new LinkedBlockingMessageQueue(capacity);
+        }
+        if (RING_QUEUE.equalsIgnoreCase(implType)) {
+            return new RingBufferMessageQueue(capacity);
+        }
+        throw new IllegalArgumentException("Unsupported type of message queue[" + implType + "]!");
     }
     
 }
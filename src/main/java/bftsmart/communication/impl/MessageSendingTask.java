@@ -6,9 +6,32 @@ public class MessageSendingTask  extends AsyncFutureTask<SystemMessage, Void> {
 
     public final boolean RETRY;
 
+    // 广播时共享的消息序列化结果，为 null 时由连接自行序列化；
+    private final byte[] serializedMessage;
+
+    private final long createdTime = System.currentTimeMillis();
+
     public MessageSendingTask(SystemMessage message, boolean retry) {
+        this(message, null, retry);
+    }
+
+    public MessageSendingTask(SystemMessage message, byte[] serializedMessage, boolean retry) {
         super(message);
+        this.serializedMessage = serializedMessage;
         this.RETRY = retry;
     }
 
-}
\ No newline at end of file
+    public byte[] getSerializedMessage() {
+        return serializedMessage;
+    }
+
+    /**
+     * 任务的创建时间（毫秒）；
+     *
+     * @return
+     */
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+}
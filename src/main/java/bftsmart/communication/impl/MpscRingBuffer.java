@@ -0,0 +1,150 @@
+package bftsmart.communication.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 多生产者、单消费者的有界无锁环形缓冲区；
+ * <p>
+ *
+ * 容量取不小于指定值的 2 的幂；每个槽位记录一个序号，生产者通过 CAS 争用写入位置，唯一的消费者独占读取位置，<br>
+ * 读写双方只通过槽位的序号同步，不需要加锁；
+ * <p>
+ *
+ * 只允许一个线程调用 {@link #poll()} 和 {@link #drain(Consumer, int)}；
+ *
+ * @author huanghaiquan
+ *
+ * @param <E>
+ */
+public class MpscRingBuffer<E> {
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private final int capacity;
+
+	private final int mask;
+
+	private final AtomicReferenceArray<E> elements;
+
+	/**
+	 * 槽位的序号；<br>
+	 * 等于写入位置时表示槽位可写，等于写入位置 + 1 时表示槽位已写入、可读；
+	 */
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * 读取位置；只由消费者线程修改；
+	 */
+	private volatile long head;
+
+	public MpscRingBuffer(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity of ring buffer must be positive!");
+		}
+		int size = 1;
+		while (size < capacity && size < MAX_CAPACITY) {
+			size <<= 1;
+		}
+		this.capacity = size;
+		this.mask = this.capacity - 1;
+		this.elements = new AtomicReferenceArray<E>(this.capacity);
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * 容量；
+	 *
+	 * @return
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * 放入元素；可由多个线程并发调用；
+	 *
+	 * @param element
+	 * @return 缓冲区已满时返回 false；
+	 */
+	public boolean offer(E element) {
+		if (element == null) {
+			throw new NullPointerException("Null element!");
+		}
+		while (true) {
+			long position = tail.get();
+			int index = (int) (position & mask);
+			long sequence = sequences.get(index);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.lazySet(index, element);
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if (sequence < position) {
+				// 槽位上一轮的元素尚未被取走；
+				return false;
+			}
+			// 槽位已被其它生产者占用，重新读取写入位置；
+		}
+	}
+
+	/**
+	 * 取出元素；只能由消费者线程调用；
+	 *
+	 * @return 缓冲区为空时返回 null；
+	 */
+	public E poll() {
+		long position = head;
+		int index = (int) (position & mask);
+		if (sequences.get(index) != position + 1) {
+			return null;
+		}
+		E element = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.lazySet(index, position + capacity);
+		head = position + 1;
+		return element;
+	}
+
+	/**
+	 * 批量取出元素；只能由消费者线程调用；
+	 *
+	 * @param consumer    元素的处理者；
+	 * @param maxElements 最多取出的元素数；
+	 * @return 取出的元素数；
+	 */
+	public int drain(Consumer<? super E> consumer, int maxElements) {
+		int count = 0;
+		E element;
+		while (count < maxElements && (element = poll()) != null) {
+			consumer.accept(element);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * 当前的元素数；并发修改时只是近似值；
+	 *
+	 * @return
+	 */
+	public int size() {
+		long size = tail.get() - head;
+		if (size < 0) {
+			return 0;
+		}
+		return size > capacity ? capacity : (int) size;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+}
@@ -0,0 +1,336 @@
+package bftsmart.communication.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import bftsmart.communication.MessageQueue;
+import bftsmart.communication.SystemMessage;
+
+/**
+ * 基于无锁环形缓冲区的接收消息队列；
+ * <p>
+ *
+ * 每种类型的消息各有一个 {@link MpscRingBuffer}，各连接的接收线程并发写入，消息处理线程独占读取；
+ * <p>
+ *
+ * 1. 背压按远端节点施加：某个远端节点尚未处理的共识消息积压到容量的 1/2 时，通过 {@link MessageQueue.FlowControl}
+ * 暂停读取该节点的连接，降到容量的 1/4 以下时恢复；其它节点的连接不受影响；<br>
+ * 2. 背压不丢弃消息：暂停生效前已经读取的共识消息在环形缓冲区满时放入溢出队列；<br>
+ * 3. 心跳和领导者切换消息数量很少，总是放入队列（环形缓冲区满时放入溢出队列），不会被拒绝；
+ * 暂停前已经读取的这两类消息照常优先处理；<br>
+ * 4. 优先级：心跳和领导者切换消息优先于共识消息，这两类消息尚未处理时，共识消息的处理线程短暂让出，
+ * 以免心跳因共识消息的积压而超时，引发不必要的领导者切换；
+ * <p>
+ *
+ * 不提供流量控制的 {@link #offer(SystemMessageType, SystemMessage)} 在共识消息的环形缓冲区满时返回 false，与
+ * {@link LinkedBlockingMessageQueue} 一致；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class RingBufferMessageQueue implements MessageQueue {
+
+	/**
+	 * 心跳和领导者切换消息的环形缓冲区的最大容量；
+	 */
+	private static final int MAX_PRIORITY_CAPACITY = 1024;
+
+	/**
+	 * 存在未处理的高优先级消息时，共识消息的处理线程每次让出的时间；
+	 */
+	private static final long PRIORITY_YIELD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/**
+	 * 共识消息的处理线程每次取消息时最多让出的总时间，避免高优先级消息处理缓慢时共识消息被饿死；
+	 */
+	private static final long MAX_PRIORITY_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Lane consensusLane;
+
+	private final Lane heartLane;
+
+	private final Lane lcLane;
+
+	public RingBufferMessageQueue(int capacity) {
+		int priorityCapacity = Math.min(capacity, MAX_PRIORITY_CAPACITY);
+		this.consensusLane = new Lane(capacity, false);
+		this.heartLane = new Lane(priorityCapacity, true);
+		this.lcLane = new Lane(priorityCapacity, true);
+	}
+
+	@Override
+	public boolean offer(SystemMessageType type, SystemMessage sm) {
+		return offer(type, sm, null);
+	}
+
+	@Override
+	public boolean offer(SystemMessageType type, SystemMessage sm, FlowControl flowControl) {
+		Lane lane = laneOf(type);
+		if (lane == null) {
+			return false;
+		}
+		return lane.offer(sm, flowControl);
+	}
+
+	@Override
+	public void put(SystemMessageType type, SystemMessage sm) throws InterruptedException {
+		Lane lane = laneOf(type);
+		if (lane == null) {
+			return;
+		}
+		while (!lane.offer(sm, null)) {
+			LockSupport.parkNanos(this, PRIORITY_YIELD_NANOS);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	@Override
+	public SystemMessage poll(SystemMessageType type, long timeout, TimeUnit unit) throws InterruptedException {
+		Lane lane = laneOf(type);
+		if (lane == null) {
+			return null;
+		}
+		yieldToPriorityLanes(lane);
+		return lane.poll(unit.toNanos(timeout));
+	}
+
+	@Override
+	public SystemMessage take(SystemMessageType type) throws InterruptedException {
+		Lane lane = laneOf(type);
+		if (lane == null) {
+			return null;
+		}
+		SystemMessage message;
+		do {
+			yieldToPriorityLanes(lane);
+			message = lane.poll(Long.MAX_VALUE);
+		} while (message == null);
+		return message;
+	}
+
+	@Override
+	public int drain(SystemMessageType type, Consumer<SystemMessage> consumer, int maxMessages)
+			throws InterruptedException {
+		Lane lane = laneOf(type);
+		if (lane == null) {
+			return 0;
+		}
+		yieldToPriorityLanes(lane);
+		return lane.drain(consumer, maxMessages);
+	}
+
+	/**
+	 * 指定的远端节点的连接是否因共识消息积压而暂停读取；
+	 *
+	 * @param peer 远端节点的 ID；
+	 * @return
+	 */
+	public boolean isPaused(int peer) {
+		return consensusLane.isPaused(peer);
+	}
+
+	/**
+	 * 指定类型的消息数；
+	 *
+	 * @param type
+	 * @return
+	 */
+	public int size(SystemMessageType type) {
+		Lane lane = laneOf(type);
+		return lane == null ? 0 : lane.size();
+	}
+
+	private Lane laneOf(SystemMessageType type) {
+		if (type == SystemMessageType.CONSENSUS) {
+			return consensusLane;
+		} else if (type == SystemMessageType.HEART) {
+			return heartLane;
+		} else if (type == SystemMessageType.LC) {
+			return lcLane;
+		}
+		return null;
+	}
+
+	/**
+	 * 共识消息的处理线程在存在未处理的心跳和领导者切换消息时短暂让出；
+	 */
+	private void yieldToPriorityLanes(Lane lane) throws InterruptedException {
+		if (lane.priority) {
+			return;
+		}
+		long waited = 0;
+		while (waited < MAX_PRIORITY_WAIT_NANOS && (heartLane.size() > 0 || lcLane.size() > 0)) {
+			LockSupport.parkNanos(this, PRIORITY_YIELD_NANOS);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			waited += PRIORITY_YIELD_NANOS;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RingBufferMessageQueue[consensus=" + consensusLane.size() + ", heart=" + heartLane.size() + ", lc="
+				+ lcLane.size() + "]";
+	}
+
+	/**
+	 * 远端节点尚未处理的共识消息；
+	 */
+	private static class PeerBacklog {
+
+		private final AtomicInteger size = new AtomicInteger();
+
+		private final AtomicBoolean paused = new AtomicBoolean();
+
+		private volatile FlowControl flowControl;
+	}
+
+	/**
+	 * 一种类型的消息队列；
+	 */
+	private static class Lane {
+
+		private final boolean priority;
+
+		private final MpscRingBuffer<SystemMessage> ring;
+
+		/**
+		 * 环形缓冲区已满时接收的高优先级消息，以及提供了流量控制的共识消息；<br>
+		 * 溢出队列非空时新的消息也放入溢出队列，以保持同一来源的消息顺序；
+		 */
+		private final ConcurrentLinkedQueue<SystemMessage> overflow = new ConcurrentLinkedQueue<SystemMessage>();
+
+		private final AtomicInteger overflowSize = new AtomicInteger();
+
+		/**
+		 * 各远端节点的积压，以节点 ID 为键；只用于共识消息；
+		 */
+		private final Map<Integer, PeerBacklog> backlogs = new ConcurrentHashMap<Integer, PeerBacklog>();
+
+		private final int peerHighWatermark;
+
+		private final int peerLowWatermark;
+
+		private volatile Thread waiter;
+
+		private Lane(int capacity, boolean priority) {
+			this.priority = priority;
+			this.ring = new MpscRingBuffer<SystemMessage>(capacity);
+			this.peerHighWatermark = Math.max(1, capacity / 2);
+			this.peerLowWatermark = capacity / 4;
+		}
+
+		private boolean offer(SystemMessage message, FlowControl flowControl) {
+			PeerBacklog backlog = null;
+			if (!priority) {
+				backlog = backlogs.computeIfAbsent(message.getSender(), k -> new PeerBacklog());
+				backlog.size.incrementAndGet();
+			}
+			if (overflowSize.get() > 0 || !ring.offer(message)) {
+				if (!priority && flowControl == null) {
+					backlog.size.decrementAndGet();
+					return false;
+				}
+				overflow.offer(message);
+				overflowSize.incrementAndGet();
+			}
+			if (backlog != null && flowControl != null && backlog.size.get() >= peerHighWatermark) {
+				pause(backlog, flowControl);
+			}
+			Thread consumer = waiter;
+			if (consumer != null) {
+				LockSupport.unpark(consumer);
+			}
+			return true;
+		}
+
+		private SystemMessage poll(long timeoutNanos) throws InterruptedException {
+			SystemMessage message = next();
+			if (message != null || timeoutNanos <= 0) {
+				return message;
+			}
+			long deadline = System.nanoTime() + timeoutNanos;
+			waiter = Thread.currentThread();
+			try {
+				while ((message = next()) == null) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return null;
+					}
+					LockSupport.parkNanos(this, remaining);
+					if (Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+				}
+				return message;
+			} finally {
+				waiter = null;
+			}
+		}
+
+		private int drain(Consumer<SystemMessage> consumer, int maxMessages) {
+			int count = 0;
+			SystemMessage message;
+			while (count < maxMessages && (message = next()) != null) {
+				consumer.accept(message);
+				count++;
+			}
+			return count;
+		}
+
+		private SystemMessage next() {
+			SystemMessage message = ring.poll();
+			if (message == null && overflowSize.get() > 0) {
+				message = overflow.poll();
+				if (message != null) {
+					overflowSize.decrementAndGet();
+				}
+			}
+			if (message != null && !priority) {
+				PeerBacklog backlog = backlogs.get(message.getSender());
+				if (backlog != null && backlog.size.decrementAndGet() <= peerLowWatermark) {
+					resume(backlog);
+				}
+			}
+			return message;
+		}
+
+		private void pause(PeerBacklog backlog, FlowControl flowControl) {
+			backlog.flowControl = flowControl;
+			if (backlog.paused.compareAndSet(false, true)) {
+				flowControl.pause();
+				// 暂停之前积压可能已经被处理完，此时不会再有消费触发恢复，需要再次检查；
+				if (backlog.size.get() <= peerLowWatermark) {
+					resume(backlog);
+				}
+			}
+		}
+
+		private void resume(PeerBacklog backlog) {
+			if (backlog.paused.compareAndSet(true, false)) {
+				backlog.flowControl.resume();
+			}
+		}
+
+		/**
+		 * 指定的远端节点的读取是否因积压而暂停；
+		 */
+		private boolean isPaused(int peer) {
+			PeerBacklog backlog = backlogs.get(peer);
+			return backlog != null && backlog.paused.get();
+		}
+
+		private int size() {
+			return ring.size() + overflowSize.get();
+		}
+	}
+}
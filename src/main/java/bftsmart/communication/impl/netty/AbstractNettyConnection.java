@@ -1,41 +1,72 @@
 package bftsmart.communication.impl.netty;
 
+import bftsmart.communication.DHPubKeyCertificate;
 import bftsmart.communication.MacKey;
+import bftsmart.communication.MacKeyGenerator;
 import bftsmart.communication.MacMessageCodec;
 import bftsmart.communication.MessageQueue;
 import bftsmart.communication.SystemMessage;
 import bftsmart.communication.SystemMessageCodec;
+import bftsmart.communication.SystemMessageCodecRegistry;
 import bftsmart.communication.impl.AsyncFuture;
 import bftsmart.communication.impl.CompletedCallback;
 import bftsmart.communication.impl.MessageConnection;
 import bftsmart.communication.impl.MessageSendingTask;
 import bftsmart.reconfiguration.ViewTopology;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.io.BytesUtils;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class AbstractNettyConnection implements MessageConnection {
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractNettyConnection.class);
-    // 每次连接的等待超时时长（毫秒）；
-    private static final long CONNECTION_TIMEOUT = 20 * 1000;
     protected final String REALM_NAME;
     protected final int ME;
     protected final int REMOTE_ID;
     // 最大消息尺寸 100MB；
     protected final int MAX_MESSAGE_SIZE = 100 * 1024 * 1024;
-    private final int MAX_RETRY_COUNT;
+    // 每次连接的等待超时时长（毫秒）；
+    private static final long CONNECTION_TIMEOUT = 20 * 1000;
+    // 连接断开期间，需重试发送的消息在队列中等待的最长时间（毫秒）；
+    private final long MAX_WAITING_MILLIS;
+    // 写合并的刷新策略：一次刷新的最大消息数、最大字节数，以及等待更多消息的最长时间；
+    private final int FLUSH_MAX_MESSAGES;
+    private final int FLUSH_MAX_BYTES;
+    private final long FLUSH_MAX_DELAY_NANOS;
     protected ViewTopology viewTopology;
-    protected ChannelHandlerContext context;
+    protected volatile ChannelHandlerContext context;
 
     private MessageQueue messageInQueue;
-    private LinkedBlockingQueue<MessageSendingTask> outQueue;
+    private LinkedBlockingDeque<MessageSendingTask> outQueue;
 
     private SystemMessageCodec messageCodec;
 
     private volatile boolean doWork = false;
-    private volatile Thread senderTread;
+    private final AtomicBoolean sendingScheduled = new AtomicBoolean(false);
+
+    private final LongAdder sentMessages = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    // 接收队列积压时暂停从通道读取消息，由 TCP 的流量控制将压力传导给远端；
+    private final MessageQueue.FlowControl readFlowControl = new MessageQueue.FlowControl() {
+        @Override
+        public void pause() {
+            setAutoRead(false);
+        }
+
+        @Override
+        public void resume() {
+            setAutoRead(true);
+        }
+    };
 
     public AbstractNettyConnection(String realmName, ViewTopology viewTopology, int remoteId, MessageQueue messageInQueue) {
         this.REALM_NAME = realmName;
@@ -47,12 +78,16 @@ public abstract class AbstractNettyConnection implements MessageConnection {
         this.viewTopology = viewTopology;
         this.messageInQueue = messageInQueue;
 
-        this.outQueue = new LinkedBlockingQueue<>(viewTopology.getStaticConf().getOutQueueSize());
+        this.outQueue = new LinkedBlockingDeque<>(viewTopology.getStaticConf().getOutQueueSize());
 
-        this.MAX_RETRY_COUNT = viewTopology.getStaticConf().getSendRetryCount();
-        if (MAX_RETRY_COUNT < 1) {
-            throw new IllegalArgumentException("Illegal SEND_RETRY_COUNT[" + MAX_RETRY_COUNT + "]!");
+        int maxRetryCount = viewTopology.getStaticConf().getSendRetryCount();
+        if (maxRetryCount < 1) {
+            throw new IllegalArgumentException("Illegal SEND_RETRY_COUNT[" + maxRetryCount + "]!");
         }
+        this.MAX_WAITING_MILLIS = CONNECTION_TIMEOUT * maxRetryCount;
+        this.FLUSH_MAX_MESSAGES = Math.max(1, viewTopology.getStaticConf().getSendFlushMaxMessages());
+        this.FLUSH_MAX_BYTES = Math.max(1, viewTopology.getStaticConf().getSendFlushMaxBytes());
+        this.FLUSH_MAX_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(viewTopology.getStaticConf().getSendFlushMaxDelay());
 
         LOGGER.debug("Create netty connection from {} to {}!", ME, REMOTE_ID);
     }
@@ -64,25 +99,39 @@ public abstract class AbstractNettyConnection implements MessageConnection {
         }
         doWork = true;
 
-        senderTread = new Thread(() -> scheduleSending(), "Sender-Thread-To-Remote[" + REMOTE_ID + "]");
-        senderTread.setDaemon(true);
-
-        senderTread.start();
-
         LOGGER.debug("Start connection! --[Me={}][Remote={}]", ME, REMOTE_ID);
     }
 
     @Override
     public AsyncFuture<SystemMessage, Void> send(SystemMessage message, boolean retrySending,
                                                  CompletedCallback<SystemMessage, Void> callback) {
-        MessageSendingTask task = new MessageSendingTask(message, retrySending);
+        return send(message, null, retrySending, callback);
+    }
+
+    @Override
+    public AsyncFuture<SystemMessage, Void> send(SystemMessage message, byte[] serializedMessage, boolean retrySending,
+                                                 CompletedCallback<SystemMessage, Void> callback) {
+        MessageSendingTask task = new MessageSendingTask(message, serializedMessage, retrySending);
         task.setCallback(callback);
 
+        if (!doWork) {
+            task.error(new IllegalStateException("Message has not sent because connection is shutdown!"));
+            return task;
+        }
+
+        // 连接未建立时，消息在队列中等待连接建立，超时后丢弃；
+        if (!isAlived()) {
+            discardExpiredTasks();
+        }
+
         if (!outQueue.offer(task)) {
             LOGGER.error("ServerConnection.send out queue for {} full message discarded.", REMOTE_ID);
             task.error(new IllegalStateException("ServerConnection.send out queue for {" + REMOTE_ID + "} full message discarded."));
+            return task;
         }
 
+        scheduleSending();
+
         return task;
     }
 
@@ -109,123 +158,199 @@ public abstract class AbstractNettyConnection implements MessageConnection {
 
         doWork = false;
         try {
-            senderTread.interrupt();
-            try {
-                senderTread.join();
-            } catch (InterruptedException e) {
-            }
-
-            senderTread = null;
             ChannelHandlerContext chl = this.context;
             if (chl != null) {
                 this.context = null;
                 chl.close();
             }
+            MessageSendingTask task;
+            while ((task = outQueue.poll()) != null) {
+                task.error(new IllegalStateException("Message has not sent because connection is shutdown!"));
+            }
         } catch (Exception e) {
             LOGGER.warn("Error occurred while closing connection! --[Me={}][Remote={}]", ME, REALM_NAME, e);
         }
-        LOGGER.debug("Connection is closed! --[Me={}][Remote={}]", ME, REMOTE_ID);
+        LOGGER.debug("Connection is closed! --[Me={}][Remote={}] --[Messages={}][Flushes={}]", ME, REMOTE_ID,
+                sentMessages.sum(), flushes.sum());
     }
 
-    private final void scheduleSending() {
-        MessageSendingTask task;
-        while (doWork) {
-            try {
-                // 检查发送队列；
-                task = null;
-                try {
-                    task = outQueue.take();
-                } catch (InterruptedException ex) {
-                }
-
-                if (task != null) {
-                    // 处理发送任务；
-                    processSendingTask(task);
-                }
-            } catch (Exception e) {
-                LOGGER.error("Error occurred while sending message to remote[{}]!", REMOTE_ID, e);
+    /**
+     * 在连接通道所属的事件循环中调度发送；
+     * <p>
+     * 同一时刻最多只有一个发送任务被调度，以保证消息按入队顺序写出；<br>
+     * 连接未建立时不调度，待连接建立后（{@link #attachChannelHandlerContext(ChannelHandlerContext, MacKey, int)}）再调度；
+     */
+    private void scheduleSending() {
+        ChannelHandlerContext ctx = this.context;
+        if (ctx == null || outQueue.isEmpty() || !sendingScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (FLUSH_MAX_DELAY_NANOS > 0 && outQueue.size() < FLUSH_MAX_MESSAGES) {
+                // 等待更多的消息以合并输出；
+                ctx.channel().eventLoop().schedule(() -> processSendingTasks(ctx), FLUSH_MAX_DELAY_NANOS,
+                        TimeUnit.NANOSECONDS);
+            } else {
+                ctx.channel().eventLoop().execute(() -> processSendingTasks(ctx));
             }
+        } catch (RejectedExecutionException e) {
+            // 事件循环已关闭；
+            sendingScheduled.set(false);
+            LOGGER.debug("Sending is rejected because the event loop is shutdown! --[Me={}][Remote={}]", ME, REMOTE_ID);
         }
-
-        LOGGER.info("The sending task schedule of connection to remote[{}] stopped!", REMOTE_ID);
     }
 
-    private final void processSendingTask(MessageSendingTask messageTask) {
-        int retryCount = 0;
-        do {
-            // 检查连接；
-            confirmConnection();
-
-            // 当连接未建立时：
-            // 对于无需重试发送的消息，则直接丢弃；
-            // 对于需要重试发送的消息，则一直等待直到连接重新建立为止；
-            if (null == context) {
-                if (!messageTask.RETRY) {
-                    // 抛弃连接；
-                    messageTask.error(new IllegalStateException("Connection has not been established!"));
-                    LOGGER.warn("Discard the message because connection has not been established and the task has no retry indication! --[Me={}][Remote={}]", ME, REMOTE_ID);
-                    return;
+    /**
+     * 在事件循环中处理发送队列中的任务：全部写入之后再一次性刷新输出；
+     *
+     * @param ctx
+     */
+    private void processSendingTasks(ChannelHandlerContext ctx) {
+        boolean inactive = false;
+        try {
+            int pendingMessages = 0;
+            int pendingBytes = 0;
+            MessageSendingTask task;
+            while (doWork && ctx == this.context && (task = outQueue.poll()) != null) {
+                if (!ctx.channel().isActive()) {
+                    // 连接已断开，等待重新连接后发送；
+                    requeue(task);
+                    inactive = true;
+                    break;
                 }
-
-                if (retryCount >= MAX_RETRY_COUNT) {
-                    // 抛弃连接；
-                    messageTask.error(new IllegalStateException("Connection has not been established after retrying!"));
-                    LOGGER.warn("Discard the message because connection has not been established after retrying! --[Me={}][Remote={}]", ME, REMOTE_ID);
-                    return;
+                if (isExpired(task, System.currentTimeMillis())) {
+                    discard(task);
+                    continue;
+                }
+                pendingBytes += processSendingTask(ctx, task);
+                pendingMessages++;
+                if (pendingMessages >= FLUSH_MAX_MESSAGES || pendingBytes >= FLUSH_MAX_BYTES) {
+                    flush(ctx);
+                    pendingMessages = 0;
+                    pendingBytes = 0;
                 }
-
-                retryCount++;
-                continue;
             }
-
-            Exception error = null;
-            try {
-                // 将编码消息写入输出流；
-                context.writeAndFlush(messageCodec.encode(messageTask.getSource()));
-
-                // 发送任务成功；
-                messageTask.complete(null);
-                return;
-            } catch (Exception ex) {
-                error = ex;
-            }
-
-            // 如果不重试发送失败的消息，则立即报告错误；
-            if (!messageTask.RETRY) {
-                messageTask.error(error);
-                LOGGER.error("Discard the message due to the io error and no retry indication! --" + error.getMessage(), error);
-                return;
+            if (pendingMessages > 0) {
+                flush(ctx);
             }
+        } catch (Exception e) {
+            LOGGER.error("Error occurred while sending message to remote[{}]!", REMOTE_ID, e);
+        } finally {
+            sendingScheduled.set(false);
+        }
+        // 处理期间新加入的消息，或者连接已被替换；
+        if (!inactive || ctx != this.context) {
+            scheduleSending();
+        }
+    }
 
-            retryCount++;
+    /**
+     * 连接断开时放回未发送的任务，等待重新连接后发送；
+     *
+     * @param task
+     */
+    private void requeue(MessageSendingTask task) {
+        if (!outQueue.offerFirst(task)) {
+            task.error(new IllegalStateException("ServerConnection.send out queue for {" + REMOTE_ID + "} full message discarded."));
+        }
+    }
 
-            // 超过重试次数，报告错误；
-            if (retryCount >= MAX_RETRY_COUNT) {
-                LOGGER.error("Discard the message due to the io error after retrying! --[Me={}][Remote={}]", ME, REMOTE_ID, error);
-                messageTask.error(error);
-                return;
+    /**
+     * 丢弃队列头部在连接断开期间等待超时的任务；
+     */
+    private void discardExpiredTasks() {
+        long now = System.currentTimeMillis();
+        MessageSendingTask task;
+        while ((task = outQueue.peek()) != null && isExpired(task, now)) {
+            if (outQueue.remove(task)) {
+                discard(task);
             }
-        } while (doWork);
+        }
+    }
 
-        messageTask.error(new IllegalStateException("Message has not sent because connection is shutdown!"));
+    /**
+     * 任务是否已等待超时；
+     * <p>
+     * 无需重试发送的消息最多等待一次连接超时时长；需要重试发送的消息最多等待重试次数倍的连接超时时长；
+     *
+     * @param task
+     * @param now
+     * @return
+     */
+    private boolean isExpired(MessageSendingTask task, long now) {
+        long timeout = task.RETRY ? MAX_WAITING_MILLIS : CONNECTION_TIMEOUT;
+        return now - task.getCreatedTime() > timeout;
     }
 
-    private void confirmConnection() {
-        if (isAlived()) {
-            return;
+    private void discard(MessageSendingTask task) {
+        if (task.RETRY) {
+            task.error(new IllegalStateException("Connection has not been established after retrying!"));
+            LOGGER.warn("Discard the message because connection has not been established after retrying! --[Me={}][Remote={}]", ME, REMOTE_ID);
+        } else {
+            task.error(new IllegalStateException("Connection has not been established!"));
+            LOGGER.warn("Discard the message because connection has not been established and the task has no retry indication! --[Me={}][Remote={}]", ME, REMOTE_ID);
         }
+    }
+
+    private void flush(ChannelHandlerContext ctx) {
+        ctx.flush();
+        flushes.increment();
+    }
+
+    /**
+     * 处理发送任务，将编码后的消息写入连接，但不刷新输出；
+     *
+     * @param ctx
+     * @param messageTask
+     * @return 写入的字节数；如果未写入则返回 0；
+     */
+    private final int processSendingTask(ChannelHandlerContext ctx, MessageSendingTask messageTask) {
         try {
-            long startTs = System.currentTimeMillis();
-            do {
-                Thread.sleep(500);
-                if (isAlived()) {
-                    return;
-                }
-            } while ((System.currentTimeMillis() - startTs) < CONNECTION_TIMEOUT);
-        } catch (InterruptedException e) {
+            int size;
+            byte[] serializedMessage = messageTask.getSerializedMessage();
+            if (serializedMessage == null || !messageCodec.isCompatible(serializedMessage)) {
+                // 未序列化，或者共享的序列化格式高于本连接协商的格式；
+                byte[] encodedMessage = messageCodec.encode(messageTask.getSource());
+                size = encodedMessage.length;
+                ctx.write(encodedMessage);
+            } else {
+                // 广播的消息已序列化，只生成本连接的 MAC，与共享的消息字节组合输出，不复制消息内容；
+                ByteBuf encodedMessage = Unpooled.wrappedBuffer(messageCodec.encodeHeader(serializedMessage),
+                        serializedMessage, messageCodec.encodeMacTrailer(serializedMessage));
+                size = encodedMessage.readableBytes();
+                ctx.write(encodedMessage);
+            }
+            sentMessages.increment();
+
+            // 发送任务成功；
+            messageTask.complete(null);
+            return size;
+        } catch (Exception ex) {
+            // 编码失败时重试也无法成功，立即报告错误；
+            messageTask.error(ex);
+            LOGGER.error("Discard the message due to the encoding error! --[Me={}][Remote={}]", ME, REMOTE_ID, ex);
+            return 0;
         }
     }
 
+    /**
+     * 已写入连接的消息总数；与 {@link #getFlushCount()} 对比可以评估写合并的效果；
+     *
+     * @return
+     */
+    public long getSentMessageCount() {
+        return sentMessages.sum();
+    }
+
+    /**
+     * 刷新（flush）输出的总次数；
+     *
+     * @return
+     */
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
     @Override
     public boolean isAlived() {
         return null != context ? context.channel().isActive() : false;
@@ -241,7 +366,7 @@ public abstract class AbstractNettyConnection implements MessageConnection {
             SystemMessage msg = messageCodec.decode(bytes);
             if (msg.getSender() == REMOTE_ID) {
                 MessageQueue.SystemMessageType msgType = MessageQueue.SystemMessageType.typeOf(msg);
-                if (!messageInQueue.offer(msgType, msg)) {
+                if (!messageInQueue.offer(msgType, msg, readFlowControl)) {
                     LOGGER.error("Discard message because the input queue is full! [Me={}][Remote={}]", ME, REMOTE_ID);
                 }
             } else {
@@ -253,17 +378,69 @@ public abstract class AbstractNettyConnection implements MessageConnection {
         }
     }
 
+    private void setAutoRead(boolean autoRead) {
+        ChannelHandlerContext ctx = context;
+        if (ctx != null) {
+            ctx.channel().config().setAutoRead(autoRead);
+            LOGGER.debug("Set auto read of the channel! --[Me={}][Remote={}][AutoRead={}]", ME, REMOTE_ID, autoRead);
+        }
+    }
+
     /**
      * 绑定连接通道
      *
      * @param ctx
      * @param macKey
+     * @param remoteMessageFormat 远端在握手消息中声明支持的最高消息格式；
      */
-    protected synchronized void attachChannelHandlerContext(ChannelHandlerContext ctx, MacKey macKey) {
+    protected synchronized void attachChannelHandlerContext(ChannelHandlerContext ctx, MacKey macKey,
+                                                            int remoteMessageFormat) {
         if (null != context) {
             context.close();
         }
-        this.context = ctx;
         messageCodec.setMacKey(macKey);
+        messageCodec.setFormat(SystemMessageCodecRegistry.negotiate(viewTopology.getStaticConf().getMessageFormat(),
+                remoteMessageFormat));
+        this.context = ctx;
+        LOGGER.debug("Attach channel! --[Me={}][Remote={}][MessageFormat={}]", ME, REMOTE_ID, messageCodec.getFormat());
+
+        // 发送在连接建立前等待的消息；
+        scheduleSending();
+    }
+
+    /**
+     * 编码连接握手消息：节点 Id(4字节) + 密钥交换公钥凭证 + 支持的最高消息格式(1字节)；
+     * <p>
+     * 旧版本的节点只解析 Id 和凭证，忽略之后的消息格式；
+     *
+     * @param id
+     * @param certificate
+     * @param messageFormat 本节点配置的最高消息格式；
+     * @return
+     */
+    static byte[] encodeHandshake(int id, DHPubKeyCertificate certificate, int messageFormat) {
+        byte[] idBytes = BytesUtils.toBytes(id);
+        byte[] certBytes = certificate.getEncodedBytes();
+        byte[] bytes = new byte[idBytes.length + certBytes.length + 1];
+        System.arraycopy(idBytes, 0, bytes, 0, idBytes.length);
+        System.arraycopy(certBytes, 0, bytes, idBytes.length, certBytes.length);
+        bytes[bytes.length - 1] = (byte) SystemMessageCodecRegistry.negotiate(messageFormat,
+                SystemMessageCodecRegistry.LATEST_FORMAT);
+        return bytes;
+    }
+
+    /**
+     * 解析握手消息中远端支持的最高消息格式；旧版本的节点没有声明，只支持
+     * {@link SystemMessageCodecRegistry#LEGACY_FORMAT}；
+     *
+     * @param handshake 由 {@link #encodeHandshake(int, DHPubKeyCertificate, int)} 输出的握手消息；
+     * @return
+     */
+    static int resolveMessageFormat(byte[] handshake) {
+        int certLength = MacKeyGenerator.getEncodedLength(handshake, 4);
+        if (certLength < 0 || handshake.length <= 4 + certLength) {
+            return SystemMessageCodecRegistry.LEGACY_FORMAT;
+        }
+        return 0xFF & handshake[4 + certLength];
     }
 }
@@ -0,0 +1,100 @@
+package bftsmart.communication.impl.netty;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+
+/**
+ * 节点间通讯共享的 Netty 事件循环组；
+ * <p>
+ * <p>
+ * 同一通讯层的全部接入连接和对外连接共享一个工作线程组，连接的读写以及消息的发送都在通道所属的事件循环中执行，<br>
+ * 线程数不随集群节点数增长；
+ * <p>
+ * 开启 epoll 且当前平台支持时采用 native epoll 传输，否则采用 NIO；
+ */
+public class NettyEventLoops implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NettyEventLoops.class);
+
+    private final EventLoopGroup bossGroup;
+
+    private final EventLoopGroup workerGroup;
+
+    private final Class<? extends ServerSocketChannel> serverChannelClass;
+
+    private final Class<? extends SocketChannel> channelClass;
+
+    /**
+     * @param name     线程名称前缀；
+     * @param threads  工作线程数；小于等于 0 时采用处理器核数；
+     * @param useEpoll 是否采用 native epoll 传输；当前平台不支持时采用 NIO；
+     */
+    public NettyEventLoops(String name, int threads, boolean useEpoll) {
+        int workerThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        boolean epoll = useEpoll && Epoll.isAvailable();
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(1, new DefaultThreadFactory(name + "-boss", true));
+            workerGroup = new EpollEventLoopGroup(workerThreads, new DefaultThreadFactory(name + "-worker", true));
+            serverChannelClass = EpollServerSocketChannel.class;
+            channelClass = EpollSocketChannel.class;
+        } else {
+            if (useEpoll) {
+                LOGGER.warn("Native epoll is unavailable, use NIO instead! --{}", Epoll.unavailabilityCause() == null
+                        ? "" : Epoll.unavailabilityCause().getMessage());
+            }
+            bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory(name + "-boss", true));
+            workerGroup = new NioEventLoopGroup(workerThreads, new DefaultThreadFactory(name + "-worker", true));
+            serverChannelClass = NioServerSocketChannel.class;
+            channelClass = NioSocketChannel.class;
+        }
+        LOGGER.debug("Create netty event loops! --[Name={}][Threads={}][Epoll={}]", name, workerThreads, epoll);
+    }
+
+    /**
+     * 接受接入连接的线程组；
+     *
+     * @return
+     */
+    public EventLoopGroup getBossGroup() {
+        return bossGroup;
+    }
+
+    /**
+     * 处理全部连接读写的工作线程组；
+     *
+     * @return
+     */
+    public EventLoopGroup getWorkerGroup() {
+        return workerGroup;
+    }
+
+    public Class<? extends ServerSocketChannel> getServerChannelClass() {
+        return serverChannelClass;
+    }
+
+    public Class<? extends SocketChannel> getChannelClass() {
+        return channelClass;
+    }
+
+    @Override
+    public void close() {
+        try {
+            bossGroup.shutdownGracefully().syncUninterruptibly();
+        } finally {
+            workerGroup.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+}
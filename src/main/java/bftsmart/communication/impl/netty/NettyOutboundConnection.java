@@ -12,9 +12,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.logging.LogLevel;
@@ -44,11 +42,13 @@ public class NettyOutboundConnection extends AbstractNettyConnection {
     private MacKeyGenerator macKeyGen;
     private SSLSecurity sslSecurity;
 
-    public NettyOutboundConnection(String realmName, ViewTopology viewTopology, int remoteId, MessageQueue messageInQueue, SSLSecurity sslSecurity) {
+    public NettyOutboundConnection(String realmName, ViewTopology viewTopology, int remoteId, MessageQueue messageInQueue,
+                                   SSLSecurity sslSecurity, NettyEventLoops eventLoops) {
         super(realmName, viewTopology, remoteId, messageInQueue);
         this.sslSecurity = sslSecurity;
         this.communicationClient = new NettyClient(viewTopology.getStaticConf().getHost(REMOTE_ID),
-                viewTopology.getStaticConf().getServerToServerPort(REMOTE_ID), viewTopology.getStaticConf().isSecure(REMOTE_ID));
+                viewTopology.getStaticConf().getServerToServerPort(REMOTE_ID), viewTopology.getStaticConf().isSecure(REMOTE_ID),
+                eventLoops);
         this.macKeyGen = new MacKeyGenerator(viewTopology.getStaticConf().getRSAPublicKey(),
                 viewTopology.getStaticConf().getRSAPrivateKey(), viewTopology.getStaticConf().getDHG(),
                 viewTopology.getStaticConf().getDHP());
@@ -75,21 +75,19 @@ public class NettyOutboundConnection extends AbstractNettyConnection {
         private int port;
         private boolean secure;
         private Bootstrap bootstrap;
-        private NioEventLoopGroup workerGroup;
         private ChannelFuture future;
         private volatile boolean authorized = false;
+        private volatile boolean closed = false;
 
-        public NettyClient(String host, int port, boolean secure) {
+        public NettyClient(String host, int port, boolean secure, NettyEventLoops eventLoops) {
             this.host = host;
             this.port = port;
             this.secure = secure;
 
-            workerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors() * 2);
-
+            // 共享通讯层的事件循环组，不再为每个连接创建线程；
             InternalLoggerFactory.setDefaultFactory(Log4J2LoggerFactory.INSTANCE);
-            workerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors());
-            bootstrap = new Bootstrap().group(workerGroup)
-                    .channel(NioSocketChannel.class)
+            bootstrap = new Bootstrap().group(eventLoops.getWorkerGroup())
+                    .channel(eventLoops.getChannelClass())
                     .handler(new LoggingHandler(LogLevel.INFO))
                     .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                     .option(ChannelOption.SO_KEEPALIVE, true)
@@ -101,11 +99,19 @@ public class NettyOutboundConnection extends AbstractNettyConnection {
          * 启动/重新连接
          */
         protected void start() {
+            if (closed) {
+                return;
+            }
             // 掉线重试时先关闭原来通道
             if (null != future) {
                 future.channel().closeFuture();
             }
             future = connect().addListener((ChannelFutureListener) future -> {
+                if (closed) {
+                    // 连接期间已关闭；
+                    future.channel().close();
+                    return;
+                }
                 if (!future.isSuccess()) {
                     // 连接不成功，重试连接
                     future.channel().eventLoop().schedule(this::start, RECONNECT_TRYING_INTERVAL, TimeUnit.SECONDS);
@@ -120,16 +126,12 @@ public class NettyOutboundConnection extends AbstractNettyConnection {
 
         @Override
         public void close() {
-            try {
-                if (future != null) {
-                    future.channel().close().syncUninterruptibly();
-                    future = null;
-                }
-            } finally {
-                if (workerGroup != null) {
-                    workerGroup.shutdownGracefully().syncUninterruptibly();
-                    workerGroup = null;
-                }
+            // 事件循环组由通讯层共享，此处只关闭本连接的通道，并停止重连；
+            closed = true;
+            ChannelFuture f = future;
+            future = null;
+            if (f != null) {
+                f.channel().close().syncUninterruptibly();
             }
         }
 
@@ -164,13 +166,9 @@ public class NettyOutboundConnection extends AbstractNettyConnection {
         public void channelActive(ChannelHandlerContext ctx) {
             LOGGER.debug("Outbound channel connected. me:{}, remote:{}", ME, ctx.channel().remoteAddress());
 
-            // 发送ID
-            byte[] idBytes = BytesUtils.toBytes(ME);
-            // 发送MAC密钥交换信息，发送 DH key
-            byte[] macBytes = macKeyGen.getDHPubKeyCertificate().getEncodedBytes();
-            byte[] bytes = new byte[idBytes.length + macBytes.length];
-            System.arraycopy(idBytes, 0, bytes, 0, idBytes.length);
-            System.arraycopy(macBytes, 0, bytes, idBytes.length, macBytes.length);
+            // 发送ID、MAC密钥交换信息（DH key），以及支持的最高消息格式
+            byte[] bytes = encodeHandshake(ME, macKeyGen.getDHPubKeyCertificate(),
+                    viewTopology.getStaticConf().getMessageFormat());
             ctx.writeAndFlush(bytes);
         }
 
@@ -231,7 +229,7 @@ public class NettyOutboundConnection extends AbstractNettyConnection {
                     return false;
                 }
                 MacKey macKey = macKeyGen.exchange(certificate);
-                attachChannelHandlerContext(ctx, macKey);
+                attachChannelHandlerContext(ctx, macKey, resolveMessageFormat(bytes));
                 LOGGER.debug("Outbound channel authorize success , me:{}, remoteID:{}", ME, REMOTE_ID);
 
                 return true;
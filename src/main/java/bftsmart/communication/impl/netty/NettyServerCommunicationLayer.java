@@ -12,9 +12,7 @@ import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.logging.LogLevel;
@@ -48,6 +46,8 @@ public class NettyServerCommunicationLayer extends AbstractCommunicationLayer {
     private Map<Integer, NettyInboundConnection> inboundConnections = new HashMap<>();
     private MacKeyGenerator macKeyGen;
     private SSLSecurity sslSecurity;
+    // 全部接入连接和对外连接共享的事件循环组；
+    private NettyEventLoops eventLoops;
 
     public NettyServerCommunicationLayer(String realmName, ViewTopology topology) {
         this(realmName, topology, new SSLSecurity());
@@ -81,7 +81,30 @@ public class NettyServerCommunicationLayer extends AbstractCommunicationLayer {
 
     @Override
     protected MessageConnection connectOutbound(int remoteId) {
-        return new NettyOutboundConnection(realmName, topology, remoteId, messageInQueue, sslSecurity);
+        return new NettyOutboundConnection(realmName, topology, remoteId, messageInQueue, sslSecurity,
+                getEventLoops());
+    }
+
+    @Override
+    public void close() {
+        super.close();
+
+        NettyEventLoops loops;
+        synchronized (this) {
+            loops = eventLoops;
+            eventLoops = null;
+        }
+        if (loops != null) {
+            loops.close();
+        }
+    }
+
+    private synchronized NettyEventLoops getEventLoops() {
+        if (eventLoops == null) {
+            eventLoops = new NettyEventLoops("bftsmart-" + me, topology.getStaticConf().getNumberOfNIOThreads(),
+                    topology.getStaticConf().isUseEpoll());
+        }
+        return eventLoops;
     }
 
     @Override
@@ -101,17 +124,15 @@ public class NettyServerCommunicationLayer extends AbstractCommunicationLayer {
      */
     public class NettyServer implements NettyChannelHandler, Closeable {
 
-        private NioEventLoopGroup bossGroup, workerGroup;
         private ChannelFuture future;
 
         public NettyServer(int port) {
-            bossGroup = new NioEventLoopGroup();
-            workerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors() * 2);
+            NettyEventLoops loops = getEventLoops();
 
             ServerBootstrap bootstrap = new ServerBootstrap();
             InternalLoggerFactory.setDefaultFactory(Log4J2LoggerFactory.INSTANCE);
-            bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+            bootstrap.group(loops.getBossGroup(), loops.getWorkerGroup())
+                    .channel(loops.getServerChannelClass())
                     .handler(new LoggingHandler(LogLevel.INFO))
                     .childHandler(new NettyInitializerHandler(this))
                     .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
@@ -127,19 +148,11 @@ public class NettyServerCommunicationLayer extends AbstractCommunicationLayer {
 
         @Override
         public void close() throws IOException {
-            try {
-                if (future != null) {
-                    future.channel().close().syncUninterruptibly();
-                }
-                future = null;
-            } finally {
-                if (workerGroup != null) {
-                    workerGroup.shutdownGracefully().syncUninterruptibly();
-                }
-                if (bossGroup != null) {
-                    bossGroup.shutdownGracefully().syncUninterruptibly();
-                }
+            // 事件循环组与对外连接共享，在通讯层关闭时释放；
+            if (future != null) {
+                future.channel().close().syncUninterruptibly();
             }
+            future = null;
 
             LOGGER.info("Netty server closed");
         }
@@ -177,13 +190,9 @@ public class NettyServerCommunicationLayer extends AbstractCommunicationLayer {
         public void channelActive(ChannelHandlerContext ctx) {
             LOGGER.debug("Inbound channel connected. me:{}, remote:{}", me, ctx.channel().remoteAddress());
 
-            // 发送ID
-            byte[] idBytes = BytesUtils.toBytes(me);
-            // 发送MAC密钥交换信息，发送 DH key
-            byte[] macBytes = macKeyGen.getDHPubKeyCertificate().getEncodedBytes();
-            byte[] bytes = new byte[idBytes.length + macBytes.length];
-            System.arraycopy(idBytes, 0, bytes, 0, idBytes.length);
-            System.arraycopy(macBytes, 0, bytes, idBytes.length, macBytes.length);
+            // 发送ID、MAC密钥交换信息（DH key），以及支持的最高消息格式
+            byte[] bytes = AbstractNettyConnection.encodeHandshake(me, macKeyGen.getDHPubKeyCertificate(),
+                    topology.getStaticConf().getMessageFormat());
             ctx.writeAndFlush(bytes);
         }
 
@@ -244,7 +253,8 @@ public class NettyServerCommunicationLayer extends AbstractCommunicationLayer {
                         return false;
                     }
                     MacKey macKey = macKeyGen.exchange(certificate);
-                    inboundConnections.get(remoteId).attachChannelHandlerContext(ctx, macKey);
+                    inboundConnections.get(remoteId).attachChannelHandlerContext(ctx, macKey,
+                            AbstractNettyConnection.resolveMessageFormat(bytes));
                     connectionAddresses.put(address, remoteId);
                     LOGGER.debug("Inbound channel authorize success , me:{}, remoteID:{}", me, remoteId);
 
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import bftsmart.communication.impl.AsyncFuture;
 import bftsmart.communication.impl.CompletedCallback;
@@ -22,6 +24,7 @@ import bftsmart.communication.MessageAuthenticationException;
 import bftsmart.communication.MessageQueue;
 import bftsmart.communication.SystemMessage;
 import bftsmart.communication.SystemMessageCodec;
+import bftsmart.communication.SystemMessageCodecRegistry;
 import bftsmart.reconfiguration.ViewTopology;
 import utils.io.BytesUtils;
 
@@ -70,6 +73,25 @@ public abstract class AbstractStreamConnection implements MessageConnection {
 
 	private volatile Thread receiverThread;
 
+	// 接收队列积压时暂停读取消息，由 TCP 的流量控制将压力传导给远端；
+	private volatile boolean readPaused = false;
+
+	private final MessageQueue.FlowControl readFlowControl = new MessageQueue.FlowControl() {
+		@Override
+		public void pause() {
+			readPaused = true;
+		}
+
+		@Override
+		public void resume() {
+			readPaused = false;
+			Thread thread = receiverThread;
+			if (thread != null) {
+				LockSupport.unpark(thread);
+			}
+		}
+	};
+
 	public AbstractStreamConnection(String realmName, ViewTopology viewTopology, int remoteId,
 			MessageQueue messageInQueue) {
 		this.REALM_NAME = realmName;
@@ -85,7 +107,7 @@ public abstract class AbstractStreamConnection implements MessageConnection {
 				viewTopology.getStaticConf().getRSAPrivateKey(), viewTopology.getStaticConf().getDHG(),
 				viewTopology.getStaticConf().getDHP());
 		this.macAuthenticator = new MacAuthenticator(remoteId, viewTopology.getStaticConf().getRSAPublicKey(remoteId),
-				macKeyGen);
+				macKeyGen, viewTopology.getStaticConf().getMessageFormat());
 
 		this.outQueue = new LinkedBlockingQueue<MessageSendingTask>(viewTopology.getStaticConf().getOutQueueSize());
 
@@ -198,7 +220,13 @@ public abstract class AbstractStreamConnection implements MessageConnection {
 	@Override
 	public AsyncFuture<SystemMessage, Void> send(SystemMessage message, boolean retrySending,
 												 CompletedCallback<SystemMessage, Void> callback) {
-		MessageSendingTask task = new MessageSendingTask(message, retrySending);
+		return send(message, null, retrySending, callback);
+	}
+
+	@Override
+	public AsyncFuture<SystemMessage, Void> send(SystemMessage message, byte[] serializedMessage, boolean retrySending,
+												 CompletedCallback<SystemMessage, Void> callback) {
+		MessageSendingTask task = new MessageSendingTask(message, serializedMessage, retrySending);
 		task.setCallback(callback);
 
 		if (!outQueue.offer(task)) {
@@ -292,7 +320,13 @@ public abstract class AbstractStreamConnection implements MessageConnection {
 			try {
 				// 连接已准备就绪，并通过了 MAC 认证；
 				// 基于连接认证生成的 MAC 共享密钥对消息进行编码输出；
-				outputBytes = messageCodec.encode(messageTask.getSource());
+				if (messageTask.getSerializedMessage() == null
+						|| !messageCodec.isCompatible(messageTask.getSerializedMessage())) {
+					outputBytes = messageCodec.encode(messageTask.getSource());
+				} else {
+					// 广播的消息已序列化，只需生成本连接的 MAC；
+					outputBytes = messageCodec.encodeSerialized(messageTask.getSerializedMessage());
+				}
 				
 				// 将编码消息写入输出流；
 				BytesUtils.writeInt(outputBytes.length, out);
@@ -379,10 +413,13 @@ public abstract class AbstractStreamConnection implements MessageConnection {
 				}
 				if (sm.getSender() == REMOTE_ID) {
 					MessageQueue.SystemMessageType msgType = MessageQueue.SystemMessageType.typeOf(sm);
-					if (!messageInQueue.offer(msgType, sm)) {
+					if (!messageInQueue.offer(msgType, sm, readFlowControl)) {
 						LOGGER.error("Discard message because the input queue is full! [Me={}][Remote={}]", ME,
 								REMOTE_ID);
 					}
+					while (readPaused && doWork) {
+						LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+					}
 				} else {
 					LOGGER.error(
 							"Discard the received message from wrong sender!  --[Sender={}][ExpectedSender={}][Me={}]",
@@ -452,6 +489,9 @@ public abstract class AbstractStreamConnection implements MessageConnection {
 						MacKey macKey = macAuthenticator.authenticate(chl);
 						ioChannel = chl;
 						messageCodec.setMacKey(macKey);
+						messageCodec.setFormat(SystemMessageCodecRegistry.negotiate(
+								viewTopology.getStaticConf().getMessageFormat(),
+								macAuthenticator.getRemoteMessageFormat()));
 					} catch (MacAuthenticationException | IOException e) {
 						// 认证失败，直接关闭通道，并报告异常；
 						ioChannel = null;
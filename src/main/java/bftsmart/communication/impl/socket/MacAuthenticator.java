@@ -9,6 +9,7 @@ import bftsmart.communication.DHPubKeyCertificate;
 import bftsmart.communication.MacAuthenticationException;
 import bftsmart.communication.MacKey;
 import bftsmart.communication.MacKeyGenerator;
+import bftsmart.communication.SystemMessageCodecRegistry;
 import bftsmart.communication.impl.IOChannel;
 import utils.io.BytesUtils;
 
@@ -31,6 +32,10 @@ public class MacAuthenticator {
 
 	private MacKey macKey;
 
+	private final int MESSAGE_FORMAT;
+
+	private volatile int remoteMessageFormat = SystemMessageCodecRegistry.LEGACY_FORMAT;
+
 	/**
 	 * @param remoteId
 	 * @param remotePubKey
@@ -41,14 +46,36 @@ public class MacAuthenticator {
 	 * @throws IOException
 	 */
 	public MacAuthenticator(int remoteId, PublicKey remotePubKey, MacKeyGenerator generator)  {
+		this(remoteId, remotePubKey, generator, SystemMessageCodecRegistry.LEGACY_FORMAT);
+	}
+
+	/**
+	 * @param remoteId
+	 * @param remotePubKey
+	 * @param generator
+	 * @param messageFormat 本节点支持的最高消息格式，认证时与 DH key 一起发送给远端；
+	 */
+	public MacAuthenticator(int remoteId, PublicKey remotePubKey, MacKeyGenerator generator, int messageFormat) {
 		this.MAC_KEY_GEN = generator;
 		this.REMOTE_ID = remoteId;
 		this.remotePubKey = remotePubKey;
+		this.MESSAGE_FORMAT = SystemMessageCodecRegistry.negotiate(messageFormat,
+				SystemMessageCodecRegistry.LATEST_FORMAT);
 	}
 
 	public MacKey getMacKey() {
 		return macKey;
 	}
+
+	/**
+	 * 最近一次认证时远端声明支持的最高消息格式；旧版本的节点没有声明，只支持
+	 * {@link SystemMessageCodecRegistry#LEGACY_FORMAT}；
+	 * 
+	 * @return
+	 */
+	public int getRemoteMessageFormat() {
+		return remoteMessageFormat;
+	}
 	
 	/**
 	 * 通过指定的输入输出通道完成一次双向的认证；
@@ -76,7 +103,7 @@ public class MacAuthenticator {
 	public MacKey authenticate(OutputStream out, InputStream in) throws MacAuthenticationException, IOException {
 		// 发送 DH key；
 		DHPubKeyCertificate currentDHPubKeyCert = MAC_KEY_GEN.getDHPubKeyCertificate();
-		sendDHKey(out, currentDHPubKeyCert);
+		sendDHKey(out, currentDHPubKeyCert, MESSAGE_FORMAT);
 
 		// 接收 DH key;
 		DHPubKeyCertificate remoteDHPubKeyCert = receiveDHKey(remotePubKey, in);
@@ -92,12 +119,15 @@ public class MacAuthenticator {
 		return macKey;
 	}
 
-	private static void sendDHKey(OutputStream out, DHPubKeyCertificate currentDHPubKeyCert) throws IOException {
+	private static void sendDHKey(OutputStream out, DHPubKeyCertificate currentDHPubKeyCert, int messageFormat)
+			throws IOException {
 		byte[] encodedBytes = currentDHPubKeyCert.getEncodedBytes();
 
-		// send my DH public key and signature
-		BytesUtils.writeInt(encodedBytes.length, out);
+		// send my DH public key and signature, followed by the highest message format;
+		// the old versions ignore the bytes after the certificate;
+		BytesUtils.writeInt(encodedBytes.length + 1, out);
 		out.write(encodedBytes);
+		out.write(messageFormat);
 	}
 
 	/**
@@ -110,7 +140,7 @@ public class MacAuthenticator {
 	 * @return 密钥交换凭证；
 	 * @throws IOException 发生 IO 异常；
 	 */
-	private static DHPubKeyCertificate receiveDHKey(PublicKey identityKey, InputStream in) throws IOException {
+	private DHPubKeyCertificate receiveDHKey(PublicKey identityKey, InputStream in) throws IOException {
 		// receive remote DH public key and signature
 		int remoteMacPubKeyCertLength = BytesUtils.readInt(in);
 		byte[] remoteMacPubKeyCertBytes = new byte[remoteMacPubKeyCertLength];
@@ -120,6 +150,13 @@ public class MacAuthenticator {
 
 		} while (read < remoteMacPubKeyCertLength);
 
+		int certLength = MacKeyGenerator.getEncodedLength(remoteMacPubKeyCertBytes, 0);
+		if (certLength >= 0 && remoteMacPubKeyCertLength > certLength) {
+			remoteMessageFormat = 0xFF & remoteMacPubKeyCertBytes[certLength];
+		} else {
+			remoteMessageFormat = SystemMessageCodecRegistry.LEGACY_FORMAT;
+		}
+
 		return MacKeyGenerator.resolveAndVerify(remoteMacPubKeyCertBytes, identityKey);
 	}
 
@@ -34,6 +34,7 @@ public class Decision {
     
     private byte[] value = null; // decided value
     private TOMMessage[] deserializedValue = null; // decided value (deserialized)
+    private TOMMessage[] requests = null; // requests extracted for delivery
     
     //for benchmarking
     public TOMMessage firstMessageProposed = null;
@@ -120,6 +121,23 @@ public class Decision {
         return deserializedValue;
     }
 
+    /**
+     * Set the requests extracted from the decided value, so that they are
+     * extracted only once before being delivered
+     * @param requests The requests of the decided value
+     */
+    public void setRequests(TOMMessage[] requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * Returns the requests extracted from the decided value
+     * @return The requests of the decided value, or null if they were not extracted yet
+     */
+    public TOMMessage[] getRequests() {
+        return requests;
+    }
+
     /**
      * The ID for the associated consensus
      * @return ID for the associated consensus
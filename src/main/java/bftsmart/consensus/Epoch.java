@@ -44,7 +44,7 @@ public class Epoch implements Serializable {
     private boolean alreadyRemoved = false; // indicates if this epoch was removed from its consensus
 
     public byte[] propValue = null; // proposed value
-    public TOMMessage[] deserializedPropValue = null; //utility var
+    public volatile TOMMessage[] deserializedPropValue = null; //utility var
 //    public List<TOMMessage> deserializedPrecomputeValue = new ArrayList<>(); // 剔除掉视图ID小于当前节点视图ID的请求消息
     public byte[] propValueHash = null; // proposed value hash
 
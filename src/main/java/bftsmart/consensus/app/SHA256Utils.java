@@ -1,19 +1,164 @@
 package bftsmart.consensus.app;
 
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
 import org.bouncycastle.crypto.digests.SHA256Digest;
 
+/**
+ * SHA256 哈希计算；
+ * <p>
+ *
+ * 每个线程复用各自的摘要对象，可被多个线程并发调用而无需加锁；
+ *
+ * @author huanghaiquan
+ *
+ */
 public class SHA256Utils {
 
     // The length of SHA256 output is 32 bytes
     private static final int SHA256DIGEST_LENGTH = 256 / 8;
 
+    /**
+     * 从直接缓冲区读取数据时每次复制的最大字节数；
+     */
+    private static final int COPY_CHUNK_SIZE = 8 * 1024;
+
+    private static final byte MERKLE_LEAF_PREFIX = 0;
+
+    private static final byte MERKLE_NODE_PREFIX = 1;
+
+    private static final ThreadLocal<SHA256Digest> DIGEST = new ThreadLocal<SHA256Digest>() {
+        @Override
+        protected SHA256Digest initialValue() {
+            return new SHA256Digest();
+        }
+    };
+
+    private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[COPY_CHUNK_SIZE];
+        }
+    };
+
     public byte[] hash(byte[] data){
+        return hash(data, 0, data.length);
+    }
 
-        byte[] result = new byte[SHA256DIGEST_LENGTH];
-        SHA256Digest sha256Digest = new SHA256Digest();
+    /**
+     * 计算字节数组中指定片段的哈希，不复制数据；
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return
+     */
+    public byte[] hash(byte[] data, int offset, int length) {
+        SHA256Digest sha256Digest = digest();
+        sha256Digest.update(data, offset, length);
+        return doFinal(sha256Digest);
+    }
+
+    /**
+     * 计算缓冲区中剩余数据（从 position 到 limit）的哈希；缓冲区的 position 不变；
+     *
+     * @param buffer
+     * @return
+     */
+    public byte[] hash(ByteBuffer buffer) {
+        SHA256Digest sha256Digest = digest();
+        update(sha256Digest, buffer);
+        return doFinal(sha256Digest);
+    }
 
-        sha256Digest.update(data,0,data.length);
-        sha256Digest.doFinal(result,0);
+    /**
+     * 依次计算多个数据片段连接在一起的哈希，不复制数据；
+     *
+     * @param buffers
+     * @return
+     */
+    public byte[] hash(ByteBuffer... buffers) {
+        SHA256Digest sha256Digest = digest();
+        for (ByteBuffer buffer : buffers) {
+            update(sha256Digest, buffer);
+        }
+        return doFinal(sha256Digest);
+    }
+
+    /**
+     * 计算默克尔树根哈希；
+     * <p>
+     *
+     * 数据按 leafSize 切分为叶子，叶子哈希为 SHA256(0x00 + 叶子数据)，节点哈希为 SHA256(0x01 + 左子哈希 + 右子哈希)，<br>
+     * 奇数个节点时最后一个节点直接提升到上一层；
+     * <p>
+     *
+     * 数据超过一个叶子时，叶子哈希并行计算；<br>
+     * 注意：结果与 {@link #hash(byte[])} 不同，参与共识的节点必须采用相同的计算方式；
+     *
+     * @param data
+     * @param leafSize 叶子的字节数；
+     * @return
+     */
+    public byte[] merkleHash(byte[] data, int leafSize) {
+        if (leafSize < 1) {
+            throw new IllegalArgumentException("The leaf size of merkle hash is less than 1!");
+        }
+        int leafCount = Math.max(1, (data.length + leafSize - 1) / leafSize);
+        byte[][] nodes = new byte[leafCount][];
+        IntStream.range(0, leafCount).parallel().forEach(i -> {
+            int offset = i * leafSize;
+            int length = Math.min(leafSize, data.length - offset);
+            SHA256Digest sha256Digest = digest();
+            sha256Digest.update(MERKLE_LEAF_PREFIX);
+            sha256Digest.update(data, offset, length);
+            nodes[i] = doFinal(sha256Digest);
+        });
+
+        int count = leafCount;
+        SHA256Digest sha256Digest = digest();
+        while (count > 1) {
+            int parentCount = (count + 1) / 2;
+            for (int i = 0; i < count / 2; i++) {
+                sha256Digest.update(MERKLE_NODE_PREFIX);
+                sha256Digest.update(nodes[2 * i], 0, SHA256DIGEST_LENGTH);
+                sha256Digest.update(nodes[2 * i + 1], 0, SHA256DIGEST_LENGTH);
+                nodes[i] = doFinal(sha256Digest);
+            }
+            if (count % 2 == 1) {
+                nodes[parentCount - 1] = nodes[count - 1];
+            }
+            count = parentCount;
+        }
+        return nodes[0];
+    }
+
+    private static void update(SHA256Digest sha256Digest, ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            sha256Digest.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        ByteBuffer src = buffer.duplicate();
+        byte[] chunk = COPY_BUFFER.get();
+        while (src.hasRemaining()) {
+            int length = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, length);
+            sha256Digest.update(chunk, 0, length);
+        }
+    }
+
+    private static SHA256Digest digest() {
+        // 重置摘要对象，避免之前异常中断的计算残留数据；
+        SHA256Digest sha256Digest = DIGEST.get();
+        sha256Digest.reset();
+        return sha256Digest;
+    }
+
+    private static byte[] doFinal(SHA256Digest sha256Digest) {
+        // doFinal 会重置摘要对象，可被当前线程继续复用；
+        byte[] result = new byte[SHA256DIGEST_LENGTH];
+        sha256Digest.doFinal(result, 0);
         return result;
     }
 }
@@ -0,0 +1,145 @@
+package bftsmart.consensus.messages;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import bftsmart.communication.SystemMessageCodecRegistry;
+import bftsmart.communication.SystemMessageSerializer;
+
+/**
+ * {@link ConsensusMessage} 的二进制序列化器；
+ * <p>
+ *
+ * 证明（proof）是 MAC 向量（HashMap&lt;Integer, byte[]&gt;）或者签名（byte[]），以二进制方式输出；<br>
+ * 其它类型的证明以 Java 对象序列化输出；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class ConsensusMessageSerializer implements SystemMessageSerializer<ConsensusMessage> {
+
+	private static final byte NO_PROOF = 0;
+
+	private static final byte SIGNATURE_PROOF = 1;
+
+	private static final byte MAC_VECTOR_PROOF = 2;
+
+	private static final byte OBJECT_PROOF = 3;
+
+	/**
+	 * 生成共识消息的证明（MAC 向量或签名）所覆盖的数据；
+	 * <p>
+	 *
+	 * 以 {@link SystemMessageCodecRegistry#LEGACY_FORMAT} 生成的数据与旧版本一致（Java 对象序列化），<br>
+	 * 验证证明时可依次尝试各个格式，以便在升级期间验证旧版本节点生成的证明；
+	 *
+	 * @param message 不含证明的共识消息；
+	 * @param format  消息格式；
+	 * @return
+	 */
+	public static byte[] toProofData(ConsensusMessage message, int format) {
+		if (format >= SystemMessageCodecRegistry.BINARY_FORMAT) {
+			return SystemMessageCodecRegistry.getDefault().serialize(message, SystemMessageCodecRegistry.BINARY_FORMAT);
+		}
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream(248);
+		try {
+			new ObjectOutputStream(bOut).writeObject(message);
+		} catch (IOException ex) {
+			throw new IllegalStateException(
+					"Error occurred while serializing ConsensusMessage[" + message + "]! --" + ex.getMessage(), ex);
+		}
+		return bOut.toByteArray();
+	}
+
+	@Override
+	public void write(ConsensusMessage message, DataOutput out) throws IOException {
+		out.writeInt(message.getSender());
+		out.writeInt(message.getNumber());
+		out.writeInt(message.getEpoch());
+		out.writeInt(message.getType());
+		SystemMessageCodecRegistry.writeBytes(message.getValue(), out);
+		SystemMessageCodecRegistry.writeBytes(message.getOrigPropValue(), out);
+		writeProof(message.getProof(), out);
+	}
+
+	@Override
+	public ConsensusMessage read(DataInput in) throws IOException {
+		int sender = in.readInt();
+		int number = in.readInt();
+		int epoch = in.readInt();
+		int type = in.readInt();
+		byte[] value = SystemMessageCodecRegistry.readBytes(in);
+
+		ConsensusMessage message = new ConsensusMessage(type, number, epoch, sender, value);
+		message.setOrigPropValue(SystemMessageCodecRegistry.readBytes(in));
+		message.setProof(readProof(in));
+		return message;
+	}
+
+	private static void writeProof(Object proof, DataOutput out) throws IOException {
+		if (proof == null) {
+			out.writeByte(NO_PROOF);
+		} else if (proof instanceof byte[]) {
+			out.writeByte(SIGNATURE_PROOF);
+			SystemMessageCodecRegistry.writeBytes((byte[]) proof, out);
+		} else if (isMacVector(proof)) {
+			@SuppressWarnings("unchecked")
+			Map<Integer, byte[]> macVector = (Map<Integer, byte[]>) proof;
+			out.writeByte(MAC_VECTOR_PROOF);
+			out.writeInt(macVector.size());
+			for (Map.Entry<Integer, byte[]> entry : macVector.entrySet()) {
+				out.writeInt(entry.getKey());
+				SystemMessageCodecRegistry.writeBytes(entry.getValue(), out);
+			}
+		} else {
+			out.writeByte(OBJECT_PROOF);
+			SystemMessageCodecRegistry.writeObject(proof, out);
+		}
+	}
+
+	private static Object readProof(DataInput in) throws IOException {
+		byte proofType = in.readByte();
+		switch (proofType) {
+		case NO_PROOF:
+			return null;
+		case SIGNATURE_PROOF:
+			return SystemMessageCodecRegistry.readBytes(in);
+		case MAC_VECTOR_PROOF:
+			int size = in.readInt();
+			if (size < 0) {
+				throw new IOException("Illegal size[" + size + "] of MAC vector!");
+			}
+			HashMap<Integer, byte[]> macVector = new HashMap<>();
+			for (int i = 0; i < size; i++) {
+				int id = in.readInt();
+				macVector.put(id, SystemMessageCodecRegistry.readBytes(in));
+			}
+			return macVector;
+		case OBJECT_PROOF:
+			return SystemMessageCodecRegistry.readObject(in);
+		default:
+			throw new IOException("Unknown proof type[" + proofType + "]!");
+		}
+	}
+
+	/**
+	 * 证明是否是以节点 Id 为键的 MAC 向量；反序列化时总是还原为 {@link HashMap}；
+	 */
+	private static boolean isMacVector(Object proof) {
+		if (!(proof instanceof HashMap)) {
+			return false;
+		}
+		for (Map.Entry<?, ?> entry : ((HashMap<?, ?>) proof).entrySet()) {
+			if (!(entry.getKey() instanceof Integer)
+					|| (entry.getValue() != null && !(entry.getValue() instanceof byte[]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -22,6 +22,7 @@ import bftsmart.consensus.Epoch;
 import bftsmart.consensus.app.BatchAppResult;
 import bftsmart.consensus.app.ComputeCode;
 import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.ConsensusMessageSerializer;
 import bftsmart.consensus.messages.MessageFactory;
 import bftsmart.reconfiguration.ReconfigureRequest;
 import bftsmart.reconfiguration.ReplicaTopology;
@@ -33,18 +34,17 @@ import bftsmart.tom.core.ReplyManager;
 import bftsmart.tom.core.TOMLayer;
 import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.metrics.ConsensusPhase;
 import bftsmart.tom.server.Replier;
 import bftsmart.tom.server.defaultservices.DefaultRecoverable;
 import bftsmart.tom.util.TOMUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.security.PrivateKey;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -132,7 +132,14 @@ public final class Acceptor {
 	public final void deliver(ConsensusMessage msg) {
 		if (executionManager.checkLimits(msg)) {
 			LOGGER.debug("processing paxos msg with id {}", msg.getNumber());
+			int lastExec = tomLayer.getLastExec();
 			processMessage(msg);
+			if (tomLayer.getLastExec() != lastExec) {
+				// a consensus was decided, start the next one if its messages (e.g. a
+				// pipelined PROPOSE from the leader) have already arrived
+				tomLayer.processOutOfContext();
+				tomLayer.processOutOfContextWriteAndAccept();
+			}
 		} else {
 			LOGGER.debug("out of context msg with id {}", msg.getNumber());
 
@@ -285,10 +292,10 @@ public final class Acceptor {
 
 		try {
 			int cid = epoch.getConsensus().getId();
-			LOGGER.info("(Acceptor.executePropose) I am proc {}, executing propose for cid : {}, epoch timestamp: {}",
+			LOGGER.debug("(Acceptor.executePropose) I am proc {}, executing propose for cid : {}, epoch timestamp: {}",
 					topology.getStaticConf().getProcessId(), cid, epoch.getTimestamp());
 
-//			long consensusStartTime = System.nanoTime();
+			tomLayer.getConsensusMetrics().mark(cid, ConsensusPhase.PROPOSE);
 
 			if (epoch.propValue == null) { // only accept one propose per epoch
 				epoch.propValue = value;
@@ -311,20 +318,10 @@ public final class Acceptor {
 				}
 
 				if (epoch.deserializedPropValue != null && !epoch.isWriteSetted(me)) {
-//					if (epoch.getConsensus().getDecision().firstMessageProposed == null) {
-//						epoch.getConsensus().getDecision().firstMessageProposed = epoch.deserializedPropValue[0];
-//					}
-//					if (epoch.getConsensus().getDecision().firstMessageProposed.consensusStartTime == 0) {
-//						epoch.getConsensus().getDecision().firstMessageProposed.consensusStartTime = consensusStartTime;
-//
-//					}
-//					epoch.getConsensus().getDecision().firstMessageProposed.proposeReceivedTime = System.nanoTime();
-
 //					if (topology.getStaticConf().isBFT()) {
 						LOGGER.debug("(Acceptor.executePropose) sending WRITE for {}", cid);
 
 						epoch.setWrite(me, epoch.propValueHash);
-//						epoch.getConsensus().getDecision().firstMessageProposed.writeSentTime = System.nanoTime();
 
 //                    System.out.println("I am proc " + controller.getStaticConf().getProcessId() + ", send write msg" + ", cid is " + cid);
 						communication.send(this.topology.getCurrentViewOtherAcceptors(),
@@ -339,8 +336,6 @@ public final class Acceptor {
 //					}
 //					else {
 //						epoch.setAccept(me, epoch.propValueHash);
-////						epoch.getConsensus().getDecision().firstMessageProposed.writeSentTime = System.nanoTime();
-////						epoch.getConsensus().getDecision().firstMessageProposed.acceptSentTime = System.nanoTime();
 //						/**** LEADER CHANGE CODE! ******/
 //						LOGGER.debug(
 //								"(Acceptor.executePropose) [CFT Mode] Setting consensus {}, QuorumWrite tiemstamp to {} and value {}",
@@ -403,8 +398,10 @@ public final class Acceptor {
 		try {
 			int writeAccepted = epoch.countWrite(value);
 
-			if (writeAccepted > topology.getQuorum()) {
-				LOGGER.info("(Acceptor.computeWrite) I am proc {}, I have {} WRITEs for cid {}, epoch timestamp {}",
+			// a pipelined consensus is pre-computed on top of the state of the previous one,
+			// so it waits until the previous one is decided (see resumeConsensus)
+			if (writeAccepted > topology.getQuorum() && isNextToDecide(cid)) {
+				LOGGER.debug("(Acceptor.computeWrite) I am proc {}, I have {} WRITEs for cid {}, epoch timestamp {}",
 						this.topology.getStaticConf().getProcessId(), writeAccepted, cid, epoch.getTimestamp());
 
 				if (!epoch.isAcceptSetted(me) && Arrays.equals(value, epoch.propValueHash)) {
@@ -419,17 +416,14 @@ public final class Acceptor {
 					epoch.getConsensus().setQuorumWrites(value);
 					/*****************************************/
 
-//					if (epoch.getConsensus().getDecision().firstMessageProposed != null) {
-//
-//						epoch.getConsensus().getDecision().firstMessageProposed.acceptSentTime = System.nanoTime();
-//					}
+					tomLayer.getConsensusMetrics().mark(cid, ConsensusPhase.WRITE_QUORUM);
 
 					// add to implement application consistency
 //					if (topology.getStaticConf().isBFT()) {
 
 						DefaultRecoverable defaultExecutor = getDefaultExecutor();
-                        byte[][] commands = new byte[epoch.deserializedPropValue.length][];
-//						List<byte[]> commands = new ArrayList<byte[]>();
+						// a client batch of commands is expanded into its individual commands
+						List<byte[]> commands = new ArrayList<byte[]>(epoch.deserializedPropValue.length);
 
 						for (int i = 0; i < epoch.deserializedPropValue.length; i++) {
 							// 对于视图ID落后于当前节点视图ID的请求或者Reconfig请求不进行预计算处理
@@ -441,17 +435,19 @@ public final class Acceptor {
 							TOMMessage message = epoch.deserializedPropValue[i];
 							if (isReconfig(message)) {
 								ReconfigureRequest request = (ReconfigureRequest) TOMUtil.getObject(message.getContent());
-								commands[i] = request.getExtendInfo();
+								commands.add(request.getExtendInfo());
 							} else {
-								commands[i] = message.getContent();
+								Collections.addAll(commands, message.getCommands());
 							}
 
 //							epoch.deserializedPrecomputeValue.add(msg);
 
 						}
 
-						LOGGER.info("I am proc {}, start pre compute , cid = {}, epoch = {}", this.topology.getStaticConf().getProcessId(), cid, epoch.getTimestamp());
-						BatchAppResult appHashResult = defaultExecutor.preComputeHash(cid, commands, epoch.getProposeTimestamp());
+						LOGGER.debug("I am proc {}, start pre compute , cid = {}, epoch = {}", this.topology.getStaticConf().getProcessId(), cid, epoch.getTimestamp());
+						BatchAppResult appHashResult = defaultExecutor.preComputeHash(cid, commands.toArray(new byte[commands.size()][]),
+								epoch.getProposeTimestamp());
+						tomLayer.getConsensusMetrics().mark(cid, ConsensusPhase.PRECOMPUTE);
 
 //						byte[] result = MergeByte(epoch.propValue, appHashResult.getAppHashBytes());
 
@@ -529,14 +525,7 @@ public final class Acceptor {
 	 * @param epoch The epoch during in which the consensus message was created
 	 */
 	private void insertProof(ConsensusMessage cm, Epoch epoch) {
-		ByteArrayOutputStream bOut = new ByteArrayOutputStream(248);
-		try {
-			new ObjectOutputStream(bOut).writeObject(cm);
-		} catch (IOException ex) {
-			ex.printStackTrace();
-		}
-
-		byte[] data = bOut.toByteArray();
+		byte[] data = ConsensusMessageSerializer.toProofData(cm, topology.getStaticConf().getMessageFormat());
 
 		// check if consensus contains reconfiguration request
 		TOMMessage[] msgs = epoch.deserializedPropValue;
@@ -684,15 +673,20 @@ public final class Acceptor {
 		try {
 			List<byte[]> updatedResp;
 
+			if (!isNextToDecide(cid)) {
+				// the ACCEPTs of a pipelined consensus are counted once it was pre-computed
+				return;
+			}
+
 			if (epoch.countAccept(value) > topology.getQuorum() && !epoch.getConsensus().isDecided()) {
-				LOGGER.info("(Acceptor.computeAccept) I am proc {}, I have {} ACCEPTs for cid {} and timestamp {}",
+				LOGGER.debug("(Acceptor.computeAccept) I am proc {}, I have {} ACCEPTs for cid {} and timestamp {}",
 						topology.getStaticConf().getProcessId(), epoch.countAccept(value), cid, epoch.getTimestamp());
 				if (Arrays.equals(value, epoch.propAndAppValueHash)
 						&& (ComputeCode.valueOf(epoch.getPreComputeRes()) == ComputeCode.SUCCESS)) {
 					LOGGER.debug("(Acceptor.computeAccept) I am proc {}. Deciding {} ",
 							topology.getStaticConf().getProcessId(), cid);
 					try {
-						LOGGER.info("(Acceptor.computeAccept) I am proc {}, I will write cid {} 's propse to ledger",
+						LOGGER.debug("(Acceptor.computeAccept) I am proc {}, I will write cid {} 's propse to ledger",
 								topology.getStaticConf().getProcessId(), cid);
 						getDefaultExecutor().preComputeCommit(cid, epoch.getBatchId());
 						tomLayer.getExecManager().getConsensus(cid).setPrecomputeCommited(true);
@@ -770,6 +764,38 @@ public final class Acceptor {
 
 	}
 
+	/**
+	 * Checks if the consensus is the next one to be decided; the consensus
+	 * instances after it within the pipeline window only exchange PROPOSE and
+	 * WRITE messages until then
+	 *
+	 * @param cid the consensus id
+	 * @return true if all the consensus instances before it are decided
+	 */
+	private boolean isNextToDecide(int cid) {
+		return cid == tomLayer.getLastExec() + 1;
+	}
+
+	/**
+	 * Continues a consensus whose messages were processed ahead of time within the
+	 * pipeline window, once it became the next one to be decided: if it already
+	 * has a quorum of WRITEs, it is pre-computed and this replica sends its ACCEPT
+	 *
+	 * @param cid the consensus id
+	 */
+	public void resumeConsensus(int cid) {
+		Consensus consensus = executionManager.getConsensus(cid);
+		consensus.lock.lock();
+		try {
+			Epoch epoch = consensus.getLastEpoch();
+			if (epoch != null && epoch.propValueHash != null && !consensus.isDecided()) {
+				computeWrite(cid, epoch, epoch.propValueHash);
+			}
+		} finally {
+			consensus.lock.unlock();
+		}
+	}
+
 	// Reconfig请求
 	private boolean isReconfig(TOMMessage tomMessage) {
 		return tomMessage.getReqType() == TOMMessageType.RECONFIG;
@@ -781,8 +807,7 @@ public final class Acceptor {
 	 * @param epoch Epoch at which the decision is made
 	 */
 	private void decide(Epoch epoch) {
-//		if (epoch.getConsensus().getDecision().firstMessageProposed != null)
-//			epoch.getConsensus().getDecision().firstMessageProposed.decisionTime = System.nanoTime();
+		tomLayer.getConsensusMetrics().mark(epoch.getConsensus().getId(), ConsensusPhase.ACCEPT_QUORUM);
 
 		epoch.getConsensus().decided(epoch, true);
 	}
@@ -0,0 +1,74 @@
+package bftsmart.reconfiguration.util;
+
+import java.io.Serializable;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+import org.apache.commons.codec.binary.Base64;
+
+import bftsmart.tom.util.SignatureScheme;
+
+/**
+ * 非 RSA 签名方案的默认密钥；
+ * <p>
+ *
+ * 与 {@link DefaultRSAKeyLoader} 一样，所有进程使用同一对内置的密钥，仅用于测试；<br>
+ * 公钥为 X.509 编码，私钥为 PKCS#8 编码；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class DefaultSignatureKeyLoader implements RsaKeyLoader, Serializable {
+
+	private static final long serialVersionUID = 3186440913754211032L;
+
+	private static final String ECDSA_UKEY = "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAE/obesXzcE0X5G1ViYjQ8SKuOrVzUinCpfR4pmxuTBUcAPuUfYe5C7AEDKEw6QN21brldaS5go1eSkwT/o6fjeQ==";
+
+	private static final String ECDSA_PKEY = "MEECAQAwEwYHKoZIzj0CAQYIKoZIzj0DAQcEJzAlAgEBBCDasY9EFg/qzzD72p1ESucpX7ZH7fD18eJKw99x5ZyJkA==";
+
+	private static final String ED25519_UKEY = "MCowBQYDK2VwAyEAZR9H6goWeM62bfObSd5fI4J479UPtPDPTltbi2UTapw=";
+
+	private static final String ED25519_PKEY = "MC4CAQAwBQYDK2VwBCIEIC/0kDYp4vXlYr0FnJLPfN1M7mTDJcGj7Of9thXmS3tr";
+
+	private static final String SM2_UKEY = "MFkwEwYHKoZIzj0CAQYIKoEcz1UBgi0DQgAEGCwotgQJAZCXgpvVhrwAU9TqerQbh6G2cP78WmX/lcVNMyBn0GaKLq4ADpyDmmoIRVvD9EaHrWtk3aZk+b5gXQ==";
+
+	private static final String SM2_PKEY = "MEECAQAwEwYHKoZIzj0CAQYIKoEcz1UBgi0EJzAlAgEBBCB7popF5jM7HMk6FlBeRG1mvlFON7UMVY7QgD+axudvPw==";
+
+	private final PublicKey pubKey;
+
+	private final PrivateKey priKey;
+
+	public DefaultSignatureKeyLoader(SignatureScheme scheme) {
+		String ukey;
+		String pkey;
+		switch (scheme) {
+		case ECDSA:
+			ukey = ECDSA_UKEY;
+			pkey = ECDSA_PKEY;
+			break;
+		case ED25519:
+			ukey = ED25519_UKEY;
+			pkey = ED25519_PKEY;
+			break;
+		case SM2:
+			ukey = SM2_UKEY;
+			pkey = SM2_PKEY;
+			break;
+		default:
+			throw new IllegalArgumentException("No default keys of signature scheme[" + scheme + "]!");
+		}
+		this.pubKey = scheme.decodePublicKey(Base64.decodeBase64(ukey));
+		this.priKey = scheme.decodePrivateKey(Base64.decodeBase64(pkey));
+	}
+
+	@Override
+	public PublicKey loadPublicKey(int id) throws Exception {
+		return pubKey;
+	}
+
+	@Override
+	public PrivateKey loadPrivateKey(int id) throws Exception {
+		return priKey;
+	}
+
+}
@@ -24,9 +24,11 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
 
+import bftsmart.communication.SystemMessageCodecRegistry;
 import bftsmart.reconfiguration.views.NodeNetwork;
 import bftsmart.reconfiguration.views.NullNodeNetwork;
 import bftsmart.tom.ReplicaConfiguration;
+import bftsmart.tom.util.SignatureScheme;
 import bftsmart.util.ConsensusUtils;
 
 public class TOMConfiguration implements Serializable, ReplicaConfiguration {
@@ -61,19 +63,31 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 	private int timeoutHighMark;
 	private int replyVerificationTime;
 	private int maxBatchSize;
+	private int pipelineDepth;
+	private int maxDeliveryDecisions;
+	private int merkleHashThreshold;
 	private long timeTolerance;
 	private int numberOfNonces;
 	private int inQueueSize;
+	private String inQueueType;
 	private int outQueueSize;
 	private boolean shutdownHookEnabled;
+	private boolean metricsEnabled;
 //	private boolean useSenderThread;
 	private long sendRetryInterval;
 	private int sendRetryCount;
+	private int sendFlushMaxMessages;
+	private int sendFlushMaxBytes;
+	private long sendFlushMaxDelay;
+	private int consensusWorkers;
 	private RsaKeyLoader rsaLoader;
 	private int debug;
 	private int numNIOThreads;
+	private boolean useEpoll;
+	private int messageFormat;
 	private int useMACs;
 	private int useSignatures;
+	private SignatureScheme signatureScheme;
 	private boolean stateTransferEnabled;
 	private int checkpointPeriod;
 	private int globalCheckpointPeriod;
@@ -82,6 +96,8 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 	private int ttpId;
 	private boolean isToLog;
 	private boolean syncLog;
+	private String logDurability;
+	private long logSegmentSize;
 	private boolean parallelLog;
 	private boolean logToDisk;
 	private boolean isToWriteCkpsToDisk;
@@ -100,7 +116,7 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 		initSystemConfig(hostsConfig, systemConfigs);
 		initTomConfig(hostsConfig, systemConfigs);
 
-		this.rsaLoader = new DefaultRSAKeyLoader();
+		this.rsaLoader = createDefaultKeyLoader(signatureScheme);
 	}
 
 	/** Creates a new instance of TOMConfiguration */
@@ -108,7 +124,13 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 			HostsConfig outerHostConfig) {
 		this(processId, systemConfigs, hostConfig);
 		this.outerHostConfig = outerHostConfig;
-		this.rsaLoader = new DefaultRSAKeyLoader();
+	}
+
+	private static RsaKeyLoader createDefaultKeyLoader(SignatureScheme signatureScheme) {
+		if (signatureScheme == SignatureScheme.RSA) {
+			return new DefaultRSAKeyLoader();
+		}
+		return new DefaultSignatureKeyLoader(signatureScheme);
 	}
 
 	private void initSystemConfig(HostsConfig hosts, Properties configs) {
@@ -189,6 +211,9 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 			s = (String) configs.remove("system.shutdownhook");
 			shutdownHookEnabled = (s != null) ? Boolean.parseBoolean(s) : false;
 
+			s = (String) configs.remove("system.metrics.enabled");
+			metricsEnabled = (s != null) ? Boolean.parseBoolean(s) : false;
+
 			s = (String) configs.remove("system.totalordermulticast.period");
 			if (s == null) {
 				tomPeriod = n * 5;
@@ -308,6 +333,33 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 				maxBatchSize = Integer.parseInt(s);
 			}
 
+			s = (String) configs.remove("system.totalordermulticast.pipeline_depth");
+			if (s == null) {
+				pipelineDepth = 1;
+			} else {
+				pipelineDepth = Integer.parseInt(s);
+				if (pipelineDepth < 1) {
+					pipelineDepth = 1;
+				}
+			}
+
+			s = (String) configs.remove("system.totalordermulticast.max_delivery_decisions");
+			if (s == null) {
+				maxDeliveryDecisions = 16;
+			} else {
+				maxDeliveryDecisions = Integer.parseInt(s);
+				if (maxDeliveryDecisions < 1) {
+					maxDeliveryDecisions = 1;
+				}
+			}
+
+			s = (String) configs.remove("system.totalordermulticast.merkle_hash_threshold");
+			if (s == null) {
+				merkleHashThreshold = 0;
+			} else {
+				merkleHashThreshold = Math.max(0, Integer.parseInt(s));
+			}
+
 			s = (String) configs.remove("system.totalordermulticast.replayVerificationTime");
 			if (s == null) {
 				replyVerificationTime = 0;
@@ -345,13 +397,48 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 				sendRetryCount = Integer.parseInt(s);
 			}
 
+			s = (String) configs.remove("system.communication.send.flushMaxMessages");
+			if (s == null) {
+				sendFlushMaxMessages = 64;
+			} else {
+				sendFlushMaxMessages = Math.max(1, Integer.parseInt(s));
+			}
+
+			s = (String) configs.remove("system.communication.send.flushMaxBytes");
+			if (s == null) {
+				// 默认 1MB；
+				sendFlushMaxBytes = 1024 * 1024;
+			} else {
+				sendFlushMaxBytes = Math.max(1, Integer.parseInt(s));
+			}
+
+			s = (String) configs.remove("system.communication.send.flushMaxDelay");
+			if (s == null) {
+				// 默认不等待，只合并已在发送队列中的消息；
+				sendFlushMaxDelay = 0;
+			} else {
+				sendFlushMaxDelay = Math.max(0, Long.parseLong(s));
+			}
+
+			s = (String) configs.remove("system.communication.consensusWorkers");
+			if (s == null) {
+				// 默认单线程处理共识消息；
+				consensusWorkers = 1;
+			} else {
+				consensusWorkers = Math.max(1, Integer.parseInt(s));
+			}
+
 			s = (String) configs.remove("system.communication.numNIOThreads");
 			if (s == null) {
-				numNIOThreads = 2;
+				// 默认采用处理器核数；
+				numNIOThreads = 0;
 			} else {
 				numNIOThreads = Integer.parseInt(s);
 			}
 
+			s = (String) configs.remove("system.communication.useEpoll");
+			useEpoll = (s != null) ? Boolean.parseBoolean(s) : false;
+
 			s = (String) configs.remove("system.communication.useMACs");
 			if (s == null) {
 				useMACs = 0;
@@ -366,6 +453,20 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 				useSignatures = Integer.parseInt(s);
 			}
 
+			s = (String) configs.remove(SignatureScheme.CONFIG_KEY);
+			signatureScheme = (s != null) ? SignatureScheme.of(s) : SignatureScheme.RSA;
+
+			s = (String) configs.remove("system.communication.messageFormat");
+			if (s != null) {
+				messageFormat = Integer.parseInt(s.trim());
+			} else if (signatureScheme == SignatureScheme.RSA) {
+				// 默认采用旧版本的格式，以便与未升级的节点和客户端兼容，由运维人员显式启用二进制格式；
+				messageFormat = SystemMessageCodecRegistry.LEGACY_FORMAT;
+			} else {
+				// 非 RSA 的签名方案只能用于已升级的节点和客户端，此时默认采用二进制格式；
+				messageFormat = SystemMessageCodecRegistry.BINARY_FORMAT;
+			}
+
 			s = (String) configs.remove("system.totalordermulticast.state_transfer");
 			if (s == null) {
 				stateTransferEnabled = false;
@@ -406,6 +507,9 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 
 			}
 
+			s = (String) configs.remove("system.communication.inQueueType");
+			inQueueType = (s != null && s.trim().length() > 0) ? s.trim().toLowerCase() : "linked";
+
 			s = (String) configs.remove("system.communication.outQueueSize");
 			if (s == null) {
 				outQueueSize = 1000;
@@ -444,6 +548,23 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 				syncLog = false;
 			}
 
+			s = (String) configs.remove("system.totalordermulticast.log_durability");
+			if (s != null && s.trim().length() > 0) {
+				logDurability = s.trim().toLowerCase();
+			} else {
+				logDurability = syncLog ? "every_cid" : "none";
+			}
+
+			s = (String) configs.remove("system.totalordermulticast.log_segment_size");
+			if (s != null && s.trim().length() > 0) {
+				logSegmentSize = Long.parseLong(s.trim());
+				if (logSegmentSize <= 0) {
+					throw new IllegalArgumentException("Illegal log segment size[" + logSegmentSize + "]!");
+				}
+			} else {
+				logSegmentSize = 64L * 1024 * 1024;
+			}
+
 			s = (String) configs.remove("system.totalordermulticast.checkpoint_to_disk");
 			if (s == null) {
 				isToWriteCkpsToDisk = false;
@@ -495,6 +616,13 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 			e.printStackTrace(System.err);
 		}
 
+		// 在上面的异常处理之外校验，以免不兼容的配置被忽略；
+		if (messageFormat == SystemMessageCodecRegistry.LEGACY_FORMAT && signatureScheme != SignatureScheme.RSA) {
+			// 旧版本的格式中签名不带长度，仅支持定长的 RSA 签名；
+			throw new IllegalArgumentException(
+					"The signature scheme[" + signatureScheme + "] requires system.communication.messageFormat >= "
+							+ SystemMessageCodecRegistry.BINARY_FORMAT + "!");
+		}
 	}
 
 	@Override
@@ -707,11 +835,31 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 		return maxBatchSize;
 	}
 
+	@Override
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	@Override
+	public int getMaxDeliveryDecisions() {
+		return maxDeliveryDecisions;
+	}
+
+	@Override
+	public int getMerkleHashThreshold() {
+		return merkleHashThreshold;
+	}
+
 	@Override
 	public boolean isShutdownHookEnabled() {
 		return shutdownHookEnabled;
 	}
 
+	@Override
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
 	@Override
 	public boolean isStateTransferEnabled() {
 		return stateTransferEnabled;
@@ -722,6 +870,11 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 		return inQueueSize;
 	}
 
+	@Override
+	public String getInQueueType() {
+		return inQueueType;
+	}
+
 	@Override
 	public int getOutQueueSize() {
 		return outQueueSize;
@@ -751,6 +904,26 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 		return sendRetryCount;
 	}
 
+	@Override
+	public int getSendFlushMaxMessages() {
+		return sendFlushMaxMessages;
+	}
+
+	@Override
+	public int getSendFlushMaxBytes() {
+		return sendFlushMaxBytes;
+	}
+
+	@Override
+	public long getSendFlushMaxDelay() {
+		return sendFlushMaxDelay;
+	}
+
+	@Override
+	public int getConsensusWorkers() {
+		return consensusWorkers;
+	}
+
 	/**
 	 * *
 	 */
@@ -759,6 +932,16 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 		return numNIOThreads;
 	}
 
+	@Override
+	public boolean isUseEpoll() {
+		return useEpoll;
+	}
+
+	@Override
+	public int getMessageFormat() {
+		return messageFormat;
+	}
+
 	/** * @return the numberOfNonces */
 	@Override
 	public int getNumberOfNonces() {
@@ -774,6 +957,11 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 		return useSignatures != 0;
 	}
 
+	@Override
+	public SignatureScheme getSignatureScheme() {
+		return signatureScheme;
+	}
+
 	/**
 	 * Indicates if MACs should be used (1) or not (0) to authenticate client-server
 	 * and server-server messages
@@ -812,6 +1000,16 @@ public class TOMConfiguration implements Serializable, ReplicaConfiguration {
 		return syncLog;
 	}
 
+	@Override
+	public String getLogDurability() {
+		return logDurability;
+	}
+
+	@Override
+	public long getLogSegmentSize() {
+		return logSegmentSize;
+	}
+
 	@Override
 	public boolean isLoggingToDisk() {
 		return logToDisk;
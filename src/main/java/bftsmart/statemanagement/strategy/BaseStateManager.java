@@ -21,10 +21,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.locks.ReentrantLock;
 
 import bftsmart.statemanagement.TransactionReplayState;
@@ -82,8 +79,6 @@ public abstract class BaseStateManager implements StateManager {
 
     private HashMap<Integer, Integer> validDataSenders = null;
 
-    private HashMap<Integer, TransactionReplayState> replayStateHashMap = null;
-
     private ReentrantLock replayReceivedLock = new ReentrantLock();
 
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(BaseStateManager.class);
@@ -95,11 +90,6 @@ public abstract class BaseStateManager implements StateManager {
         senderLeaders = new HashMap<>();
         senderProofs = new HashMap<>();
         validDataSenders = new HashMap<>();
-        replayStateHashMap = new HashMap<>();
-    }
-
-    public HashMap<Integer, TransactionReplayState> getReplayStateHashMap() {
-        return replayStateHashMap;
     }
 
     protected int getReplies() {
@@ -197,7 +187,6 @@ public abstract class BaseStateManager implements StateManager {
         senderRegencies.clear();
         senderViews.clear();
         senderProofs.clear();
-        replayStateHashMap.clear();
         state = null;
     }
 
@@ -373,7 +362,6 @@ public abstract class BaseStateManager implements StateManager {
                             if (lastCID < checkPointFromOtherNode) {
                                 LOGGER.info("-- Backward node cross checkpoint, will start transactions replay process!");
                                 // 启动交易重放过程,随机选择目标节点
-                                getReplayStateHashMap().clear();
                                 askTransactionReplay(lastCID + 1, checkPointFromOtherNode);
                             } else {
                                 // 通用流程
@@ -393,88 +381,141 @@ public abstract class BaseStateManager implements StateManager {
 
     @Override
     public void transactionReplayReplyDeliver(StandardTRMessage msg) {
-        replayReceivedLock.lock();
-
-        int checkPointFromOtherNode = this.tomLayer.controller.getStaticConf().getCheckpointPeriod() * (waitingCID / this.tomLayer.controller.getStaticConf().getCheckpointPeriod()) - 1;
-
         LOGGER.info("I am proc {}, I will handle transactionReplayReceived!", tomLayer.getCurrentProcessId());
-        try {
-            replayStateHashMap.put(msg.getStartCid(), ((StandardTRMessage) msg).getState());
-
-            int lastCid = this.tomLayer.getStateManager().getLastCID();
-            // 保证交易内容按顺序进行重放
-            while (replayStateHashMap.keySet().contains(lastCid + 1)) {
 
-                TransactionReplayState replayState = replayStateHashMap.get(lastCid + 1);
-
-                for (int i = 0, cid = replayState.getStartCid(); (i <= replayState.getEndCid() - replayState.getStartCid()) && (cid <= replayState.getEndCid()); i++,cid++ ) {
-                    byte[][] commands = ((DefaultTransactionReplayState) replayState).getMessageBatches()[i].commands;
-                    MessageContext[] messageContexts =  ((DefaultTransactionReplayState) replayState).getMessageBatches()[i].msgCtx;
-                    LOGGER.info("I am proc {}, I will execute transactions replay!,replay cid = {}", tomLayer.getCurrentProcessId(), cid );
-                    ((DefaultRecoverable) tomLayer.getDeliveryThread().getRecoverer()).appExecuteBatch(commands, messageContexts, false);
-                }
-                this.tomLayer.getStateManager().setLastCID(replayState.getEndCid());
-                this.tomLayer.setLastExec(replayState.getEndCid());
-                lastCid = replayState.getEndCid();
-            }
-
-            if (lastCID == checkPointFromOtherNode) {
-                if (replayTimer != null) replayTimer.cancel();
-                getReplayStateHashMap().clear();
-                requestState();
-            }
-        } finally {
-            replayReceivedLock.unlock();
+        TransactionReplayScheduler scheduler = replayScheduler;
+        if (scheduler == null) {
+            LOGGER.info("I am proc {}, no transactions replay in progress, ignore the reply!", tomLayer.getCurrentProcessId());
+            return;
         }
+        // 分段交给调度器，按共识ID的顺序在重放执行线程中执行，不阻塞消息的接收
+        scheduler.onReply(msg.getSender(), msg.getStartCid(), msg.getEndCid(), msg.getState());
     }
 
-    protected Timer replayTimer = null;
+    protected volatile TransactionReplayScheduler replayScheduler = null;
+    /**
+     * 交易重放执行失败后，从已执行的位置重新请求重放的最大次数；超过后改为请求状态；
+     */
+    protected final static int MAX_REPLAY_RETRIES = 3;
+    private int replayFailures = 0;
     protected final static long INIT_TIMEOUT = 20000;
     protected long timeout = INIT_TIMEOUT;
 
     @Override
     public void askTransactionReplay(int startCid, int endCid) {
 
-        int target = (Integer) validDataSenders.keySet().toArray()[0];
+        int[] senders = replaySenders();
+        if (senders.length == 0) {
+            LOGGER.error("I am proc {}, no valid data sender for transactions replay between cid {} --> {} !", tomLayer.getCurrentProcessId(), startCid, endCid);
+            return;
+        }
 
         int me = topology.getCurrentProcessId();
-        StandardTRMessage trRequestMessage = new StandardTRMessage(me, target, null, startCid, endCid, TOMUtil.SM_TRANSACTION_REPLAY_REQUEST_INFO);
-        LOGGER.info("I will send StandardTRMessage[{}] to target node {}, between cid {} --> {} !", TOMUtil.SM_TRANSACTION_REPLAY_REQUEST_INFO, target, startCid, endCid);
-        tomLayer.getCommunication().send(trRequestMessage, target);
-
-        // 交易重放消息的安全保障
-        TimerTask replayTask =  new TimerTask() {
-            public void run() {
-                if (!doWork) {
-                    return;
-                }
-                LOGGER.info("Change valid peer node, Resend timeout transaction replay");
-                int newTarget= changeValidDataSender();
-                tomLayer.getCommunication().send(trRequestMessage, newTarget);
-            }
-        };
+        int checkPointFromOtherNode = endCid;
 
-        replayTimer = new Timer("tx replay timer");
-        timeout = timeout * 2;
-        replayTimer.schedule(replayTask,timeout);
-    }
+        TransactionReplayScheduler scheduler = new TransactionReplayScheduler(startCid, endCid, senders, timeout,
+                new TransactionReplayScheduler.ReplayHandler() {
+
+                    @Override
+                    public void request(int target, int chunkStartCid, int chunkEndCid) {
+                        StandardTRMessage trRequestMessage = new StandardTRMessage(me, target, null, chunkStartCid, chunkEndCid, TOMUtil.SM_TRANSACTION_REPLAY_REQUEST_INFO);
+                        LOGGER.info("I will send StandardTRMessage[{}] to target node {}, between cid {} --> {} !", TOMUtil.SM_TRANSACTION_REPLAY_REQUEST_INFO, target, chunkStartCid, chunkEndCid);
+                        tomLayer.getCommunication().send(trRequestMessage, target);
+                    }
 
-    private int changeValidDataSender() {
+                    @Override
+                    public void apply(TransactionReplayState replayState) {
+                        applyReplayState(replayState);
+                    }
 
-        Object[] processes = validDataSenders.keySet().toArray();
+                    @Override
+                    public void complete(int lastCid) {
+                        replayReceivedLock.lock();
+                        try {
+                            replayFailures = 0;
+                            if (lastCID == checkPointFromOtherNode) {
+                                requestState();
+                            }
+                        } finally {
+                            replayReceivedLock.unlock();
+                        }
+                    }
 
-        int target = -1;
+                    @Override
+                    public void fail(int chunkStartCid, Throwable error) {
+                        replayFailed(checkPointFromOtherNode, error);
+                    }
+                });
 
-        Random r = new Random();
+        TransactionReplayScheduler previous = replayScheduler;
+        if (previous != null) {
+            previous.stop();
+        }
+        replayScheduler = scheduler;
+        scheduler.start();
+    }
 
-        int pos;
+    /**
+     * 交易重放执行失败时，从已执行的位置重新请求重放；多次失败后改为请求状态，避免节点停滞；
+     */
+    private void replayFailed(int endCid, Throwable error) {
+        if (!doWork) {
+            return;
+        }
+        int resumeCid;
+        boolean retry;
+        replayReceivedLock.lock();
+        try {
+            resumeCid = lastCID + 1;
+            retry = ++replayFailures <= MAX_REPLAY_RETRIES && resumeCid <= endCid;
+            if (!retry) {
+                replayFailures = 0;
+            }
+        } finally {
+            replayReceivedLock.unlock();
+        }
+        if (retry) {
+            LOGGER.warn("I am proc {}, transactions replay failed, retry from cid {} --> {} ! --{}", tomLayer.getCurrentProcessId(), resumeCid, endCid, error.getMessage());
+            askTransactionReplay(resumeCid, endCid);
+        } else {
+            LOGGER.error("I am proc {}, transactions replay failed at cid {}, request state instead ! --{}", tomLayer.getCurrentProcessId(), resumeCid, error.getMessage());
+            replayScheduler = null;
+            requestState();
+        }
+    }
 
-        if (processes != null && processes.length != 0) {
-            pos = r.nextInt(processes.length);
-            target = (Integer) processes[pos];
+    private void applyReplayState(TransactionReplayState replayState) {
+        replayReceivedLock.lock();
+        try {
+            CommandsInfo[] batches = ((DefaultTransactionReplayState) replayState).getMessageBatches();
+            for (int i = 0, cid = replayState.getStartCid(); (i <= replayState.getEndCid() - replayState.getStartCid()) && (cid <= replayState.getEndCid()); i++,cid++ ) {
+                byte[][] commands = batches[i].commands;
+                MessageContext[] messageContexts = batches[i].msgCtx;
+                LOGGER.debug("I am proc {}, I will execute transactions replay!,replay cid = {}", tomLayer.getCurrentProcessId(), cid );
+                ((DefaultRecoverable) tomLayer.getDeliveryThread().getRecoverer()).appExecuteBatch(commands, messageContexts, false);
+                // 逐个共识更新执行进度，执行失败时从已执行的位置继续重放，不会重复执行；
+                this.tomLayer.getStateManager().setLastCID(cid);
+                this.tomLayer.setLastExec(cid);
+            }
+            LOGGER.info("I am proc {}, transactions replay executed, between cid {} --> {}", tomLayer.getCurrentProcessId(), replayState.getStartCid(), replayState.getEndCid());
+        } finally {
+            replayReceivedLock.unlock();
         }
+    }
 
-        return target;
+    /**
+     * 交易重放的数据源：所有的数据完备节点；尚未确定数据完备节点时使用视图中的其它节点
+     */
+    private int[] replaySenders() {
+        if (!validDataSenders.isEmpty()) {
+            int[] senders = new int[validDataSenders.size()];
+            int i = 0;
+            for (int sender : validDataSenders.keySet()) {
+                senders[i++] = sender;
+            }
+            return senders;
+        }
+        return topology.getCurrentViewOtherAcceptors();
     }
 
     @Override
@@ -494,7 +535,7 @@ public abstract class BaseStateManager implements StateManager {
             LOGGER.info("I am proc {}, I am not transactions replay reply target!", tomLayer.getCurrentProcessId());
             return;
         }
-        int batchSize = 1000;
+        int batchSize = TransactionReplayScheduler.CHUNK_SIZE;
         for (int cid = startCid; cid <= endCid;) {
             // 交易重放批大小超过batchSize，则以batchSize为单位打包响应消息，否则根据实际大小打包
             if (cid + batchSize -1 < endCid ) {
@@ -518,11 +559,18 @@ public abstract class BaseStateManager implements StateManager {
 
         LOGGER.info("I am proc {}, I will getReplayState between cid {} --> {}!", tomLayer.getCurrentProcessId(), startCid, endCid);
 
-        CommandsInfo[] commandsInfos = new CommandsInfo[endCid - startCid + 1];
+        DefaultRecoverable recoverable = (DefaultRecoverable)(tomLayer.getDeliveryThread().getRecoverer());
+
+        // 命令日志覆盖请求的范围时直接从日志读取，代价与范围的大小成正比；
+        CommandsInfo[] commandsInfos = recoverable.getLoggedCommands(startCid, endCid);
+        if (commandsInfos != null) {
+            return new DefaultTransactionReplayState(commandsInfos, startCid, endCid, topology.getCurrentProcessId());
+        }
+
+        commandsInfos = new CommandsInfo[endCid - startCid + 1];
 
         for (int i = 0, cid = startCid; (i <= endCid - startCid) && (cid <= endCid); i++, cid++) {
 
-            DefaultRecoverable recoverable = (DefaultRecoverable)(tomLayer.getDeliveryThread().getRecoverer());
             commandsInfos[i] =  new CommandsInfo();
             commandsInfos[i].commands = recoverable.getCommandsByCid(cid,  recoverable.getCommandsNumByCid(cid));
 
@@ -0,0 +1,47 @@
+package bftsmart.statemanagement.strategy;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import bftsmart.communication.SystemMessageCodecRegistry;
+import bftsmart.communication.SystemMessageSerializer;
+import bftsmart.reconfiguration.views.View;
+import bftsmart.statemanagement.ApplicationState;
+
+/**
+ * {@link StandardSMMessage} 的二进制序列化器；
+ * <p>
+ *
+ * 消息头以二进制方式输出，应用状态和视图仍以 Java 对象序列化输出；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class StandardSMMessageSerializer implements SystemMessageSerializer<StandardSMMessage> {
+
+	@Override
+	public void write(StandardSMMessage message, DataOutput out) throws IOException {
+		out.writeInt(message.getSender());
+		out.writeInt(message.getCID());
+		out.writeInt(message.getType());
+		out.writeInt(message.getReplica());
+		out.writeInt(message.getRegency());
+		out.writeInt(message.getLeader());
+		SystemMessageCodecRegistry.writeObject(message.getState(), out);
+		SystemMessageCodecRegistry.writeObject(message.getView(), out);
+	}
+
+	@Override
+	public StandardSMMessage read(DataInput in) throws IOException {
+		int sender = in.readInt();
+		int cid = in.readInt();
+		int type = in.readInt();
+		int replica = in.readInt();
+		int regency = in.readInt();
+		int leader = in.readInt();
+		ApplicationState state = SystemMessageCodecRegistry.readObject(in);
+		View view = SystemMessageCodecRegistry.readObject(in);
+		return new StandardSMMessage(sender, cid, type, replica, state, view, regency, leader);
+	}
+}
@@ -16,6 +16,7 @@ limitations under the License.
 package bftsmart.statemanagement.strategy;
 
 import bftsmart.consensus.Consensus;
+import bftsmart.consensus.app.SHA256Utils;
 import bftsmart.consensus.Epoch;
 import bftsmart.consensus.messages.ConsensusMessage;
 import bftsmart.consensus.messages.MessageFactory;
@@ -47,6 +48,9 @@ public class StandardStateManager extends BaseStateManager {
     //private LCManager lcManager;
     private ExecutionManager execManager;
 
+    // the digests of SHA256Utils are per thread, so the instance can be shared
+    private static final SHA256Utils STATE_MD = new SHA256Utils();
+
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(StandardStateManager.class);
 
 
@@ -150,8 +154,8 @@ public class StandardStateManager extends BaseStateManager {
         if (stateTimer != null) {
             stateTimer.cancel();
         }
-        if (replayTimer != null) {
-            replayTimer.cancel();
+        if (replayScheduler != null) {
+            replayScheduler.stop();
         }
     }
     
@@ -243,7 +247,7 @@ public class StandardStateManager extends BaseStateManager {
                     int haveState = 0;
 //                        if(state != null) {
                             byte[] hash = null;
-                            hash = tomLayer.computeHash(state.getSerializedState());
+                            hash = computeStateHash(state.getSerializedState());
                             if (otherReplicaState != null) {
                                 if (Arrays.equals(hash, otherReplicaState.getStateHash())) haveState = 1;
                                 else if (getNumEqualStates() > topology.getCurrentViewF())
@@ -412,6 +416,19 @@ public class StandardStateManager extends BaseStateManager {
         }
     }
 
+    /**
+     * Computes the hash of a received application state. The recoverable hashes
+     * its states with plain SHA-256, the merkle hash of
+     * {@link TOMLayer#computeHash(byte[])} only applies to proposed values and
+     * decisions.
+     *
+     * @param serializedState the serialized application state
+     * @return the SHA-256 hash of the state
+     */
+    public static byte[] computeStateHash(byte[] serializedState) {
+        return STATE_MD.hash(serializedState);
+    }
+
     /**
      * Search in the received states table for a state that was not sent by the expected
      * replica. This is used to compare both states after received the state from expected
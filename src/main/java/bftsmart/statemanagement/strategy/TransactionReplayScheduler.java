@@ -0,0 +1,326 @@
+package bftsmart.statemanagement.strategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bftsmart.statemanagement.TransactionReplayState;
+
+/**
+ * 落后节点的交易重放调度；
+ * <p>
+ *
+ * 把待重放的共识 ID 范围拆分为固定大小的分段，按轮转的方式分配给所有的数据完备节点并行请求：<br>
+ * 1. 已请求但尚未执行完成的分段数不超过窗口大小，以此限制内存占用，也为数据源节点提供流控；<br>
+ * 2. 分段超时未收到响应时，改向另一个数据完备节点重新请求；<br>
+ * 3. 分段由独立的执行线程按共识 ID 的顺序执行，接收和反序列化后续分段与执行当前分段同时进行；<br>
+ * 4. 分段执行失败时停止重放，并通过 {@link ReplayHandler#fail(int, Throwable)} 通知处理者；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class TransactionReplayScheduler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TransactionReplayScheduler.class);
+
+	/**
+	 * 每个分段的共识数，与数据源节点打包响应消息的大小一致；
+	 */
+	public static final int CHUNK_SIZE = 1000;
+
+	/**
+	 * 每个数据完备节点的未完成分段数；
+	 */
+	public static final int CHUNKS_PER_SENDER = 2;
+
+	/**
+	 * 分段请求的执行者；
+	 */
+	public static interface ReplayHandler {
+
+		/**
+		 * 向指定的节点请求一个分段；
+		 *
+		 * @param target   目标节点；
+		 * @param startCid 起始的共识 ID（含）；
+		 * @param endCid   结束的共识 ID（含）；
+		 */
+		void request(int target, int startCid, int endCid);
+
+		/**
+		 * 执行一个分段；分段按共识 ID 的顺序依次执行；
+		 *
+		 * @param state
+		 */
+		void apply(TransactionReplayState state);
+
+		/**
+		 * 所有分段执行完成；
+		 *
+		 * @param lastCid 最后的共识 ID；
+		 */
+		void complete(int lastCid);
+
+		/**
+		 * 执行分段时发生错误，重放已停止；
+		 * <p>
+		 *
+		 * 已执行的交易不会回滚，由处理者决定从已执行的位置重新请求重放，或者改为请求状态；
+		 *
+		 * @param startCid 执行失败的分段的起始共识 ID；
+		 * @param error    错误；
+		 */
+		void fail(int startCid, Throwable error);
+	}
+
+	private final ReplayHandler handler;
+
+	private final long timeoutMillis;
+
+	private final int[] senders;
+
+	private final int window;
+
+	private final int endCid;
+
+	/**
+	 * 尚未请求的分段的起始共识 ID；
+	 */
+	private int nextRequestCid;
+
+	/**
+	 * 下一个待执行的分段的起始共识 ID；
+	 */
+	private int nextApplyCid;
+
+	private int nextSenderIndex = 0;
+
+	/**
+	 * 已请求、尚未收到响应的分段，以起始共识 ID 为键；
+	 */
+	private final Map<Integer, Chunk> requested = new HashMap<Integer, Chunk>();
+
+	/**
+	 * 已收到响应、等待执行的分段，以起始共识 ID 为键；
+	 */
+	private final TreeMap<Integer, TransactionReplayState> received = new TreeMap<Integer, TransactionReplayState>();
+
+	private final ScheduledExecutorService timer;
+
+	private final Thread applier;
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param startCid      起始的共识 ID（含）；
+	 * @param endCid        结束的共识 ID（含）；
+	 * @param senders       数据完备节点；
+	 * @param timeoutMillis 分段请求的超时时长（毫秒）；
+	 * @param handler       分段请求的执行者；
+	 */
+	public TransactionReplayScheduler(int startCid, int endCid, int[] senders, long timeoutMillis,
+			ReplayHandler handler) {
+		if (senders == null || senders.length == 0) {
+			throw new IllegalArgumentException("No sender of transactions replay!");
+		}
+		this.nextRequestCid = startCid;
+		this.nextApplyCid = startCid;
+		this.endCid = endCid;
+		this.senders = senders.clone();
+		this.window = Math.max(2, CHUNKS_PER_SENDER * senders.length);
+		this.timeoutMillis = timeoutMillis;
+		this.handler = handler;
+
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "tx replay timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.applier = new Thread(this::applyChunks, "tx replay applier");
+		this.applier.setDaemon(true);
+	}
+
+	/**
+	 * 开始请求并执行分段；
+	 */
+	public void start() {
+		LOGGER.info("Start transactions replay between cid {} --> {} from senders {}, window = {}", nextRequestCid,
+				endCid, Arrays.toString(senders), window);
+		applier.start();
+		sendAll(fill());
+	}
+
+	/**
+	 * 停止重放；已收到的分段不再执行；
+	 */
+	public void stop() {
+		stopped = true;
+		timer.shutdownNow();
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * 处理分段的响应；
+	 *
+	 * @param sender   响应的节点；
+	 * @param startCid 起始的共识 ID；
+	 * @param endCid   结束的共识 ID；
+	 * @param state    分段的交易；
+	 */
+	public void onReply(int sender, int startCid, int endCid, TransactionReplayState state) {
+		List<Chunk> requests;
+		synchronized (this) {
+			Chunk chunk = requested.get(startCid);
+			if (stopped || chunk == null || chunk.endCid != endCid || state == null) {
+				// 重复的、过期的或者不完整的响应；
+				LOGGER.debug("Ignore transactions replay reply from {} between cid {} --> {}", sender, startCid,
+						endCid);
+				return;
+			}
+			requested.remove(startCid);
+			received.put(startCid, state);
+			notifyAll();
+			requests = fill();
+		}
+		sendAll(requests);
+	}
+
+	/**
+	 * 待执行的分段数；
+	 *
+	 * @return
+	 */
+	public synchronized int getPendingChunks() {
+		return requested.size() + received.size();
+	}
+
+	/**
+	 * 在窗口允许的范围内分配新的分段；在锁内调用，返回的请求在锁外发送；
+	 */
+	private List<Chunk> fill() {
+		List<Chunk> requests = new ArrayList<Chunk>();
+		while (!stopped && nextRequestCid <= endCid && requested.size() + received.size() < window) {
+			int chunkEnd = (int) Math.min((long) nextRequestCid + CHUNK_SIZE - 1, endCid);
+			Chunk chunk = new Chunk(nextRequestCid, chunkEnd, nextSender(-1));
+			requested.put(chunk.startCid, chunk);
+			requests.add(chunk);
+			nextRequestCid = chunkEnd + 1;
+		}
+		return requests;
+	}
+
+	private int nextSender(int exclude) {
+		int sender = senders[nextSenderIndex++ % senders.length];
+		if (sender == exclude && senders.length > 1) {
+			sender = senders[nextSenderIndex++ % senders.length];
+		}
+		return sender;
+	}
+
+	private void sendAll(List<Chunk> chunks) {
+		for (Chunk chunk : chunks) {
+			send(chunk);
+		}
+	}
+
+	private void send(Chunk chunk) {
+		if (stopped) {
+			return;
+		}
+		LOGGER.info("Request transactions replay from {} between cid {} --> {}", chunk.target, chunk.startCid,
+				chunk.endCid);
+		handler.request(chunk.target, chunk.startCid, chunk.endCid);
+		try {
+			timer.schedule(() -> retry(chunk), timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			// 重放已停止；
+		}
+	}
+
+	/**
+	 * 分段超时未收到响应时，改向另一个节点请求；
+	 */
+	private void retry(Chunk chunk) {
+		Chunk retryChunk;
+		synchronized (this) {
+			if (stopped || requested.get(chunk.startCid) != chunk) {
+				return;
+			}
+			retryChunk = new Chunk(chunk.startCid, chunk.endCid, nextSender(chunk.target));
+			requested.put(retryChunk.startCid, retryChunk);
+		}
+		LOGGER.info("Transactions replay between cid {} --> {} from {} timeout, retry on {}", chunk.startCid,
+				chunk.endCid, chunk.target, retryChunk.target);
+		send(retryChunk);
+	}
+
+	private void applyChunks() {
+		try {
+			while (true) {
+				TransactionReplayState state;
+				synchronized (this) {
+					while (!stopped && !received.containsKey(nextApplyCid)) {
+						wait();
+					}
+					if (stopped) {
+						return;
+					}
+					state = received.get(nextApplyCid);
+				}
+
+				handler.apply(state);
+
+				List<Chunk> requests;
+				synchronized (this) {
+					received.remove(nextApplyCid);
+					nextApplyCid = state.getEndCid() + 1;
+					requests = fill();
+				}
+				sendAll(requests);
+
+				if (nextApplyCid > endCid) {
+					stop();
+					handler.complete(endCid);
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			LOGGER.error("Error occurred while applying transactions replay from cid " + nextApplyCid + "! --"
+					+ e.getMessage(), e);
+			stop();
+			handler.fail(nextApplyCid, e);
+		}
+	}
+
+	private static class Chunk {
+
+		private final int startCid;
+
+		private final int endCid;
+
+		private final int target;
+
+		private Chunk(int startCid, int endCid, int target) {
+			this.startCid = startCid;
+			this.endCid = endCid;
+			this.target = target;
+		}
+	}
+}
@@ -20,6 +20,7 @@ import bftsmart.reconfiguration.ViewTopology;
 import bftsmart.statemanagement.ApplicationState;
 import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.leaderchange.CertifiedDecision;
+import bftsmart.tom.server.defaultservices.CheckpointFile;
 import bftsmart.tom.server.defaultservices.CommandsInfo;
 import bftsmart.tom.util.BatchBuilder;
 
@@ -60,6 +61,8 @@ public class CSTState implements ApplicationState {
     private byte[] state;
 
     private final int pid;
+
+    private transient CheckpointFile checkpoint;
     
     public CSTState(byte[] state, byte[] hashCheckpoint, CommandsInfo[] logLower, byte[] hashLogLower,
                     CommandsInfo[] logUpper, byte[] hashLogUpper, int checkpointCID, int lastCID, int pid) {
@@ -94,6 +97,19 @@ public class CSTState implements ApplicationState {
         this.state = state;
     }
 
+    /**
+     * Returns the checkpoint file the state is read from when it is sent, in
+     * place of the serialized state. It is not serialized with this object.
+     * @return The checkpoint file, or null if the state is held in memory
+     */
+    public CheckpointFile getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(CheckpointFile checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
     @Override
     public int getLastCID() {
         return lastCID;
@@ -0,0 +1,390 @@
+package bftsmart.statemanagement.strategy.durability;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import bftsmart.communication.SystemMessageCodecRegistry;
+import bftsmart.statemanagement.ApplicationState;
+import bftsmart.tom.server.defaultservices.CheckpointFile;
+
+/**
+ * 分块传输的应用状态流；
+ * <p>
+ *
+ * 应用状态不再作为 {@link ApplicationState} 的一个字段整体序列化，而是拆分为固定大小的分块依次传输：<br>
+ * 0. 魔数 {@link #MAGIC}(4字节) + 格式版本 {@link #VERSION}(1字节)；<br>
+ * 1. 头部：不含状态的 {@link ApplicationState} 的序列化数据，以及状态的总长度和分块大小；<br>
+ * 2. 分块：“长度(4字节) + SHA-256(32字节) + 数据”；<br>
+ * 3. 结尾：“0(4字节) + 整个状态的 SHA-256(32字节)”；
+ * <p>
+ *
+ * 发送方从检查点文件发送时，按窗口映射文件（{@link CheckpointFile#map(long, int)}），不需要把状态读入堆内存；<br>
+ * 接收方每收到一个分块即校验哈希，传输出错时可以立即中止，并通过 {@link ChunkConsumer} 决定分块的去向；<br>
+ * 接收方同时兼容旧版本整体 Java 序列化的 {@link ApplicationState}（以 Java 序列化流的魔数 0xACED 开头）；<br>
+ * 发送方按照配置的消息格式选择：{@link SystemMessageCodecRegistry#LEGACY_FORMAT} 时通过 {@link #writeLegacy(ApplicationState, OutputStream)}
+ * 写入旧版本的格式，否则通过 {@link #write(ApplicationState, OutputStream)} 写入分块的格式；
+ *
+ * @author huanghaiquan
+ *
+ */
+public final class ChunkedStateStream {
+
+	/**
+	 * 状态流的魔数；与 Java 序列化流的魔数 0xACED 不同，以区分旧版本的状态流；
+	 */
+	public static final int MAGIC = 0x43535453;
+
+	/**
+	 * 状态流的格式版本；
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Java 序列化流的魔数；
+	 */
+	private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+
+	/**
+	 * 默认的分块大小：1 MB；
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	/**
+	 * 从检查点文件发送时映射的窗口大小：64 MB；
+	 */
+	private static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private static final int HASH_SIZE = 32;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private ChunkedStateStream() {
+	}
+
+	/**
+	 * 分块的处理者；
+	 */
+	public static interface ChunkConsumer {
+
+		/**
+		 * 开始接收状态；
+		 *
+		 * @param stateLength 状态的总长度；
+		 */
+		void begin(long stateLength) throws IOException;
+
+		/**
+		 * 接收一个已经通过校验的分块；
+		 *
+		 * @param offset 分块在状态中的偏移；
+		 * @param chunk  分块的数据；方法返回后缓冲区将被复用；
+		 */
+		void accept(long offset, ByteBuffer chunk) throws IOException;
+	}
+
+	/**
+	 * 以默认的分块大小写入应用状态；
+	 *
+	 * @param state
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(ApplicationState state, OutputStream out) throws IOException {
+		write(state, out, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * 写入应用状态；
+	 * <p>
+	 *
+	 * 如果状态是设置了检查点文件的 {@link CSTState}，则从检查点文件读取状态，写入完成后关闭检查点文件；
+	 *
+	 * @param state
+	 * @param out
+	 * @param chunkSize 分块大小；
+	 * @throws IOException
+	 */
+	public static void write(ApplicationState state, OutputStream out, int chunkSize) throws IOException {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Illegal chunk size[" + chunkSize + "]!");
+		}
+		CheckpointFile checkpoint = state instanceof CSTState ? ((CSTState) state).getCheckpoint() : null;
+		try {
+			byte[] serializedState = state.getSerializedState();
+			long stateLength = -1;
+			if (serializedState != null) {
+				stateLength = serializedState.length;
+			} else if (checkpoint != null) {
+				stateLength = checkpoint.getStateLength();
+			}
+
+			DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+			dataOut.writeInt(MAGIC);
+			dataOut.writeByte(VERSION);
+			byte[] header = serializeHeader(state);
+			dataOut.writeInt(header.length);
+			dataOut.write(header);
+			dataOut.writeLong(stateLength);
+			dataOut.writeInt(chunkSize);
+
+			MessageDigest chunkDigest = newDigest();
+			MessageDigest stateDigest = newDigest();
+			WritableByteChannel channel = Channels.newChannel(dataOut);
+			if (serializedState != null) {
+				writeChunks(ByteBuffer.wrap(serializedState), chunkSize, dataOut, channel, chunkDigest, stateDigest);
+			} else if (checkpoint != null) {
+				for (long offset = 0; offset < stateLength; offset += MAP_WINDOW_SIZE) {
+					int windowSize = (int) Math.min(MAP_WINDOW_SIZE, stateLength - offset);
+					writeChunks(checkpoint.map(offset, windowSize), chunkSize, dataOut, channel, chunkDigest,
+							stateDigest);
+				}
+			}
+			dataOut.writeInt(0);
+			dataOut.write(stateDigest.digest());
+			dataOut.flush();
+		} finally {
+			if (checkpoint != null) {
+				checkpoint.close();
+			}
+		}
+	}
+
+	/**
+	 * 按照旧版本的格式写入应用状态，即整体 Java 序列化的 {@link ApplicationState}；
+	 * <p>
+	 *
+	 * 用于消息格式为 {@link SystemMessageCodecRegistry#LEGACY_FORMAT} 的节点，以便滚动升级时尚未升级的节点仍能读取状态；<br>
+	 * 如果状态是设置了检查点文件的 {@link CSTState}，则先把状态从检查点文件读入内存，写入完成后关闭检查点文件；
+	 *
+	 * @param state
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeLegacy(ApplicationState state, OutputStream out) throws IOException {
+		CheckpointFile checkpoint = state instanceof CSTState ? ((CSTState) state).getCheckpoint() : null;
+		byte[] serializedState = state.getSerializedState();
+		try {
+			if (serializedState == null && checkpoint != null) {
+				state.setSerializedState(checkpoint.readState());
+			}
+			ObjectOutputStream objectOut = new ObjectOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+			objectOut.writeObject(state);
+			objectOut.flush();
+		} finally {
+			state.setSerializedState(serializedState);
+			if (checkpoint != null) {
+				checkpoint.close();
+			}
+		}
+	}
+
+	/**
+	 * 放弃发送应用状态；
+	 * <p>
+	 *
+	 * 关闭状态的检查点文件；检查点文件被新的检查点替换后，在关闭之前仍然占用磁盘空间；
+	 *
+	 * @param state
+	 */
+	public static void discard(ApplicationState state) {
+		CheckpointFile checkpoint = state instanceof CSTState ? ((CSTState) state).getCheckpoint() : null;
+		if (checkpoint == null) {
+			return;
+		}
+		try {
+			checkpoint.close();
+		} catch (IOException e) {
+			// 关闭只读的文件时不会丢失数据；
+		}
+	}
+
+	/**
+	 * 读取应用状态，并把状态组装为 {@link ApplicationState#getSerializedState()}；
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException 数据格式错误或者校验失败；
+	 */
+	public static ApplicationState read(InputStream in) throws IOException {
+		ArrayChunkConsumer consumer = new ArrayChunkConsumer();
+		ApplicationState state = read(in, consumer);
+		state.setSerializedState(consumer.state);
+		return state;
+	}
+
+	/**
+	 * 读取应用状态，校验通过的分块交给指定的处理者；
+	 *
+	 * @param in
+	 * @param consumer
+	 * @return 不含状态的 {@link ApplicationState}；
+	 * @throws IOException 数据格式错误或者校验失败；
+	 */
+	public static ApplicationState read(InputStream in, ChunkConsumer consumer) throws IOException {
+		DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		dataIn.mark(4);
+		int magic = dataIn.readInt();
+		if ((magic >>> 16) == JAVA_SERIALIZATION_MAGIC) {
+			dataIn.reset();
+			return readLegacy(dataIn, consumer);
+		}
+		if (magic != MAGIC) {
+			throw new IOException("Illegal magic number[" + Integer.toHexString(magic) + "] of state stream!");
+		}
+		int version = dataIn.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version[" + version + "] of state stream!");
+		}
+		int headerLength = dataIn.readInt();
+		if (headerLength <= 0) {
+			throw new IOException("Illegal header length[" + headerLength + "] of state stream!");
+		}
+		byte[] header = new byte[headerLength];
+		dataIn.readFully(header);
+		ApplicationState state = deserializeHeader(header);
+
+		long stateLength = dataIn.readLong();
+		int chunkSize = dataIn.readInt();
+		if (chunkSize <= 0) {
+			throw new IOException("Illegal chunk size[" + chunkSize + "] of state stream!");
+		}
+		if (stateLength >= 0) {
+			consumer.begin(stateLength);
+		}
+
+		MessageDigest chunkDigest = newDigest();
+		MessageDigest stateDigest = newDigest();
+		byte[] chunk = new byte[(int) Math.min(chunkSize, Math.max(stateLength, 0))];
+		byte[] expectedHash = new byte[HASH_SIZE];
+		long offset = 0;
+		int length;
+		while ((length = dataIn.readInt()) != 0) {
+			if (length < 0 || length > chunk.length || offset + length > stateLength) {
+				throw new IOException("Illegal chunk[offset=" + offset + ", length=" + length
+						+ "] of state stream, whose length is " + stateLength + "!");
+			}
+			dataIn.readFully(expectedHash);
+			dataIn.readFully(chunk, 0, length);
+			chunkDigest.update(chunk, 0, length);
+			if (!Arrays.equals(expectedHash, chunkDigest.digest())) {
+				throw new IOException("Hash of the chunk[offset=" + offset + ", length=" + length
+						+ "] of state stream does not match!");
+			}
+			stateDigest.update(chunk, 0, length);
+			consumer.accept(offset, ByteBuffer.wrap(chunk, 0, length));
+			offset += length;
+		}
+		dataIn.readFully(expectedHash);
+		if (offset != Math.max(stateLength, 0)) {
+			throw new IOException("Incomplete state stream, " + offset + " of " + stateLength + " bytes received!");
+		}
+		if (!Arrays.equals(expectedHash, stateDigest.digest())) {
+			throw new IOException("Hash of the state stream does not match!");
+		}
+		return state;
+	}
+
+	/**
+	 * 读取旧版本整体 Java 序列化的应用状态；
+	 */
+	private static ApplicationState readLegacy(InputStream in, ChunkConsumer consumer) throws IOException {
+		ApplicationState state = deserializeHeader(in);
+		byte[] serializedState = state.getSerializedState();
+		if (serializedState != null) {
+			consumer.begin(serializedState.length);
+			consumer.accept(0, ByteBuffer.wrap(serializedState));
+			state.setSerializedState(null);
+		}
+		return state;
+	}
+
+	private static void writeChunks(ByteBuffer source, int chunkSize, DataOutputStream dataOut,
+			WritableByteChannel channel, MessageDigest chunkDigest, MessageDigest stateDigest) throws IOException {
+		while (source.hasRemaining()) {
+			int length = Math.min(chunkSize, source.remaining());
+			ByteBuffer chunk = source.slice();
+			chunk.limit(length);
+
+			chunkDigest.update(chunk.duplicate());
+			stateDigest.update(chunk.duplicate());
+			dataOut.writeInt(length);
+			dataOut.write(chunkDigest.digest());
+			while (chunk.hasRemaining()) {
+				channel.write(chunk);
+			}
+			source.position(source.position() + length);
+		}
+	}
+
+	private static byte[] serializeHeader(ApplicationState state) throws IOException {
+		byte[] serializedState = state.getSerializedState();
+		state.setSerializedState(null);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(state);
+			out.flush();
+			return bytes.toByteArray();
+		} finally {
+			state.setSerializedState(serializedState);
+		}
+	}
+
+	private static ApplicationState deserializeHeader(byte[] header) throws IOException {
+		return deserializeHeader(new ByteArrayInputStream(header));
+	}
+
+	private static ApplicationState deserializeHeader(InputStream header) throws IOException {
+		try {
+			return (ApplicationState) new ObjectInputStream(header).readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Illegal header of state stream! --" + e.getMessage(), e);
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * 把分块依次复制到一个按状态长度分配的数组；
+	 */
+	private static class ArrayChunkConsumer implements ChunkConsumer {
+
+		private byte[] state;
+
+		@Override
+		public void begin(long stateLength) throws IOException {
+			if (stateLength > Integer.MAX_VALUE) {
+				throw new IOException("The state[" + stateLength + " bytes] is too large to be held in an array!");
+			}
+			state = new byte[(int) stateLength];
+		}
+
+		@Override
+		public void accept(long offset, ByteBuffer chunk) {
+			chunk.get(state, (int) offset, chunk.remaining());
+		}
+	}
+}
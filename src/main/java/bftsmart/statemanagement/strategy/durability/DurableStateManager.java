@@ -16,7 +16,6 @@ limitations under the License.
 package bftsmart.statemanagement.strategy.durability;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
@@ -151,6 +150,7 @@ public class DurableStateManager extends BaseStateManager {
 			StateSenderServer stateServer = new StateSenderServer(port);
 			stateServer.setRecoverable(dt.getRecoverer());
 			stateServer.setRequest(cstConfig);
+			stateServer.setMessageFormat(topology.getStaticConf().getMessageFormat());
 			new Thread(stateServer).start();
 
 			tomLayer.getCommunication().send(targets, reply);
@@ -207,17 +207,17 @@ public class DurableStateManager extends BaseStateManager {
 				ApplicationState stateReceived = null;
 				try {
 					clientSocket = new Socket(address.getHost(), address.getConsensusPort());
-					ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream());
-					stateReceived = (ApplicationState) in.readObject();
+					try {
+						// every chunk of the state is verified as soon as it arrives
+						stateReceived = ChunkedStateStream.read(clientSocket.getInputStream());
+					} finally {
+						clientSocket.close();
+					}
 				} catch (UnknownHostException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
 				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (ClassNotFoundException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					LOGGER.error("Error occurred while receiving the state from replica " + reply.getSender(), e);
 				}
 
 				if (stateReceived instanceof CSTState) {
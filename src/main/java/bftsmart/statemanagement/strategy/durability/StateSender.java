@@ -15,11 +15,11 @@ limitations under the License.
 */
 package bftsmart.statemanagement.strategy.durability;
 
+import bftsmart.communication.SystemMessageCodecRegistry;
 import bftsmart.statemanagement.ApplicationState;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 
@@ -27,6 +27,7 @@ public class StateSender implements Runnable {
 
 	private final Socket socket;
 	private ApplicationState state;
+	private int messageFormat = SystemMessageCodecRegistry.LATEST_FORMAT;
 
 	private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(StateSender.class);
 	
@@ -37,20 +38,38 @@ public class StateSender implements Runnable {
 	public void setState(ApplicationState state) {
 		this.state = state;
 	}
+
+	/**
+	 * Sets the message format of this replica, which decides how the state is
+	 * written: replicas still using the legacy format only read the state as a
+	 * single serialized object
+	 */
+	public void setMessageFormat(int messageFormat) {
+		this.messageFormat = messageFormat;
+	}
 	
 	@Override
 	public void run() {
 		try {
 			OutputStream os = socket.getOutputStream();
-			ObjectOutputStream oos = new ObjectOutputStream(os);
 			LOGGER.debug("--- Sending state in different socket");
-			oos.writeObject(state);
+			if (messageFormat == SystemMessageCodecRegistry.LEGACY_FORMAT) {
+				ChunkedStateStream.writeLegacy(state, os);
+			} else {
+				// the state is sent as a stream of hashed chunks instead of a single object
+				ChunkedStateStream.write(state, os);
+			}
 			LOGGER.debug("--- Sent state in different socket");
-			oos.close();
-			socket.close();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			LOGGER.error("Error occurred while sending the state to " + socket.getRemoteSocketAddress(), e);
+		} finally {
+			// the checkpoint file is closed even if the transfer was abandoned before it started
+			ChunkedStateStream.discard(state);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				LOGGER.warn("Error occurred while closing the state socket to " + socket.getRemoteSocketAddress(), e);
+			}
 		}
 	}
 
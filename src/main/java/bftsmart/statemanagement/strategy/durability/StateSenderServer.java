@@ -15,6 +15,7 @@ limitations under the License.
 */
 package bftsmart.statemanagement.strategy.durability;
 
+import bftsmart.communication.SystemMessageCodecRegistry;
 import bftsmart.statemanagement.ApplicationState;
 import bftsmart.tom.server.Recoverable;
 import bftsmart.tom.server.defaultservices.durability.DurabilityCoordinator;
@@ -30,6 +31,7 @@ public class StateSenderServer implements Runnable {
 	private Recoverable recoverable;
 	private DurabilityCoordinator coordinator;
 	private CSTRequest request;
+	private int messageFormat = SystemMessageCodecRegistry.LATEST_FORMAT;
 	
 	public void setState(ApplicationState state) {
 		this.state = state;
@@ -44,6 +46,10 @@ public class StateSenderServer implements Runnable {
 		this.request = request;
 	}
 
+	public void setMessageFormat(int messageFormat) {
+		this.messageFormat = messageFormat;
+	}
+
 	public StateSenderServer(int port) {
 		try {
 			server = new ServerSocket(port);
@@ -60,7 +66,15 @@ public class StateSenderServer implements Runnable {
 			StateSender sender = new StateSender(socket);
 			state = coordinator.getState(request);
 			sender.setState(state);
-			new Thread(sender).start();
+			sender.setMessageFormat(messageFormat);
+			try {
+				new Thread(sender).start();
+			} catch (RuntimeException | Error e) {
+				// the state is never sent, release its checkpoint file
+				ChunkedStateStream.discard(state);
+				socket.close();
+				throw e;
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
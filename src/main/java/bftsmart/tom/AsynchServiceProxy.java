@@ -111,7 +111,23 @@ public class AsynchServiceProxy extends ServiceProxy {
 	 * @return
 	 */
 	public int invokeAsynchRequest(byte[] request, int[] targets, ReplyListener replyListener, TOMMessageType reqType) {
-		return invokeAsynch(request, targets, replyListener, reqType);
+		return invokeAsynch(request, targets, replyListener, reqType, false);
+	}
+
+	/**
+	 * Sends a batch of commands in a single request; the replicas execute the
+	 * commands one by one and reply with the responses packed in the same order.
+	 * Only ordered requests unpack batches, so the batch is always sent as
+	 * {@link TOMMessageType#ORDERED_REQUEST}.
+	 *
+	 * @param commands
+	 *            Commands, packed by {@link bftsmart.tom.util.CommandBatch}
+	 * @param replyListener
+	 * @return
+	 */
+	public int invokeAsynchBatch(byte[] commands, ReplyListener replyListener) {
+		return invokeAsynch(commands, super.getViewManager().getCurrentViewProcesses(), replyListener,
+				TOMMessageType.ORDERED_REQUEST, true);
 	}
 
 	/**
@@ -202,7 +218,8 @@ public class AsynchServiceProxy extends ServiceProxy {
 								public void run() {
 
 									int id = invokeAsynch(requestContext.getRequest(), requestContext.getTargets(),
-											requestContext.getReplyListener(), TOMMessageType.ORDERED_REQUEST);
+											requestContext.getReplyListener(), TOMMessageType.ORDERED_REQUEST,
+											requestContext.isCommandBatch());
 
 									requestsAlias.put(reply.getOperationId(), id);
 								}
@@ -232,9 +249,11 @@ public class AsynchServiceProxy extends ServiceProxy {
 	 * @param targets
 	 * @param replyListener
 	 * @param reqType
+	 * @param commandBatch
 	 * @return
 	 */
-	private int invokeAsynch(byte[] request, int[] targets, ReplyListener replyListener, TOMMessageType reqType) {
+	private int invokeAsynch(byte[] request, int[] targets, ReplyListener replyListener, TOMMessageType reqType,
+			boolean commandBatch) {
 
 		LOGGER.debug("Asynchronously sending request to {}", Arrays.toString(targets));
 
@@ -243,7 +262,7 @@ public class AsynchServiceProxy extends ServiceProxy {
 		canSendLock.lock();
 
 		requestContext = new RequestContext(generateRequestId(reqType), generateOperationId(), reqType, targets,
-				System.currentTimeMillis(), replyListener, request);
+				System.currentTimeMillis(), replyListener, request, commandBatch);
 
 		try {
 			LOGGER.debug("Storing request context for {}", requestContext.getOperationId());
@@ -251,7 +270,8 @@ public class AsynchServiceProxy extends ServiceProxy {
 			requestsReplies.put(requestContext.getOperationId(),
 					new TOMMessage[super.getViewManager().getCurrentViewN()]);
 
-			sendMessageToTargets(request, requestContext.getReqId(), requestContext.getOperationId(), targets, reqType);
+			sendMessageToTargets(request, requestContext.getReqId(), requestContext.getOperationId(), targets, reqType,
+					commandBatch);
 
 		} finally {
 			canSendLock.unlock();
@@ -0,0 +1,354 @@
+package bftsmart.tom;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bftsmart.communication.client.ReplyListener;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.CommandBatch;
+
+/**
+ * 流水线方式提交有序请求的客户端代理；
+ * <p>
+ *
+ * 与 {@link ServiceProxy#invokeOrdered(byte[])} 每次等待上一个请求的响应不同，最多允许 {@link #getWindowSize()}
+ * 个请求同时在途，请求的结果以 {@link CompletableFuture} 返回；超出窗口的命令在队列中等待；
+ * <p>
+ *
+ * 窗口有空位时，发送线程把队列中已积压的命令（最多 maxBatchSize 个、maxBatchBytes 字节）以
+ * {@link CommandBatch} 打包在一个请求中发出，节点拆分为各自的命令执行，响应按相同的顺序打包返回；<br>
+ * 负载低时每个命令单独发出，不为等待凑批而增加延迟；maxBatchSize 为 1 时不打包；
+ * <p>
+ *
+ * 收到 {@link ServiceProxy#getReplyQuorum()} 个内容一致的响应时请求完成；超过
+ * {@link ServiceProxy#getInvokeTimeout()} 秒未完成的请求以 {@link TimeoutException} 失败；
+ * <p>
+ *
+ * 底层的 {@link AsynchServiceProxy} 由调用者创建和关闭；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class PipelinedServiceProxy implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedServiceProxy.class);
+
+	/**
+	 * 默认的在途请求数；
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 16;
+
+	/**
+	 * 默认一个请求中最多打包的命令数；
+	 */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+	/**
+	 * 默认一个请求中打包的命令的最大总长度（字节）；
+	 */
+	public static final int DEFAULT_MAX_BATCH_BYTES = 256 * 1024;
+
+	private final AsynchServiceProxy proxy;
+
+	private final int windowSize;
+
+	private final int maxBatchSize;
+
+	private final int maxBatchBytes;
+
+	private final Semaphore window;
+
+	private final BlockingQueue<PendingCommand> commandQueue = new LinkedBlockingQueue<PendingCommand>();
+
+	private final Set<PendingRequest> inFlightRequests = ConcurrentHashMap.newKeySet();
+
+	private final ScheduledExecutorService timeoutScheduler;
+
+	private final Thread sendingThread;
+
+	private volatile boolean closed = false;
+
+	public PipelinedServiceProxy(AsynchServiceProxy proxy) {
+		this(proxy, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_BYTES);
+	}
+
+	/**
+	 * @param proxy         底层的异步代理；
+	 * @param windowSize    在途请求数；
+	 * @param maxBatchSize  一个请求中最多打包的命令数；为 1 时不打包；
+	 * @param maxBatchBytes 一个请求中打包的命令的最大总长度（字节）；单个超长的命令仍单独发出；
+	 */
+	public PipelinedServiceProxy(AsynchServiceProxy proxy, int windowSize, int maxBatchSize, int maxBatchBytes) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("Illegal window size[" + windowSize + "]!");
+		}
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("Illegal max batch size[" + maxBatchSize + "]!");
+		}
+		this.proxy = proxy;
+		this.windowSize = windowSize;
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchBytes = maxBatchBytes;
+		this.window = new Semaphore(windowSize);
+
+		this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "pipelined proxy timeout " + proxy.getProcessId());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.sendingThread = new Thread(this::sendCommands, "pipelined proxy sender " + proxy.getProcessId());
+		this.sendingThread.setDaemon(true);
+		this.sendingThread.start();
+	}
+
+	/**
+	 * 在途请求数；
+	 *
+	 * @return
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * 一个请求中最多打包的命令数；
+	 *
+	 * @return
+	 */
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * 提交有序请求；
+	 *
+	 * @param command
+	 * @return 请求的结果；
+	 */
+	public CompletableFuture<byte[]> invokeOrdered(byte[] command) {
+		PendingCommand pendingCommand = new PendingCommand(command);
+		if (closed) {
+			pendingCommand.result.completeExceptionally(new IllegalStateException("Proxy is closed!"));
+			return pendingCommand.result;
+		}
+		commandQueue.add(pendingCommand);
+		if (closed) {
+			// 与关闭并发时，由关闭或此处之一使其失败；
+			failQueuedCommands();
+		}
+		return pendingCommand.result;
+	}
+
+	/**
+	 * 关闭代理；队列中和在途的请求以 {@link IllegalStateException} 失败；
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		sendingThread.interrupt();
+		try {
+			sendingThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		failQueuedCommands();
+		for (PendingRequest request : inFlightRequests) {
+			request.fail(new IllegalStateException("Proxy is closed!"));
+		}
+		timeoutScheduler.shutdownNow();
+	}
+
+	private void failQueuedCommands() {
+		PendingCommand pendingCommand;
+		while ((pendingCommand = commandQueue.poll()) != null) {
+			pendingCommand.result.completeExceptionally(new IllegalStateException("Proxy is closed!"));
+		}
+	}
+
+	private void sendCommands() {
+		while (!closed) {
+			PendingCommand first;
+			try {
+				first = commandQueue.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+			try {
+				window.acquire();
+			} catch (InterruptedException e) {
+				first.result.completeExceptionally(new IllegalStateException("Proxy is closed!"));
+				break;
+			}
+			// 只有发送线程从队列中取出命令，先查看后取出是安全的；
+			List<PendingCommand> batch = new ArrayList<PendingCommand>();
+			batch.add(first);
+			long batchBytes = first.command.length;
+			PendingCommand next;
+			while (batch.size() < maxBatchSize && (next = commandQueue.peek()) != null
+					&& batchBytes + next.command.length <= maxBatchBytes) {
+				batch.add(commandQueue.poll());
+				batchBytes += next.command.length;
+			}
+
+			PendingRequest request = new PendingRequest(batch);
+			inFlightRequests.add(request);
+			try {
+				send(request);
+			} catch (RuntimeException e) {
+				LOGGER.error("Error occurred while sending requests of client[" + proxy.getProcessId() + "]! --"
+						+ e.getMessage(), e);
+				request.fail(e);
+			}
+		}
+		// 关闭后仍在队列中的命令由 close 处理；
+	}
+
+	private void send(PendingRequest request) {
+		List<PendingCommand> batch = request.commands;
+		int operationId;
+		if (batch.size() == 1) {
+			operationId = proxy.invokeAsynchRequest(batch.get(0).command, request, TOMMessageType.ORDERED_REQUEST);
+		} else {
+			List<byte[]> commands = new ArrayList<byte[]>(batch.size());
+			for (PendingCommand pendingCommand : batch) {
+				commands.add(pendingCommand.command);
+			}
+			operationId = proxy.invokeAsynchBatch(CommandBatch.pack(commands), request);
+		}
+		request.watch(operationId);
+	}
+
+	/**
+	 * 等待发送的命令；
+	 */
+	private static class PendingCommand {
+
+		private final byte[] command;
+
+		private final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+
+		private PendingCommand(byte[] command) {
+			this.command = command;
+		}
+	}
+
+	/**
+	 * 在途的请求，收集各节点的响应直到有足够的一致响应；
+	 */
+	private class PendingRequest implements ReplyListener {
+
+		private final List<PendingCommand> commands;
+
+		private final Map<Integer, byte[]> replies = new HashMap<Integer, byte[]>();
+
+		private int operationId = -1;
+
+		private ScheduledFuture<?> timeout;
+
+		private boolean done = false;
+
+		private PendingRequest(List<PendingCommand> commands) {
+			this.commands = commands;
+		}
+
+		/**
+		 * 请求发出后开始计时；
+		 *
+		 * @param operationId
+		 */
+		private synchronized void watch(int operationId) {
+			this.operationId = operationId;
+			if (!done) {
+				timeout = timeoutScheduler.schedule(() -> fail(new TimeoutException(
+						"Request of client[" + proxy.getProcessId() + "] timed out!")), proxy.getInvokeTimeout(),
+						TimeUnit.SECONDS);
+			}
+		}
+
+		@Override
+		public synchronized void reset() {
+			replies.clear();
+		}
+
+		@Override
+		public synchronized void replyReceived(RequestContext context, TOMMessage reply) {
+			if (done) {
+				return;
+			}
+			byte[] content = reply.getContent();
+			replies.put(reply.getSender(), content);
+			int matched = 0;
+			for (byte[] received : replies.values()) {
+				if (Arrays.equals(received, content)) {
+					matched++;
+				}
+			}
+			if (matched < proxy.getReplyQuorum()) {
+				return;
+			}
+			finish(context.getOperationId());
+
+			if (commands.size() == 1) {
+				commands.get(0).result.complete(content);
+				return;
+			}
+			byte[][] results = CommandBatch.unpack(content);
+			if (results == null || results.length != commands.size()) {
+				IllegalStateException error = new IllegalStateException(
+						"Malformed reply of command batch from replicas to client[" + proxy.getProcessId() + "]!");
+				for (PendingCommand pendingCommand : commands) {
+					pendingCommand.result.completeExceptionally(error);
+				}
+				return;
+			}
+			for (int i = 0; i < results.length; i++) {
+				commands.get(i).result.complete(results[i]);
+			}
+		}
+
+		private synchronized void fail(Throwable error) {
+			if (done) {
+				return;
+			}
+			finish(operationId);
+			for (PendingCommand pendingCommand : commands) {
+				pendingCommand.result.completeExceptionally(error);
+			}
+		}
+
+		private void finish(int operationId) {
+			done = true;
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			if (operationId >= 0) {
+				proxy.cleanAsynchRequest(operationId);
+			}
+			inFlightRequests.remove(this);
+			window.release();
+		}
+	}
+
+}
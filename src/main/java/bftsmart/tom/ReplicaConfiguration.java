@@ -7,6 +7,7 @@ import java.util.Properties;
 
 import bftsmart.reconfiguration.util.HostsConfig;
 import bftsmart.reconfiguration.views.NodeNetwork;
+import bftsmart.tom.util.SignatureScheme;
 
 public interface ReplicaConfiguration {
 
@@ -80,12 +81,55 @@ public interface ReplicaConfiguration {
 
 	int getMaxBatchSize();
 
+	/**
+	 * The maximum number of consensus instances the leader may have in flight at
+	 * the same time; 1 means no pipelining.
+	 * 
+	 * @return
+	 */
+	int getPipelineDepth();
+
+	/**
+	 * The maximum number of decided consensus instances the delivery thread hands
+	 * to the application at once.
+	 * 
+	 * @return
+	 */
+	int getMaxDeliveryDecisions();
+
+	/**
+	 * The minimum size in bytes of a proposed value whose hash is computed as a
+	 * merkle root over fixed size leaves, in parallel, instead of a plain SHA256.
+	 * 0 disables the merkle hash. All replicas must use the same value.
+	 * 
+	 * @return
+	 */
+	int getMerkleHashThreshold();
+
 	boolean isShutdownHookEnabled();
 
+	/**
+	 * 是否记录共识各阶段的时延；开启后通过 JMX 暴露；
+	 * 
+	 * @return
+	 */
+	boolean isMetricsEnabled();
+
 	boolean isStateTransferEnabled();
 
 	int getInQueueSize();
 
+	/**
+	 * 接收消息队列的实现类型；
+	 * <p>
+	 * 
+	 * linked：基于阻塞链表的队列，队列满时丢弃消息；<br>
+	 * ring：基于无锁环形缓冲区的队列，某个节点的共识消息积压时只暂停读取该节点的连接（背压），不丢弃消息，并优先处理心跳和领导者切换消息；
+	 * 
+	 * @return
+	 */
+	String getInQueueType();
+
 	int getOutQueueSize();
 
 	/**
@@ -103,10 +147,63 @@ public interface ReplicaConfiguration {
 	int getSendRetryCount();
 
 	/**
-	 * *
+	 * 一次刷新（flush）合并输出的最大消息数；
+	 * 
+	 * @return
+	 */
+	int getSendFlushMaxMessages();
+
+	/**
+	 * 一次刷新（flush）合并输出的最大字节数；超过后立即刷新；
+	 * 
+	 * @return
+	 */
+	int getSendFlushMaxBytes();
+
+	/**
+	 * 刷新（flush）前等待更多消息的最长时间；单位为“微秒”；0 表示只合并已在发送队列中的消息；
+	 * 
+	 * @return
+	 */
+	long getSendFlushMaxDelay();
+
+	/**
+	 * 处理共识消息的工作线程数；
+	 * <p>
+	 * 
+	 * 共识消息按共识编号（cid）分配到工作线程，同一共识的消息由同一线程按接收顺序处理；1 表示由单一线程处理全部共识消息；
+	 * 
+	 * @return
+	 */
+	int getConsensusWorkers();
+
+	/**
+	 * 节点间通讯共享的 Netty 事件循环的线程数；全部接入连接和对外连接共用这些线程；小于等于 0 时采用处理器核数；
+	 * 
+	 * @return
 	 */
 	int getNumberOfNIOThreads();
 
+	/**
+	 * 节点间通讯是否采用 native epoll 传输；当前平台不支持时采用 NIO；
+	 * 
+	 * @return
+	 */
+	boolean isUseEpoll();
+
+	/**
+	 * 节点间消息的最高序列化格式版本；0 表示 Java 对象序列化，1 表示二进制格式；
+	 * <p>
+	 * 连接建立时与远端协商，实际采用双方都支持的格式；
+	 * <p>
+	 * 客户端消息和提议的批次中签名的布局也由此确定：格式 0 时签名不带长度，仅支持 RSA 签名；
+	 * <p>
+	 * 未配置时，RSA 签名方案默认采用格式 0，以便与未升级的节点和客户端兼容；其它签名方案默认采用格式 1；
+	 * 
+	 * @return
+	 */
+	int getMessageFormat();
+
 	/** * @return the numberOfNonces */
 	int getNumberOfNonces();
 
@@ -122,6 +219,13 @@ public interface ReplicaConfiguration {
 	 */
 	boolean isUseSignatures();
 
+	/**
+	 * 签名方案；进程的公钥、私钥是该方案的密钥；
+	 * 
+	 * @return
+	 */
+	SignatureScheme getSignatureScheme();
+
 	/**
 	 * Indicates if MACs should be used (1) or not (0) to authenticate client-server
 	 * and server-server messages
@@ -137,6 +241,29 @@ public interface ReplicaConfiguration {
 
 	boolean isToWriteSyncLog();
 
+	/**
+	 * 写入磁盘的命令日志的持久化模式；
+	 * <p>
+	 * 
+	 * none：不主动刷盘；<br>
+	 * batch：多轮共识的记录合并写入，每次写入刷盘一次；<br>
+	 * every_cid：每轮共识的记录各自刷盘；<br>
+	 * 未配置时由 {@link #isToWriteSyncLog()} 决定，同步写入时为 every_cid，否则为 none；
+	 * 
+	 * @return
+	 */
+	String getLogDurability();
+
+	/**
+	 * 写入磁盘的命令日志的段文件容量（字节）；
+	 * <p>
+	 * 
+	 * 命令日志按段存储，写满一个段后开启新的段；生成检查点时以段为单位删除过时的记录；
+	 * 
+	 * @return
+	 */
+	long getLogSegmentSize();
+
 	boolean isLoggingToDisk();
 
 	boolean isToLogParallel();
@@ -15,10 +15,16 @@ public final class RequestContext{
 	private final long sendingTime;
 	private final ReplyListener replyListener;
         private final byte[] request;
+	private final boolean commandBatch;
         
 
 	public RequestContext(int reqId, int operationId, TOMMessageType requestType, int [] targets, 
 			long sendingTime, ReplyListener replyListener, byte[] request) {
+		this(reqId, operationId, requestType, targets, sendingTime, replyListener, request, false);
+	}
+
+	public RequestContext(int reqId, int operationId, TOMMessageType requestType, int [] targets, 
+			long sendingTime, ReplyListener replyListener, byte[] request, boolean commandBatch) {
 		this.reqId = reqId;
 		this.operationId = operationId;
 		this.requestType = requestType;
@@ -26,6 +32,7 @@ public final class RequestContext{
 		this.sendingTime = sendingTime;
 		this.replyListener = replyListener;
                 this.request = request;
+		this.commandBatch = commandBatch;
 	}
         
 	public final int getReqId() {
@@ -49,5 +56,12 @@ public final class RequestContext{
         public byte [] getRequest() {
 		return request;
 	}
+	/**
+	 * @return whether the request is a batch of commands packed by
+	 *         {@link bftsmart.tom.util.CommandBatch}
+	 */
+	public boolean isCommandBatch() {
+		return commandBatch;
+	}
 }
 
@@ -46,7 +46,9 @@ import bftsmart.tom.server.Recoverable;
 import bftsmart.tom.server.Replier;
 import bftsmart.tom.server.RequestVerifier;
 import bftsmart.tom.server.SingleExecutable;
+import bftsmart.tom.server.defaultservices.DefaultRecoverable;
 import bftsmart.tom.server.defaultservices.DefaultReplier;
+import bftsmart.tom.util.CommandBatch;
 import bftsmart.tom.util.ShutdownHookThread;
 import bftsmart.tom.util.TOMUtil;
 import utils.net.SSLSecurity;
@@ -57,7 +59,12 @@ import java.io.File;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -104,6 +111,14 @@ public class ServiceReplica {
 	private ClientCommunicationServerSide clientCommunication;
 	private MessageHandler messageHandler;
 	private SSLSecurity sslSecurity;
+	// sends the replies of the commands that became durable in the log, so that the
+	// appender thread of the log is not used to build and send the replies; a single
+	// thread keeps the replies in the order of the consensus instances
+	private final ExecutorService durableReplySender = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "durable-reply-sender");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 //	private Acceptor acceptor;
 
@@ -363,6 +378,7 @@ public class ServiceReplica {
 					replicaCtx = null;
 					tomStackCreated = false;
 				}
+				durableReplySender.shutdown();
 			}
 		};
 		t.start();
@@ -411,9 +427,11 @@ public class ServiceReplica {
 			noop = true;
 			for (TOMMessage request : requestsFromConsensus) {
 
-				LOGGER.info(
-						"(ServiceReplica.receiveMessages) request view id = {}, curr view id = {}, request type = {}",
-						request.getViewID(), serverViewController.getCurrentViewId(), request.getReqType());
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug(
+							"(ServiceReplica.receiveMessages) request view id = {}, curr view id = {}, request type = {}",
+							request.getViewID(), serverViewController.getCurrentViewId(), request.getReqType());
+				}
 
 				// 暂时没有节点间的视图ID同步过程，在处理RECONFIG这类更新视图的操作时先不考虑视图ID落后的情况
 				if (request.getViewID() <= serverViewController.getCurrentViewId()) {
@@ -422,18 +440,24 @@ public class ServiceReplica {
 					if (request.getReqType() == TOMMessageType.ORDERED_REQUEST || request.getReqType() == TOMMessageType.RECONFIG) {
 						noop = false;
 						numRequests++;
-						MessageContext msgCtx = new MessageContext(request.getSender(), request.getViewID(),
-								request.getReqType(), request.getSession(), request.getSequence(),
-								request.getOperationId(), request.getReplyServer(), request.serializedMessageSignature,
-								firstRequest.timestamp, request.numOfNonces, request.seed, regencies[consensusCount],
-								leaders[consensusCount], consId[consensusCount],
-								cDecs[consensusCount].getConsMessages(), firstRequest, false);
+						// a client batch of commands is delivered as individual commands, each with its
+						// own context, and the responses are packed into a single reply
+						byte[][] commands = request.getCommands();
+						MessageContext[] requestCtxs = new MessageContext[commands.length];
+						for (int i = 0; i < commands.length; i++) {
+							requestCtxs[i] = new MessageContext(request.getSender(), request.getViewID(),
+									request.getReqType(), request.getSession(), request.getSequence(),
+									request.getOperationId(), request.getReplyServer(), request.serializedMessageSignature,
+									firstRequest.timestamp, request.numOfNonces, request.seed, regencies[consensusCount],
+									leaders[consensusCount], consId[consensusCount],
+									cDecs[consensusCount].getConsMessages(), firstRequest, false);
+						}
+						MessageContext msgCtx = requestCtxs[commands.length - 1];
 
 						if (requestCount + 1 == requestsFromConsensus.length) {
 
 							msgCtx.setLastInBatch();
 						}
-						request.deliveryTime = System.nanoTime();
 						if (executor instanceof PreComputeBatchExecutable) {
 
 							LOGGER.debug("(ServiceReplica.receiveMessages) Batching request from {}",
@@ -449,7 +473,7 @@ public class ServiceReplica {
 //								this.recoverer.Op(msgCtx.getConsensusId(), request.getContent(), msgCtx);
 
 							// deliver requests and contexts to the executor later
-							msgCtxts.add(msgCtx);
+							Collections.addAll(msgCtxts, requestCtxs);
 							toBatch.add(request);
 							if (request.getReqType() == TOMMessageType.RECONFIG) {
 								serverViewController.enqueueUpdate(request);
@@ -460,26 +484,29 @@ public class ServiceReplica {
 									"(ServiceReplica.receiveMessages) Delivering request from {} via FifoExecutable",
 									request.getSender());
 
-							// This is used to deliver the content decided by a consensus instance directly
-							// to
-							// a Recoverable object. It is useful to allow the application to create a log
-							// and
-							// store the proof associated with decisions (which are needed by replicas
-							// that are asking for a state transfer).
-							if (this.recoverer != null)
-								this.recoverer.Op(msgCtx.getConsensusId(), request.getContent(), msgCtx);
-
-							// This is used to deliver the requests to the application and obtain a reply to
-							// deliver
-							// to the clients. The raw decision is passed to the application in the line
-							// above.
-							byte[] response = ((FIFOExecutable) executor).executeOrderedFIFO(request.getContent(),
-									msgCtx, request.getSender(), request.getOperationId());
+							byte[][] responses = new byte[commands.length][];
+							for (int i = 0; i < commands.length; i++) {
+								// This is used to deliver the content decided by a consensus instance directly
+								// to
+								// a Recoverable object. It is useful to allow the application to create a log
+								// and
+								// store the proof associated with decisions (which are needed by replicas
+								// that are asking for a state transfer).
+								if (this.recoverer != null)
+									this.recoverer.Op(requestCtxs[i].getConsensusId(), commands[i], requestCtxs[i]);
+
+								// This is used to deliver the requests to the application and obtain a reply to
+								// deliver
+								// to the clients. The raw decision is passed to the application in the line
+								// above.
+								responses[i] = ((FIFOExecutable) executor).executeOrderedFIFO(commands[i],
+										requestCtxs[i], request.getSender(), request.getOperationId());
+							}
 
 							// Generate the messages to send back to the clients
 							request.reply = new TOMMessage(id, request.getSession(), request.getSequence(),
-									request.getOperationId(), response, null, serverViewController.getCurrentViewId(),
-									request.getReqType());
+									request.getOperationId(), packResponses(request, responses), null,
+									serverViewController.getCurrentViewId(), request.getReqType());
 							LOGGER.debug("(ServiceReplica.receiveMessages) sending reply to {}", request.getSender());
 							replier.manageReply(request, msgCtx);
 						} else if (executor instanceof SingleExecutable) {
@@ -488,26 +515,28 @@ public class ServiceReplica {
 									"(ServiceReplica.receiveMessages) Delivering request from {} via SingleExecutable",
 									request.getSender());
 
-							// This is used to deliver the content decided by a consensus instance directly
-							// to
-							// a Recoverable object. It is useful to allow the application to create a log
-							// and
-							// store the proof associated with decisions (which are needed by replicas
-							// that are asking for a state transfer).
-							if (this.recoverer != null)
-								this.recoverer.Op(msgCtx.getConsensusId(), request.getContent(), msgCtx);
-
-							// This is used to deliver the requests to the application and obtain a reply to
-							// deliver
-							// to the clients. The raw decision is passed to the application in the line
-							// above.
-							byte[] response = ((SingleExecutable) executor).executeOrdered(request.getContent(),
-									msgCtx);
+							byte[][] responses = new byte[commands.length][];
+							for (int i = 0; i < commands.length; i++) {
+								// This is used to deliver the content decided by a consensus instance directly
+								// to
+								// a Recoverable object. It is useful to allow the application to create a log
+								// and
+								// store the proof associated with decisions (which are needed by replicas
+								// that are asking for a state transfer).
+								if (this.recoverer != null)
+									this.recoverer.Op(requestCtxs[i].getConsensusId(), commands[i], requestCtxs[i]);
+
+								// This is used to deliver the requests to the application and obtain a reply to
+								// deliver
+								// to the clients. The raw decision is passed to the application in the line
+								// above.
+								responses[i] = ((SingleExecutable) executor).executeOrdered(commands[i], requestCtxs[i]);
+							}
 
 							// Generate the messages to send back to the clients
 							request.reply = new TOMMessage(id, request.getSession(), request.getSequence(),
-									request.getOperationId(), response, null, serverViewController.getCurrentViewId(),
-									request.getReqType());
+									request.getOperationId(), packResponses(request, responses), null,
+									serverViewController.getCurrentViewId(), request.getReqType());
 							LOGGER.debug("(ServiceReplica.receiveMessages) sending reply to {}", request.getSender());
 							replier.manageReply(request, msgCtx);
 						} else {
@@ -601,24 +630,26 @@ public class ServiceReplica {
 				byte[][] batch = null;
 				MessageContext[] msgCtx = null;
 				if (requestsFromConsensus.length > 0) {
-					// Make new batch to deliver
-					batch = new byte[requestsFromConsensus.length][];
-					msgCtx = new MessageContext[requestsFromConsensus.length];
+					// Make new batch to deliver, unpacking client batches into their commands
+					List<byte[]> noopCommands = new ArrayList<>(requestsFromConsensus.length);
+					List<MessageContext> noopCtxs = new ArrayList<>(requestsFromConsensus.length);
 
 					// Put messages in the batch
-					int line = 0;
 					for (TOMMessage m : requestsFromConsensus) {
-						batch[line] = m.getContent();
-
-						msgCtx[line] = new MessageContext(m.getSender(), m.getViewID(), m.getReqType(), m.getSession(),
-								m.getSequence(), m.getOperationId(), m.getReplyServer(), m.serializedMessageSignature,
-								firstRequest.timestamp, m.numOfNonces, m.seed, regencies[consensusCount],
-								leaders[consensusCount], consId[consensusCount],
-								cDecs[consensusCount].getConsMessages(), firstRequest, true);
-						msgCtx[line].setLastInBatch();
-
-						line++;
+						for (byte[] command : m.getCommands()) {
+							noopCommands.add(command);
+
+							MessageContext noopCtx = new MessageContext(m.getSender(), m.getViewID(), m.getReqType(),
+									m.getSession(), m.getSequence(), m.getOperationId(), m.getReplyServer(),
+									m.serializedMessageSignature, firstRequest.timestamp, m.numOfNonces, m.seed,
+									regencies[consensusCount], leaders[consensusCount], consId[consensusCount],
+									cDecs[consensusCount].getConsMessages(), firstRequest, true);
+							noopCtx.setLastInBatch();
+							noopCtxs.add(noopCtx);
+						}
 					}
+					batch = noopCommands.toArray(new byte[noopCommands.size()][]);
+					msgCtx = noopCtxs.toArray(new MessageContext[noopCtxs.size()]);
 				}
 
 				this.recoverer.noOp(consId[consensusCount], batch, msgCtx);
@@ -641,7 +672,7 @@ public class ServiceReplica {
 
 		if (executor instanceof PreComputeBatchExecutable && numRequests > 0) {
 			// Make new batch to deliver
-			byte[][] batch = new byte[numRequests][];
+			List<byte[]> commands = new ArrayList<>(msgCtxts.size());
 
 //			ReplyContext replyContext = new ReplyContext().buildId(id)
 //					.buildCurrentViewId(serverViewController.getCurrentViewId())
@@ -651,97 +682,150 @@ public class ServiceReplica {
 //			List<ReplyContextMessage> replyContextMessages = new ArrayList<>();
 
 			// Put messages in the batch
-			int line = 0;
 			for (TOMMessage m : toBatch) {
 //				replyContextMessages.add(new ReplyContextMessage(replyContext, m));
 
 				if (m.getReqType() == TOMMessageType.RECONFIG) {
 					// 对于reconfig类型的消息，扩展消息才是交易本身
-					batch[line] = ((ReconfigureRequest) TOMUtil.getObject(m.getContent())).getExtendInfo();
+					commands.add(((ReconfigureRequest) TOMUtil.getObject(m.getContent())).getExtendInfo());
 				} else {
-					batch[line] = m.getContent();
+					Collections.addAll(commands, m.getCommands());
 				}
-				line++;
 			}
+			byte[][] batch = commands.toArray(new byte[commands.size()][]);
 
 			MessageContext[] msgContexts = new MessageContext[msgCtxts.size()];
 			msgContexts = msgCtxts.toArray(msgContexts);
 
 			// Deliver the batch and wait for replies
+			CompletableFuture<Integer> durableFuture = null;
 			if (isRollback == false) {
-				byte[][] replies = ((PreComputeBatchExecutable) executor).executeBatch(batch, msgContexts);
+				if (executor instanceof DefaultRecoverable) {
+					durableFuture = ((DefaultRecoverable) executor).executeDurableBatch(batch, msgContexts);
+				} else {
+					((PreComputeBatchExecutable) executor).executeBatch(batch, msgContexts);
+				}
 			}
 
-			if (toBatch.size() != asyncResponseLinkedList.size()) {
-				LOGGER.debug("(ServiceReplica.receiveMessages) toBatch.size() != asyncResponseLinkedList.size()");
+			if (batch.length != asyncResponseLinkedList.size()) {
+				LOGGER.debug("(ServiceReplica.receiveMessages) batch.length != asyncResponseLinkedList.size()");
 				return;
 			}
-			// Send the replies back to the client
-			for (int index = 0; index < toBatch.size(); index++) {
-				TOMMessage request = toBatch.get(index);
-				if (request.getReqType() == TOMMessageType.RECONFIG) {
-					continue;
+			// Send the replies back to the client once the commands are durable in the log,
+			// without blocking the delivery of the next consensus; the replies of every
+			// consensus go through the single sender thread, which waits for the commands
+			// of each consensus in turn, so the replies keep the order of the consensus ids
+			final CompletableFuture<Integer> commandsDurable = durableFuture;
+			final MessageContext[] replyContexts = msgContexts;
+			durableReplySender.execute(() -> {
+				if (commandsDurable != null) {
+					try {
+						commandsDurable.get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					} catch (ExecutionException e) {
+						// the commands are not durable, so the clients are not answered and will
+						// retransmit the requests once their timeouts expire
+						LOGGER.error("(ServiceReplica.receiveMessages) Error occurred while saving commands of consensus "
+								+ replyContexts[replyContexts.length - 1].getConsensusId()
+								+ ", the replies are not sent! --" + e.getCause().getMessage(), e.getCause());
+						return;
+					}
 				}
-				// if request with backward viewid, reply msg will include view content
-				if (request.getViewID() < serverViewController.getCurrentViewId()) {
+				sendReplies(toBatch, asyncResponseLinkedList, replyContexts);
+			});
 
-					View view = serverViewController.getCurrentView();
+			// DEBUG
+			LOGGER.debug("BATCHEXECUTOR END");
+		} // End of: if (executor instanceof PreComputeBatchExecutable && numRequests > 0)
+	}
 
-					List<NodeNetwork> addressesTemp = new ArrayList<>();
+	/**
+	 * Sends the replies of the executed requests back to the clients.
+	 */
+	private void sendReplies(List<TOMMessage> toBatch, List<byte[]> asyncResponseLinkedList,
+			MessageContext[] msgContexts) {
+		// the replies sent via the ReplyManager are handed over together, so that the
+		// replies to one client are written with a single flush
+		List<TOMMessage> managedReplies = new ArrayList<>(toBatch.size());
+		// index of the first command of the request in the responses and contexts
+		int index = 0;
+		for (TOMMessage request : toBatch) {
+			int commandCount = request.getReqType() == TOMMessageType.RECONFIG ? 1 : request.getCommands().length;
+			index += commandCount;
+			if (request.getReqType() == TOMMessageType.RECONFIG) {
+				continue;
+			}
+			byte[][] responses = asyncResponseLinkedList.subList(index - commandCount, index)
+					.toArray(new byte[commandCount][]);
+			// if request with backward viewid, reply msg will include view content
+			if (request.getViewID() < serverViewController.getCurrentViewId()) {
 
-					for (int i = 0; i < view.getProcesses().length; i++) {
-						int cpuId = view.getProcesses()[i];
-						NodeNetwork inetSocketAddress = view.getAddress(cpuId);
+				View view = serverViewController.getCurrentView();
 
-						if (inetSocketAddress.getHost().equals("0.0.0.0")) {
-							// proc docker env
-							String host = serverViewController.getStaticConf().getOuterHostConfig().getHost(cpuId);
+				List<NodeNetwork> addressesTemp = new ArrayList<>();
 
-							NodeNetwork tempSocketAddress = new NodeNetwork(host, inetSocketAddress.getConsensusPort(),
-									-1, inetSocketAddress.isConsensusSecure(), false);
-							LOGGER.info("I am proc {}, tempSocketAddress.getAddress().getHostAddress() = {}",
-									serverViewController.getStaticConf().getProcessId(), host);
-							addressesTemp.add(tempSocketAddress);
-						} else {
-							LOGGER.info("I am proc {}, tempSocketAddress.getAddress().getHostAddress() = {}",
-									serverViewController.getStaticConf().getProcessId(), inetSocketAddress.toString());
-							addressesTemp.add(new NodeNetwork(inetSocketAddress.getHost(),
-									inetSocketAddress.getConsensusPort(), -1, inetSocketAddress.isConsensusSecure(), false));
-						}
+				for (int i = 0; i < view.getProcesses().length; i++) {
+					int cpuId = view.getProcesses()[i];
+					NodeNetwork inetSocketAddress = view.getAddress(cpuId);
+
+					if (inetSocketAddress.getHost().equals("0.0.0.0")) {
+						// proc docker env
+						String host = serverViewController.getStaticConf().getOuterHostConfig().getHost(cpuId);
+
+						NodeNetwork tempSocketAddress = new NodeNetwork(host, inetSocketAddress.getConsensusPort(),
+								-1, inetSocketAddress.isConsensusSecure(), false);
+						LOGGER.info("I am proc {}, tempSocketAddress.getAddress().getHostAddress() = {}",
+								serverViewController.getStaticConf().getProcessId(), host);
+						addressesTemp.add(tempSocketAddress);
+					} else {
+						LOGGER.info("I am proc {}, tempSocketAddress.getAddress().getHostAddress() = {}",
+								serverViewController.getStaticConf().getProcessId(), inetSocketAddress.toString());
+						addressesTemp.add(new NodeNetwork(inetSocketAddress.getHost(),
+								inetSocketAddress.getConsensusPort(), -1, inetSocketAddress.isConsensusSecure(), false));
 					}
+				}
 
-					View replyView = new View(view.getId(), view.getProcesses(), view.getF(),
-							addressesTemp.toArray(new NodeNetwork[addressesTemp.size()]));
-					LOGGER.info("I am proc {}, view = {}, reply View = {}",
-							this.serverViewController.getStaticConf().getProcessId(), view, replyView);
+				View replyView = new View(view.getId(), view.getProcesses(), view.getF(),
+						addressesTemp.toArray(new NodeNetwork[addressesTemp.size()]));
+				LOGGER.info("I am proc {}, view = {}, reply View = {}",
+						this.serverViewController.getStaticConf().getProcessId(), view, replyView);
 
-					request.reply = new TOMMessage(id, request.getSession(), request.getSequence(),
-							request.getOperationId(), asyncResponseLinkedList.get(index), TOMUtil.getBytes(replyView),
-							serverViewController.getCurrentViewId(), request.getReqType());
+				request.reply = new TOMMessage(id, request.getSession(), request.getSequence(),
+						request.getOperationId(), packResponses(request, responses), TOMUtil.getBytes(replyView),
+						serverViewController.getCurrentViewId(), request.getReqType());
 
-				} else {
-					request.reply = new TOMMessage(id, request.getSession(), request.getSequence(),
-							request.getOperationId(), asyncResponseLinkedList.get(index), null,
-							serverViewController.getCurrentViewId(), request.getReqType());
-				}
+			} else {
+				request.reply = new TOMMessage(id, request.getSession(), request.getSequence(),
+						request.getOperationId(), packResponses(request, responses), null,
+						serverViewController.getCurrentViewId(), request.getReqType());
+			}
 
-				if (serverViewController.getStaticConf().getNumRepliers() > 0) {
-					LOGGER.debug(
-							"(ServiceReplica.receiveMessages) sending reply to {} with sequence number {} and operation ID {} via ReplyManager",
-							request.getSender(), request.getSequence(), request.getOperationId());
-					repMan.send(request);
-				} else {
-					LOGGER.debug(
-							"(ServiceReplica.receiveMessages) sending reply to {} with sequence number {} and operation ID {}",
-							request.getSender(), request.getSequence(), request.getOperationId());
-					replier.manageReply(request, msgContexts[index]);
-					// cs.send(new int[]{request.getSender()}, request.reply);
-				}
+			if (serverViewController.getStaticConf().getNumRepliers() > 0) {
+				LOGGER.debug(
+						"(ServiceReplica.receiveMessages) sending reply to {} with sequence number {} and operation ID {} via ReplyManager",
+						request.getSender(), request.getSequence(), request.getOperationId());
+				managedReplies.add(request);
+			} else {
+				LOGGER.debug(
+						"(ServiceReplica.receiveMessages) sending reply to {} with sequence number {} and operation ID {}",
+						request.getSender(), request.getSequence(), request.getOperationId());
+				replier.manageReply(request, msgContexts[index - 1]);
+				// cs.send(new int[]{request.getSender()}, request.reply);
 			}
+		}
+		if (!managedReplies.isEmpty()) {
+			repMan.send(managedReplies);
+		}
+	}
 
-			// DEBUG
-			LOGGER.debug("BATCHEXECUTOR END");
-		} // End of: if (executor instanceof PreComputeBatchExecutable && numRequests > 0)
+	/**
+	 * Returns the reply content of a request: the responses to a client batch of
+	 * commands are packed in the same order as the commands.
+	 */
+	private static byte[] packResponses(TOMMessage request, byte[][] responses) {
+		return request.isCommandBatch() ? CommandBatch.pack(Arrays.asList(responses)) : responses[0];
 	}
 
 	/**
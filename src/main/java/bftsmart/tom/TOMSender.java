@@ -118,12 +118,25 @@ public abstract class TOMSender implements ReplyReceiver, Closeable, AutoCloseab
 
 
 	public void sendMessageToTargets(byte[] m, int reqId, int operationId, int[] targets, TOMMessageType type) {
+		sendMessageToTargets(m, reqId, operationId, targets, type, false);
+	}
+
+	/**
+	 * Sends a request to the targets.
+	 *
+	 * @param commandBatch whether the content is a batch of commands packed by
+	 *                     {@link bftsmart.tom.util.CommandBatch}
+	 */
+	public void sendMessageToTargets(byte[] m, int reqId, int operationId, int[] targets, TOMMessageType type,
+			boolean commandBatch) {
 		// remove TTP;
 //		if(this.getViewManager().getStaticConf().isTheTTP()) {
 //			type = TOMMessageType.ASK_STATUS;
 //		}
-		cs.send(useSignatures, targets,
-				new TOMMessage(me, session, reqId, operationId, m, null, viewController.getCurrentViewId(), type));
+		TOMMessage request = new TOMMessage(me, session, reqId, operationId, m, null, viewController.getCurrentViewId(),
+				type);
+		request.setCommandBatch(commandBatch);
+		cs.send(useSignatures, targets, request);
 	}
 
 	public int getSession(){
@@ -23,6 +23,8 @@ import bftsmart.tom.ServiceReplica;
 import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.core.messages.TOMMessageType;
 import bftsmart.tom.leaderchange.CertifiedDecision;
+import bftsmart.tom.metrics.ConsensusMetrics;
+import bftsmart.tom.metrics.ConsensusPhase;
 import bftsmart.tom.server.Recoverable;
 import bftsmart.tom.util.BatchReader;
 import org.slf4j.Logger;
@@ -96,6 +98,7 @@ public final class DeliveryThread extends Thread {
 		// 此轮共识是否发生过回滚
 		if (dec.getRollback()) {
 			this.tomLayer.getExecManager().removeSingleConsensus(dec.getConsensusId());
+			tomLayer.rolledBack(dec.getConsensusId());
 			tomLayer.setInExec(-1);
 		} else {
 			tomLayer.setLastExec(dec.getConsensusId());
@@ -111,11 +114,15 @@ public final class DeliveryThread extends Thread {
 //            tomLayer.setInExec(-1);
 //        }
 		try {
+			// extract the requests before taking the lock, since a batch that was not
+			// cached must be deserialized; the delivery reuses the extracted requests
+			TOMMessage[] requests = extractMessagesFromDecision(dec);
+			dec.setRequests(requests);
+
 			decidedLock.lock();
 			decided.put(dec);
 
 			// clean the ordered messages from the pending buffer
-			TOMMessage[] requests = extractMessagesFromDecision(dec);
 			tomLayer.clientsManager.requestsOrdered(requests);
 
 			notEmptyQueue.signalAll();
@@ -212,10 +219,7 @@ public final class DeliveryThread extends Thread {
 					notEmptyQueue.await();
 				}
 
-				Decision decision = decided.poll();
-				if (decision != null) {
-					decisions.add(decision);
-				}
+				drainDecisions(decisions);
 				decidedLock.unlock();
 
 				if (!doWork)
@@ -231,7 +235,7 @@ public final class DeliveryThread extends Thread {
 					cDecs = new CertifiedDecision[requests.length];
 					int count = 0;
 					for (Decision d : decisions) {
-						requests[count] = extractMessagesFromDecision(d);
+						requests[count] = d.getRequests();
 						consensusIds[count] = d.getConsensusId();
 						leadersIds[count] = d.getLeader();
 						regenciesIds[count] = d.getRegency();
@@ -261,8 +265,15 @@ public final class DeliveryThread extends Thread {
 					Decision lastDecision = decisions.get(decisions.size() - 1);
 
 					if (requests != null && requests.length > 0) {
+						ConsensusMetrics metrics = tomLayer.getConsensusMetrics();
+						for (int cid : consensusIds) {
+							metrics.mark(cid, ConsensusPhase.DELIVER);
+						}
 						deliverMessages(consensusIds, regenciesIds, leadersIds, cDecs, requests,
 								asyncResponseLinkedList, lastDecision.getRollback());
+						for (int cid : consensusIds) {
+							metrics.mark(cid, ConsensusPhase.EXECUTE);
+						}
 
 						// ******* EDUARDO BEGIN ***********//
 						if (controller.hasUpdates()) {
@@ -282,11 +293,14 @@ public final class DeliveryThread extends Thread {
 					// be removed from the leaderManager and the executionManager
 					// TODO: Is this part necessary? If it is, can we put it
 					// inside setLastExec
-					int cid = lastDecision.getConsensusId();
-					if (cid > 2) {
-						int stableConsensus = cid - 3;
+					for (Decision d : decisions) {
+						int cid = d.getConsensusId();
+						if (cid > 2) {
+							int stableConsensus = cid - 3;
 
-						tomLayer.execManager.removeConsensus(stableConsensus);
+							tomLayer.execManager.removeConsensus(stableConsensus);
+							tomLayer.getConsensusMetrics().discard(stableConsensus);
+						}
 					}
 				}
 			} catch (Exception e) {
@@ -302,6 +316,37 @@ public final class DeliveryThread extends Thread {
 
 	}
 
+	/**
+	 * Takes the decisions ready to be delivered, up to the configured maximum, so
+	 * they are handed to the application at once. A batch never mixes rolled back
+	 * and committed decisions, and ends after a decision with a reconfiguration,
+	 * which must be processed before the next decisions are delivered.
+	 * 
+	 * @param decisions the list where the decisions are added
+	 */
+	private void drainDecisions(List<Decision> decisions) {
+		int maxDecisions = controller.getStaticConf().getMaxDeliveryDecisions();
+		Decision decision;
+		while (decisions.size() < maxDecisions && (decision = decided.peek()) != null) {
+			if (!decisions.isEmpty() && decision.getRollback() != decisions.get(0).getRollback()) {
+				break;
+			}
+			decisions.add(decided.poll());
+			if (containsReconfig(decision)) {
+				break;
+			}
+		}
+	}
+
+	private boolean containsReconfig(Decision dec) {
+		for (TOMMessage request : dec.getRequests()) {
+			if (request != null && request.getReqType() == TOMMessageType.RECONFIG) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private TOMMessage[] extractMessagesFromDecision(Decision dec) {
 		TOMMessage[] requests = (TOMMessage[]) dec.getDeserializedValue();
 		if (requests == null) {
@@ -24,6 +24,7 @@ import bftsmart.consensus.roles.Acceptor;
 import bftsmart.consensus.roles.Proposer;
 import bftsmart.reconfiguration.ReplicaTopology;
 import bftsmart.reconfiguration.ServerViewController;
+import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.server.defaultservices.DefaultRecoverable;
 import org.slf4j.LoggerFactory;
 
@@ -263,13 +264,25 @@ public final class ExecutionManager {
                         stoppedMsgs.add(msg);
                     }
                     stoppedMsgsLock.unlock();
+                } else if (!isRetrievingState && isReady && !rollHappend && isInPipelineWindow(msg.getNumber(), lastConsId)) {
+                    // a consensus ahead of the current one, within the pipeline window: its PROPOSE is
+                    // processed once the PROPOSE of the previous consensus was, so that the requests are
+                    // accounted in consensus id order; the acceptor pre-computes and decides it only
+                    // after the previous consensus was decided
+                    if (msg.getType() == MessageFactory.PROPOSE && !isProposed(msg.getNumber() - 1)) {
+                        LOGGER.debug("(ExecutionManager.checkLimits) I am proc {}, PROPOSE for pipelined consensus {} is waiting for the previous one, last cid is {}", topology.getStaticConf().getProcessId(),
+                                msg.getNumber(), lastConsId);
+                        addOutOfContextMessage(msg);
+                    } else {
+                        canProcessTheMessage = true;
+                    }
                 } else {
                     if (isRetrievingState || !isReady ||
                             msg.getNumber() > (lastConsId + 1) ||
                             (inExec != -1 && inExec < msg.getNumber()) ||
                             (inExec == -1 && msg.getType() != MessageFactory.PROPOSE)) { //not propose message for the next consensus
 
-                        LOGGER.info("(ExecutionManager.checkLimits) I am proc {}, Message for consensus {} is out of context, adding it to out of context set, last cid is {}, in exe cid is {}, isRetrievingState = {}, isReady = {}", topology.getStaticConf().getProcessId(),
+                        LOGGER.debug("(ExecutionManager.checkLimits) I am proc {}, Message for consensus {} is out of context, adding it to out of context set, last cid is {}, in exe cid is {}, isRetrievingState = {}, isReady = {}", topology.getStaticConf().getProcessId(),
                                 msg.getNumber(), lastConsId, inExec, isRetrievingState, isReady);
 
 
@@ -279,7 +292,7 @@ public final class ExecutionManager {
 
                         addOutOfContextMessage(msg);
                     } else if (!rollHappend){ //can process!
-                        LOGGER.info("(ExecutionManager.checkLimits)I am proc {} ,message for consensus {} can be processed", this.topology.getStaticConf().getProcessId(), msg.getNumber());
+                        LOGGER.debug("(ExecutionManager.checkLimits)I am proc {} ,message for consensus {} can be processed", this.topology.getStaticConf().getProcessId(), msg.getNumber());
 
                         //Logger.debug = false;
                         canProcessTheMessage = true;
@@ -319,6 +332,80 @@ public final class ExecutionManager {
         }
     }
 
+    /**
+     * Checks if a consensus instance after the next one to be decided is within
+     * the pipeline window, so that its messages can be processed ahead of time
+     *
+     * @param cid       the consensus id
+     * @param lastConsId the last decided consensus id
+     * @return true if the consensus is within the pipeline window
+     */
+    private boolean isInPipelineWindow(int cid, int lastConsId) {
+        return cid > lastConsId + 1 && cid <= lastConsId + topology.getStaticConf().getPipelineDepth()
+                && tomLayer.isPipelined();
+    }
+
+    /**
+     * Checks if this replica already processed a valid PROPOSE for the specified
+     * consensus (or already decided it)
+     *
+     * @param cid The ID for the consensus in question
+     * @return true if the proposed value of the consensus is known and valid
+     */
+    public boolean isProposed(int cid) {
+        if (cid <= tomLayer.getLastExec()) {
+            return true;
+        }
+        consensusesLock.lock();
+        Consensus consensus = consensuses.get(cid);
+        consensusesLock.unlock();
+        if (consensus == null) {
+            return false;
+        }
+        Epoch epoch = consensus.getLastEpoch();
+        return epoch != null && epoch.deserializedPropValue != null;
+    }
+
+    /**
+     * Discards the consensus instances after the specified one that were started
+     * ahead of time within the pipeline window and are not decided, e.g. because a
+     * new regency resumes the ordering from the specified consensus. The requests
+     * proposed in the discarded instances can be proposed again by this replica.
+     *
+     * @param cid the last consensus to keep
+     */
+    public void discardPipelined(int cid) {
+        List<Consensus> discarded = new LinkedList<>();
+        consensusesLock.lock();
+        try {
+            Iterator<Map.Entry<Integer, Consensus>> iterator = consensuses.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Consensus> entry = iterator.next();
+                if (entry.getKey() > cid && !entry.getValue().isDecided()) {
+                    LOGGER.debug("(ExecutionManager.discardPipelined) discarding pipelined consensus {}", entry.getKey());
+                    iterator.remove();
+                    discarded.add(entry.getValue());
+                }
+            }
+        } finally {
+            consensusesLock.unlock();
+        }
+
+        for (Consensus consensus : discarded) {
+            consensus.lock.lock();
+            try {
+                for (Epoch epoch : consensus.getEpochs().values()) {
+                    TOMMessage[] requests = epoch.deserializedPropValue;
+                    if (requests != null) {
+                        tomLayer.clientsManager.unpropose(requests);
+                    }
+                }
+            } finally {
+                consensus.lock.unlock();
+            }
+        }
+    }
+
     /**
      * Informs if there are messages till to be processed associated the specified consensus
      * @param cid The ID for the consensus in question
@@ -6,76 +6,146 @@ package bftsmart.tom.core;
 
 import bftsmart.communication.ServerCommunicationSystem;
 import bftsmart.tom.core.messages.TOMMessage;
+import org.slf4j.LoggerFactory;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 
 /**
+ * Sends the replies to the clients with a pool of reply threads. The replies
+ * to a client are always handled by the same thread, so they keep their order,
+ * and the replies to one client that are pending together are written to its
+ * connection with a single flush.
  *
  * @author snake
  */
 public class ReplyManager {
-    
-    private LinkedList<ReplyThread> threads;
-    private int iteration;
-    
+
+    private ReplyThread[] threads;
+
     public ReplyManager(int numThreads, ServerCommunicationSystem cs) {
-        
-        this.threads = new LinkedList();
-        this.iteration = 0;
-        
+
+        this.threads = new ReplyThread[numThreads];
+
         for (int i = 0; i < numThreads; i++) {
-            this.threads.add(new ReplyThread(cs));
+            this.threads[i] = new ReplyThread(cs);
         }
-        
+
         for (ReplyThread t : threads)
             t.start();
     }
-    
+
     public void send (TOMMessage msg) {
 
-        iteration++;
-        threads.get((iteration % threads.size())).send(msg);
+        getThread(msg.getSender()).send(Collections.singletonList(msg));
+
+    }
+
+    /**
+     * Sends the replies of several requests, e.g. of a decided batch.
+     *
+     * @param msgs requests with the replies to be sent
+     */
+    public void send (List<TOMMessage> msgs) {
+
+        if (threads.length == 1) {
+            threads[0].send(msgs);
+            return;
+        }
+        List<List<TOMMessage>> shards = new ArrayList<List<TOMMessage>>(Collections.nCopies(threads.length, null));
+        for (TOMMessage msg : msgs) {
+            int i = shardOf(msg.getSender());
+            List<TOMMessage> shard = shards.get(i);
+            if (shard == null) {
+                shard = new ArrayList<TOMMessage>();
+                shards.set(i, shard);
+            }
+            shard.add(msg);
+        }
+        for (int i = 0; i < threads.length; i++) {
+            List<TOMMessage> shard = shards.get(i);
+            if (shard != null) {
+                threads[i].send(shard);
+            }
+        }
+
+    }
+
+    private ReplyThread getThread(int clientId) {
+        return threads[shardOf(clientId)];
+    }
 
+    private int shardOf(int clientId) {
+        return Math.floorMod(clientId, threads.length);
     }
 }
 
 class ReplyThread extends Thread {
-    
+
     private static final long POOL_TIME = 5000;
-    
-    private LinkedBlockingQueue<TOMMessage> replies;
+
+    private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(ReplyThread.class);
+
+    private LinkedBlockingQueue<List<TOMMessage>> replies;
     private ServerCommunicationSystem cs = null;
-    
+
     ReplyThread(ServerCommunicationSystem cs) {
         this.cs = cs;
-        this.replies = new LinkedBlockingQueue<TOMMessage>();
+        this.replies = new LinkedBlockingQueue<List<TOMMessage>>();
     }
-    
-    void send(TOMMessage msg) {
-        replies.add(msg);
+
+    void send(List<TOMMessage> msgs) {
+        replies.add(msgs);
     }
-    
+
     public void run() {
 
-        TOMMessage msg;
+        List<List<TOMMessage>> pending = new ArrayList<List<TOMMessage>>();
 
         while (true) {
 
             try {
-                msg = replies.poll(POOL_TIME, TimeUnit.MILLISECONDS);
-                if (msg == null) {
+                List<TOMMessage> msgs = replies.poll(POOL_TIME, TimeUnit.MILLISECONDS);
+                if (msgs == null) {
 
                     continue; //go back to the start of the loop
                 }
-                cs.getClientCommunication().send(new int[] {msg.getSender()}, msg.reply, false);
+                pending.add(msgs);
+                replies.drainTo(pending);
+
+                // group the replies by client, keeping their order
+                Map<Integer, List<TOMMessage>> clientReplies = new LinkedHashMap<Integer, List<TOMMessage>>();
+                for (List<TOMMessage> batch : pending) {
+                    for (TOMMessage msg : batch) {
+                        List<TOMMessage> list = clientReplies.get(msg.getSender());
+                        if (list == null) {
+                            list = new ArrayList<TOMMessage>();
+                            clientReplies.put(msg.getSender(), list);
+                        }
+                        list.add(msg.reply);
+                    }
+                }
+                pending.clear();
+
+                for (Map.Entry<Integer, List<TOMMessage>> entry : clientReplies.entrySet()) {
+                    cs.getClientCommunication().send(entry.getKey(), entry.getValue());
+                }
             } catch (InterruptedException ex) {
                 ex.printStackTrace();
+            } catch (RuntimeException ex) {
+                // the replies of the failed batch are lost, the clients will retransmit their requests
+                LOGGER.error("(ReplyThread.run) Error occurred while sending a batch of replies, the replies are dropped! --"
+                        + ex.getMessage(), ex);
+                pending.clear();
             }
 
         }
 
     }
-}
\ No newline at end of file
+}
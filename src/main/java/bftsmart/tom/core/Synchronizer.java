@@ -1504,6 +1504,10 @@ public class Synchronizer {
 		Consensus cons = null;
 		Epoch e = null;
 
+		// the consensus instances started ahead of time within the pipeline window belong to the old
+		// regency, their requests go back to the pending requests to be proposed by the new leader
+		execManager.discardPipelined(tom.getLastExec() + 1);
+
 		if (tom.getLastExec() + 1 < lastHighestCID.getCID()) { // is this a delayed replica?
 
 			LOGGER.info(
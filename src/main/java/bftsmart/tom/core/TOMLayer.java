@@ -19,9 +19,8 @@ package bftsmart.tom.core;
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
-import java.security.Signature;
+import java.security.PublicKey;
 import java.security.SignatureException;
 import java.security.SignedObject;
 import java.util.concurrent.locks.Condition;
@@ -49,11 +48,14 @@ import bftsmart.tom.core.messages.TOMMessageType;
 import bftsmart.tom.leaderchange.ClientDatasMonitorTimer;
 import bftsmart.tom.leaderchange.HeartBeatTimer;
 import bftsmart.tom.leaderchange.RequestsTimer;
+import bftsmart.tom.metrics.ConsensusMetrics;
+import bftsmart.tom.metrics.JmxMetricsRegistry;
 import bftsmart.tom.server.Recoverable;
 import bftsmart.tom.server.RequestVerifier;
 import bftsmart.tom.server.defaultservices.DefaultRecoverable;
 import bftsmart.tom.util.BatchBuilder;
 import bftsmart.tom.util.BatchReader;
+import bftsmart.tom.util.SignatureScheme;
 
 /**
  * This class implements the state machine replication protocol described in
@@ -103,11 +105,25 @@ public class TOMLayer extends Thread implements RequestReceiver {
 	 */
 	private int inExecution = -1;
 	private int lastExecuted = -1;
+	/**
+	 * The id of the last consensus proposed by this replica as leader, and the
+	 * regency in which it was proposed (used for pipelining, see
+	 * {@link #nextProposalId()})
+	 */
+	private int lastProposed = -1;
+	private int lastProposedRegency = -1;
+	/**
+	 * The id of a rolled back consensus that must be proposed again (or -1 if there
+	 * is none)
+	 */
+	private int reproposeId = -1;
 
-	public SHA256Utils md = new SHA256Utils();
-	private Signature engine;
+	/**
+	 * The size of the leaves when a large proposed value is hashed as a merkle tree
+	 */
+	private static final int MERKLE_HASH_LEAF_SIZE = 256 * 1024;
 
-	private ReentrantLock hashLock = new ReentrantLock();
+	public SHA256Utils md = new SHA256Utils();
 
 	// the next two are used to generate non-deterministic data in a deterministic
 	// way (by the leader)
@@ -132,6 +148,11 @@ public class TOMLayer extends Thread implements RequestReceiver {
 
 	private String realName;
 
+	/**
+	 * 共识各阶段的时延度量；
+	 */
+	private final ConsensusMetrics consensusMetrics = new ConsensusMetrics();
+
 	/**
 	 * Creates a new instance of TOMulticastLayer
 	 *
@@ -168,13 +189,10 @@ public class TOMLayer extends Thread implements RequestReceiver {
 //            e.printStackTrace(System.out);
 //        }
 
-		try {
-			this.engine = Signature.getInstance("SHA1withRSA");
-		} catch (NoSuchAlgorithmException e) {
-			throw new IllegalStateException(e.getMessage(), e);
-		}
-
 		this.prk = this.controller.getStaticConf().getRSAPrivateKey();
+		if (this.controller.getStaticConf().isMetricsEnabled()) {
+			this.consensusMetrics.setRegistry(new JmxMetricsRegistry(this.controller.getStaticConf().getProcessId()));
+		}
 		this.dt = new DeliveryThread(this, receiver, recoverer, this.controller); // Create delivery thread
 		this.dt.start();
 		this.stateManager = recoverer.getStateManager();
@@ -210,20 +228,30 @@ public class TOMLayer extends Thread implements RequestReceiver {
 	 * @return Hash for the specified TOM message
 	 */
 	public final byte[] computeHash(byte[] data) {
-		byte[] ret = null;
-		hashLock.lock();
-		try {
-			ret = md.hash(data);
-		} finally {
-			hashLock.unlock();
-		}
+		return computeHash(md, data, controller.getStaticConf().getMerkleHashThreshold());
+	}
 
-		return ret;
+	/**
+	 * Computes the hash of a proposed value in the same way as
+	 * {@link #computeHash(byte[])}, for the components that hold the digest
+	 * engine and the configuration but not the TOM layer itself
+	 *
+	 * @param md                  the digest engine
+	 * @param data                Data from which to generate the hash
+	 * @param merkleHashThreshold the configured merkle hash threshold
+	 * @return Hash for the specified data
+	 */
+	public static byte[] computeHash(SHA256Utils md, byte[] data, int merkleHashThreshold) {
+		if (merkleHashThreshold > 0 && data.length >= merkleHashThreshold) {
+			return md.merkleHash(data, MERKLE_HASH_LEAF_SIZE);
+		}
+		return md.hash(data);
 	}
 
 	public SignedObject sign(Serializable obj) {
 		try {
-			return new SignedObject(obj, prk, engine);
+			// the engine of the signature scheme is per thread, so signing is thread safe
+			return new SignedObject(obj, prk, SignatureScheme.of(prk).getEngine());
 		} catch (InvalidKeyException | SignatureException | IOException e) {
 			throw new IllegalStateException(e.getMessage(), e);
 		}
@@ -238,7 +266,8 @@ public class TOMLayer extends Thread implements RequestReceiver {
 	 */
 	public boolean verifySignature(SignedObject so, int sender) {
 		try {
-			return so.verify(controller.getStaticConf().getRSAPublicKey(sender), engine);
+			PublicKey publicKey = controller.getStaticConf().getRSAPublicKey(sender);
+			return so.verify(publicKey, SignatureScheme.of(publicKey).getEngine());
 		} catch (InvalidKeyException | SignatureException e) {
 			LOGGER.warn("Invalid key or signature! --" + e.getMessage(), e);
 		}
@@ -329,6 +358,11 @@ public class TOMLayer extends Thread implements RequestReceiver {
 		boolean readOnly = (msg.getReqType() == TOMMessageType.UNORDERED_REQUEST
 				|| msg.getReqType() == TOMMessageType.UNORDERED_HASHED_REQUEST);
 		if (readOnly) {
+			if (msg.isCommandBatch()) {
+				// only the ordered delivery path unpacks command batches
+				LOGGER.error("(TOMLayer.requestReceived) the read-only TOMMessage {} carries a command batch and was discarded.", msg);
+				return;
+			}
 			LOGGER.debug(
 					"I am {}, (TOMLayer.requestReceived) Received read-only TOMMessage from client {} with sequence number {} for session {}",
 					controller.getStaticConf().getProcessId(), msg.getSender(), msg.getSequence(), msg.getSession());
@@ -384,7 +418,6 @@ public class TOMLayer extends Thread implements RequestReceiver {
 		// for benchmarking
 		if (dec.getConsensusId() > -1) { // if this is from the leader change, it doesnt matter
 			dec.firstMessageProposed = pendingRequests.getFirst();
-			dec.firstMessageProposed.consensusStartTime = System.nanoTime();
 		}
 		dec.batchSize = numberOfMessages;
 
@@ -508,10 +541,11 @@ public class TOMLayer extends Thread implements RequestReceiver {
 			return;
 		}
 
-		// blocks until the current consensus finishes
+		// blocks until the current consensus finishes (or, if pipelining is enabled,
+		// until there is room in the pipeline for another consensus)
 		proposeLock.lock();
 
-		if (getInExec() != -1) { // there is some consensus running
+		if (!canProposeNext()) { // there is some consensus running
 			LOGGER.debug("(TOMLayer.run) Waiting for consensus {} termination.", getInExec());
 			canPropose.awaitUninterruptibly();
 		}
@@ -534,16 +568,19 @@ public class TOMLayer extends Thread implements RequestReceiver {
 			return;
 		}
 
-		LOGGER.info("(TOMLayer.run) I am proc {}, I can try to propose.",
+		LOGGER.debug("(TOMLayer.run) I am proc {}, I can try to propose.",
 				this.controller.getStaticConf().getProcessId());
 
 		if ((execManager.getCurrentLeader() == controller.getCurrentProcessId()) && // I'm the leader
 				(clientsManager.havePendingRequests()) && // there are messages to be ordered
-				(getInExec() == -1)) { // there is no consensus in execution
+				canProposeNext()) { // there is no consensus in execution, or the pipeline is not full
 
 			// Sets the current consensus
-			int execId = getLastExec() + 1;
-			setInExec(execId);
+			int execId = nextProposalId();
+			if (getInExec() == -1 && execId == getLastExec() + 1) {
+				setInExec(execId);
+			}
+			proposed(execId);
 
 			Decision dec = execManager.getConsensus(execId).getDecision();
 
@@ -584,6 +621,95 @@ public class TOMLayer extends Thread implements RequestReceiver {
 		}
 	}
 
+	/**
+	 * Checks if the leader can start a new consensus instance now.
+	 * <p>
+	 * Without pipelining this is only possible when there is no consensus in
+	 * execution. With a pipeline depth of k the leader may propose the instances
+	 * lastExec+1..lastExec+k before the first of them is decided; the acceptors
+	 * process the proposals within the window concurrently, but pre-compute and
+	 * decide them strictly in consensus id order, so the pre-computation and the
+	 * delivery order are not affected.
+	 * 
+	 * @return true if a new consensus instance can be proposed
+	 */
+	private boolean canProposeNext() {
+		if (!isPipelined()) {
+			return getInExec() == -1;
+		}
+		return nextProposalId() - getLastExec() <= controller.getStaticConf().getPipelineDepth();
+	}
+
+	/**
+	 * Returns the id of the next consensus instance to be proposed by the leader.
+	 * 
+	 * @return
+	 */
+	private int nextProposalId() {
+		if (!isPipelined()) {
+			return getLastExec() + 1;
+		}
+		proposeLock.lock();
+		try {
+			if (lastProposedRegency != syncher.getLCManager().getLastReg()) {
+				// the proposals of an older regency are no longer in flight
+				lastProposed = -1;
+				reproposeId = -1;
+			}
+			if (reproposeId > getLastExec()) {
+				return reproposeId;
+			}
+			int next = Math.max(getLastExec(), lastProposed) + 1;
+			if (getInExec() >= next) {
+				next = getInExec() + 1;
+			}
+			return next;
+		} finally {
+			proposeLock.unlock();
+		}
+	}
+
+	private void proposed(int cid) {
+		proposeLock.lock();
+		try {
+			if (cid == reproposeId) {
+				reproposeId = -1;
+			}
+			lastProposed = Math.max(lastProposed, cid);
+			lastProposedRegency = syncher.getLCManager().getLastReg();
+		} finally {
+			proposeLock.unlock();
+		}
+	}
+
+	/**
+	 * Called when the consensus instance was rolled back, so that the leader
+	 * proposes it again instead of moving on to the next pipelined instance.
+	 * 
+	 * @param cid the id of the rolled back consensus
+	 */
+	void rolledBack(int cid) {
+		proposeLock.lock();
+		try {
+			reproposeId = cid;
+		} finally {
+			proposeLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks if consensus instances are pipelined, i.e., if the leader may propose
+	 * and the acceptors may process the instances after the next one to be decided
+	 * within the pipeline window.
+	 * 
+	 * @return true if pipelining is enabled and the replica is not in a leader
+	 *         change
+	 */
+	boolean isPipelined() {
+		return controller.getStaticConf().getPipelineDepth() > 1 && controller.getCurrentViewN() > 1
+				&& !execManager.stopped();
+	}
+
 	/**
 	 * Called by the current consensus instance, to notify the TOM layer that a
 	 * value was decided
@@ -625,16 +751,23 @@ public class TOMLayer extends Thread implements RequestReceiver {
 			// requests are valid in accordance to the application semantics
 			// and not an erroneous requests sent by a Byzantine leader.
 			for (TOMMessage r : requests) {
-				if (controller.getStaticConf().isBFT() && !verifier.isValidRequest(r.getContent()))
+				if (!clientsManager.isValidRequest(r))
 					return null;
 			}
 
 			if (addToClientManager) {
+				// verify the client signatures of the whole batch in parallel, unsigned
+				// requests are invalid; the results are cached for the sequential
+				// accounting below
+				if (this.controller.getStaticConf().isUseSignatures() && !clientsManager.verifySignatures(requests)) {
+					LOGGER.error("(TOMLayer.isProposedValueValid) finished, return=false");
+					LOGGER.error("invalid client signature in proposed batch");
+					return null;
+				}
 				for (int i = 0; i < requests.length; i++) {
 					// notifies the client manager that this request was received and get
 					// the result of its validation
 					if (!clientsManager.requestReceived(requests[i], false)) {
-						clientsManager.getClientsLock().unlock();
 						LOGGER.error("(TOMLayer.isProposedValueValid) finished, return=false");
 						LOGGER.error("failure in deserialize batch");
 						return null;
@@ -644,7 +777,6 @@ public class TOMLayer extends Thread implements RequestReceiver {
 
 		} catch (Exception e) {
 			e.printStackTrace();
-			clientsManager.getClientsLock().unlock();
 			LOGGER.error("(TOMLayer.isProposedValueValid) finished, return=false");
 			return null;
 		}
@@ -679,6 +811,8 @@ public class TOMLayer extends Thread implements RequestReceiver {
 
 		proposeLock.lock();
 		this.inExecution = -1;
+		this.lastProposed = -1;
+		this.reproposeId = -1;
 		// ot.addUpdate();
 		canPropose.signalAll();
 		proposeLock.unlock();
@@ -690,9 +824,50 @@ public class TOMLayer extends Thread implements RequestReceiver {
 			return;
 		}
 
-		for (int nextConsensus = getLastExec() + 1; execManager
-				.receivedOutOfContextPropose(nextConsensus); nextConsensus = getLastExec() + 1) {
-			execManager.processOutOfContextPropose(execManager.getConsensus(nextConsensus));
+		int lastExec;
+		do {
+			lastExec = getLastExec();
+			resumePipelined(lastExec + 1);
+
+			for (int nextConsensus = getLastExec() + 1; execManager
+					.receivedOutOfContextPropose(nextConsensus); nextConsensus = getLastExec() + 1) {
+				execManager.processOutOfContextPropose(execManager.getConsensus(nextConsensus));
+			}
+
+			processPipelinedProposes();
+			// resuming a pipelined consensus may decide it, so that the next one can be resumed as well
+		} while (getLastExec() != lastExec);
+	}
+
+	/**
+	 * Starts the execution of the next consensus to be decided if its PROPOSE was
+	 * already processed ahead of time within the pipeline window.
+	 * 
+	 * @param cid the next consensus to be decided
+	 */
+	private void resumePipelined(int cid) {
+		if (getInExec() != -1 || !execManager.isProposed(cid)) {
+			return;
+		}
+		LOGGER.debug("(TOMLayer.resumePipelined) resuming pipelined consensus {}", cid);
+		setInExec(cid);
+		acceptor.resumeConsensus(cid);
+	}
+
+	/**
+	 * Processes the buffered PROPOSEs of the consensus instances within the
+	 * pipeline window, in consensus id order.
+	 */
+	private void processPipelinedProposes() {
+		if (!isPipelined()) {
+			return;
+		}
+		int lastExec = getLastExec();
+		int lastInWindow = lastExec + controller.getStaticConf().getPipelineDepth();
+		for (int cid = lastExec + 2; cid <= lastInWindow && execManager.isProposed(cid - 1); cid++) {
+			if (execManager.receivedOutOfContextPropose(cid)) {
+				execManager.processOutOfContextPropose(execManager.getConsensus(cid));
+			}
 		}
 	}
 
@@ -730,6 +905,18 @@ public class TOMLayer extends Thread implements RequestReceiver {
 		return execManager;
 	}
 
+	/**
+	 * 共识各阶段的时延度量；
+	 * <p>
+	 * 
+	 * 可通过 {@link ConsensusMetrics#setRegistry(bftsmart.tom.metrics.MetricsRegistry)} 替换度量指标的注册表；
+	 * 
+	 * @return
+	 */
+	public ConsensusMetrics getConsensusMetrics() {
+		return consensusMetrics;
+	}
+
 	public void shutdown() {
 		if (!doWork) {
 			// 已经关闭，不必重复执行；
@@ -762,13 +949,13 @@ public class TOMLayer extends Thread implements RequestReceiver {
 			this.requestsTimer.shutdown();
 		if (this.clientsManager != null) {
 			this.clientsManager.clear();
-			this.clientsManager.getPendingRequests().clear();
 		}
 		if (this.dt != null)
 			this.dt.shutdown();
 		if (this.communication != null)
 			this.communication.shutdown();
 
+		consensusMetrics.close();
 	}
 
 	public HeartBeatTimer getHeartBeatTimer() {
@@ -47,8 +47,9 @@ public final class ForwardedMessage extends SystemMessage {
     public void writeExternal(ObjectOutput out) throws IOException {
         super.writeExternal(out);
 
-        out.writeInt(request.serializedMessage.length);
-        out.write(request.serializedMessage);
+        byte[] serializedMessage = request.getSerializedMessage();
+        out.writeInt(serializedMessage.length);
+        out.write(serializedMessage);
         out.writeBoolean(request.signed);
 
         if (request.signed) {
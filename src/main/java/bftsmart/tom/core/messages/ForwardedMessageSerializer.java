@@ -0,0 +1,49 @@
+package bftsmart.tom.core.messages;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import bftsmart.communication.SystemMessageCodecRegistry;
+import bftsmart.communication.SystemMessageSerializer;
+
+/**
+ * {@link ForwardedMessage} 的二进制序列化器；
+ * <p>
+ *
+ * 与 Java 序列化的内容一致：转发的请求输出其序列化字节和签名；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class ForwardedMessageSerializer implements SystemMessageSerializer<ForwardedMessage> {
+
+	@Override
+	public void write(ForwardedMessage message, DataOutput out) throws IOException {
+		TOMMessage request = message.getRequest();
+		out.writeInt(message.getSender());
+		SystemMessageCodecRegistry.writeBytes(request.getSerializedMessage(), out);
+		out.writeBoolean(request.signed);
+		if (request.signed) {
+			SystemMessageCodecRegistry.writeBytes(request.serializedMessageSignature, out);
+		}
+	}
+
+	@Override
+	public ForwardedMessage read(DataInput in) throws IOException {
+		int sender = in.readInt();
+		byte[] serializedRequest = SystemMessageCodecRegistry.readBytes(in);
+		if (serializedRequest == null) {
+			throw new IOException("The forwarded request is missing!");
+		}
+		TOMMessage request = TOMMessage.bytesToMessage(serializedRequest);
+		if (request == null) {
+			throw new IOException("Illegal forwarded request!");
+		}
+		request.serializedMessage = serializedRequest;
+		if (in.readBoolean()) {
+			request.serializedMessageSignature = SystemMessageCodecRegistry.readBytes(in);
+		}
+		return new ForwardedMessage(sender, request);
+	}
+}
@@ -16,6 +16,7 @@ limitations under the License.
 package bftsmart.tom.core.messages;
 
 import bftsmart.communication.SystemMessage;
+import bftsmart.tom.util.CommandBatch;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
@@ -25,7 +26,10 @@ import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.Externalizable;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * This class represents a total ordered message
@@ -34,6 +38,12 @@ public class TOMMessage extends SystemMessage implements Externalizable, Compara
 
 	private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(TOMMessage.class);
 
+	/**
+	 * Bit of the serialized type indicating that the content is a client batch
+	 * of commands (see CommandBatch)
+	 */
+	private static final int COMMAND_BATCH_FLAG = 0x10000;
+
 	//******* EDUARDO BEGIN **************//
 	private int viewID; //current sender view
 	private TOMMessageType type; // request type: application or reconfiguration request
@@ -49,6 +59,8 @@ public class TOMMessage extends SystemMessage implements Externalizable, Compara
 
 	private byte[] viewContent = null; // Content of the view
 
+	private boolean commandBatch = false; // is the content a client batch of commands?
+
 	//the fields bellow are not serialized!!!
 	private transient int id; // ID for this message. It should be unique
 
@@ -72,14 +84,16 @@ public class TOMMessage extends SystemMessage implements Externalizable, Compara
 	public transient byte[] serializedMessageSignature = null;
 	public transient byte[] serializedMessageMAC = null;
 
-	//for benchmarking purposes
-	public transient long consensusStartTime = 0; //time the consensus is created
-	public transient long proposeReceivedTime = 0; //time the propose is received
-	public transient long writeSentTime = 0; //time the replica' write message is sent
-	public transient long acceptSentTime = 0; //time the replica' accept message is sent
-	public transient long decisionTime = 0; //time the decision is established
-	public transient long deliveryTime =0; //time the request is delivered
-	public transient long executedTime =0; //time the request is executed
+	// when parsed in place (see fromBytes), the serialized message and the content
+	// are slices of a larger buffer (e.g. a batch), and are only copied on demand
+	private transient byte[] sourceBuffer = null;
+	private transient int sourceOffset;
+	private transient int sourceLength;
+	private transient int contentOffset;
+	private transient int contentLength = -1;
+
+	// the commands unpacked from the content of a client batch
+	private transient byte[][] commands = null;
 
 	//the reply associated with this message
 	public transient TOMMessage reply = null;
@@ -174,13 +188,78 @@ public class TOMMessage extends SystemMessage implements Externalizable, Compara
 	 * @return The content of the message
 	 */
 	public byte[] getContent() {
+		if (content == null && contentLength >= 0) {
+			content = Arrays.copyOfRange(sourceBuffer, contentOffset, contentOffset + contentLength);
+		}
 		return content;
 	}
 
+	/**
+	 * Retrieves the bytes of this message as received. If the message was parsed
+	 * in place from a larger buffer, they are only copied on the first call.
+	 * 
+	 * @return The serialized message, or null if it is unknown
+	 */
+	public byte[] getSerializedMessage() {
+		if (serializedMessage == null && sourceBuffer != null) {
+			serializedMessage = Arrays.copyOfRange(sourceBuffer, sourceOffset, sourceOffset + sourceLength);
+		}
+		return serializedMessage;
+	}
+
+	/**
+	 * @return The size of the serialized message, or -1 if it is unknown
+	 */
+	public int getSerializedMessageLength() {
+		if (serializedMessage != null) {
+			return serializedMessage.length;
+		}
+		return sourceBuffer != null ? sourceLength : -1;
+	}
+
+	/**
+	 * Writes the serialized message to the buffer without materializing it.
+	 * 
+	 * @param out the destination buffer
+	 */
+	public void writeSerializedMessage(ByteBuffer out) {
+		if (serializedMessage != null) {
+			out.put(serializedMessage);
+		} else {
+			out.put(sourceBuffer, sourceOffset, sourceLength);
+		}
+	}
+
 	public byte[] getViewContent() {
 		return viewContent;
 	}
 
+	/**
+	 * Indicates if the content of this message is a batch of several commands
+	 * packed by the client (see CommandBatch)
+	 */
+	public boolean isCommandBatch() {
+		return commandBatch;
+	}
+
+	public void setCommandBatch(boolean commandBatch) {
+		this.commandBatch = commandBatch;
+		this.commands = null;
+	}
+
+	/**
+	 * Retrieves the commands carried by this message: the commands of a client
+	 * batch, or the content itself otherwise.
+	 * 
+	 * @return The commands, or null if the client batch is malformed
+	 */
+	public byte[][] getCommands() {
+		if (commands == null) {
+			commands = commandBatch ? CommandBatch.unpack(getContent()) : new byte[][] { getContent() };
+		}
+		return commands;
+	}
+
 	/**
 	 * Verifies if two TOMMessage are equal. For performance reasons, the method
 	 * only verifies if the send and sequence are equal.
@@ -220,12 +299,13 @@ public class TOMMessage extends SystemMessage implements Externalizable, Compara
 	public void wExternal(DataOutput out) throws IOException {
 		out.writeInt(sender);
 		out.writeInt(viewID);
-		out.writeInt(type.toInt());
+		out.writeInt(commandBatch ? type.toInt() | COMMAND_BATCH_FLAG : type.toInt());
 		out.writeInt(session);
 		out.writeInt(sequence);
 		out.writeInt(operationId);
 		out.writeInt(replyServer);
 		
+		byte[] content = getContent();
 		if (content == null) {
 			out.writeInt(-1);
 		} else {
@@ -243,7 +323,9 @@ public class TOMMessage extends SystemMessage implements Externalizable, Compara
 	public void rExternal(DataInput in) throws IOException, ClassNotFoundException {
 		sender = in.readInt();
 		viewID = in.readInt();
-		type = TOMMessageType.fromInt(in.readInt());
+		int typeValue = in.readInt();
+		type = TOMMessageType.fromInt(typeValue & ~COMMAND_BATCH_FLAG);
+		commandBatch = (typeValue & COMMAND_BATCH_FLAG) != 0;
 		session = in.readInt();
 		sequence = in.readInt();
 		operationId = in.readInt();
@@ -269,11 +351,29 @@ public class TOMMessage extends SystemMessage implements Externalizable, Compara
 	 */
 	 private void buildId() {
 		 //id = (sender << 20) | sequence;
+		 id = buildId(this.getSender(), this.session, this.sequence);
+	 }
+
+	 private static int buildId(int sender, int session, int sequence) {
              	int hash = 5;
- 		hash = 59 * hash + this.getSender();               
-		hash = 59 * hash + this.sequence;
-		hash = 59 * hash + this.session;
-		id = hash;
+ 		hash = 59 * hash + sender;
+		hash = 59 * hash + sequence;
+		hash = 59 * hash + session;
+		return hash;
+	 }
+
+	 /**
+	  * Retrieves the ID of a serialized message from its header, without parsing
+	  * the whole message
+	  * @param serializedMessage the serialized message
+	  * @return the ID of the message
+	  * @throws IllegalArgumentException if the message is too short to hold the header
+	  */
+	 public static int getId(byte[] serializedMessage) {
+		 if (serializedMessage.length < 20) {
+			 throw new IllegalArgumentException("Truncated message!");
+		 }
+		 return buildId(readInt(serializedMessage, 0), readInt(serializedMessage, 12), readInt(serializedMessage, 16));
 	 }
 
 	 /**
@@ -285,6 +385,71 @@ public class TOMMessage extends SystemMessage implements Externalizable, Compara
 		 return id >>> 20;
 	 }
 
+	 /**
+	  * Parses a message in place, without copying it. The serialized message and
+	  * the content keep referencing the buffer, which must not be modified
+	  * afterwards.
+	  * 
+	  * @param buffer the buffer holding the serialized message
+	  * @param offset the position of the message in the buffer
+	  * @param length the size of the serialized message
+	  * @return the message
+	  * @throws IOException if the message is truncated or malformed
+	  */
+	 public static TOMMessage fromBytes(byte[] buffer, int offset, int length) throws IOException {
+		 int end = offset + length;
+		 if (offset < 0 || length < 32 || end > buffer.length) {
+			 throw new EOFException("Truncated message!");
+		 }
+
+		 TOMMessage m = new TOMMessage();
+		 int pos = offset;
+		 m.sender = readInt(buffer, pos);
+		 m.viewID = readInt(buffer, pos += 4);
+		 int typeValue = readInt(buffer, pos += 4);
+		 m.type = TOMMessageType.fromInt(typeValue & ~COMMAND_BATCH_FLAG);
+		 m.commandBatch = (typeValue & COMMAND_BATCH_FLAG) != 0;
+		 m.session = readInt(buffer, pos += 4);
+		 m.sequence = readInt(buffer, pos += 4);
+		 m.operationId = readInt(buffer, pos += 4);
+		 m.replyServer = readInt(buffer, pos += 4);
+
+		 int toRead = readInt(buffer, pos += 4);
+		 pos += 4;
+		 if (toRead != -1) {
+			 if (toRead < 0 || toRead > end - pos - 4) {
+				 throw new EOFException("Truncated message content!");
+			 }
+			 m.contentOffset = pos;
+			 m.contentLength = toRead;
+			 pos += toRead;
+		 }
+
+		 if (pos + 4 > end) {
+			 throw new EOFException("Truncated message!");
+		 }
+		 int toReadView = readInt(buffer, pos);
+		 pos += 4;
+		 if (toReadView != -1) {
+			 if (toReadView < 0 || toReadView > end - pos) {
+				 throw new EOFException("Truncated view content!");
+			 }
+			 // the view content is only present in reconfiguration requests
+			 m.viewContent = Arrays.copyOfRange(buffer, pos, pos + toReadView);
+		 }
+
+		 m.sourceBuffer = buffer;
+		 m.sourceOffset = offset;
+		 m.sourceLength = length;
+		 m.buildId();
+		 return m;
+	 }
+
+	 private static int readInt(byte[] buffer, int pos) {
+		 return ((buffer[pos] & 0xFF) << 24) | ((buffer[pos + 1] & 0xFF) << 16) | ((buffer[pos + 2] & 0xFF) << 8)
+				 | (buffer[pos + 3] & 0xFF);
+	 }
+
 	 public static byte[] messageToBytes(TOMMessage m) {
 		 ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		 DataOutputStream dos = new DataOutputStream(baos);
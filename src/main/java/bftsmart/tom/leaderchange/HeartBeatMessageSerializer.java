@@ -0,0 +1,31 @@
+package bftsmart.tom.leaderchange;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import bftsmart.communication.SystemMessageSerializer;
+
+/**
+ * {@link HeartBeatMessage} 的二进制序列化器；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class HeartBeatMessageSerializer implements SystemMessageSerializer<HeartBeatMessage> {
+
+	@Override
+	public void write(HeartBeatMessage message, DataOutput out) throws IOException {
+		out.writeInt(message.getSender());
+		out.writeInt(message.getLeader());
+		out.writeInt(message.getLastRegency());
+	}
+
+	@Override
+	public HeartBeatMessage read(DataInput in) throws IOException {
+		int sender = in.readInt();
+		int leader = in.readInt();
+		int lastRegency = in.readInt();
+		return new HeartBeatMessage(sender, leader, lastRegency);
+	}
+}
@@ -15,9 +15,7 @@ limitations under the License.
 */
 package bftsmart.tom.leaderchange;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.security.PublicKey;
 import java.security.SignedObject;
 import java.util.Arrays;
@@ -32,10 +30,11 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import bftsmart.communication.MacKey;
+import bftsmart.communication.SystemMessageCodecRegistry;
 import bftsmart.consensus.TimestampValuePair;
 import bftsmart.consensus.app.SHA256Utils;
 import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.ConsensusMessageSerializer;
 import bftsmart.reconfiguration.ViewTopology;
 import bftsmart.tom.core.TOMLayer;
 import bftsmart.tom.core.messages.TOMMessage;
@@ -1294,7 +1293,7 @@ public class LCManager {
 			for (TimestampValuePair rv : c.getWriteSet()) {
 
 				if (rv.getValue() != null && rv.getValue().length > 0)
-					rv.setHashedValue(md.hash(rv.getValue()));
+					rv.setHashedValue(computeHash(rv.getValue()));
 				else
 					rv.setHashedValue(new byte[0]);
 			}
@@ -1333,6 +1332,27 @@ public class LCManager {
 		return highest;
 	}
 
+	/**
+	 * 验证共识消息的签名证明；发送方可能采用不同的格式生成证明，依次尝试各个格式；
+	 */
+	private static boolean verifyProofSignature(PublicKey pubKey, ConsensusMessage cm, byte[] signature) {
+		for (int format = SystemMessageCodecRegistry.LATEST_FORMAT; format >= SystemMessageCodecRegistry.LEGACY_FORMAT; format--) {
+			if (TOMUtil.verifySignature(pubKey, ConsensusMessageSerializer.toProofData(cm, format), signature)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Computes the hash of a decided value in the same way as the consensus does
+	 * (see {@link TOMLayer#computeHash(byte[])}), so that the hashes in the proofs
+	 * and the write sets match also for the values hashed as a merkle tree
+	 */
+	private byte[] computeHash(byte[] value) {
+		return TOMLayer.computeHash(md, value, SVController.getStaticConf().getMerkleHashThreshold());
+	}
+
 	// verifies is a proof associated with a decided value is valid
 	public boolean hasValidProof(CertifiedDecision cDec) {
 
@@ -1340,22 +1360,21 @@ public class LCManager {
 			return true; // If the last CID is -1 it means the replica
 		// did not complete any consensus and cannot have
 		// any proof
-		LOGGER.debug("I am {}, pid = {}, cid = {}, consmsg = {}", tomLayer.controller.getStaticConf().getProcessId(),
+		LOGGER.debug("I am {}, pid = {}, cid = {}, consmsg = {}", SVController.getStaticConf().getProcessId(),
 				cDec.getPID(), cDec.getCID(), cDec.getConsMessages() == null ? "null" : cDec.getConsMessages().size());
 
 		byte[] hashedValue = null;
 		try {
-			hashedValue = md.hash(cDec.getDecision());
+			hashedValue = computeHash(cDec.getDecision());
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 //        byte[] hashedValue = md.hash(cDec.getDecision());
 		Set<ConsensusMessage> ConsensusMessages = cDec.getConsMessages();
-		int myId = tomLayer.controller.getStaticConf().getProcessId();
-		int certificateCurrentView = (2 * tomLayer.controller.getCurrentViewF()) + 1;
+		int certificateCurrentView = (2 * SVController.getCurrentViewF()) + 1;
 		int certificateLastView = -1;
-		if (tomLayer.controller.getLastView() != null)
-			certificateLastView = (2 * tomLayer.controller.getLastView().getF()) + 1;
+		if (SVController.getLastView() != null)
+			certificateLastView = (2 * SVController.getLastView().getF()) + 1;
 		int countValid = 0;
 		PublicKey pubRSAKey = null;
 
@@ -1367,31 +1386,10 @@ public class LCManager {
 					consMsg.getSender(), consMsg.getValue());
 			cm.setOrigPropValue(consMsg.getOrigPropValue());
 
-			ByteArrayOutputStream bOut = new ByteArrayOutputStream(248);
-			try {
-				new ObjectOutputStream(bOut).writeObject(cm);
-			} catch (IOException ex) {
-				ex.printStackTrace();
-			}
-
-			byte[] data = bOut.toByteArray();
-
 			if (consMsg.getProof() instanceof HashMap) { // Certificate is made of MAC vector
 
 				LOGGER.debug("(LCManager.hasValidProof) Proof made of MAC vector");
 
-				HashMap<Integer, byte[]> macVector = (HashMap<Integer, byte[]>) consMsg.getProof();
-
-				byte[] recvMAC = macVector.get(myId);
-
-				byte[] myMAC = null;
-
-//				SecretKey secretKey = tomLayer.getCommunication().getServersCommunication().getSecretKey(consMsg.getSender());
-				MacKey macKey = tomLayer.getCommunication().getServersCommunication().getMacKey(consMsg.getSender());
-				if (macKey != null) {
-					myMAC = macKey.generateMac(data);
-				}
-
 				// 不能判断mac, 对于部分节点宕机，或者重启的情况mac是会为空的，这样证据就验证失败了
 //				if (recvMAC != null && myMAC != null && Arrays.equals(recvMAC, myMAC)
 //						&& Arrays.equals(consMsg.getOrigPropValue(), hashedValue)
@@ -1416,7 +1414,7 @@ public class LCManager {
 
 				byte[] signature = (byte[]) consMsg.getProof();
 
-				if (TOMUtil.verifySignature(pubRSAKey, data, signature)
+				if (verifyProofSignature(pubRSAKey, cm, signature)
 						&& !alreadyCounted.contains(consMsg.getSender())) {
 
 					alreadyCounted.add(consMsg.getSender());
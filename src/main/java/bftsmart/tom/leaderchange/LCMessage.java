@@ -54,7 +54,7 @@ public class LCMessage extends SystemMessage {
 	 *                the new regency will be elected;
 	 * @param payload dada that comes with the message
 	 */
-	private LCMessage(int from, LCType type, int leader, int regency, int viewId, int[] viewProcessIds,
+	LCMessage(int from, LCType type, int leader, int regency, int viewId, int[] viewProcessIds,
 			byte[] payload) {
 		super(from);
 		this.type = type;
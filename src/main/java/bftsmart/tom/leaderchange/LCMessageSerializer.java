@@ -0,0 +1,46 @@
+package bftsmart.tom.leaderchange;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import bftsmart.communication.SystemMessageCodecRegistry;
+import bftsmart.communication.SystemMessageSerializer;
+
+/**
+ * {@link LCMessage} 的二进制序列化器；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class LCMessageSerializer implements SystemMessageSerializer<LCMessage> {
+
+	@Override
+	public void write(LCMessage message, DataOutput out) throws IOException {
+		out.writeInt(message.getSender());
+		out.writeInt(message.getType().CODE);
+		out.writeInt(message.getLeader());
+		out.writeInt(message.getReg());
+		out.writeInt(message.getViewId());
+		SystemMessageCodecRegistry.writeInts(message.getViewProcessIds(), out);
+		SystemMessageCodecRegistry.writeBytes(message.getPayload(), out);
+	}
+
+	@Override
+	public LCMessage read(DataInput in) throws IOException {
+		int sender = in.readInt();
+		LCType type = LCType.valueOf(in.readInt());
+		int leader = in.readInt();
+		int regency = in.readInt();
+		int viewId = in.readInt();
+		int[] viewProcessIds = SystemMessageCodecRegistry.readInts(in);
+		if (viewProcessIds == null) {
+			throw new IOException("The view process ids of LCMessage is missing!");
+		}
+		// 与 Java 反序列化一致，确保是升序排序的序列；
+		Arrays.sort(viewProcessIds);
+		byte[] payload = SystemMessageCodecRegistry.readBytes(in);
+		return new LCMessage(sender, type, leader, regency, viewId, viewProcessIds, payload);
+	}
+}
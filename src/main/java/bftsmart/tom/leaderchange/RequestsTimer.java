@@ -22,14 +22,12 @@ import java.util.ListIterator;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.TreeSet;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import bftsmart.tom.core.messages.ForwardedMessage;
 import org.slf4j.LoggerFactory;
@@ -53,8 +51,7 @@ public class RequestsTimer {
 	private long timeout;
 	private long shortTimeout;
 	private long stoptimeout;
-	private TreeSet<TOMMessage> watched = new TreeSet<TOMMessage>();
-	private ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+	private final WatchedRequests watched = new WatchedRequests();
 
 	private boolean enabled = true;
 
@@ -146,19 +143,7 @@ public class RequestsTimer {
 			}
 
 			LinkedList<TOMMessage> pendingRequests = new LinkedList<TOMMessage>();
-
-			rwLock.readLock().lock();
-
-			for (Iterator<TOMMessage> iter = watched.iterator(); iter.hasNext();) {
-				TOMMessage request = iter.next();
-				if ((System.currentTimeMillis() - request.receptionTime) > timeout) {
-					pendingRequests.add(request);
-				} else {
-					break;
-				}
-			}
-
-			rwLock.readLock().unlock();
+			watched.collectTimeout(System.currentTimeMillis(), timeout, pendingRequests);
 
 			// 存在超时的交易请求
 			if (pendingRequests.size() !=0) {
@@ -211,12 +196,7 @@ public class RequestsTimer {
 	 * @param request Request to which the timer is being createf for
 	 */
 	public void watch(TOMMessage request) {
-		// long startInstant = System.nanoTime();
-		rwLock.writeLock().lock();
-		watched.add(request);
-//        System.out.println("request client  " + request.getSender() + ", req seq  " + request.getSequence() + ", watch at  " + System.currentTimeMillis() + "\r\n");
-//        if (watched.size() >= 1 && enabled) startTimer();
-		rwLock.writeLock().unlock();
+		watched.watch(request);
 	}
 
 	/**
@@ -225,12 +205,16 @@ public class RequestsTimer {
 	 * @param request Request whose timer is to be canceled
 	 */
 	public void unwatch(TOMMessage request) {
-		// long startInstant = System.nanoTime();
-		rwLock.writeLock().lock();
-		watched.remove(request);
-//        System.out.println("request client  " + request.getSender() + ", req seq  " + request.getSequence() + ", unwatch at  " + System.currentTimeMillis() + "\r\n");
-//        if (watched.remove(request) && watched.isEmpty()) stopTimer();
-		rwLock.writeLock().unlock();
+		watched.unwatch(request);
+	}
+
+	/**
+	 * Cancels the timers for a batch of requests
+	 * 
+	 * @param requests Requests whose timers are to be canceled
+	 */
+	public void unwatch(TOMMessage[] requests) {
+		watched.unwatch(requests);
 	}
 
 	/**
@@ -238,8 +222,6 @@ public class RequestsTimer {
 	 */
 	public void clearAll() {
 //        TOMMessage[] requests = new TOMMessage[watched.size()];
-		rwLock.writeLock().lock();
-
 		watched.clear();
 //
 //        watched.toArray(requests);
@@ -251,7 +233,6 @@ public class RequestsTimer {
 //                rtTask = null;
 //            }
 //        }
-		rwLock.writeLock().unlock();
 	}
 
 	public DefaultRecoverable getDefaultExecutor() {
@@ -274,22 +255,7 @@ public class RequestsTimer {
 		// TIMEOUT");
 
 		LinkedList<TOMMessage> pendingRequests = new LinkedList<TOMMessage>();
-
-		rwLock.readLock().lock();
-
-		for (Iterator<TOMMessage> iter = watched.iterator(); iter.hasNext();) {
-			TOMMessage request = iter.next();
-			if ((System.currentTimeMillis() - request.receptionTime) > t) {
-//            if ((request.receptionTime + System.currentTimeMillis()) > t) {
-//                System.out.println("real consensus message timeout!!!!!!!!\r\n");
-//                System.out.println("request client  " + request.getSender() + ", req seq  " + request.getSequence() + ",  consensus message timeout at  " + System.currentTimeMillis() + "\r\n");
-				pendingRequests.add(request);
-			} else {
-				break;
-			}
-		}
-
-		rwLock.readLock().unlock();
+		watched.collectTimeout(System.currentTimeMillis(), t, pendingRequests);
 
 		tomLayer.getSynchronizer().triggerTimeout(regencyPropose, pendingRequests);
 
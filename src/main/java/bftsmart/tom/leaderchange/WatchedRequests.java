@@ -0,0 +1,200 @@
+package bftsmart.tom.leaderchange;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bftsmart.tom.core.messages.TOMMessage;
+
+/**
+ * 等待排序的请求的超时跟踪；
+ * <p>
+ *
+ * 请求按照接收时间（{@link TOMMessage#receptionTime}）划分到固定时长的时间槽，时间槽按先后顺序排列；<br>
+ * 检查超时只需从最早的时间槽开始遍历，遇到未超时的时间槽即可停止，代价与超时的请求数成正比；
+ * <p>
+ *
+ * 加入和取消跟踪都是无锁操作，接收请求的线程与提交请求的线程之间没有全局锁的竞争；<br>
+ * 由于超时阈值可以动态调整（例如 {@link RequestsTimer#setShortTimeout(long)}），时间槽以接收时间而不是截止时间划分；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class WatchedRequests {
+
+	/**
+	 * 默认的时间槽时长（毫秒）；
+	 */
+	public static final long DEFAULT_TICK_MILLIS = 50;
+
+	private final long tickMillis;
+
+	/**
+	 * 每个请求所在的时间槽；
+	 */
+	private final ConcurrentHashMap<TOMMessage, Slot> index = new ConcurrentHashMap<TOMMessage, Slot>();
+
+	/**
+	 * 按时间先后排列的时间槽；
+	 */
+	private final ConcurrentLinkedQueue<Slot> slots = new ConcurrentLinkedQueue<Slot>();
+
+	/**
+	 * 最新的时间槽；
+	 */
+	private final AtomicReference<Slot> current = new AtomicReference<Slot>();
+
+	public WatchedRequests() {
+		this(DEFAULT_TICK_MILLIS);
+	}
+
+	/**
+	 * @param tickMillis 时间槽的时长（毫秒），即检查超时的精度；
+	 */
+	public WatchedRequests(long tickMillis) {
+		if (tickMillis < 1) {
+			throw new IllegalArgumentException("Illegal tick[" + tickMillis + "] of watched requests!");
+		}
+		this.tickMillis = tickMillis;
+	}
+
+	/**
+	 * 跟踪请求；
+	 *
+	 * @param request
+	 */
+	public void watch(TOMMessage request) {
+		long tick = request.receptionTime / tickMillis;
+		while (true) {
+			Slot slot = slotOf(tick);
+			Slot previous = index.put(request, slot);
+			if (previous != null && previous != slot) {
+				previous.requests.remove(request);
+			}
+			slot.requests.add(request);
+			if (!slot.retired) {
+				return;
+			}
+			// 时间槽在加入请求的同时被回收了，重新加入最新的时间槽；
+			slot.requests.remove(request);
+			index.remove(request, slot);
+		}
+	}
+
+	/**
+	 * 取消跟踪请求；
+	 *
+	 * @param request
+	 */
+	public void unwatch(TOMMessage request) {
+		Slot slot = index.remove(request);
+		if (slot != null) {
+			slot.requests.remove(request);
+		}
+	}
+
+	/**
+	 * 批量取消跟踪请求；
+	 *
+	 * @param requests
+	 */
+	public void unwatch(TOMMessage[] requests) {
+		for (TOMMessage request : requests) {
+			unwatch(request);
+		}
+	}
+
+	/**
+	 * 清除所有的请求；
+	 */
+	public void clear() {
+		current.set(null);
+		Slot slot;
+		while ((slot = slots.poll()) != null) {
+			slot.retired = true;
+		}
+		index.clear();
+	}
+
+	/**
+	 * 跟踪中的请求数；
+	 *
+	 * @return
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * 收集接收时长超过指定阈值的请求，按照接收的先后顺序加入指定的列表；
+	 *
+	 * @param now      当前时间（毫秒）；
+	 * @param timeout  超时阈值（毫秒）；
+	 * @param requests 超时的请求；
+	 */
+	public void collectTimeout(long now, long timeout, List<TOMMessage> requests) {
+		purge();
+
+		long deadline = now - timeout;
+		for (Slot slot : slots) {
+			if (slot.tick * tickMillis >= deadline) {
+				break;
+			}
+			for (TOMMessage request : slot.requests) {
+				if (request.receptionTime < deadline && index.get(request) == slot) {
+					requests.add(request);
+				}
+			}
+		}
+	}
+
+	private Slot slotOf(long tick) {
+		while (true) {
+			Slot slot = current.get();
+			if (slot != null && slot.tick >= tick) {
+				return slot;
+			}
+			Slot newSlot = new Slot(tick);
+			if (current.compareAndSet(slot, newSlot)) {
+				slots.offer(newSlot);
+				return newSlot;
+			}
+		}
+	}
+
+	/**
+	 * 回收最早的连续的空时间槽；最新的时间槽总是保留；
+	 */
+	private void purge() {
+		Iterator<Slot> iterator = slots.iterator();
+		while (iterator.hasNext()) {
+			Slot slot = iterator.next();
+			if (slot == current.get() || !slot.requests.isEmpty()) {
+				return;
+			}
+			slot.retired = true;
+			if (!slot.requests.isEmpty()) {
+				// 回收的同时有请求加入，由加入方负责重新加入最新的时间槽；
+				slot.retired = false;
+				return;
+			}
+			iterator.remove();
+		}
+	}
+
+	private static class Slot {
+
+		private final long tick;
+
+		private final Set<TOMMessage> requests = ConcurrentHashMap.newKeySet();
+
+		private volatile boolean retired = false;
+
+		private Slot(long tick) {
+			this.tick = tick;
+		}
+	}
+}
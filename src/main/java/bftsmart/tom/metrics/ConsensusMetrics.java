@@ -0,0 +1,134 @@
+package bftsmart.tom.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 记录每个共识（cid）在各处理阶段的时延；
+ * <p>
+ *
+ * 在各阶段结束时调用 {@link #mark(int, ConsensusPhase)}，本阶段与上一阶段的时间差记入对应阶段的直方图；<br>
+ * 到达 {@link ConsensusPhase#EXECUTE} 时记录总时延，并丢弃该共识的计时数据；
+ * <p>
+ *
+ * 未设置注册表时不做任何记录；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class ConsensusMetrics {
+
+	private static final ConsensusPhase[] PHASES = ConsensusPhase.values();
+
+	/**
+	 * 同时跟踪的共识的最大数量；超过时说明存在未执行完成即被放弃的共识（例如回滚、状态传输），清空以避免泄漏；
+	 */
+	private static final int MAX_TRACKED_CONSENSUSES = 1024;
+
+	private final ConcurrentHashMap<Integer, AtomicLongArray> timestamps = new ConcurrentHashMap<Integer, AtomicLongArray>();
+
+	private volatile MetricsRegistry registry;
+
+	private volatile LatencyHistogram[] phaseLatencies;
+
+	private volatile LatencyHistogram totalLatency;
+
+	public ConsensusMetrics() {
+	}
+
+	public ConsensusMetrics(MetricsRegistry registry) {
+		setRegistry(registry);
+	}
+
+	public MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * 设置注册表；为 null 时停止记录；
+	 *
+	 * @param registry
+	 */
+	public synchronized void setRegistry(MetricsRegistry registry) {
+		if (registry != null) {
+			LatencyHistogram[] latencies = new LatencyHistogram[PHASES.length];
+			// 第一个阶段没有上一阶段，不记录时延；
+			for (int i = 1; i < PHASES.length; i++) {
+				latencies[i] = registry.latency(PHASES[i].getMetricName());
+			}
+			this.phaseLatencies = latencies;
+			this.totalLatency = registry.latency(ConsensusPhase.TOTAL_METRIC);
+		}
+		this.registry = registry;
+		timestamps.clear();
+	}
+
+	public boolean isEnabled() {
+		return registry != null;
+	}
+
+	/**
+	 * 标记指定共识的某个阶段已结束；
+	 *
+	 * @param cid
+	 * @param phase
+	 */
+	public void mark(int cid, ConsensusPhase phase) {
+		if (registry == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		AtomicLongArray times;
+		if (phase == ConsensusPhase.PROPOSE) {
+			if (timestamps.size() >= MAX_TRACKED_CONSENSUSES) {
+				timestamps.clear();
+			}
+			times = new AtomicLongArray(PHASES.length);
+			times.set(0, now);
+			// 同一共识的后续 PROPOSE（例如领导者切换后的新时间戳）不重新计时；
+			timestamps.putIfAbsent(cid, times);
+			return;
+		}
+		times = timestamps.get(cid);
+		if (times == null) {
+			// 本节点未处理该共识的 PROPOSE（例如通过状态传输获得的共识）；
+			return;
+		}
+		int index = phase.ordinal();
+		if (!times.compareAndSet(index, 0, now)) {
+			return;
+		}
+		long previous = times.get(index - 1);
+		if (previous != 0) {
+			phaseLatencies[index].record(now - previous);
+		}
+		if (phase == ConsensusPhase.EXECUTE) {
+			timestamps.remove(cid);
+			totalLatency.record(now - times.get(0));
+		}
+	}
+
+	/**
+	 * 丢弃指定共识的计时数据；
+	 *
+	 * @param cid
+	 */
+	public void discard(int cid) {
+		if (registry == null) {
+			return;
+		}
+		timestamps.remove(cid);
+	}
+
+	/**
+	 * 关闭注册表，并停止记录；
+	 */
+	public synchronized void close() {
+		MetricsRegistry registry = this.registry;
+		this.registry = null;
+		timestamps.clear();
+		if (registry != null) {
+			registry.close();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package bftsmart.tom.metrics;
+
+/**
+ * 共识的处理阶段；按先后顺序定义；
+ * <p>
+ *
+ * 每个阶段的时延是从上一阶段结束到本阶段结束的时间；
+ *
+ * @author huanghaiquan
+ *
+ */
+public enum ConsensusPhase {
+
+	/**
+	 * 收到并开始处理 PROPOSE 消息；
+	 */
+	PROPOSE("consensus.propose"),
+
+	/**
+	 * 收到法定数量的 WRITE 消息；
+	 */
+	WRITE_QUORUM("consensus.write_quorum"),
+
+	/**
+	 * 预计算完成；
+	 */
+	PRECOMPUTE("consensus.precompute"),
+
+	/**
+	 * 收到法定数量的 ACCEPT 消息，形成决议；
+	 */
+	ACCEPT_QUORUM("consensus.accept_quorum"),
+
+	/**
+	 * 决议被交付线程取出，开始交付；
+	 */
+	DELIVER("consensus.deliver"),
+
+	/**
+	 * 决议执行完成；
+	 */
+	EXECUTE("consensus.execute");
+
+	/**
+	 * 从 {@link #PROPOSE} 到 {@link #EXECUTE} 的总时延的名称；
+	 */
+	public static final String TOTAL_METRIC = "consensus.total";
+
+	private final String metricName;
+
+	private ConsensusPhase(String metricName) {
+		this.metricName = metricName;
+	}
+
+	/**
+	 * 本阶段时延的直方图名称；
+	 *
+	 * @return
+	 */
+	public String getMetricName() {
+		return metricName;
+	}
+
+}
@@ -0,0 +1,51 @@
+package bftsmart.tom.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 只在内存中持有度量指标的注册表；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class DefaultMetricsRegistry implements MetricsRegistry {
+
+	private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	@Override
+	public LatencyHistogram latency(String name) {
+		LatencyHistogram histogram = latencies.get(name);
+		if (histogram == null) {
+			synchronized (latencies) {
+				histogram = latencies.get(name);
+				if (histogram == null) {
+					histogram = new LatencyHistogram(name);
+					onCreated(histogram);
+					latencies.put(name, histogram);
+				}
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * 新的时延直方图创建后回调；
+	 *
+	 * @param histogram
+	 */
+	protected void onCreated(LatencyHistogram histogram) {
+	}
+
+	@Override
+	public Collection<LatencyHistogram> getLatencies() {
+		return Collections.unmodifiableCollection(latencies.values());
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
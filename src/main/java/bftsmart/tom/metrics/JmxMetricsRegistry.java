@@ -0,0 +1,71 @@
+package bftsmart.tom.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 把时延直方图注册为 JMX MBean 的度量指标注册表；
+ * <p>
+ *
+ * MBean 的名称为：bftsmart:type=Latency,replica=[节点 ID],name=[直方图名称]；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class JmxMetricsRegistry extends DefaultMetricsRegistry {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JmxMetricsRegistry.class);
+
+	private final int processId;
+
+	private final MBeanServer mbeanServer;
+
+	private final List<ObjectName> registeredNames = new CopyOnWriteArrayList<ObjectName>();
+
+	public JmxMetricsRegistry(int processId) {
+		this(processId, ManagementFactory.getPlatformMBeanServer());
+	}
+
+	public JmxMetricsRegistry(int processId, MBeanServer mbeanServer) {
+		this.processId = processId;
+		this.mbeanServer = mbeanServer;
+	}
+
+	@Override
+	protected void onCreated(LatencyHistogram histogram) {
+		try {
+			ObjectName objectName = new ObjectName(
+					"bftsmart:type=Latency,replica=" + processId + ",name=" + ObjectName.quote(histogram.getName()));
+			if (mbeanServer.isRegistered(objectName)) {
+				// 同一节点重启时替换之前注册的 MBean；
+				mbeanServer.unregisterMBean(objectName);
+			}
+			mbeanServer.registerMBean(histogram, objectName);
+			registeredNames.add(objectName);
+		} catch (JMException e) {
+			LOGGER.warn("Fail to register latency metrics[" + histogram.getName() + "] to JMX! --" + e.getMessage(),
+					e);
+		}
+	}
+
+	@Override
+	public void close() {
+		for (ObjectName objectName : registeredNames) {
+			try {
+				mbeanServer.unregisterMBean(objectName);
+			} catch (JMException e) {
+				LOGGER.debug("Fail to unregister latency metrics[{}] from JMX! --{}", objectName, e.getMessage());
+			}
+		}
+		registeredNames.clear();
+	}
+
+}
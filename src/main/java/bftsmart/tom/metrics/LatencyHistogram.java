@@ -0,0 +1,198 @@
+package bftsmart.tom.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 时延直方图；
+ * <p>
+ *
+ * 采用与 HdrHistogram 相同的“对数-线性”分桶：每个 2 的幂次区间再等分为若干个子桶，<br>
+ * 记录值的相对误差不超过 1/子桶数；子桶数默认为 {@link #SUB_BUCKET_COUNT}，可在创建时指定更高的精度；
+ * <p>
+ *
+ * 记录操作无锁，可被多个线程并发调用；读取的统计值是近似的快照；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+
+	private static final int DEFAULT_SUB_BUCKET_BITS = 5;
+
+	private static final int MAX_SUB_BUCKET_BITS = 14;
+
+	/**
+	 * 默认精度下每个 2 的幂次区间的子桶数；
+	 */
+	public static final int SUB_BUCKET_COUNT = 1 << DEFAULT_SUB_BUCKET_BITS;
+
+	private final String name;
+
+	private final int subBucketBits;
+
+	private final int subBucketCount;
+
+	private final int bucketCount;
+
+	private final AtomicLongArray counts;
+
+	private final AtomicLong totalCount = new AtomicLong();
+
+	private final AtomicLong totalValue = new AtomicLong();
+
+	private final AtomicLong maxValue = new AtomicLong();
+
+	public LatencyHistogram(String name) {
+		this(name, DEFAULT_SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * @param name          名称；
+	 * @param subBucketBits 子桶数的位数，取值范围 [1, 14]；每个 2 的幂次区间等分为 2^subBucketBits 个子桶，<br>
+	 *                      所占内存随之倍增，例如 11 位时相对误差不超过 1/2048，约占 850KB；
+	 */
+	public LatencyHistogram(String name, int subBucketBits) {
+		if (subBucketBits < 1 || subBucketBits > MAX_SUB_BUCKET_BITS) {
+			throw new IllegalArgumentException("Illegal sub bucket bits[" + subBucketBits + "]!");
+		}
+		this.name = name;
+		this.subBucketBits = subBucketBits;
+		this.subBucketCount = 1 << subBucketBits;
+		this.bucketCount = subBucketCount + (63 - subBucketBits) * subBucketCount;
+		this.counts = new AtomicLongArray(bucketCount);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * 记录一个时延值；单位为“纳秒”；负值被忽略；
+	 *
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			return;
+		}
+		counts.incrementAndGet(indexOf(nanos));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(nanos);
+		long max = maxValue.get();
+		while (nanos > max && !maxValue.compareAndSet(max, nanos)) {
+			max = maxValue.get();
+		}
+	}
+
+	/**
+	 * 每个 2 的幂次区间的子桶数；记录值的相对误差不超过其倒数；
+	 *
+	 * @return
+	 */
+	public int getSubBucketCount() {
+		return subBucketCount;
+	}
+
+	@Override
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	@Override
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	@Override
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalValue.get() / count;
+	}
+
+	/**
+	 * 返回指定百分位的时延值；
+	 * <p>
+	 *
+	 * 返回值是该百分位所在分桶的上界，但不超过已记录的最大值；
+	 *
+	 * @param percentile 百分位，取值范围 [0, 100]；
+	 * @return
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long accumulated = 0;
+		for (int i = 0; i < bucketCount; i++) {
+			accumulated += counts.get(i);
+			if (accumulated >= rank) {
+				return Math.min(highestValueOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	@Override
+	public long getP50() {
+		return getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getP99() {
+		return getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getP999() {
+		return getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < bucketCount; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalValue.set(0);
+		maxValue.set(0);
+	}
+
+	int indexOf(long value) {
+		if (value < subBucketCount) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - subBucketBits;
+		int subBucket = (int) (value >>> shift) - subBucketCount;
+		return subBucketCount + shift * subBucketCount + subBucket;
+	}
+
+	long lowestValueOf(int index) {
+		if (index < subBucketCount) {
+			return index;
+		}
+		int shift = (index - subBucketCount) / subBucketCount;
+		int subBucket = (index - subBucketCount) % subBucketCount;
+		return ((long) (subBucketCount + subBucket)) << shift;
+	}
+
+	long highestValueOf(int index) {
+		if (index + 1 >= bucketCount) {
+			return Long.MAX_VALUE;
+		}
+		return lowestValueOf(index + 1) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[count=%s, mean=%.0fns, p50=%sns, p99=%sns, p999=%sns, max=%sns]", name, getCount(),
+				getMean(), getP50(), getP99(), getP999(), getMax());
+	}
+}
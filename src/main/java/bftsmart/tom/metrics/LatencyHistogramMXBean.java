@@ -0,0 +1,30 @@
+package bftsmart.tom.metrics;
+
+/**
+ * 时延直方图的 JMX 管理接口；时延单位为“纳秒”；
+ *
+ * @author huanghaiquan
+ *
+ */
+public interface LatencyHistogramMXBean {
+
+	String getName();
+
+	long getCount();
+
+	double getMean();
+
+	long getMax();
+
+	long getP50();
+
+	long getP99();
+
+	long getP999();
+
+	/**
+	 * 清空已记录的数据；
+	 */
+	void reset();
+
+}
@@ -0,0 +1,36 @@
+package bftsmart.tom.metrics;
+
+import java.util.Collection;
+
+/**
+ * 度量指标注册表；
+ * <p>
+ *
+ * 负责创建并持有时延直方图，由具体实现决定如何对外暴露（例如 JMX）；
+ *
+ * @author huanghaiquan
+ *
+ */
+public interface MetricsRegistry {
+
+	/**
+	 * 返回指定名称的时延直方图；不存在时创建；
+	 *
+	 * @param name
+	 * @return
+	 */
+	LatencyHistogram latency(String name);
+
+	/**
+	 * 返回全部时延直方图；
+	 *
+	 * @return
+	 */
+	Collection<LatencyHistogram> getLatencies();
+
+	/**
+	 * 关闭注册表，释放对外暴露的资源；
+	 */
+	void close();
+
+}
@@ -0,0 +1,210 @@
+package bftsmart.tom.server.defaultservices;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 检查点文件；
+ * <p>
+ *
+ * 文件格式与 {@link FileRecoverer} 兼容：“状态长度(4字节) + 状态 + 哈希长度(4字节) + 哈希 + EOF(4字节，值为0) +
+ * 共识 ID(4字节)”；
+ * <p>
+ *
+ * 写入时以一次 {@link FileChannel#write(ByteBuffer[])} 直接写出状态数组，不再复制到一个额外的缓冲区；<br>
+ * 读取时只解析状态之外的部分，状态通过内存映射（{@link #map(long, int)}）或
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} 按需访问，不需要一次读入堆内存；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class CheckpointFile implements Closeable {
+
+	private static final int INT_BYTE_SIZE = 4;
+
+	private static final int EOF = 0;
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	private final int stateLength;
+
+	private final byte[] stateHash;
+
+	private final int lastConsensusId;
+
+	private CheckpointFile(File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long fileLength = channel.size();
+			this.stateLength = readInt(0);
+			if (stateLength < 0 || INT_BYTE_SIZE + (long) stateLength + 3 * INT_BYTE_SIZE > fileLength) {
+				throw new IOException("Illegal state length[" + stateLength + "] of checkpoint[" + file + "]!");
+			}
+			long position = INT_BYTE_SIZE + (long) stateLength;
+			int hashLength = readInt(position);
+			position += INT_BYTE_SIZE;
+			if (hashLength < 0 || position + hashLength + 2 * INT_BYTE_SIZE > fileLength) {
+				throw new IOException("Illegal hash length[" + hashLength + "] of checkpoint[" + file + "]!");
+			}
+			this.stateHash = new byte[hashLength];
+			readFully(ByteBuffer.wrap(stateHash), position);
+			position += hashLength;
+			if (readInt(position) != EOF) {
+				throw new IOException("Missing EOF mark of checkpoint[" + file + "]!");
+			}
+			this.lastConsensusId = readInt(position + INT_BYTE_SIZE);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 打开检查点文件；
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException 文件不存在或者格式错误；
+	 */
+	public static CheckpointFile open(File file) throws IOException {
+		return new CheckpointFile(file);
+	}
+
+	/**
+	 * 写入检查点文件；
+	 *
+	 * @param file            检查点文件；已存在的文件将被覆盖；
+	 * @param state           状态；
+	 * @param stateHash       状态的哈希；
+	 * @param lastConsensusId 检查点的共识 ID；
+	 * @param sync            是否在返回前刷盘；
+	 * @throws IOException
+	 */
+	public static void write(File file, byte[] state, byte[] stateHash, int lastConsensusId, boolean sync)
+			throws IOException {
+		ByteBuffer stateHeader = ByteBuffer.allocate(INT_BYTE_SIZE);
+		stateHeader.putInt(state.length);
+		stateHeader.flip();
+
+		ByteBuffer hashHeader = ByteBuffer.allocate(INT_BYTE_SIZE);
+		hashHeader.putInt(stateHash.length);
+		hashHeader.flip();
+		ByteBuffer hash = ByteBuffer.wrap(stateHash);
+		ByteBuffer end = ByteBuffer.allocate(2 * INT_BYTE_SIZE);
+		end.putInt(EOF);
+		end.putInt(lastConsensusId);
+		end.flip();
+
+		ByteBuffer[] buffers = { stateHeader, ByteBuffer.wrap(state), hashHeader, hash, end };
+		long remaining = 4 * INT_BYTE_SIZE + (long) state.length + stateHash.length;
+		try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (remaining > 0) {
+				remaining -= out.write(buffers);
+			}
+			if (sync) {
+				out.force(true);
+			}
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * 状态的长度（字节）；
+	 *
+	 * @return
+	 */
+	public int getStateLength() {
+		return stateLength;
+	}
+
+	public byte[] getStateHash() {
+		return stateHash.clone();
+	}
+
+	public int getLastConsensusId() {
+		return lastConsensusId;
+	}
+
+	/**
+	 * 以只读方式映射状态的一部分；
+	 *
+	 * @param offset 相对于状态起始位置的偏移；
+	 * @param length 长度；
+	 * @return
+	 * @throws IOException
+	 */
+	public MappedByteBuffer map(long offset, int length) throws IOException {
+		checkRange(offset, length);
+		return channel.map(FileChannel.MapMode.READ_ONLY, INT_BYTE_SIZE + offset, length);
+	}
+
+	/**
+	 * 把状态的一部分直接写入指定的通道；
+	 *
+	 * @param offset 相对于状态起始位置的偏移；
+	 * @param length 长度；
+	 * @param target
+	 * @throws IOException
+	 */
+	public void transferTo(long offset, long length, WritableByteChannel target) throws IOException {
+		checkRange(offset, length);
+		long transferred = 0;
+		while (transferred < length) {
+			transferred += channel.transferTo(INT_BYTE_SIZE + offset + transferred, length - transferred, target);
+		}
+	}
+
+	/**
+	 * 读取完整的状态；
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] readState() throws IOException {
+		byte[] state = new byte[stateLength];
+		readFully(ByteBuffer.wrap(state), INT_BYTE_SIZE);
+		return state;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void checkRange(long offset, long length) {
+		if (offset < 0 || length < 0 || offset + length > stateLength) {
+			throw new IndexOutOfBoundsException("Range[" + offset + ", " + (offset + length)
+					+ ") is out of the state of checkpoint[" + file + "], whose length is " + stateLength + "!");
+		}
+	}
+
+	private int readInt(long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(INT_BYTE_SIZE);
+		readFully(buffer, position);
+		buffer.flip();
+		return buffer.getInt();
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of checkpoint[" + file + "]!");
+			}
+			position += read;
+		}
+	}
+}
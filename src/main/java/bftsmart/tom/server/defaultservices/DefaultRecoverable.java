@@ -39,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -52,7 +53,6 @@ public abstract class DefaultRecoverable implements Recoverable, PreComputeBatch
 
 	private int checkpointPeriod;
 	private ReentrantLock logLock = new ReentrantLock();
-	private ReentrantLock hashLock = new ReentrantLock();
 	private ReentrantLock stateLock = new ReentrantLock();
 	private ReplicaConfiguration config;
 	private ViewTopology controller;
@@ -98,6 +98,22 @@ public abstract class DefaultRecoverable implements Recoverable, PreComputeBatch
 
 	@Override
 	public byte[][] executeBatch(byte[][] commands, MessageContext[] msgCtxs) {
+		executeBatch(commands, msgCtxs, false);
+		return null;
+	}
+
+	/**
+	 * Executes a batch like {@link #executeBatch(byte[][], MessageContext[])} and
+	 * returns a future completed when its commands are durable in the log. The
+	 * log is written in order, so it also implies the durability of all the
+	 * previous batches.
+	 *
+	 * Replies may wait on this future without blocking the delivery of the next
+	 * consensus.
+	 *
+	 * @return a future holding the consensus ID of the last saved batch
+	 */
+	public CompletableFuture<Integer> executeDurableBatch(byte[][] commands, MessageContext[] msgCtxs) {
 		return executeBatch(commands, msgCtxs, false);
 	}
 
@@ -222,38 +238,67 @@ public abstract class DefaultRecoverable implements Recoverable, PreComputeBatch
 //	}
 
 
-	// 目前的设计中commands只包含一轮共识批次的消息，故可以优化处理流程
-	private byte[][] executeBatch(byte[][] commands, MessageContext[] msgCtxs, boolean noop) {
+	// 投递线程可能一次投递多轮共识的消息（按共识 ID 递增排列）；
+	// 在每个检查点共识处，先保存之前共识的命令，再生成检查点；
+	private CompletableFuture<Integer> executeBatch(byte[][] commands, MessageContext[] msgCtxs, boolean noop) {
 
+		CompletableFuture<Integer> durableFuture = CompletableFuture.completedFuture(-1);
 		if (commands.length > 0 && msgCtxs.length > 0 && commands.length == msgCtxs.length) {
 
-			int cid = msgCtxs[0].getConsensusId();
-
-			// cid 正好为检查点， checkpointPeriod,  2*checkpointPeriod, 3*checkpointPeriod,......
-			if ((cid > 0) && (cid % checkpointPeriod == 0)) {
-				stateLock.lock();
-				byte[] snapshot = getBlockHashByCid(cid);
-				stateLock.unlock();
-				saveState(snapshot, cid);
+			int batchStart = 0;
+			for (int i = 0; i < msgCtxs.length; i++) {
+				int cid = msgCtxs[i].getConsensusId();
+				if (i > 0 && cid == msgCtxs[i - 1].getConsensusId()) {
+					continue;
+				}
+				// cid 正好为检查点， checkpointPeriod,  2*checkpointPeriod, 3*checkpointPeriod,......
+				if ((cid > 0) && (cid % checkpointPeriod == 0)) {
+					if (i > batchStart) {
+						saveCommands(Arrays.copyOfRange(commands, batchStart, i),
+								Arrays.copyOfRange(msgCtxs, batchStart, i));
+						batchStart = i;
+					}
+					stateLock.lock();
+					byte[] snapshot = getBlockHashByCid(cid);
+					stateLock.unlock();
+					saveState(snapshot, cid);
+				}
 			}
 
-			saveCommands(commands, msgCtxs);
+			// the log is written in order, the last batch being durable implies the previous ones
+			if (batchStart == 0) {
+				durableFuture = saveCommands(commands, msgCtxs);
+			} else {
+				durableFuture = saveCommands(Arrays.copyOfRange(commands, batchStart, commands.length),
+						Arrays.copyOfRange(msgCtxs, batchStart, msgCtxs.length));
+			}
 
-			getStateManager().setLastCID(cid);
+			getStateManager().setLastCID(msgCtxs[msgCtxs.length - 1].getConsensusId());
 		}
 
-		return null;
+		return durableFuture;
 	}
 
-	public final byte[] computeHash(byte[] data) {
-		byte[] ret = null;
-		hashLock.lock();
+	/**
+	 * Returns the logged batches of a range of consensus IDs.
+	 *
+	 * @param startCid first consensus ID of the range (inclusive)
+	 * @param endCid   last consensus ID of the range (inclusive)
+	 * @return the batches ordered by consensus ID, or null if the log does not
+	 *         hold the whole range
+	 */
+	public CommandsInfo[] getLoggedCommands(int startCid, int endCid) {
+		StateLog thisLog = getLog();
+		logLock.lock();
 		try {
-			ret = md.hash(data);
+			return thisLog.getMessageBatches(startCid, endCid);
 		} finally {
-			hashLock.unlock();
+			logLock.unlock();
 		}
-		return ret;
+	}
+
+	public final byte[] computeHash(byte[] data) {
+		return md.hash(data);
 	}
 
 	private StateLog getLog() {
@@ -285,8 +330,9 @@ public abstract class DefaultRecoverable implements Recoverable, PreComputeBatch
 	 *
 	 * @param commands array of commands. Each command is an array of bytes
 	 * @param msgCtx
+	 * @return a future completed when all the commands are durable in the log
 	 */
-	private void saveCommands(byte[][] commands, MessageContext[] msgCtx) {
+	private CompletableFuture<Integer> saveCommands(byte[][] commands, MessageContext[] msgCtx) {
 		// if(!config.isToLog())
 		// return;
 		if (commands.length != msgCtx.length) {
@@ -294,6 +340,7 @@ public abstract class DefaultRecoverable implements Recoverable, PreComputeBatch
 			LOGGER.error("----COMMANDS: {}, CONTEXTS: {} ----", commands.length, msgCtx.length);
 		}
 
+		CompletableFuture<Integer> future = null;
 		try {
 			logLock.lock();
 
@@ -304,13 +351,13 @@ public abstract class DefaultRecoverable implements Recoverable, PreComputeBatch
 											// array
 					byte[][] batch = Arrays.copyOfRange(commands, batchStart, i);
 					MessageContext[] batchMsgCtx = Arrays.copyOfRange(msgCtx, batchStart, i);
-					log.addMessageBatch(batch, batchMsgCtx, cid);
+					future = log.appendMessageBatch(batch, batchMsgCtx, cid);
 				} else {
 					if (msgCtx[i].getConsensusId() > cid) { // saves commands when the cid changes or when it is the last
 															// batch
 						byte[][] batch = Arrays.copyOfRange(commands, batchStart, i);
 						MessageContext[] batchMsgCtx = Arrays.copyOfRange(msgCtx, batchStart, i);
-						log.addMessageBatch(batch, batchMsgCtx, cid);
+						log.appendMessageBatch(batch, batchMsgCtx, cid);
 						cid = msgCtx[i].getConsensusId();
 						batchStart = i;
 					}
@@ -319,6 +366,7 @@ public abstract class DefaultRecoverable implements Recoverable, PreComputeBatch
 		} finally {
 			logLock.unlock();
 		}
+		return future;
 	}
 
 	@Override
@@ -45,7 +45,6 @@ public abstract class DefaultSingleRecoverable implements Recoverable, SingleExe
     private int checkpointPeriod;
 
     private ReentrantLock logLock = new ReentrantLock();
-    private ReentrantLock hashLock = new ReentrantLock();
     private ReentrantLock stateLock = new ReentrantLock();
     
     private SHA256Utils md = new SHA256Utils();
@@ -107,14 +106,7 @@ public abstract class DefaultSingleRecoverable implements Recoverable, SingleExe
     }
     
     public final byte[] computeHash(byte[] data) {
-        byte[] ret = null;
-        hashLock.lock();
-        try {
-            ret = md.hash(data);
-        } finally {
-            hashLock.unlock();
-        }
-        return ret;
+        return md.hash(data);
     }
     
     private StateLog getLog() {
@@ -25,6 +25,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class DiskStateLog extends StateLog {
@@ -33,12 +34,12 @@ public class DiskStateLog extends StateLog {
 	public  String DEFAULT_DIR = "";
 
 	private static final int INT_BYTE_SIZE = 4;
-	private static final int EOF = 0;
 
-	private RandomAccessFile log;
+	private SegmentedCommandLog log;
 	private RandomAccessFile ckp;
 
 	private boolean syncLog;
+	private GroupCommitLog.Durability durability;
 	private String logPath;
 	private String lastCkpPath;
 	private boolean syncCkp;
@@ -46,6 +47,7 @@ public class DiskStateLog extends StateLog {
 	private String realName;
 	private ViewTopology controller;
 	private String logDefaultFile;
+	private String legacyLogDefaultFile;
 	private String ckpDefaultFile;
 	private ReentrantLock checkpointLock = new ReentrantLock();
 	private Map<Integer, Long> logPointers;
@@ -62,13 +64,15 @@ public class DiskStateLog extends StateLog {
 		this.realName = realName;
 		this.controller = controller;
 		this.logPointers = new HashMap<>();
+		this.durability = resolveDurability(controller.getStaticConf().getLogDurability(), syncLog);
 
 		if (DEFAULT_DIR.length() == 0) {
 			try {
 				File libDir = new File(DiskStateLog.class.getProtectionDomain().getCodeSource().getLocation().getPath());
 				LOGGER.info("DiskStateLog's lib path = {} !", libDir.getAbsolutePath());
 				DEFAULT_DIR = libDir.getParentFile().getParentFile().getPath();
-				this.logDefaultFile = File.separator + "runtime" + File.separator + this.realName + "." + id + ".txs" + ".log";
+				this.logDefaultFile = File.separator + "runtime" + File.separator + this.realName + "." + id + ".txs" + ".seg";
+				this.legacyLogDefaultFile = File.separator + "runtime" + File.separator + this.realName + "." + id + ".txs" + ".log";
 				this.ckpDefaultFile = File.separator + "runtime" + File.separator + this.realName + "." + id + ".txs" + ".ckp";
 			} catch (Exception e) {
 				LOGGER.error("load runtime path error !", e);
@@ -78,14 +82,22 @@ public class DiskStateLog extends StateLog {
 
 	}
 
+	private static GroupCommitLog.Durability resolveDurability(String durability, boolean syncLog) {
+		if (durability != null) {
+			try {
+				return GroupCommitLog.Durability.of(durability);
+			} catch (IllegalArgumentException e) {
+				LOGGER.warn("Unknown log durability[{}], fall back to sync_log = {} !", durability, syncLog);
+			}
+		}
+		return syncLog ? GroupCommitLog.Durability.EVERY_CID : GroupCommitLog.Durability.NONE;
+	}
+
 	private void createLogFile() {
 		try {
 			logPath = DEFAULT_DIR + logDefaultFile;
-			log = new RandomAccessFile(logPath, (syncLog ? "rwd" : "rw"));
-			// PreAllocation
-			/*
-			 * log.setLength(TEN_MB); log.seek(0);
-			 */
+			log = new SegmentedCommandLog(new File(logPath), controller.getStaticConf().getLogSegmentSize(),
+					durability);
 		} catch (Exception e) {
 			LOGGER.error("create log file error !", e);
 		}
@@ -102,42 +114,46 @@ public class DiskStateLog extends StateLog {
 	 */
         @Override
 	public void addMessageBatch(byte[][] commands, MessageContext[] msgCtx, int consensusId) {
-		CommandsInfo command = new CommandsInfo(commands, msgCtx);
+		appendMessageBatch(commands, msgCtx, consensusId);
+	}
+
+	/**
+	 * Adds a message batch to the log without waiting for the disk write. The
+	 * batch is written by the appender thread of the log, together with the
+	 * other pending batches (group commit).
+	 *
+	 * @return a future completed when the batch is written according to the
+	 *         configured durability
+	 */
+	@Override
+	public CompletableFuture<Integer> appendMessageBatch(byte[][] commands, MessageContext[] msgCtx, int consensusId) {
+		CompletableFuture<Integer> future;
 		if (isToLog) {
 			if (log == null || logPath == null)
 				createLogFile();
-			writeCommandToDisk(command, consensusId);
+			future = writeCommandToDisk(new CommandsInfo(commands, msgCtx), consensusId);
+		} else {
+			future = CompletableFuture.completedFuture(consensusId);
 		}
 		setLastCID(consensusId);
+		return future;
 	}
 
-	private void writeCommandToDisk(CommandsInfo commandsInfo, int consensusId) {
+	private CompletableFuture<Integer> writeCommandToDisk(CommandsInfo commandsInfo, int consensusId) {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		try {
 			ObjectOutputStream oos = new ObjectOutputStream(bos);
 			oos.writeObject(commandsInfo);
 			oos.flush();
 
-			byte[] batchBytes = bos.toByteArray();
-
-			ByteBuffer bf = ByteBuffer.allocate(3 * INT_BYTE_SIZE
-					+ batchBytes.length);
-			bf.putInt(batchBytes.length);
-			bf.put(batchBytes);
-			bf.putInt(EOF);
-			bf.putInt(consensusId);
-
-			LOGGER.info("I am proc {}, Write command to disk, cid = {}", id, consensusId);
+			LOGGER.debug("I am proc {}, Write command to disk, cid = {}", id, consensusId);
 
-			// avoid node restart, disk file will be overwrite
-			if (log.length() > 2 * INT_BYTE_SIZE) {
-				log.seek(log.length() - 2 * INT_BYTE_SIZE);// Next write will overwrite
-			}
-			log.write(bf.array());
-													// the EOF mark
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
+			return log.append(consensusId, bos.toByteArray());
+		} catch (Exception e) {
 			LOGGER.error("write command to disk error !", e);
+			CompletableFuture<Integer> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
 	    }
 	}
 
@@ -146,29 +162,16 @@ public class DiskStateLog extends StateLog {
 		String ckpPath = DEFAULT_DIR + File.separator + "runtime" + File.separator + this.realName + "." + String.valueOf(id) + ".txs" + ".tmp";
 		try {
 			checkpointLock.lock();
-			RandomAccessFile ckp = new RandomAccessFile(ckpPath,
-					(syncCkp ? "rwd" : "rw"));
-
-			ByteBuffer bf = ByteBuffer.allocate(state.length + stateHash.length
-					+ 4 * INT_BYTE_SIZE);
-			bf.putInt(state.length);
-			bf.put(state);
-			bf.putInt(stateHash.length);
-			bf.put(stateHash);
-			bf.putInt(EOF);
-			bf.putInt(consensusId);
-
-			byte[] ckpState = bf.array();
-			
-			ckp.write(ckpState);
-			ckp.close();
+			// the state is written as it is, without copying it into a larger buffer
+			CheckpointFile.write(new File(ckpPath), state, stateHash, consensusId, syncCkp);
 
-			if (isToLog)
-				deleteLogFile();
 			deleteLastCkp();
 			renameCkp(ckpPath);
-			if (isToLog)
-				createLogFile();
+			// the batches before the checkpoint are dropped a whole segment at a time
+			if (isToLog && log != null) {
+				log.roll();
+				log.truncateBefore(consensusId);
+			}
 			
 		} catch (FileNotFoundException e) {
 			// TODO Auto-generated catch block
@@ -199,18 +202,6 @@ public class DiskStateLog extends StateLog {
 		}
 	}
 
-	private void deleteLogFile() {
-		try {
-			if(log != null)
-				log.close();
-			if (logPath != null) {
-				new File(logPath).delete();
-			}
-		} catch (IOException e) {
-			LOGGER.error("delete log file error !", e);
-		}
-	}
-
 	/**
 	 * Prepare lastCheckpointCID by load runtime/tx.ckp file or according to lastCid to compute
 	 *
@@ -257,7 +248,7 @@ public class DiskStateLog extends StateLog {
 
 //			if (size > 0 && sendState) {
 			if (size > 0) {
-				CommandsInfo[] recoveredBatches = fr.getLogState(size, logPath);
+				CommandsInfo[] recoveredBatches = readBatches(lastCheckpointCID + 1, cid);
 
 				if (recoveredBatches == null || recoveredBatches.length == 0) {
 					LOGGER.info("recoveredBatches == null || recoveredBatches.length == 0");
@@ -292,6 +283,37 @@ public class DiskStateLog extends StateLog {
 		return null;
 	}
 	
+	/**
+	 * Returns the batches of a range of consensus IDs, read from the log by
+	 * their index. The cost is proportional to the size of the range.
+	 *
+	 * @return the batches ordered by consensus ID, or null if the log does not
+	 *         hold the whole range
+	 */
+	@Override
+	public CommandsInfo[] getMessageBatches(int fromCid, int toCid) {
+		if (fromCid > toCid) {
+			return null;
+		}
+		CommandsInfo[] batches = readBatches(fromCid, toCid);
+		if (batches == null || batches.length != toCid - fromCid + 1) {
+			return null;
+		}
+		return batches;
+	}
+
+	private CommandsInfo[] readBatches(int fromCid, int toCid) {
+		if (log == null) {
+			return null;
+		}
+		try {
+			return log.read(fromCid, toCid);
+		} catch (IOException e) {
+			LOGGER.error("read log file error !", e);
+			return null;
+		}
+	}
+
 	public void transferApplicationState(SocketChannel sChannel, int cid) {
 		FileRecoverer fr = new FileRecoverer(id, DEFAULT_DIR);
 		fr.transferCkpState(sChannel, lastCkpPath);
@@ -305,15 +327,13 @@ public class DiskStateLog extends StateLog {
 
 	public void setLastCID(int cid, int checkpointPeriod, int checkpointPortion) {
 		super.setLastCID(cid);
-		// save the file pointer to retrieve log information later
+		// save the log pointer to retrieve log information later; the log is
+		// indexed by consensus ID, so the pointer is the consensus ID itself
 		if((cid % checkpointPeriod) % checkpointPortion == checkpointPortion -1) {
 			int ckpReplicaIndex = (((cid % checkpointPeriod) + 1) / checkpointPortion) -1;
-			try {
-				LOGGER.debug(" --- Replica {} took checkpoint. My current log pointer is {}", ckpReplicaIndex, log.getFilePointer());
-				logPointers.put(ckpReplicaIndex, log.getFilePointer());
-			} catch (IOException e) {
-				LOGGER.error("set last CID error !", e);
-			}
+			long pointer = cid;
+			LOGGER.debug(" --- Replica {} took checkpoint. My current log pointer is {}", ckpReplicaIndex, pointer);
+			logPointers.put(ckpReplicaIndex, pointer);
 		}
 	}
 
@@ -344,6 +364,7 @@ public class DiskStateLog extends StateLog {
         if (logFile.exists()) {
             logPath = DEFAULT_DIR + logDefaultFile;
         }
+        File legacyLogFile = new File(DEFAULT_DIR + legacyLogDefaultFile);
 
 		if(lastCkpPath != null) {
 			try {
@@ -355,13 +376,17 @@ public class DiskStateLog extends StateLog {
 			}
 		}
 
-		if(logPath !=null) {
-        	try {
-                log = new RandomAccessFile(logPath, (syncLog ? "rwd" : "rw"));
-                log.seek(log.length() - INT_BYTE_SIZE);
-                logLastConsensusId = log.readInt();
-			} catch (Exception e) {
-				LOGGER.error("load durable state error !", e);
+		if (logPath != null || legacyLogFile.exists()) {
+			createLogFile();
+			if (log != null) {
+				if (legacyLogFile.exists()) {
+					importLegacyLog(legacyLogFile);
+				}
+				logLastConsensusId = log.getLastCid();
+				if (!isToLog) {
+					log.close();
+					log = null;
+				}
 			}
 		}
 
@@ -376,4 +401,38 @@ public class DiskStateLog extends StateLog {
 
 		return logLastConsensusId;
 	}
+
+	/**
+	 * Moves the batches of a log file written by a previous version, which
+	 * can only be read sequentially, into the segmented log.
+	 */
+	private void importLegacyLog(File legacyLogFile) {
+		FileRecoverer fr = new FileRecoverer(id, DEFAULT_DIR);
+		CommandsInfo[] batches = fr.getLogState(0, legacyLogFile.getPath());
+		int count = 0;
+		CompletableFuture<Integer> future = CompletableFuture.completedFuture(-1);
+		if (batches != null) {
+			for (CommandsInfo batch : batches) {
+				if (batch == null || batch.msgCtx == null || batch.msgCtx.length == 0 || batch.msgCtx[0] == null) {
+					continue;
+				}
+				int cid = batch.msgCtx[0].getConsensusId();
+				if (cid > log.getLastCid()) {
+					future = writeCommandToDisk(batch, cid);
+					count++;
+				}
+			}
+		}
+		try {
+			future.join();
+		} catch (Exception e) {
+			// keep the legacy file, the import is retried at the next start
+			LOGGER.error("import legacy log file error !", e);
+			return;
+		}
+		LOGGER.info("[DiskStateLog] imported {} batches from the legacy log file {}", count, legacyLogFile);
+		if (!legacyLogFile.delete()) {
+			LOGGER.warn("[DiskStateLog] cannot delete the legacy log file {}", legacyLogFile);
+		}
+	}
 }
@@ -100,96 +100,28 @@ public class FileRecoverer {
 	}
 
 	public byte[] getCkpState(String ckpPath) {
-		RandomAccessFile ckp = null;
-
 		LOGGER.debug("GETTING CHECKPOINT FROM {}", ckpPath);
-		if ((ckp = openLogFile(ckpPath)) != null) {
-
-			byte[] ckpState = recoverCkpState(ckp);
-
-			try {
-				ckp.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			return ckpState;
+		try (CheckpointFile ckp = CheckpointFile.open(new File(ckpPath))) {
+			ckpHash = ckp.getStateHash();
+			ckpLastConsensusId = ckp.getLastConsensusId();
+			LOGGER.debug("LAST CKP read from file: {}", ckpLastConsensusId);
+			return ckp.readState();
+		} catch (Exception e) {
+			LOGGER.error("State recover was aborted due to an unexpected exception", e);
 		}
-
 		return null;
 	}
 
 	public void recoverCkpHash(String ckpPath) {
-		RandomAccessFile ckp = null;
-
 		LOGGER.debug("GETTING HASH FROM CHECKPOINT {}", ckpPath);
-		if ((ckp = openLogFile(ckpPath)) != null) {
-			byte[] ckpHash = null;
-			try {
-				int ckpSize = ckp.readInt();
-				ckp.skipBytes(ckpSize);
-				int hashLength = ckp.readInt();
-				ckpHash = new byte[hashLength];
-				ckp.read(ckpHash);
-				LOGGER.debug("--- Last ckp size: {}, Last ckp hash: {}", ckpSize, Arrays.toString(ckpHash));
-			} catch (Exception e) {
-				e.printStackTrace();
-				LOGGER.error("State recover was aborted due to an unexpected exception");
-			}
-			this.ckpHash = ckpHash;
-		}
-	}
-
-	private byte[] recoverCkpState(RandomAccessFile ckp) {
-		byte[] ckpState = null;
-		try {
-			long ckpLength = ckp.length();
-			boolean mayRead = true;
-			while (mayRead) {
-				try {
-					if (ckp.getFilePointer() < ckpLength) {
-						int size = ckp.readInt();
-						if (size > 0) {
-							ckpState = new byte[size];//ckp state
-							int read = ckp.read(ckpState);
-							if (read == size) {
-								int hashSize = ckp.readInt();
-								if (hashSize > 0) {
-									ckpHash = new byte[hashSize];//ckp hash
-									read = ckp.read(ckpHash);
-									if (read == hashSize) {
-										mayRead = false;
-									}else{
-										ckpHash = null;
-										ckpState = null;
-									}
-								}
-							} else {
-								mayRead = false;
-								ckp = null;
-							}
-						} else {
-							mayRead = false;
-						}
-					} else {
-						mayRead = false;
-					}
-				} catch (Exception e) {
-					e.printStackTrace();
-					ckp = null;
-					mayRead = false;
-				}
-			}
-			if (ckp.readInt() == 0) {
-				ckpLastConsensusId = ckp.readInt();
-				LOGGER.debug("LAST CKP read from file: {}", ckpLastConsensusId);
-			}
+		byte[] ckpHash = null;
+		try (CheckpointFile ckp = CheckpointFile.open(new File(ckpPath))) {
+			ckpHash = ckp.getStateHash();
+			LOGGER.debug("--- Last ckp size: {}, Last ckp hash: {}", ckp.getStateLength(), Arrays.toString(ckpHash));
 		} catch (Exception e) {
-			e.printStackTrace();
-			LOGGER.error("State recover was aborted due to an unexpected exception");
+			LOGGER.error("State recover was aborted due to an unexpected exception", e);
 		}
-
-		return ckpState;
+		this.ckpHash = ckpHash;
 	}
 
 	public void transferLog(SocketChannel sChannel, int index, String logPath) {
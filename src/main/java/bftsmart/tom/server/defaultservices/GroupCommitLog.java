@@ -0,0 +1,473 @@
+package bftsmart.tom.server.defaultservices;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 以组提交（group commit）方式追加写入的命令日志；
+ * <p>
+ *
+ * 记录由独立的追加线程写入：追加线程一次取出所有排队的记录，合并为一次 {@link FileChannel#write(ByteBuffer[])}，
+ * 再根据持久化模式决定是否 {@link FileChannel#force(boolean)}，以减少每轮共识的同步写盘次数；<br>
+ * 调用方通过 {@link #append(int, byte[])} 返回的 {@link CompletableFuture} 获知记录何时写入完成（持久化）；
+ * <p>
+ *
+ * 文件格式与 {@link FileRecoverer} 兼容：每条记录为“长度(4字节) + 数据”，文件末尾是“EOF(4字节，值为0) +
+ * 最后的共识 ID(4字节)”，追加时覆盖之前的文件末尾；
+ * <p>
+ *
+ * 通过 {@link #roll(File)} 可以把之后的记录写入新的文件，新的文件沿用同一个追加线程；
+ * <p>
+ *
+ * 写入或者刷盘失败之后，日志不再写入任何记录：之后的追加、切换文件和刷新都失败，避免日志中出现空缺；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class GroupCommitLog implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitLog.class);
+
+	private static final int INT_BYTE_SIZE = 4;
+
+	private static final int TRAILER_SIZE = 2 * INT_BYTE_SIZE;
+
+	private static final int EOF = 0;
+
+	/**
+	 * 一次组提交最多合并的记录数；
+	 */
+	private static final int MAX_GROUP_RECORDS = 256;
+
+	/**
+	 * 命令日志的持久化模式；
+	 */
+	public static enum Durability {
+
+		/**
+		 * 只写入操作系统缓存，不主动刷盘；
+		 */
+		NONE,
+
+		/**
+		 * 每次组提交刷盘一次；
+		 */
+		BATCH,
+
+		/**
+		 * 每轮共识的记录各自刷盘；
+		 */
+		EVERY_CID;
+
+		/**
+		 * 解析持久化模式，不区分大小写，允许以“-”代替“_”；
+		 *
+		 * @param name
+		 * @return
+		 */
+		public static Durability of(String name) {
+			return valueOf(name.trim().replace('-', '_').toUpperCase());
+		}
+	}
+
+	private volatile File file;
+
+	private final Durability durability;
+
+	/**
+	 * 当前写入的文件通道；创建之后只由追加线程切换；
+	 */
+	private volatile FileChannel channel;
+
+	private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+
+	private final Thread appender;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * 写入失败的原因；不为 null 时日志不再写入任何记录；
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * 下一条记录的写入位置，即当前文件末尾（EOF 标记）的位置；只由追加线程修改；
+	 */
+	private volatile long position;
+
+	public GroupCommitLog(File file, Durability durability) throws IOException {
+		this.file = file;
+		this.durability = durability;
+		this.channel = openChannel(file);
+		try {
+			this.position = endOf(channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		this.appender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				appendRecords();
+			}
+		}, "LOG-APPENDER-[" + file.getName() + "]");
+		appender.setDaemon(true);
+		appender.start();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * 已写入的记录的末尾位置；
+	 *
+	 * @return
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * 追加一轮共识的记录；
+	 *
+	 * @param consensusId 共识 ID；
+	 * @param data        记录的数据；
+	 * @return 记录写入完成时完成的 Future，结果为共识 ID；持久化模式为 {@link Durability#NONE}
+	 *         时只保证写入了操作系统缓存；
+	 */
+	public CompletableFuture<Integer> append(int consensusId, byte[] data) {
+		if (data == null) {
+			throw new IllegalArgumentException("Null data of log record!");
+		}
+		Record record = new Record(consensusId, data);
+		if (failure != null) {
+			record.future.completeExceptionally(failedError());
+			return record.future;
+		}
+		if (closed) {
+			record.future.completeExceptionally(new IOException("The log[" + file + "] has been closed!"));
+			return record.future;
+		}
+		queue.offer(record);
+		return record.future;
+	}
+
+	/**
+	 * 之后追加的记录写入指定的新文件；
+	 * <p>
+	 *
+	 * 之前追加的记录仍写入原来的文件，原来的文件在这些记录写入之后关闭；新的文件由同一个追加线程写入，方法不等待之前的记录写入完成；
+	 *
+	 * @param file 新的日志文件；
+	 * @throws IOException 日志已关闭或者写入失败，或者新的文件无法打开；
+	 */
+	public void roll(File file) throws IOException {
+		if (failure != null) {
+			throw failedError();
+		}
+		if (closed) {
+			throw new IOException("The log[" + this.file + "] has been closed!");
+		}
+		FileChannel nextChannel = openChannel(file);
+		long nextPosition;
+		try {
+			nextPosition = endOf(nextChannel);
+		} catch (IOException e) {
+			nextChannel.close();
+			throw e;
+		}
+		this.file = file;
+		queue.offer(new Record(nextChannel, nextPosition));
+	}
+
+	/**
+	 * 等待之前追加的所有记录写入完成；
+	 *
+	 * @throws IOException 日志写入失败；
+	 */
+	public void flush() throws IOException {
+		if (failure != null) {
+			throw failedError();
+		}
+		if (closed) {
+			return;
+		}
+		Record marker = new Record(-1, null);
+		queue.offer(marker);
+		try {
+			marker.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while flushing the log[" + file + "]!", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * 写入之前追加的所有记录，然后关闭日志文件；日志写入失败时仍然关闭日志文件，并抛出写入失败的异常；
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		IOException flushError = null;
+		try {
+			flush();
+		} catch (IOException e) {
+			flushError = e;
+		}
+		closed = true;
+		// 不中断追加线程，否则正在进行的写入将导致文件通道被关闭；
+		try {
+			appender.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+
+		Record record;
+		while ((record = queue.poll()) != null) {
+			if (record.nextChannel != null) {
+				record.nextChannel.close();
+			}
+			record.future.completeExceptionally(new IOException("The log[" + file + "] has been closed!"));
+		}
+		if (flushError != null) {
+			throw flushError;
+		}
+	}
+
+	private void appendRecords() {
+		List<Record> group = new ArrayList<Record>(MAX_GROUP_RECORDS);
+		while (!closed) {
+			try {
+				Record record = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (record == null) {
+					continue;
+				}
+				group.add(record);
+				queue.drainTo(group, MAX_GROUP_RECORDS - 1);
+
+				// 切换文件之前的记录写入原来的文件；
+				int from = 0;
+				for (int i = 0; i < group.size(); i++) {
+					if (group.get(i).nextChannel != null) {
+						if (i > from) {
+							commit(group.subList(from, i));
+						}
+						switchTo(group.get(i));
+						from = i + 1;
+					}
+				}
+				if (from < group.size()) {
+					commit(group.subList(from, group.size()));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				group.clear();
+			}
+		}
+	}
+
+	private void commit(List<Record> group) {
+		if (failure != null) {
+			fail(group, failedError());
+			return;
+		}
+		try {
+			if (durability == Durability.EVERY_CID) {
+				for (Record record : group) {
+					if (record.data != null) {
+						write(new ByteBuffer[] { lengthOf(record.data), ByteBuffer.wrap(record.data), null }, 2,
+								record.consensusId);
+						channel.force(false);
+					}
+					record.complete();
+				}
+				return;
+			}
+
+			int count = 0;
+			int lastConsensusId = -1;
+			ByteBuffer[] buffers = new ByteBuffer[2 * group.size() + 1];
+			for (Record record : group) {
+				if (record.data != null) {
+					buffers[count++] = lengthOf(record.data);
+					buffers[count++] = ByteBuffer.wrap(record.data);
+					lastConsensusId = record.consensusId;
+				}
+			}
+			if (count > 0) {
+				write(buffers, count, lastConsensusId);
+				if (durability == Durability.BATCH) {
+					channel.force(false);
+				}
+			}
+			for (Record record : group) {
+				record.complete();
+			}
+		} catch (Exception e) {
+			LOGGER.error("Error occurred while writing the log[" + file + "]! --" + e.getMessage(), e);
+			// 之后的记录不再写入，否则日志中会缺少这些写入失败的记录；
+			failure = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+			fail(group, e);
+		}
+	}
+
+	private static void fail(List<Record> group, Throwable error) {
+		for (Record record : group) {
+			record.future.completeExceptionally(error);
+		}
+	}
+
+	private IOException failedError() {
+		return new IOException("The log[" + file + "] has failed to write records! --" + failure.getMessage(),
+				failure);
+	}
+
+	private void switchTo(Record record) {
+		if (failure != null) {
+			try {
+				record.nextChannel.close();
+			} catch (IOException e) {
+				LOGGER.error("Error occurred while closing the log file! --" + e.getMessage(), e);
+			}
+			record.future.completeExceptionally(failedError());
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.error("Error occurred while closing the log file! --" + e.getMessage(), e);
+		}
+		channel = record.nextChannel;
+		position = record.nextPosition;
+		record.complete();
+	}
+
+	private static FileChannel openChannel(File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * 返回最后一条完整记录的末尾位置，即文件末尾标记应在的位置，避免节点重启时覆盖已有的记录；
+	 * <p>
+	 *
+	 * 从头扫描记录的长度，遇到文件末尾标记、不完整的记录（写入中途崩溃）或者文件结束时停止；<br>
+	 * 不完整的记录及其之后的内容在之后追加时被覆盖；
+	 */
+	private static long endOf(FileChannel channel) throws IOException {
+		long size = channel.size();
+		ByteBuffer length = ByteBuffer.allocate(INT_BYTE_SIZE);
+		long position = 0;
+		while (position + INT_BYTE_SIZE <= size) {
+			length.clear();
+			while (length.hasRemaining()) {
+				if (channel.read(length, position + length.position()) < 0) {
+					return position;
+				}
+			}
+			length.flip();
+			int recordLength = length.getInt();
+			if (recordLength <= 0 || position + INT_BYTE_SIZE + recordLength > size) {
+				// 文件末尾标记，或者不完整的记录；
+				break;
+			}
+			position += INT_BYTE_SIZE + recordLength;
+		}
+		return position;
+	}
+
+	/**
+	 * 在当前位置写入记录，并写入新的文件末尾标记；
+	 *
+	 * @param buffers     记录的数据；最后一个元素留给文件末尾标记；
+	 * @param count       记录数据的元素数；
+	 * @param consensusId 最后的共识 ID；
+	 * @throws IOException
+	 */
+	private void write(ByteBuffer[] buffers, int count, int consensusId) throws IOException {
+		ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+		trailer.putInt(EOF);
+		trailer.putInt(consensusId);
+		trailer.flip();
+		buffers[count] = trailer;
+
+		long recordsSize = 0;
+		for (int i = 0; i < count; i++) {
+			recordsSize += buffers[i].remaining();
+		}
+
+		channel.position(position);
+		long remaining = recordsSize + TRAILER_SIZE;
+		while (remaining > 0) {
+			remaining -= channel.write(buffers, 0, count + 1);
+		}
+		position += recordsSize;
+	}
+
+	private static ByteBuffer lengthOf(byte[] data) {
+		ByteBuffer length = ByteBuffer.allocate(INT_BYTE_SIZE);
+		length.putInt(data.length);
+		length.flip();
+		return length;
+	}
+
+	private static class Record {
+
+		private final int consensusId;
+
+		private final byte[] data;
+
+		/**
+		 * 切换到的文件通道；不为 null 时表示切换文件，而不是记录；
+		 */
+		private final FileChannel nextChannel;
+
+		private final long nextPosition;
+
+		private final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+		private Record(int consensusId, byte[] data) {
+			this.consensusId = consensusId;
+			this.data = data;
+			this.nextChannel = null;
+			this.nextPosition = 0;
+		}
+
+		private Record(FileChannel nextChannel, long nextPosition) {
+			this.consensusId = -1;
+			this.data = null;
+			this.nextChannel = nextChannel;
+			this.nextPosition = nextPosition;
+		}
+
+		private void complete() {
+			future.complete(consensusId);
+		}
+	}
+}
@@ -0,0 +1,545 @@
+package bftsmart.tom.server.defaultservices;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 分段存储、按共识 ID 索引的命令日志；
+ * <p>
+ *
+ * 日志由目录下的多个段文件组成，文件名是段内第一个共识 ID；只有最后一个段可以写入，写入的数据超过段的容量后开启新的段；<br>
+ * 段内的记录格式为“长度(4字节) + 共识 ID(4字节) + 数据”，由 {@link GroupCommitLog} 以组提交的方式写入，所有的段共用一个追加线程；
+ * <p>
+ *
+ * 每个段在内存中维护共识 ID 到文件位置的索引（打开日志时只扫描记录头重建索引，不需要反序列化），因此：<br>
+ * 1. 按共识 ID 读取记录只需一次定位；<br>
+ * 2. 读取一段共识 ID 范围的记录，代价与范围的大小成正比，而与日志的大小无关；<br>
+ * 3. 生成检查点时以整个段为单位删除过时的记录，不需要重写日志；
+ *
+ * @author huanghaiquan
+ *
+ */
+public class SegmentedCommandLog implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SegmentedCommandLog.class);
+
+	/**
+	 * 默认的段容量：64 MB；
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final int INT_BYTE_SIZE = 4;
+
+	/**
+	 * 文件末尾标记的长度：EOF(4字节) + 最后的共识 ID(4字节)；
+	 */
+	private static final int TRAILER_SIZE = 2 * INT_BYTE_SIZE;
+
+	private final File directory;
+
+	private final long segmentSize;
+
+	private final GroupCommitLog.Durability durability;
+
+	/**
+	 * 所有的段，以段的第一个共识 ID 为键；
+	 */
+	private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+	private Segment activeSegment;
+
+	/**
+	 * 写入最后一个段的日志；开启新的段时切换到新的段文件，沿用同一个追加线程；
+	 */
+	private GroupCommitLog writer;
+
+	public SegmentedCommandLog(File directory, long segmentSize, GroupCommitLog.Durability durability)
+			throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize > 0 ? segmentSize : DEFAULT_SEGMENT_SIZE;
+		this.durability = durability;
+
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create the directory of command log[" + directory + "]!");
+		}
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				try {
+					int firstCid = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+					Segment segment = new Segment(firstCid, file);
+					segment.loadIndex();
+					segments.put(firstCid, segment);
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Ignore the unknown file[{}] in the directory of command log!", file);
+				}
+			}
+		}
+		if (!segments.isEmpty()) {
+			activeSegment = segments.lastEntry().getValue();
+			activeSegment.truncateTail();
+			writer = new GroupCommitLog(activeSegment.file, durability);
+			if (writer.getPosition() != activeSegment.size) {
+				long position = writer.getPosition();
+				closeWriter();
+				throw new IOException("The end of command log segment[" + activeSegment.file + "] is at " + position
+						+ ", but the indexed records end at " + activeSegment.size + "!");
+			}
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * 段的数量；
+	 *
+	 * @return
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * 日志中最早的共识 ID；日志为空时返回 -1；
+	 *
+	 * @return
+	 */
+	public synchronized int getFirstCid() {
+		for (Segment segment : segments.values()) {
+			if (segment.lastCid >= 0) {
+				return segment.firstLoggedCid();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 日志中最后的共识 ID；日志为空时返回 -1；
+	 *
+	 * @return
+	 */
+	public synchronized int getLastCid() {
+		for (Segment segment : segments.descendingMap().values()) {
+			if (segment.lastCid >= 0) {
+				return segment.lastCid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 追加一轮共识的记录；共识 ID 必须大于日志中已有的共识 ID；
+	 *
+	 * @param cid  共识 ID；
+	 * @param data 记录的数据；
+	 * @return 记录写入完成时完成的 Future，结果为共识 ID；
+	 */
+	public synchronized CompletableFuture<Integer> append(int cid, byte[] data) {
+		int lastCid = getLastCid();
+		if (cid <= lastCid) {
+			throw new IllegalArgumentException(
+					"The consensus id[" + cid + "] is not greater than the last one[" + lastCid + "] in the log!");
+		}
+		try {
+			if (activeSegment == null || activeSegment.size >= segmentSize) {
+				openSegment(cid);
+			}
+			return activeSegment.append(writer, cid, data);
+		} catch (IOException e) {
+			LOGGER.error("Error occurred while appending the command log of consensus[" + cid + "]! --"
+					+ e.getMessage(), e);
+			CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+
+	/**
+	 * 结束当前的段，之后的记录写入新的段；
+	 * <p>
+	 * 当前的段在已追加的记录写入之后关闭，不等待写入完成；
+	 */
+	public synchronized void roll() {
+		if (activeSegment != null && activeSegment.lastCid >= 0) {
+			activeSegment = null;
+		}
+	}
+
+	/**
+	 * 删除只包含小于指定共识 ID 的记录的段；
+	 *
+	 * @param cid
+	 * @return 删除的段的数量；
+	 */
+	public synchronized int truncateBefore(int cid) {
+		int count = 0;
+		while (!segments.isEmpty()) {
+			Segment segment = segments.firstEntry().getValue();
+			if (segment == activeSegment || segment.lastCid >= cid) {
+				break;
+			}
+			segments.remove(segment.firstCid);
+			segment.delete();
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * 读取指定共识 ID 的记录；
+	 *
+	 * @param cid
+	 * @return 记录的数据；日志中不存在该共识的记录时返回 null；
+	 * @throws IOException
+	 */
+	public byte[] read(int cid) throws IOException {
+		Segment segment;
+		long offset;
+		GroupCommitLog pendingWriter;
+		synchronized (this) {
+			Map.Entry<Integer, Segment> entry = segments.floorEntry(cid);
+			if (entry == null) {
+				return null;
+			}
+			segment = entry.getValue();
+			offset = segment.offsetOf(cid);
+			if (offset < 0) {
+				return null;
+			}
+			pendingWriter = writer;
+		}
+		// 等待记录写入时不阻塞追加；
+		flush(pendingWriter);
+		try (RandomAccessFile file = new RandomAccessFile(segment.file, "r")) {
+			return readRecord(file, offset, cid);
+		}
+	}
+
+	/**
+	 * 按共识 ID 的顺序读取指定范围的记录，并反序列化为 {@link CommandsInfo}；
+	 *
+	 * @param fromCid  起始的共识 ID（含）；
+	 * @param toCid    结束的共识 ID（含）；
+	 * @param consumer 记录的处理者；参数为共识 ID 和记录；
+	 * @return 读取的记录数；
+	 * @throws IOException
+	 */
+	public int read(int fromCid, int toCid, RecordConsumer consumer) throws IOException {
+		List<Segment> range;
+		GroupCommitLog pendingWriter;
+		synchronized (this) {
+			Integer from = segments.floorKey(fromCid);
+			range = new ArrayList<Segment>(
+					segments.subMap(from == null ? fromCid : from, true, toCid, true).values());
+			pendingWriter = writer;
+		}
+		// 等待记录写入时不阻塞追加；
+		flush(pendingWriter);
+
+		int count = 0;
+		for (Segment segment : range) {
+			int start = Math.max(fromCid, segment.firstCid);
+			int end = Math.min(toCid, segment.lastCid);
+			if (start > end) {
+				continue;
+			}
+			try (RandomAccessFile file = new RandomAccessFile(segment.file, "r")) {
+				for (int cid = start; cid <= end; cid++) {
+					long offset = segment.offsetOf(cid);
+					if (offset < 0) {
+						continue;
+					}
+					consumer.accept(cid, toCommandsInfo(readRecord(file, offset, cid)));
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 读取指定范围的记录；
+	 *
+	 * @param fromCid 起始的共识 ID（含）；
+	 * @param toCid   结束的共识 ID（含）；
+	 * @return 按共识 ID 排列的记录；不存在的共识 ID 被跳过；
+	 * @throws IOException
+	 */
+	public CommandsInfo[] read(int fromCid, int toCid) throws IOException {
+		List<CommandsInfo> batches = new ArrayList<CommandsInfo>();
+		read(fromCid, toCid, (cid, commands) -> batches.add(commands));
+		return batches.toArray(new CommandsInfo[batches.size()]);
+	}
+
+	/**
+	 * 等待所有追加的记录写入完成；
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		GroupCommitLog pendingWriter;
+		synchronized (this) {
+			pendingWriter = writer;
+		}
+		flush(pendingWriter);
+	}
+
+	/**
+	 * 删除所有的记录；
+	 */
+	public synchronized void clear() {
+		closeWriter();
+		for (Segment segment : segments.values()) {
+			segment.delete();
+		}
+		segments.clear();
+		activeSegment = null;
+	}
+
+	@Override
+	public synchronized void close() {
+		closeWriter();
+		activeSegment = null;
+	}
+
+	private void openSegment(int firstCid) throws IOException {
+		File file = new File(directory, String.format("%010d", firstCid) + SEGMENT_SUFFIX);
+		if (writer == null) {
+			writer = new GroupCommitLog(file, durability);
+		} else {
+			writer.roll(file);
+		}
+		Segment segment = new Segment(firstCid, file);
+		segments.put(firstCid, segment);
+		activeSegment = segment;
+	}
+
+	private void closeWriter() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				LOGGER.error("Error occurred while closing the command log[" + directory + "]! --" + e.getMessage(),
+						e);
+			}
+			writer = null;
+		}
+	}
+
+	private static void flush(GroupCommitLog writer) throws IOException {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	private static byte[] readRecord(RandomAccessFile file, long offset, int cid) throws IOException {
+		file.seek(offset);
+		int length = file.readInt();
+		int recordCid = file.readInt();
+		if (recordCid != cid || length < INT_BYTE_SIZE) {
+			throw new IOException("Broken record of consensus[" + cid + "] at offset[" + offset + "]!");
+		}
+		byte[] data = new byte[length - INT_BYTE_SIZE];
+		file.readFully(data);
+		return data;
+	}
+
+	private static CommandsInfo toCommandsInfo(byte[] data) throws IOException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+			return (CommandsInfo) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * 记录的处理者；
+	 */
+	public static interface RecordConsumer {
+
+		void accept(int cid, CommandsInfo commands) throws IOException;
+	}
+
+	/**
+	 * 日志的一个段；
+	 */
+	private class Segment {
+
+		private final int firstCid;
+
+		private final File file;
+
+		/**
+		 * 共识 ID 到记录的文件位置的索引，下标为共识 ID 与段的第一个共识 ID 的差值，-1 表示不存在；
+		 */
+		private volatile long[] offsets = new long[64];
+
+		private volatile int lastCid = -1;
+
+		/**
+		 * 下一条记录的写入位置；
+		 */
+		private volatile long size;
+
+		private Segment(int firstCid, File file) {
+			this.firstCid = firstCid;
+			this.file = file;
+			Arrays.fill(offsets, -1);
+		}
+
+		/**
+		 * 扫描记录头，重建索引；
+		 */
+		private void loadIndex() throws IOException {
+			try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+				long fileLength = in.length();
+				long position = 0;
+				byte[] header = new byte[2 * INT_BYTE_SIZE];
+				while (position + header.length <= fileLength) {
+					in.seek(position);
+					in.readFully(header);
+					DataInputStream headerIn = new DataInputStream(new ByteArrayInputStream(header));
+					int length = headerIn.readInt();
+					if (length <= 0) {
+						// 文件末尾标记；
+						break;
+					}
+					if (length < INT_BYTE_SIZE || position + INT_BYTE_SIZE + length > fileLength) {
+						LOGGER.warn("Incomplete record at offset[{}] of the command log segment[{}]!", position, file);
+						break;
+					}
+					index(headerIn.readInt(), position);
+					position += INT_BYTE_SIZE + length;
+				}
+				size = position;
+			}
+		}
+
+		/**
+		 * 截掉最后一条完整记录之后的内容（文件末尾标记，以及崩溃时未写完的记录），新的记录从索引的末尾开始写入；
+		 */
+		private void truncateTail() throws IOException {
+			try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+				long tail = out.length() - size;
+				if (tail <= 0) {
+					return;
+				}
+				if (tail > TRAILER_SIZE) {
+					LOGGER.warn("Truncate {} bytes of incomplete record at offset[{}] of the command log segment[{}]!",
+							tail, size, file);
+				}
+				out.setLength(size);
+				out.getFD().sync();
+			}
+		}
+
+		/**
+		 * 追加记录，并在写入之前建立索引，以便读取时等待记录写入；<br>
+		 * 记录写入失败时撤销该记录及之后的记录的索引，索引不会指向没有写入的位置；
+		 */
+		private synchronized CompletableFuture<Integer> append(GroupCommitLog writer, int cid, byte[] data) {
+			ByteBuffer record = ByteBuffer.allocate(INT_BYTE_SIZE + data.length);
+			record.putInt(cid);
+			record.put(data);
+			long offset = size;
+			CompletableFuture<Integer> future = writer.append(cid, record.array());
+			index(cid, offset);
+			size += INT_BYTE_SIZE + record.capacity();
+			future.whenComplete((result, error) -> {
+				if (error != null) {
+					discardFrom(cid, offset);
+				}
+			});
+			return future;
+		}
+
+		/**
+		 * 撤销指定记录及之后的记录的索引，下一条记录从该记录的位置开始写入；
+		 */
+		private synchronized void discardFrom(int cid, long offset) {
+			if (offsetOf(cid) != offset) {
+				// 已经随之前写入失败的记录一起撤销；
+				return;
+			}
+			LOGGER.warn("Discard the index of records from consensus[{}] of the command log segment[{}], "
+					+ "which failed to be written!", cid, file);
+			long[] indexes = offsets;
+			for (int i = cid - firstCid; i <= lastCid - firstCid; i++) {
+				indexes[i] = -1;
+			}
+			offsets = indexes;
+			int previousCid = cid - 1;
+			while (previousCid >= firstCid && offsetOf(previousCid) < 0) {
+				previousCid--;
+			}
+			lastCid = previousCid >= firstCid ? previousCid : -1;
+			size = offset;
+		}
+
+		private synchronized void index(int cid, long offset) {
+			int index = cid - firstCid;
+			if (index < 0) {
+				throw new IllegalStateException(
+						"The consensus id[" + cid + "] is less than the first one[" + firstCid + "] of segment!");
+			}
+			long[] indexes = offsets;
+			if (index >= indexes.length) {
+				int length = indexes.length;
+				while (length <= index) {
+					length <<= 1;
+				}
+				long[] newIndexes = Arrays.copyOf(indexes, length);
+				Arrays.fill(newIndexes, indexes.length, length, -1);
+				indexes = newIndexes;
+			}
+			indexes[index] = offset;
+			offsets = indexes;
+			lastCid = cid;
+		}
+
+		private long offsetOf(int cid) {
+			int index = cid - firstCid;
+			long[] indexes = offsets;
+			if (index < 0 || index >= indexes.length) {
+				return -1;
+			}
+			return indexes[index];
+		}
+
+		private int firstLoggedCid() {
+			for (int cid = firstCid; cid <= lastCid; cid++) {
+				if (offsetOf(cid) >= 0) {
+					return cid;
+				}
+			}
+			return -1;
+		}
+
+		private void delete() {
+			if (!file.delete()) {
+				LOGGER.warn("Cannot delete the command log segment[{}]!", file);
+			}
+		}
+	}
+}
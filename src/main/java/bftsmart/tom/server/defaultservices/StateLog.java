@@ -18,6 +18,8 @@ package bftsmart.tom.server.defaultservices;
 import bftsmart.tom.MessageContext;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * This classes serves as a log for the state associated with the last checkpoint, and the message
  * batches received since the same checkpoint until the present. The state associated with the last
@@ -171,6 +173,20 @@ public class StateLog {
         setLastCID(lastConsensusId);
     }
 
+    /**
+     * Adds a message batch to the log, like addMessageBatch, and returns a future
+     * completed when the batch is durable. Logs kept in memory complete it
+     * immediately.
+     * @param commands The batch of messages to be kept.
+     * @param msgCtx The message contexts related to the commands
+     * @param lastConsensusId
+     * @return a future holding the consensus ID of the batch
+     */
+    public CompletableFuture<Integer> appendMessageBatch(byte[][] commands, MessageContext[] msgCtx, int lastConsensusId) {
+        addMessageBatch(commands, msgCtx, lastConsensusId);
+        return CompletableFuture.completedFuture(lastConsensusId);
+    }
+
     /**
      * Returns a batch of messages, given its correspondent consensus ID
      * @param cid Consensus ID associated with the batch to be fetched
@@ -183,6 +199,27 @@ public class StateLog {
         else return null;
     }
 
+    /**
+     * Returns the batches of messages of a range of consensus IDs
+     * @param fromCid First consensus ID of the range (inclusive)
+     * @param toCid Last consensus ID of the range (inclusive)
+     * @return The batches ordered by consensus ID, or null if the log does not hold the whole range
+     */
+    public CommandsInfo[] getMessageBatches(int fromCid, int toCid) {
+        if (fromCid > toCid || fromCid <= lastCheckpointCID || toCid > lastCID
+                || messageBatches == null || toCid - lastCheckpointCID > position) {
+            return null;
+        }
+        CommandsInfo[] batches = new CommandsInfo[toCid - fromCid + 1];
+        for (int cid = fromCid; cid <= toCid; cid++) {
+            batches[cid - fromCid] = getMessageBatch(cid);
+            if (batches[cid - fromCid] == null) {
+                return null;
+            }
+        }
+        return batches;
+    }
+
     /**
      * Retrieves all the stored batches kept since the last checkpoint
      * @return All the stored batches kept since the last checkpoint
@@ -19,6 +19,7 @@ import bftsmart.statemanagement.strategy.durability.CSTRequest;
 import bftsmart.statemanagement.strategy.durability.CSTRequestF1;
 import bftsmart.statemanagement.strategy.durability.CSTState;
 import bftsmart.tom.MessageContext;
+import bftsmart.tom.server.defaultservices.CheckpointFile;
 import bftsmart.tom.server.defaultservices.CommandsInfo;
 import bftsmart.tom.server.defaultservices.FileRecoverer;
 import bftsmart.tom.server.defaultservices.StateLog;
@@ -124,22 +125,8 @@ public class DurableStateLog extends StateLog {
 				+ System.currentTimeMillis() + ".tmp";
 		try {
 			checkpointLock.lock();
-			RandomAccessFile ckp = new RandomAccessFile(ckpPath,
-					(syncCkp ? "rwd" : "rw"));
-
-			ByteBuffer bf = ByteBuffer.allocate(state.length + stateHash.length
-					+ 4 * INT_BYTE_SIZE);
-			bf.putInt(state.length);
-			bf.put(state);
-			bf.putInt(stateHash.length);
-			bf.put(stateHash);
-			bf.putInt(EOF);
-			bf.putInt(consensusId);
-
-			byte[] ckpState = bf.array();
-			
-			ckp.write(ckpState);
-			ckp.close();
+			// the state is written as it is, without copying it into a larger buffer
+			CheckpointFile.write(new File(ckpPath), state, stateHash, consensusId, syncCkp);
 
 			if (isToLog)
 				deleteLogFile();
@@ -193,10 +180,18 @@ public class DurableStateLog extends StateLog {
 			CSTRequestF1 requestF1 = (CSTRequestF1)cstRequest;
 			if(id == requestF1.getCheckpointReplica()) {
 				// This replica is expected to send the checkpoint plus the hashes of lower and upper log portions
+				// The checkpoint is opened here and streamed from the file by the state sender,
+				// the file stays readable even if a new checkpoint replaces it meanwhile
+				CheckpointFile checkpoint = null;
 				checkpointLock.lock();
-				byte[] ckpState = fr.getCkpState(lastCkpPath);
-				checkpointLock.unlock();
-	    		LOGGER.debug("--- sending checkpoint: {}", ckpState.length);
+				try {
+					checkpoint = CheckpointFile.open(new File(lastCkpPath));
+				} catch (IOException e) {
+					LOGGER.error("Error occurred while opening the checkpoint " + lastCkpPath, e);
+				} finally {
+					checkpointLock.unlock();
+				}
+	    		LOGGER.debug("--- sending checkpoint: {}", checkpoint == null ? -1 : checkpoint.getStateLength());
 	    		CommandsInfo[] logLower = fr.getLogState(requestF1.getLogLowerSize(), logPath);
 	    		CommandsInfo[] logUpper = fr.getLogState(logPointers.get(requestF1.getLogUpper()), 0, requestF1.getLogUpperSize(), logPath);
 				byte[] logLowerHash = new byte[0];
@@ -211,7 +206,8 @@ public class DurableStateLog extends StateLog {
 				} catch (NoSuchAlgorithmException e) {
 	    			e.printStackTrace();
 				}
-	    		CSTState cstState = new CSTState(ckpState, null, null, logLowerHash, null, logUpperHash, lastCheckpointCID, lastCID, this.id);
+	    		CSTState cstState = new CSTState(null, null, null, logLowerHash, null, logUpperHash, lastCheckpointCID, lastCID, this.id);
+	    		cstState.setCheckpoint(checkpoint);
 	    		return cstState;
 			} else if(id == requestF1.getLogLower()) {
 				// This replica is expected to send the lower part of the log
@@ -226,11 +222,10 @@ public class DurableStateLog extends StateLog {
 				checkpointLock.lock();
 				fr.recoverCkpHash(lastCkpPath);
 				byte[] ckpHash = fr.getCkpStateHash();
-				byte[] ckpState = fr.getCkpState(lastCkpPath);
 				checkpointLock.unlock();
 	    		CommandsInfo[] logUpper = fr.getLogState(requestF1.getLogUpperSize(), logPath);
 	    		LOGGER.debug("{} bytes", TOMUtil.getBytes(logUpper).length);
-	    		LOGGER.debug("--- State size: {}, Current state Hash: {}", ckpState.length,  ckpHash);
+	    		LOGGER.debug("--- Current state Hash: {}", ckpHash);
 	    		int lastCIDInState = lastCheckpointCID + requestF1.getLogUpperSize();
 	    		CSTState cstState = new CSTState(null, ckpHash, null, null, logUpper, null, lastCheckpointCID, lastCIDInState, this.id);
 	    		return cstState;
@@ -20,13 +20,17 @@ import bftsmart.tom.core.messages.TOMMessage;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.util.List;
+import java.util.Collection;
 import java.util.Random;
 
 /**
- * Batch format: TIMESTAMP(long) + N_NONCES(int) + SEED(long) +
- *               N_MESSAGES(int) + N_MESSAGES*[MSGSIZE(int),MSG(byte),SIG(byte)] +
+ * Batch format: TIMESTAMP(long) + N_NONCES(int) + SEED(long) + VIEW_ID(int) +
+ *               N_MESSAGES(int) + N_MESSAGES*[MSGSIZE(int),MSG(byte),SIGSIZE(int),SIG(byte)]
  *
+ * SIGSIZE and SIG are only present when signatures are used; the size of the
+ * signatures depends on the signature scheme, a missing signature has size 0.
+ * In the legacy message format SIGSIZE is left out and every signature has the
+ * fixed size of the RSA signatures (see TOMUtil.getSignatureSize).
  *
  * The methods does not try to enforce any constraint, so be correct when using it.
  *
@@ -43,12 +47,25 @@ public final class BatchBuilder {
         }
 
         /** build buffer */
-	private byte[] createBatch(long timestamp, int numberOfNonces, long seed, int numberOfMessages, int totalMessagesSize,
-			boolean useSignatures, byte[][] messages, byte[][] signatures, ViewTopology controller) {
-		int size = 20 + //timestamp 8, nonces 4, nummessages 4
+	private byte[] createBatch(long timestamp, int numberOfNonces, long seed, Collection<TOMMessage> msgs,
+			boolean useSignatures, ViewTopology controller) {
+		int numberOfMessages = msgs.size();
+		boolean writeSignatureSize = useSignatures
+				&& TOMUtil.getSignatureSize(controller) == TOMUtil.VARIABLE_SIGNATURE_SIZE;
+		int totalMessagesSize = 0; //total size of the messages being batched
+		int totalSignaturesSize = 0; //total size of the signatures being batched
+		for (TOMMessage msg : msgs) {
+			totalMessagesSize += msg.getSerializedMessageLength();
+			if (useSignatures && msg.serializedMessageSignature != null) {
+				totalSignaturesSize += msg.serializedMessageSignature.length;
+			}
+		}
+
+		int size = 20 + //timestamp 8, nonces 4, viewid 4, nummessages 4
 				(numberOfNonces > 0 ? 8 : 0) + //seed if needed
-				(numberOfMessages*(4+(useSignatures?TOMUtil.getSignatureSize(controller):0)))+ // msglength + signature for each msg
-				totalMessagesSize; //size of all msges
+				(numberOfMessages*(4+(writeSignatureSize?4:0)))+ // msglength + signature length for each msg
+				totalMessagesSize + //size of all msges
+				totalSignaturesSize; //size of all signatures
 
 		ByteBuffer  proposalBuffer = ByteBuffer.allocate(size);
 
@@ -64,72 +81,37 @@ public final class BatchBuilder {
 
 		proposalBuffer.putInt(numberOfMessages);
 
-		for (int i = 0; i < numberOfMessages; i++) {
-			putMessage(proposalBuffer,messages[i], false, signatures[i]);
+		// the messages are copied straight into the batch, even the ones which were
+		// parsed in place from another batch and were never materialized
+		for (TOMMessage msg : msgs) {
+			LOGGER.debug("(BatchBuilder.createBatch) adding request from client {} with sequence number {} for session {} to PROPOSE", msg.getSender(), msg.getSequence(), msg.getSession());
+			proposalBuffer.putInt(msg.getSerializedMessageLength());
+			msg.writeSerializedMessage(proposalBuffer);
+
+			if (useSignatures && !writeSignatureSize) {
+				if (msg.serializedMessageSignature != null) {
+					proposalBuffer.put(msg.serializedMessageSignature);
+				}
+			} else if (useSignatures) {
+				if (msg.serializedMessageSignature == null) {
+					proposalBuffer.putInt(0);
+				} else {
+					proposalBuffer.putInt(msg.serializedMessageSignature.length);
+					proposalBuffer.put(msg.serializedMessageSignature);
+				}
+			}
 		}
 
 		return proposalBuffer.array();
 	}
-          
-	private void putMessage(ByteBuffer proposalBuffer, byte[] message, boolean isHash, byte[] signature) {
-		proposalBuffer.putInt(isHash?0:message.length);
-		proposalBuffer.put(message);
-
-		if(signature != null) {
-			proposalBuffer.put(signature);
-		}
-	}
-
-	public byte[] makeBatch(List<TOMMessage> msgs, int numNounces, long timestamp, ViewTopology controller) {
-
-		int numMsgs = msgs.size();
-		int totalMessageSize = 0; //total size of the messages being batched
-
-		byte[][] messages = new byte[numMsgs][]; //bytes of the message (or its hash)
-		byte[][] signatures = new byte[numMsgs][]; //bytes of the message (or its hash)
-
-		// Fill the array of bytes for the messages/signatures being batched
-		int i = 0;
-                
-		for (TOMMessage msg : msgs) {
-			//TOMMessage msg = msgs.next();
-			LOGGER.debug("(BatchBuilder.makeBatch) adding request from client {} with sequence number {} for session {} to PROPOSE", msg.getSender(), msg.getSequence(), msg.getSession());
-			messages[i] = msg.serializedMessage;
-			signatures[i] = msg.serializedMessageSignature;
-
-			totalMessageSize += messages[i].length;
-			i++;
-		}
-
-		// return the batch
-		return createBatch(timestamp, numNounces,rnd.nextLong(), numMsgs, totalMessageSize,
-				controller.getStaticConf().isUseSignatures(), messages, signatures, controller);
 
+	public byte[] makeBatch(Collection<TOMMessage> msgs, int numNounces, long timestamp, ViewTopology controller) {
+		return createBatch(timestamp, numNounces, rnd.nextLong(), msgs,
+				controller.getStaticConf().isUseSignatures(), controller);
 	}
-	public byte[] makeBatch(List<TOMMessage> msgs, int numNounces, long seed, long timestamp, ViewTopology controller) {
-
-		int numMsgs = msgs.size();
-		int totalMessageSize = 0; //total size of the messages being batched
-
-		byte[][] messages = new byte[numMsgs][]; //bytes of the message (or its hash)
-		byte[][] signatures = new byte[numMsgs][]; //bytes of the message (or its hash)
-
-		// Fill the array of bytes for the messages/signatures being batched
-		int i = 0;
-                
-		for (TOMMessage msg : msgs) {
-			//TOMMessage msg = msgs.next();
-			//LOGGER.debug("(TOMLayer.run) adding req " + msg + " to PROPOSE");
-			messages[i] = msg.serializedMessage;
-			signatures[i] = msg.serializedMessageSignature;
-
-			totalMessageSize += messages[i].length;
-			i++;
-		}
-
-		// return the batch
-		return createBatch(timestamp, numNounces,seed, numMsgs, totalMessageSize,
-				controller.getStaticConf().isUseSignatures(), messages, signatures, controller);
 
+	public byte[] makeBatch(Collection<TOMMessage> msgs, int numNounces, long seed, long timestamp, ViewTopology controller) {
+		return createBatch(timestamp, numNounces, seed, msgs,
+				controller.getStaticConf().isUseSignatures(), controller);
 	}
 }
@@ -18,14 +18,17 @@ package bftsmart.tom.util;
 import bftsmart.reconfiguration.ViewTopology;
 import bftsmart.tom.core.messages.TOMMessage;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.nio.ByteBuffer;
-import java.util.Random;
 
 /**
- * Batch format: N_MESSAGES(int) + N_MESSAGES*[MSGSIZE(int),MSG(byte)] +
- *               TIMESTAMP(long) + N_NONCES(int) + NONCES(byte[])
+ * Batch format: TIMESTAMP(long) + N_NONCES(int) + SEED(long) + VIEW_ID(int) +
+ *               N_MESSAGES(int) + N_MESSAGES*[MSGSIZE(int),MSG(byte),SIGSIZE(int),SIG(byte)]
+ *
+ * SIGSIZE and SIG are only present when signatures are used, SIGSIZE is left
+ * out in the legacy message format (see BatchBuilder).
+ *
+ * Requests are parsed in place: they keep referencing the batch, which must
+ * not be modified after being read.
  *
  */
 public final class BatchReader {
@@ -48,10 +51,9 @@ public final class BatchReader {
 
         long seed = 0;
 
-        Random rnd = null;
+        // the nonces are generated by the application from the seed (see MessageContext)
         if(numberOfNonces > 0){
             seed = proposalBuffer.getLong();
-            rnd = new Random(seed);
         }
         else numberOfNonces = 0; // make sure the value is correct
 
@@ -61,30 +63,31 @@ public final class BatchReader {
 
         TOMMessage[] requests = new TOMMessage[numberOfMessages];
 
+        byte[] batch = proposalBuffer.array();
+        int fixedSignatureSize = useSignatures ? TOMUtil.getSignatureSize(controller) : 0;
+
         for (int i = 0; i < numberOfMessages; i++) {
             //read the message and its signature from the batch
             int messageSize = proposalBuffer.getInt();
-
-            byte[] message = new byte[messageSize];
-            proposalBuffer.get(message);
+            int messageOffset = proposalBuffer.position();
+            proposalBuffer.position(messageOffset + messageSize);
 
             byte[] signature = null;
             if(useSignatures){
-                signature = new byte[TOMUtil.getSignatureSize(controller)];
-                proposalBuffer.get(signature);
-            }
-            //obtain the nonces to be delivered to the application
-            byte[] nonces = new byte[numberOfNonces];
-            if (nonces.length > 0) {
-                rnd.nextBytes(nonces);
+                int signatureSize = fixedSignatureSize == TOMUtil.VARIABLE_SIGNATURE_SIZE ? proposalBuffer.getInt()
+                        : fixedSignatureSize;
+                if (signatureSize > 0) {
+                    signature = new byte[signatureSize];
+                    proposalBuffer.get(signature);
+                }
             }
             try {
-                DataInputStream ois = new DataInputStream(new ByteArrayInputStream(message));
-                TOMMessage tm = new TOMMessage();
-                tm.rExternal(ois);
+                // the request is parsed in place, its content is only copied out
+                // of the batch when it is read
+                TOMMessage tm = TOMMessage.fromBytes(batch, messageOffset, messageSize);
 
-                tm.serializedMessage = message;
                 tm.serializedMessageSignature = signature;
+                tm.signed = signature != null;
                 tm.numOfNonces = numberOfNonces;
                 tm.seed = seed;
                 tm.timestamp = timestamp;
@@ -0,0 +1,72 @@
+package bftsmart.tom.util;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 客户端批量请求的编码；
+ * <p>
+ *
+ * 客户端把多个应用命令打包在一个请求中发出，节点在执行时拆分为各自的命令，执行结果以相同的格式打包在一个响应中返回；<br>
+ * 格式：N_COMMANDS(int) + N_COMMANDS*[SIZE(int),COMMAND(byte)]；批量请求至少包含一个命令；
+ *
+ * @author huanghaiquan
+ *
+ */
+public final class CommandBatch {
+
+	private CommandBatch() {
+	}
+
+	/**
+	 * 打包命令；
+	 *
+	 * @param commands
+	 * @return
+	 */
+	public static byte[] pack(List<byte[]> commands) {
+		int size = 4;
+		for (byte[] command : commands) {
+			size += 4 + command.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(commands.size());
+		for (byte[] command : commands) {
+			buffer.putInt(command.length);
+			buffer.put(command);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * 拆分打包的命令；
+	 *
+	 * @param batch
+	 * @return 拆分出的命令；格式错误或不含命令时返回 null；
+	 */
+	public static byte[][] unpack(byte[] batch) {
+		if (batch == null || batch.length < 4) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(batch);
+		int count = buffer.getInt();
+		// 每个命令至少占 4 个字节的长度；空的批量请求没有可执行的命令，也视为格式错误；
+		if (count < 1 || count > buffer.remaining() / 4) {
+			return null;
+		}
+		byte[][] commands = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			if (buffer.remaining() < 4) {
+				return null;
+			}
+			int size = buffer.getInt();
+			if (size < 0 || size > buffer.remaining()) {
+				return null;
+			}
+			commands[i] = new byte[size];
+			buffer.get(commands[i]);
+		}
+		return buffer.hasRemaining() ? null : commands;
+	}
+
+}
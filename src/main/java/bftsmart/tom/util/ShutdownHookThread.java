@@ -18,7 +18,6 @@ package bftsmart.tom.util;
 import bftsmart.consensus.Consensus;
 import bftsmart.consensus.Epoch;
 import bftsmart.consensus.TimestampValuePair;
-import bftsmart.consensus.app.SHA256Utils;
 import bftsmart.tom.core.TOMLayer;
 import org.slf4j.LoggerFactory;
 
@@ -33,13 +32,11 @@ import java.util.Date;
 public class ShutdownHookThread extends Thread {
 
     private final TOMLayer tomLayer;
-    private SHA256Utils md = new SHA256Utils();
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(ShutdownHookThread.class);
 
     public ShutdownHookThread(TOMLayer tomLayer) {
 
         this.tomLayer = tomLayer;
-        this.md = this.tomLayer.md;
     }
 
     @Override
@@ -64,7 +61,7 @@ public class ShutdownHookThread extends Thread {
             
             for (TimestampValuePair rv : c.getWriteSet()) {
                 if  (rv.getValue() != null && rv.getValue().length > 0)
-                    rv.setHashedValue(md.hash(rv.getValue()));
+                    rv.setHashedValue(tomLayer.computeHash(rv.getValue()));
             }
             
             buffer.append("\n\n\t -- Consensus state: \n\n\t\tETS=" + c.getEts() + " \n\t\tWriteSet=["+ c.getWriteSet()
@@ -85,7 +82,7 @@ public class ShutdownHookThread extends Thread {
             
             for (TimestampValuePair rv : c.getWriteSet()) {
                 if  (rv.getValue() != null && rv.getValue().length > 0)
-                    rv.setHashedValue(md.hash(rv.getValue()));
+                    rv.setHashedValue(tomLayer.computeHash(rv.getValue()));
             }
             
             buffer.append("\n\n\t -- Consensus state: \n\n\t\tETS=" + c.getEts() + " \n\t\tWriteSet=["+ c.getWriteSet()
@@ -0,0 +1,262 @@
+package bftsmart.tom.util;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECKey;
+import java.security.spec.ECField;
+import java.security.spec.ECFieldFp;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * 签名方案；
+ * <p>
+ *
+ * 节点之间的共识证明、客户端请求的签名所采用的算法由配置项 {@value #CONFIG_KEY} 指定，默认为 {@link #RSA}；<br>
+ * 签名时根据密钥的类型确定签名方案，签名的长度不固定，传输时随签名一起写入长度；
+ * <p>
+ *
+ * JDK 未提供的算法（JDK 8 的 Ed25519、国密 SM2）由 BouncyCastle 提供；<br>
+ * 每个线程使用各自的 {@link Signature} 实例，可并发签名和验证；
+ *
+ * @author huanghaiquan
+ *
+ */
+public enum SignatureScheme {
+
+	/**
+	 * SHA1withRSA；
+	 */
+	RSA("RSA", "SHA1withRSA"),
+
+	/**
+	 * ECDSA，NIST P-256 曲线；
+	 */
+	ECDSA("EC", "SHA256withECDSA"),
+
+	/**
+	 * Ed25519；
+	 */
+	ED25519("Ed25519", "Ed25519"),
+
+	/**
+	 * 国密 SM2，sm2p256v1 曲线；
+	 */
+	SM2("EC", "SM3withSM2");
+
+	/**
+	 * 签名方案的配置项；
+	 */
+	public static final String CONFIG_KEY = "system.communication.signatureScheme";
+
+	/**
+	 * sm2p256v1 曲线的素数域；
+	 */
+	private static final BigInteger SM2_FIELD_PRIME = new BigInteger(
+			"FFFFFFFEFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF00000000FFFFFFFFFFFFFFFF", 16);
+
+	private final String keyAlgorithm;
+
+	private final String signatureAlgorithm;
+
+	private final ThreadLocal<Signature> engines;
+
+	private SignatureScheme(String keyAlgorithm, String signatureAlgorithm) {
+		this.keyAlgorithm = keyAlgorithm;
+		this.signatureAlgorithm = signatureAlgorithm;
+		this.engines = ThreadLocal.withInitial(this::newEngine);
+	}
+
+	/**
+	 * 密钥的算法名称；
+	 *
+	 * @return
+	 */
+	public String getKeyAlgorithm() {
+		return keyAlgorithm;
+	}
+
+	/**
+	 * 签名的算法名称；
+	 *
+	 * @return
+	 */
+	public String getSignatureAlgorithm() {
+		return signatureAlgorithm;
+	}
+
+	/**
+	 * 返回当前线程的签名实例；
+	 * <p>
+	 *
+	 * 调用者需先以 initSign/initVerify 初始化，且不能在线程之间共享；
+	 *
+	 * @return
+	 */
+	public Signature getEngine() {
+		return engines.get();
+	}
+
+	/**
+	 * 以当前线程的签名实例签名；
+	 *
+	 * @param key
+	 * @param message
+	 * @return
+	 */
+	public byte[] sign(PrivateKey key, byte[] message) {
+		Signature engine = engines.get();
+		try {
+			engine.initSign(key);
+			engine.update(message);
+			return engine.sign();
+		} catch (InvalidKeyException | SignatureException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * 以当前线程的签名实例验证签名；
+	 *
+	 * @param key
+	 * @param message
+	 * @param signature
+	 * @return 签名有效时返回 true；签名无效或格式错误时返回 false；
+	 */
+	public boolean verify(PublicKey key, byte[] message, byte[] signature) {
+		Signature engine = engines.get();
+		try {
+			engine.initVerify(key);
+		} catch (InvalidKeyException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		try {
+			engine.update(message);
+			return engine.verify(signature);
+		} catch (SignatureException e) {
+			// 格式错误的签名（如非法的 DER 编码）视为无效签名；
+			return false;
+		}
+	}
+
+	/**
+	 * 解析 X.509 编码的公钥；
+	 *
+	 * @param encodedKey
+	 * @return
+	 */
+	public PublicKey decodePublicKey(byte[] encodedKey) {
+		try {
+			return newKeyFactory().generatePublic(new X509EncodedKeySpec(encodedKey));
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Illegal " + name() + " public key! --" + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * 解析 PKCS#8 编码的私钥；
+	 *
+	 * @param encodedKey
+	 * @return
+	 */
+	public PrivateKey decodePrivateKey(byte[] encodedKey) {
+		try {
+			return newKeyFactory().generatePrivate(new PKCS8EncodedKeySpec(encodedKey));
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Illegal " + name() + " private key! --" + e.getMessage(), e);
+		}
+	}
+
+	private Signature newEngine() {
+		try {
+			if (this != SM2) {
+				try {
+					return Signature.getInstance(signatureAlgorithm);
+				} catch (NoSuchAlgorithmException e) {
+					// JDK 未提供的算法，由 BouncyCastle 提供；
+				}
+			}
+			return Signature.getInstance(signatureAlgorithm, BouncyCastle.PROVIDER);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	private KeyFactory newKeyFactory() throws NoSuchAlgorithmException {
+		if (this != SM2) {
+			try {
+				return KeyFactory.getInstance(keyAlgorithm);
+			} catch (NoSuchAlgorithmException e) {
+				// JDK 未提供的算法，由 BouncyCastle 提供；
+			}
+		}
+		return KeyFactory.getInstance(keyAlgorithm, BouncyCastle.PROVIDER);
+	}
+
+	/**
+	 * 根据名称返回签名方案，忽略大小写；
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static SignatureScheme of(String name) {
+		for (SignatureScheme scheme : values()) {
+			if (scheme.name().equalsIgnoreCase(name.trim())) {
+				return scheme;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported signature scheme[" + name + "]!");
+	}
+
+	/**
+	 * 根据密钥的类型返回签名方案；
+	 * <p>
+	 *
+	 * 同为 EC 类型的密钥，以曲线的素数域区分 SM2 与 ECDSA；
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static SignatureScheme of(Key key) {
+		String algorithm = key.getAlgorithm();
+		if ("RSA".equalsIgnoreCase(algorithm)) {
+			return RSA;
+		}
+		if ("Ed25519".equalsIgnoreCase(algorithm) || "EdDSA".equalsIgnoreCase(algorithm)) {
+			return ED25519;
+		}
+		if ("EC".equalsIgnoreCase(algorithm) || "ECDSA".equalsIgnoreCase(algorithm)
+				|| "SM2".equalsIgnoreCase(algorithm)) {
+			return isSM2Curve(key) ? SM2 : ECDSA;
+		}
+		throw new IllegalArgumentException("Unsupported key algorithm[" + algorithm + "]!");
+	}
+
+	private static boolean isSM2Curve(Key key) {
+		if (!(key instanceof ECKey) || ((ECKey) key).getParams() == null) {
+			return "SM2".equalsIgnoreCase(key.getAlgorithm());
+		}
+		ECField field = ((ECKey) key).getParams().getCurve().getField();
+		return field instanceof ECFieldFp && SM2_FIELD_PRIME.equals(((ECFieldFp) field).getP());
+	}
+
+	/**
+	 * 延迟创建 BouncyCastle 的 Provider，只在用到 JDK 未提供的算法时加载；
+	 */
+	private static class BouncyCastle {
+
+		private static final Provider PROVIDER = new BouncyCastleProvider();
+
+	}
+
+}
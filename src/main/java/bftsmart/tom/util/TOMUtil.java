@@ -15,11 +15,13 @@ limitations under the License.
 */
 package bftsmart.tom.util;
 
+import bftsmart.communication.SystemMessageCodecRegistry;
 import bftsmart.consensus.app.SHA256Utils;
 import bftsmart.reconfiguration.ViewTopology;
 
 import java.io.*;
 import java.security.*;
+import java.security.interfaces.RSAKey;
 import java.util.Arrays;
 
 public class TOMUtil {
@@ -47,20 +49,35 @@ public class TOMUtil {
 //	public static final int TRIGGER_LC_LOCALLY = 8;
 	public static final int TRIGGER_SM_LOCALLY = 9;
 
-	private static int signatureSize = -1;
+	/**
+	 * Size returned by {@link #getSignatureSize(ViewTopology)} when the size of
+	 * each signature is written before the signature.
+	 */
+	public static final int VARIABLE_SIGNATURE_SIZE = -1;
 
+	/**
+	 * Returns the size of the signatures in the client messages and in the
+	 * batches.
+	 * <p>
+	 * Since the binary message format the size of each signature is written
+	 * before the signature, because it depends on the signature scheme. The
+	 * legacy message format ({@link SystemMessageCodecRegistry#LEGACY_FORMAT})
+	 * keeps the layout of the versions before, where every signature is a RSA
+	 * signature with the size of the key of this process.
+	 *
+	 * @param controller
+	 * @return the fixed size of the signatures in the legacy message format, or
+	 *         {@link #VARIABLE_SIGNATURE_SIZE}
+	 */
 	public static int getSignatureSize(ViewTopology controller) {
-		if (signatureSize > 0) {
-			return signatureSize;
+		if (controller.getStaticConf().getMessageFormat() > SystemMessageCodecRegistry.LEGACY_FORMAT) {
+			return VARIABLE_SIGNATURE_SIZE;
 		}
-
-		byte[] signature = signMessage(controller.getStaticConf().getRSAPrivateKey(), BytesUtils.getBytes("a"));
-
-		if (signature != null) {
-			signatureSize = signature.length;
+		PrivateKey key = controller.getStaticConf().getRSAPrivateKey();
+		if (!(key instanceof RSAKey)) {
+			throw new IllegalStateException("The legacy message format only supports RSA signatures!");
 		}
-
-		return signatureSize;
+		return (((RSAKey) key).getModulus().bitLength() + 7) / 8;
 	}
 
 	// ******* EDUARDO BEGIN **************//
@@ -100,27 +117,18 @@ public class TOMUtil {
 	// ******* EDUARDO END **************//
 
 	/**
-	 * Sign a message.
+	 * Sign a message with the signature scheme of the key.
 	 *
 	 * @param key     the private key to be used to generate the signature
 	 * @param message the message to be signed
 	 * @return the signature
 	 */
 	public static byte[] signMessage(PrivateKey key, byte[] message) {
-		try {
-			Signature signatureEngine = Signature.getInstance("SHA1withRSA");
-			signatureEngine.initSign(key);
-			signatureEngine.update(message);
-			
-			byte[] result = signatureEngine.sign();
-			return result;
-		} catch (InvalidKeyException | NoSuchAlgorithmException | SignatureException e) {
-			throw new IllegalStateException(e.getMessage(), e);
-		}
+		return SignatureScheme.of(key).sign(key, message);
 	}
 
 	/**
-	 * Verify the signature of a message.
+	 * Verify the signature of a message with the signature scheme of the key.
 	 *
 	 * @param key       the public key to be used to verify the signature
 	 * @param message   the signed message
@@ -128,20 +136,12 @@ public class TOMUtil {
 	 * @return true if the signature is valid, false otherwise
 	 */
 	public static boolean verifySignature(PublicKey key, byte[] message, byte[] signature) {
-
-		boolean result = false;
-
 		try {
-			Signature signatureEngine = Signature.getInstance("SHA1withRSA");
-
-			signatureEngine.initVerify(key);
-
-			result = verifySignature(signatureEngine, message, signature);
+			return SignatureScheme.of(key).verify(key, message, signature);
 		} catch (Exception e) {
 			e.printStackTrace();
+			return false;
 		}
-
-		return result;
 	}
 
 	/**
@@ -0,0 +1,95 @@
+package test.bftsmart.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.BatchBuilder;
+import bftsmart.tom.util.BatchReader;
+import utils.security.RandomUtils;
+
+/**
+ * 提议批次的打包与解析的基准测试；
+ * <p>
+ *
+ * 分别测量领导者通过 {@link BatchBuilder#makeBatch(java.util.Collection, int, long, bftsmart.reconfiguration.ViewTopology)}
+ * 打包请求，以及其它节点通过 {@link BatchReader#deserialiseRequests(bftsmart.reconfiguration.ViewTopology)}
+ * 解析批次的开销；
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+	@Param({ "10", "100", "400" })
+	public int batchSize;
+
+	@Param({ "256", "4096" })
+	public int requestSize;
+
+	private BenchmarkTopology topology;
+
+	private BatchBuilder batchBuilder;
+
+	private List<TOMMessage> requests;
+
+	private byte[] batch;
+
+	@Setup
+	public void setup() {
+		topology = BenchmarkTopology.create(0, new int[] { 0, 1, 2, 3 }, new Properties());
+		batchBuilder = new BatchBuilder(System.nanoTime());
+
+		// 与客户端请求到达时一样，请求的序列化数据已经存在；
+		requests = new ArrayList<TOMMessage>(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			TOMMessage request = new TOMMessage(1000 + i, 0, i, i, RandomUtils.generateRandomBytes(requestSize), null,
+					0, TOMMessageType.ORDERED_REQUEST);
+			request.serializedMessage = TOMMessage.messageToBytes(request);
+			requests.add(request);
+		}
+		batch = batchBuilder.makeBatch(requests, 0, 0, topology);
+	}
+
+	@Benchmark
+	public byte[] makeBatch() {
+		return batchBuilder.makeBatch(requests, 0, System.currentTimeMillis(), topology);
+	}
+
+	@Benchmark
+	public TOMMessage[] deserialiseRequests() {
+		return new BatchReader(batch, false).deserialiseRequests(topology);
+	}
+
+	/**
+	 * 解析批次并读取每个请求的内容，包含请求内容延迟复制的开销；
+	 */
+	@Benchmark
+	public int deserialiseRequestsAndContents() {
+		int size = 0;
+		for (TOMMessage request : new BatchReader(batch, false).deserialiseRequests(topology)) {
+			size += request.getContent().length;
+		}
+		return size;
+	}
+
+}
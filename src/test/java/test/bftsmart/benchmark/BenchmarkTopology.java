@@ -0,0 +1,115 @@
+package test.bftsmart.benchmark;
+
+import java.net.InetSocketAddress;
+import java.util.Properties;
+
+import bftsmart.reconfiguration.ViewTopology;
+import bftsmart.reconfiguration.util.HostsConfig;
+import bftsmart.reconfiguration.util.TOMConfiguration;
+import bftsmart.reconfiguration.views.NodeNetwork;
+import bftsmart.reconfiguration.views.View;
+import bftsmart.tom.ReplicaConfiguration;
+
+/**
+ * 用于基准测试的固定 {@link ViewTopology}；
+ * <p>
+ * 
+ * 不使用 Mockito，避免在被测的热点路径上引入额外的调用开销；
+ *
+ */
+public class BenchmarkTopology implements ViewTopology {
+
+	private final int currentId;
+
+	private final int[] processIds;
+
+	private final ReplicaConfiguration conf;
+
+	private final View view;
+
+	public BenchmarkTopology(int currentId, int[] processIds, ReplicaConfiguration conf) {
+		this.currentId = currentId;
+		this.processIds = processIds;
+		this.conf = conf;
+		this.view = new View(0, processIds, (processIds.length - 1) / 3, new NodeNetwork[processIds.length]);
+	}
+
+	/**
+	 * 以指定的系统配置创建拓扑；
+	 * 
+	 * @param currentId
+	 * @param processIds
+	 * @param systemConfigs 系统配置，未指定的配置项采用默认值；
+	 * @return
+	 */
+	public static BenchmarkTopology create(int currentId, int[] processIds, Properties systemConfigs) {
+		HostsConfig hosts = new HostsConfig();
+		for (int id : processIds) {
+			hosts.add(id, "localhost", 0, 0);
+		}
+		TOMConfiguration conf = new TOMConfiguration(currentId, systemConfigs, hosts);
+		conf.updateConfiguration(processIds);
+		return new BenchmarkTopology(currentId, processIds, conf);
+	}
+
+	@Override
+	public int getCurrentProcessId() {
+		return currentId;
+	}
+
+	@Override
+	public View getCurrentView() {
+		return view;
+	}
+
+	@Override
+	public View getLastView() {
+		return view;
+	}
+
+	@Override
+	public NodeNetwork getRemoteAddress(int id) {
+		return null;
+	}
+
+	@Override
+	public InetSocketAddress getRemoteSocketAddress(int id) {
+		return null;
+	}
+
+	@Override
+	public ReplicaConfiguration getStaticConf() {
+		return conf;
+	}
+
+	@Override
+	public int getCurrentViewId() {
+		return 0;
+	}
+
+	@Override
+	public int getCurrentViewF() {
+		return (processIds.length - 1) / 3;
+	}
+
+	@Override
+	public int getCurrentViewN() {
+		return processIds.length;
+	}
+
+	@Override
+	public int getCurrentViewPos(int id) {
+		for (int i = 0; i < processIds.length; i++) {
+			if (processIds[i] == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int[] getCurrentViewProcesses() {
+		return processIds;
+	}
+
+}
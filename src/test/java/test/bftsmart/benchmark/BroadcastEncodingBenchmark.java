@@ -0,0 +1,101 @@
+package test.bftsmart.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import bftsmart.communication.MacKey;
+import bftsmart.communication.MacKeyGenerator;
+import bftsmart.communication.SystemMessageCodec;
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.MessageFactory;
+import bftsmart.tom.ReplicaConfiguration;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import utils.security.RandomUtils;
+
+/**
+ * 广播 PROPOSE 消息的编码开销基准测试；
+ * <p>
+ * 
+ * 对比每个连接各自序列化并编码消息，与消息只序列化一次、每个连接只生成 MAC 并组合输出的开销；
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastEncodingBenchmark {
+
+	@Param({ "4", "7", "10" })
+	public int replicas;
+
+	@Param({ "131072", "1048576" })
+	public int proposalSize;
+
+	private ConsensusMessage propose;
+
+	private SystemMessageCodec[] peerCodecs;
+
+	@Setup
+	public void setup() {
+		int[] processIds = new int[replicas];
+		for (int i = 0; i < replicas; i++) {
+			processIds[i] = i;
+		}
+		ReplicaConfiguration conf = BenchmarkTopology.create(0, processIds, new Properties()).getStaticConf();
+
+		// 为每个远端节点生成各自的 MAC 共享密钥；
+		MacKeyGenerator localKeyGen = newMacKeyGenerator(conf);
+		peerCodecs = new SystemMessageCodec[replicas - 1];
+		for (int i = 0; i < peerCodecs.length; i++) {
+			MacKeyGenerator peerKeyGen = newMacKeyGenerator(conf);
+			MacKey macKey = localKeyGen.exchange(peerKeyGen.getDHPubKeyCertificate());
+			peerCodecs[i] = new SystemMessageCodec(true, macKey);
+		}
+
+		propose = new MessageFactory(0).createPropose(1, 0, RandomUtils.generateRandomBytes(proposalSize));
+	}
+
+	private static MacKeyGenerator newMacKeyGenerator(ReplicaConfiguration conf) {
+		return new MacKeyGenerator(conf.getRSAPublicKey(0), conf.getRSAPrivateKey(), conf.getDHG(), conf.getDHP());
+	}
+
+	/**
+	 * 每个连接各自序列化并编码消息；
+	 */
+	@Benchmark
+	public void encodePerPeer(Blackhole blackhole) {
+		for (SystemMessageCodec codec : peerCodecs) {
+			blackhole.consume(codec.encode(propose));
+		}
+	}
+
+	/**
+	 * 消息只序列化一次，每个连接只生成 MAC，并与共享的消息字节组合输出；
+	 */
+	@Benchmark
+	public void encodeOnce(Blackhole blackhole) {
+		byte[] serializedMessage = SystemMessageCodec.serialize(propose);
+		for (SystemMessageCodec codec : peerCodecs) {
+			ByteBuf out = Unpooled.wrappedBuffer(codec.encodeHeader(serializedMessage), serializedMessage,
+					codec.encodeMacTrailer(serializedMessage));
+			blackhole.consume(out);
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+package test.bftsmart.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import bftsmart.clientsmanagement.ClientsManager;
+import bftsmart.clientsmanagement.RequestList;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+
+/**
+ * 客户端请求接入的基准测试；
+ * <p>
+ * 
+ * 多个线程模拟 Netty 客户端工作线程并发调用 {@link ClientsManager#requestReceived(TOMMessage, boolean)}，
+ * 同时由一个线程模拟领导者不断调用 {@link ClientsManager#getPendingRequests()} 打包并将请求标记为已排序；
+ * <p>
+ * 
+ * 通过 {@link #clients} 参数观察接入吞吐随客户端数量（1k ~ 50k）的变化；
+ *
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientsManagerBenchmark {
+
+	private static final int INTAKE_THREADS = 4;
+
+	private static final byte[] CONTENT = new byte[64];
+
+	@Param({ "1000", "10000", "50000" })
+	public int clients;
+
+	private ClientsManager clientsManager;
+
+	private final AtomicInteger threadIndex = new AtomicInteger();
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		Properties systemConfigs = new Properties();
+		systemConfigs.setProperty("system.totalordermulticast.maxbatchsize", "400");
+		// 限制每个客户端的未决请求数量，避免接入快于打包时内存无限增长；
+		systemConfigs.setProperty("system.communication.useControlFlow", "64");
+		BenchmarkTopology topology = BenchmarkTopology.create(0, new int[] { 0, 1, 2, 3 }, systemConfigs);
+
+		clientsManager = new ClientsManager(topology, null, request -> true);
+		threadIndex.set(0);
+	}
+
+	/**
+	 * 每个接入线程负责一段独立的客户端，保证同一客户端的请求按序号递增到达；
+	 */
+	@State(Scope.Thread)
+	public static class IntakeState {
+
+		private int firstClient;
+
+		private int clientCount;
+
+		private int[] sequences;
+
+		private int next;
+
+		@Setup(Level.Iteration)
+		public void setup(ClientsManagerBenchmark benchmark) {
+			int index = benchmark.threadIndex.getAndIncrement() % INTAKE_THREADS;
+			clientCount = Math.max(1, benchmark.clients / INTAKE_THREADS);
+			firstClient = index * clientCount;
+			sequences = new int[clientCount];
+			next = 0;
+		}
+
+		private TOMMessage nextRequest() {
+			int i = next;
+			next = (next + 1) % clientCount;
+			int sequence = sequences[i]++;
+			return new TOMMessage(firstClient + i, 0, sequence, sequence, CONTENT, null, 0,
+					TOMMessageType.ORDERED_REQUEST);
+		}
+	}
+
+	@Benchmark
+	@Group("intake")
+	@GroupThreads(INTAKE_THREADS)
+	public boolean requestReceived(IntakeState state) {
+		return clientsManager.requestReceived(state.nextRequest(), true);
+	}
+
+	@Benchmark
+	@Group("intake")
+	@GroupThreads(1)
+	public void makeBatch(Blackhole blackhole) {
+		if (clientsManager.havePendingRequests()) {
+			RequestList batch = clientsManager.getPendingRequests();
+			clientsManager.requestsOrdered(batch.toArray(new TOMMessage[batch.size()]));
+			blackhole.consume(batch);
+		}
+	}
+
+}
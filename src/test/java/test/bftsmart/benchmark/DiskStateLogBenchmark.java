@@ -0,0 +1,95 @@
+package test.bftsmart.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bftsmart.tom.server.defaultservices.DiskStateLog;
+import utils.security.RandomUtils;
+
+/**
+ * 交易日志落盘的基准测试；
+ * <p>
+ *
+ * 每次调用以递增的共识 ID 向 {@link DiskStateLog} 追加一个批次，并等待其按 {@link #durability} 指定的方式写入完成；
+ * 日志写入临时目录，测试结束后删除；
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiskStateLogBenchmark {
+
+	@Param({ "none", "batch", "every_cid" })
+	public String durability;
+
+	@Param({ "10", "100" })
+	public int batchSize;
+
+	@Param({ "256" })
+	public int requestSize;
+
+	private File directory;
+
+	private DiskStateLog stateLog;
+
+	private byte[][] commands;
+
+	private int consensusId;
+
+	@Setup
+	public void setup() throws IOException {
+		Properties systemConfigs = new Properties();
+		systemConfigs.setProperty("system.totalordermulticast.log_durability", durability);
+		BenchmarkTopology topology = BenchmarkTopology.create(0, new int[] { 0, 1, 2, 3 }, systemConfigs);
+
+		directory = Files.createTempDirectory("bftsmart-log-benchmark-").toFile();
+		stateLog = new DiskStateLog(0, null, null, true, !"none".equals(durability), false, "benchmark", topology);
+		stateLog.DEFAULT_DIR = directory.getPath();
+
+		commands = new byte[batchSize][];
+		for (int i = 0; i < batchSize; i++) {
+			commands[i] = RandomUtils.generateRandomBytes(requestSize);
+		}
+		consensusId = 0;
+	}
+
+	@TearDown
+	public void tearDown() {
+		delete(directory);
+	}
+
+	@Benchmark
+	public Integer append() {
+		return stateLog.appendMessageBatch(commands, null, consensusId++).join();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,80 @@
+package test.bftsmart.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bftsmart.consensus.Epoch;
+import utils.security.RandomUtils;
+
+/**
+ * 共识轮次投票计数的基准测试；
+ * <p>
+ *
+ * 每收到一个 WRITE / ACCEPT 消息，节点都会记录投票并调用 {@link Epoch#countWrite(byte[])} /
+ * {@link Epoch#countAccept(byte[])} 判断是否达到法定数量；
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EpochBenchmark {
+
+	@Param({ "4", "7", "10", "31" })
+	public int replicas;
+
+	private Epoch epoch;
+
+	private byte[] value;
+
+	@Setup
+	public void setup() {
+		int[] processIds = new int[replicas];
+		for (int i = 0; i < replicas; i++) {
+			processIds[i] = i;
+		}
+		BenchmarkTopology topology = BenchmarkTopology.create(0, processIds, new Properties());
+		epoch = new Epoch(topology, null, 0);
+
+		// 投票的值是提议的哈希，各个节点发送的是内容相同的不同数组；
+		value = RandomUtils.generateRandomBytes(32);
+		for (int id : processIds) {
+			epoch.setWrite(id, value.clone());
+			epoch.setAccept(id, value.clone());
+		}
+	}
+
+	@Benchmark
+	public int countWrite() {
+		return epoch.countWrite(value);
+	}
+
+	@Benchmark
+	public int countAccept() {
+		return epoch.countAccept(value);
+	}
+
+	/**
+	 * 记录一个投票并计数，与处理一个 WRITE 消息的路径一致；
+	 */
+	@Benchmark
+	public int setWriteAndCount() {
+		epoch.setWrite(replicas - 1, value);
+		return epoch.countWrite(value);
+	}
+
+}
@@ -0,0 +1,222 @@
+package test.bftsmart.benchmark;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bftsmart.communication.CommunicationLayer;
+import bftsmart.communication.MessageQueue.SystemMessageType;
+import bftsmart.communication.SystemMessage;
+import bftsmart.communication.impl.MessageListener;
+import bftsmart.communication.impl.queue.MessageQueueManager;
+import bftsmart.communication.impl.queue.QueueBasedCommunicationLayer;
+import bftsmart.consensus.Epoch;
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.MessageFactory;
+import utils.security.RandomUtils;
+
+/**
+ * 进程内集群的端到端基准测试；
+ * <p>
+ *
+ * 各个节点通过 {@link QueueBasedCommunicationLayer} 和共享的 {@link MessageQueueManager} 相互投递消息，不经过网络；<br>
+ * 每次调用由节点 0 作为领导者广播 PROPOSE，各节点收到后广播提议的哈希作为 WRITE，收到法定数量的 WRITE 后广播
+ * ACCEPT，收到法定数量的 ACCEPT 后决定；投票通过 {@link Epoch} 记录和计数；<br>
+ * 一次调用在全部节点都决定之后返回，测量的是一轮共识在通讯层、消息处理线程与投票计数上的端到端耗时；
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueClusterBenchmark {
+
+	private static final long DECIDE_TIMEOUT_SECONDS = 10;
+
+	@Param({ "4", "7" })
+	public int replicas;
+
+	@Param({ "1024", "131072" })
+	public int proposalSize;
+
+	private CommunicationLayer[] layers;
+
+	private ReplicaNode[] nodes;
+
+	private MessageFactory leaderFactory;
+
+	private int[] processIds;
+
+	private byte[] proposal;
+
+	private int consensusId;
+
+	@Setup
+	public void setup() {
+		processIds = new int[replicas];
+		for (int i = 0; i < replicas; i++) {
+			processIds[i] = i;
+		}
+
+		MessageQueueManager messageNetwork = new MessageQueueManager();
+		layers = new CommunicationLayer[replicas];
+		nodes = new ReplicaNode[replicas];
+		for (int i = 0; i < replicas; i++) {
+			BenchmarkTopology topology = BenchmarkTopology.create(i, processIds, new Properties());
+			layers[i] = new QueueBasedCommunicationLayer("benchmark", topology, messageNetwork);
+			nodes[i] = new ReplicaNode(topology, layers[i], processIds);
+			layers[i].addMessageListener(SystemMessageType.CONSENSUS, nodes[i]);
+		}
+		for (CommunicationLayer layer : layers) {
+			layer.start();
+		}
+
+		leaderFactory = new MessageFactory(0);
+		proposal = RandomUtils.generateRandomBytes(proposalSize);
+		consensusId = 0;
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (CommunicationLayer layer : layers) {
+			layer.close();
+		}
+	}
+
+	@Benchmark
+	public int consensus() throws InterruptedException {
+		int cid = consensusId++;
+		CountDownLatch decided = new CountDownLatch(replicas);
+		for (ReplicaNode node : nodes) {
+			node.expect(cid, decided);
+		}
+
+		layers[0].send(processIds, leaderFactory.createPropose(cid, 0, proposal), false);
+
+		if (!decided.await(DECIDE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("Consensus[" + cid + "] is not decided in " + DECIDE_TIMEOUT_SECONDS
+					+ " seconds!");
+		}
+		return cid;
+	}
+
+	/**
+	 * 简化的共识节点；只在所属通讯层的共识消息处理线程中执行；
+	 */
+	private static class ReplicaNode implements MessageListener {
+
+		private final BenchmarkTopology topology;
+
+		private final CommunicationLayer layer;
+
+		private final int[] processIds;
+
+		private final MessageFactory messageFactory;
+
+		private final MessageDigest digest;
+
+		private final int quorum;
+
+		private final Map<Integer, Instance> instances = new HashMap<Integer, Instance>();
+
+		private int lastDecidedCid = -1;
+
+		private volatile int expectedCid = -1;
+
+		private volatile CountDownLatch decided;
+
+		private ReplicaNode(BenchmarkTopology topology, CommunicationLayer layer, int[] processIds) {
+			this.topology = topology;
+			this.layer = layer;
+			this.processIds = processIds;
+			this.messageFactory = new MessageFactory(topology.getCurrentProcessId());
+			this.quorum = (topology.getCurrentViewN() + topology.getCurrentViewF()) / 2 + 1;
+			try {
+				this.digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+
+		private void expect(int cid, CountDownLatch decided) {
+			this.decided = decided;
+			this.expectedCid = cid;
+		}
+
+		@Override
+		public void onReceived(SystemMessage message) {
+			if (!(message instanceof ConsensusMessage)) {
+				// 消息处理线程在队列空闲时也会以 null 回调；
+				return;
+			}
+			ConsensusMessage msg = (ConsensusMessage) message;
+			int cid = msg.getNumber();
+			if (cid <= lastDecidedCid) {
+				// 决定之后迟到的投票；
+				return;
+			}
+			Instance instance = instances.get(cid);
+			if (instance == null) {
+				instance = new Instance(new Epoch(topology, null, 0));
+				instances.put(cid, instance);
+			}
+
+			switch (msg.getType()) {
+			case MessageFactory.PROPOSE:
+				byte[] hash = digest.digest(msg.getValue());
+				layer.send(processIds, messageFactory.createWrite(cid, 0, hash), false);
+				break;
+			case MessageFactory.WRITE:
+				instance.epoch.setWrite(msg.getSender(), msg.getValue());
+				if (!instance.accepted && instance.epoch.countWrite(msg.getValue()) >= quorum) {
+					instance.accepted = true;
+					layer.send(processIds, messageFactory.createAccept(cid, 0, msg.getValue()), false);
+				}
+				break;
+			case MessageFactory.ACCEPT:
+				instance.epoch.setAccept(msg.getSender(), msg.getValue());
+				if (instance.epoch.countAccept(msg.getValue()) >= quorum) {
+					lastDecidedCid = cid;
+					instances.remove(cid);
+					if (cid == expectedCid) {
+						decided.countDown();
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static class Instance {
+
+		private final Epoch epoch;
+
+		private boolean accepted;
+
+		private Instance(Epoch epoch) {
+			this.epoch = epoch;
+		}
+	}
+
+}
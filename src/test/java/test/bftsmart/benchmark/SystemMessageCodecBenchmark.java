@@ -0,0 +1,93 @@
+package test.bftsmart.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bftsmart.communication.IllegalMessageException;
+import bftsmart.communication.MacKey;
+import bftsmart.communication.MacKeyGenerator;
+import bftsmart.communication.MessageAuthenticationException;
+import bftsmart.communication.SystemMessage;
+import bftsmart.communication.SystemMessageCodec;
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.MessageFactory;
+import bftsmart.tom.ReplicaConfiguration;
+import utils.security.RandomUtils;
+
+/**
+ * 节点间消息编解码的基准测试；
+ * <p>
+ *
+ * 以 {@link #useMac} 参数对比启用和不启用 MAC 时 {@link SystemMessageCodec} 编码和解码共识消息的开销；
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SystemMessageCodecBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean useMac;
+
+	@Param({ "32", "131072" })
+	public int valueSize;
+
+	private ConsensusMessage message;
+
+	private SystemMessageCodec encoder;
+
+	private SystemMessageCodec decoder;
+
+	private byte[] encodedMessage;
+
+	@Setup
+	public void setup() {
+		ReplicaConfiguration conf = BenchmarkTopology.create(0, new int[] { 0, 1, 2, 3 }, new Properties())
+				.getStaticConf();
+		if (useMac) {
+			// 编码端和解码端通过密钥交换得到相同的 MAC 共享密钥；
+			MacKeyGenerator localKeyGen = newMacKeyGenerator(conf);
+			MacKeyGenerator peerKeyGen = newMacKeyGenerator(conf);
+			MacKey localKey = localKeyGen.exchange(peerKeyGen.getDHPubKeyCertificate());
+			MacKey peerKey = peerKeyGen.exchange(localKeyGen.getDHPubKeyCertificate());
+			encoder = new SystemMessageCodec(true, localKey);
+			decoder = new SystemMessageCodec(true, peerKey);
+		} else {
+			encoder = new SystemMessageCodec();
+			decoder = new SystemMessageCodec();
+		}
+
+		message = new MessageFactory(0).createWrite(1, 0, RandomUtils.generateRandomBytes(valueSize));
+		encodedMessage = encoder.encode(message);
+	}
+
+	private static MacKeyGenerator newMacKeyGenerator(ReplicaConfiguration conf) {
+		return new MacKeyGenerator(conf.getRSAPublicKey(0), conf.getRSAPrivateKey(), conf.getDHG(), conf.getDHP());
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return encoder.encode(message);
+	}
+
+	@Benchmark
+	public SystemMessage decode() throws MessageAuthenticationException, IllegalMessageException {
+		return decoder.decode(encodedMessage);
+	}
+
+}
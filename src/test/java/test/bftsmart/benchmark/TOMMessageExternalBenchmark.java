@@ -0,0 +1,77 @@
+package test.bftsmart.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import utils.security.RandomUtils;
+
+/**
+ * 客户端请求序列化的基准测试；
+ * <p>
+ *
+ * 测量 {@link TOMMessage#wExternal(java.io.DataOutput)} 和 {@link TOMMessage#rExternal(java.io.DataInput)}
+ * 的开销，以及从批次中原地解析请求的 {@link TOMMessage#fromBytes(byte[], int, int)} 作为对照；
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TOMMessageExternalBenchmark {
+
+	@Param({ "64", "1024", "16384" })
+	public int contentSize;
+
+	private TOMMessage request;
+
+	private byte[] serializedRequest;
+
+	@Setup
+	public void setup() {
+		request = new TOMMessage(1001, 0, 1, 1, RandomUtils.generateRandomBytes(contentSize), null, 0,
+				TOMMessageType.ORDERED_REQUEST);
+		serializedRequest = TOMMessage.messageToBytes(request);
+	}
+
+	@Benchmark
+	public byte[] wExternal() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(serializedRequest.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		request.wExternal(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public TOMMessage rExternal() throws IOException, ClassNotFoundException {
+		TOMMessage message = new TOMMessage();
+		message.rExternal(new DataInputStream(new ByteArrayInputStream(serializedRequest)));
+		return message;
+	}
+
+	@Benchmark
+	public TOMMessage fromBytes() throws IOException {
+		return TOMMessage.fromBytes(serializedRequest, 0, serializedRequest.length);
+	}
+
+}
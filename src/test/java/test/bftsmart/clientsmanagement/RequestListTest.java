@@ -0,0 +1,181 @@
+package test.bftsmart.clientsmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import bftsmart.clientsmanagement.RequestList;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+
+public class RequestListTest {
+
+	@Test
+	public void testIndexedLookupAndRemove() {
+		RequestList requests = new RequestList();
+		TOMMessage[] msgs = new TOMMessage[10];
+		for (int i = 0; i < msgs.length; i++) {
+			msgs[i] = newRequest(1001, i);
+			requests.addLast(msgs[i]);
+		}
+
+		assertEquals(10, requests.size());
+		assertSame(msgs[3], requests.getById(msgs[3].getId()));
+		assertSame(msgs[7], requests.getBySequence(7));
+		assertTrue(requests.contains(msgs[5].getId()));
+
+		// 按等价的新实例删除，返回列表中的原实例；
+		assertSame(msgs[5], requests.removeEqual(newRequest(1001, 5)));
+		assertFalse(requests.contains(msgs[5].getId()));
+		assertNull(requests.getBySequence(5));
+		assertSame(msgs[9], requests.removeById(msgs[9].getId()));
+		assertSame(msgs[8], requests.getLast());
+
+		// 删除后迭代顺序保持不变；
+		int[] expected = { 0, 1, 2, 3, 4, 6, 7, 8 };
+		int i = 0;
+		for (TOMMessage msg : requests) {
+			assertEquals(expected[i++], msg.getSequence());
+		}
+		assertEquals(expected.length, i);
+	}
+
+	@Test
+	public void testLookupBySerializedMessage() {
+		RequestList requests = new RequestList();
+		TOMMessage[] msgs = new TOMMessage[6];
+		for (int i = 0; i < msgs.length; i++) {
+			// 不同会话中的请求序号相同；
+			msgs[i] = new TOMMessage(1001, i % 2, i / 2, i, new byte[] { (byte) i }, null, 0,
+					TOMMessageType.ORDERED_REQUEST);
+			msgs[i].serializedMessage = TOMMessage.messageToBytes(msgs[i]);
+			assertEquals(msgs[i].getId(), TOMMessage.getId(msgs[i].serializedMessage));
+			requests.addLast(msgs[i]);
+		}
+
+		assertSame(msgs[3], requests.get(TOMMessage.messageToBytes(msgs[3])));
+		assertSame(msgs[4], requests.remove(TOMMessage.messageToBytes(msgs[4])));
+		assertNull(requests.get(msgs[4].serializedMessage));
+		assertNull(requests.remove(msgs[4].serializedMessage));
+		assertEquals(5, requests.size());
+
+		// 头部相同但内容不同的请求不会被找到；
+		TOMMessage other = new TOMMessage(1001, 1, 0, 1, new byte[] { 9 }, null, 0, TOMMessageType.ORDERED_REQUEST);
+		assertNull(requests.get(TOMMessage.messageToBytes(other)));
+		assertNull(requests.get(new byte[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void testMaxSize() {
+		RequestList requests = new RequestList(3);
+		for (int i = 0; i < 5; i++) {
+			requests.addLast(newRequest(1001, i));
+		}
+		assertEquals(3, requests.size());
+		assertEquals(2, requests.getFirst().getSequence());
+		assertNull(requests.getBySequence(1));
+	}
+
+	@Test
+	public void testProposeNext() {
+		RequestList requests = new RequestList();
+		TOMMessage proposed = newRequest(1001, 0);
+		proposed.alreadyProposed = true;
+		requests.addLast(proposed);
+		for (int i = 1; i < 5; i++) {
+			requests.addLast(newRequest(1001, i));
+		}
+
+		assertEquals(1, requests.proposeNext().getSequence());
+		assertEquals(2, requests.proposeNext().getSequence());
+
+		// 删除游标指向的请求后，游标移到下一个请求；
+		requests.removeEqual(newRequest(1001, 3));
+		assertEquals(4, requests.proposeNext().getSequence());
+		assertNull(requests.proposeNext());
+
+		// 新加入的请求从游标处继续提议；
+		requests.addLast(newRequest(1001, 5));
+		TOMMessage next = requests.proposeNext();
+		assertEquals(5, next.getSequence());
+		assertTrue(next.alreadyProposed);
+		assertNull(requests.proposeNext());
+	}
+
+	@Test
+	public void testUnpropose() {
+		RequestList requests = new RequestList();
+		for (int i = 0; i < 4; i++) {
+			requests.addLast(newRequest(1001, i));
+		}
+		for (int i = 0; i < 4; i++) {
+			requests.proposeNext();
+		}
+		assertNull(requests.proposeNext());
+
+		// 被丢弃的提议中的请求重新按到达顺序提议；
+		assertNotNull(requests.unpropose(newRequest(1001, 2)));
+		assertNotNull(requests.unpropose(newRequest(1001, 1)));
+		assertNull(requests.unpropose(newRequest(1001, 1)));
+		assertNull(requests.unpropose(newRequest(1001, 9)));
+		assertEquals(1, requests.proposeNext().getSequence());
+		assertEquals(2, requests.proposeNext().getSequence());
+		assertNull(requests.proposeNext());
+	}
+
+	@Test
+	public void testIteratorRemove() {
+		RequestList requests = new RequestList();
+		for (int i = 0; i < 6; i++) {
+			requests.addLast(newRequest(i, 0));
+		}
+		for (Iterator<TOMMessage> it = requests.iterator(); it.hasNext();) {
+			if (it.next().getSender() % 2 == 0) {
+				it.remove();
+			}
+		}
+		assertEquals(3, requests.size());
+		assertNull(requests.getById(newRequest(2, 0).getId()));
+		assertSame(requests.getFirst(), requests.getById(newRequest(1, 0).getId()));
+
+		requests.clear();
+		assertTrue(requests.isEmpty());
+		assertNull(requests.proposeNext());
+	}
+
+	@Test
+	public void testSameSequenceChain() {
+		RequestList requests = new RequestList();
+		// 不同客户端的请求序号相同，按序号索引时在同一条链上；
+		for (int i = 0; i < 5; i++) {
+			requests.addLast(newRequest(i, 7));
+		}
+		assertEquals(0, requests.getBySequence(7).getSender());
+
+		// 删除链头、链中和链尾后，剩余请求仍可查找，追加的请求接在链尾；
+		assertNotNull(requests.removeEqual(newRequest(0, 7)));
+		assertNotNull(requests.removeEqual(newRequest(2, 7)));
+		assertNotNull(requests.removeEqual(newRequest(4, 7)));
+		requests.addLast(newRequest(5, 7));
+		assertEquals(1, requests.getBySequence(7).getSender());
+		assertNotNull(requests.removeEqual(newRequest(1, 7)));
+		assertEquals(3, requests.getBySequence(7).getSender());
+		assertNotNull(requests.removeEqual(newRequest(3, 7)));
+		assertEquals(5, requests.getBySequence(7).getSender());
+		assertNotNull(requests.removeEqual(newRequest(5, 7)));
+		assertNull(requests.getBySequence(7));
+		assertTrue(requests.isEmpty());
+	}
+
+	private static TOMMessage newRequest(int clientId, int sequence) {
+		return new TOMMessage(clientId, 0, sequence, sequence, new byte[] { (byte) sequence }, null, 0,
+				TOMMessageType.ORDERED_REQUEST);
+	}
+}
@@ -0,0 +1,145 @@
+package test.bftsmart.clientsmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import bftsmart.clientsmanagement.RequestSignatureVerifier;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.TOMUtil;
+
+public class RequestSignatureVerifierTest {
+
+	@Test
+	public void testVerifyAndCache() throws NoSuchAlgorithmException {
+		Map<Integer, KeyPair> keys = generateKeys(2);
+		AtomicInteger keyLookups = new AtomicInteger();
+		RequestSignatureVerifier verifier = new RequestSignatureVerifier(id -> {
+			keyLookups.incrementAndGet();
+			KeyPair keyPair = keys.get(id);
+			return keyPair == null ? null : keyPair.getPublic();
+		}, 16);
+
+		TOMMessage request = newSignedRequest(keys, 1000, 1);
+		assertTrue(verifier.verify(request));
+		assertEquals(1, keyLookups.get());
+		assertEquals(1, verifier.getCacheSize());
+
+		// 同一请求再次出现在提议中时命中缓存，不再验证；
+		TOMMessage proposed = copyOf(request);
+		assertTrue(verifier.verify(proposed));
+		assertEquals(1, keyLookups.get());
+
+		// 已验证的消息带着伪造的签名出现在提议中时不命中缓存；
+		TOMMessage resigned = copyOf(request);
+		resigned.serializedMessageSignature[0] ^= 1;
+		assertFalse(verifier.verify(resigned));
+		assertEquals(2, keyLookups.get());
+
+		// 以其它客户端的密钥签名的请求无效，且不缓存；
+		TOMMessage forged = newSignedRequest(keys, 1000, 2);
+		forged.serializedMessageSignature = TOMUtil.signMessage(keys.get(1001).getPrivate(), forged.serializedMessage);
+		assertFalse(verifier.verify(forged));
+		assertFalse(verifier.verify(forged));
+		assertEquals(1, verifier.getCacheSize());
+
+		// 未知的客户端；
+		assertFalse(verifier.verify(newSignedRequest(keys, 1000, 3, 2000)));
+
+		// 未签名的请求视为有效；
+		assertTrue(verifier.verify(new TOMMessage(1000, 0, 4, 4, new byte[] { 4 }, null, 0,
+				TOMMessageType.ORDERED_REQUEST)));
+	}
+
+	@Test
+	public void testCacheEviction() throws NoSuchAlgorithmException {
+		Map<Integer, KeyPair> keys = generateKeys(1);
+		RequestSignatureVerifier verifier = new RequestSignatureVerifier(id -> keys.get(id).getPublic(), 4);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(verifier.verify(newSignedRequest(keys, 1000, i)));
+		}
+		assertEquals(4, verifier.getCacheSize());
+	}
+
+	@Test
+	public void testVerifyAll() throws NoSuchAlgorithmException {
+		Map<Integer, KeyPair> keys = generateKeys(8);
+		RequestSignatureVerifier verifier = new RequestSignatureVerifier(id -> keys.get(id).getPublic(),
+				RequestSignatureVerifier.DEFAULT_CACHE_CAPACITY);
+
+		TOMMessage[] batch = new TOMMessage[200];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = newSignedRequest(keys, 1000 + i % 8, i);
+		}
+		assertTrue(verifier.verifyAll(batch));
+		assertEquals(batch.length, verifier.getCacheSize());
+		assertTrue(verifier.verifyAll(new TOMMessage[0]));
+
+		// 批次中任何一个签名无效，整个批次无效；
+		TOMMessage[] invalidBatch = new TOMMessage[50];
+		for (int i = 0; i < invalidBatch.length; i++) {
+			invalidBatch[i] = newSignedRequest(keys, 1000 + i % 8, 1000 + i);
+		}
+		invalidBatch[37].serializedMessageSignature[0] ^= 1;
+		assertFalse(verifier.verifyAll(invalidBatch));
+
+		// 提议中未签名的请求无效；
+		TOMMessage[] unsignedBatch = new TOMMessage[] { newSignedRequest(keys, 1000, 3000),
+				copyOf(batch[0]) };
+		unsignedBatch[1].signed = false;
+		unsignedBatch[1].serializedMessageSignature = null;
+		assertFalse(verifier.verifyAll(unsignedBatch));
+		assertFalse(verifier.verifyAll(new TOMMessage[] { unsignedBatch[1] }));
+
+		// 用不同的引擎同时验证同一客户端的签名；
+		TOMMessage[] sameClient = new TOMMessage[100];
+		for (int i = 0; i < sameClient.length; i++) {
+			sameClient[i] = newSignedRequest(keys, 1003, 2000 + i);
+		}
+		assertTrue(verifier.verifyAll(sameClient));
+	}
+
+	private static Map<Integer, KeyPair> generateKeys(int clients) throws NoSuchAlgorithmException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		Map<Integer, KeyPair> keys = new HashMap<Integer, KeyPair>();
+		for (int i = 0; i < clients; i++) {
+			keys.put(1000 + i, generator.generateKeyPair());
+		}
+		return keys;
+	}
+
+	private static TOMMessage newSignedRequest(Map<Integer, KeyPair> keys, int clientId, int sequence) {
+		return newSignedRequest(keys, clientId, sequence, clientId);
+	}
+
+	private static TOMMessage newSignedRequest(Map<Integer, KeyPair> keys, int signerId, int sequence,
+			int clientId) {
+		TOMMessage request = new TOMMessage(clientId, 0, sequence, sequence, new byte[] { (byte) sequence, 1, 2 },
+				null, 0, TOMMessageType.ORDERED_REQUEST);
+		request.serializedMessage = TOMMessage.messageToBytes(request);
+		request.serializedMessageSignature = TOMUtil.signMessage(keys.get(signerId).getPrivate(),
+				request.serializedMessage);
+		request.signed = true;
+		return request;
+	}
+
+	private static TOMMessage copyOf(TOMMessage request) {
+		TOMMessage copy = TOMMessage.bytesToMessage(request.serializedMessage);
+		copy.serializedMessage = request.serializedMessage.clone();
+		copy.serializedMessageSignature = request.serializedMessageSignature.clone();
+		copy.signed = true;
+		return copy;
+	}
+
+}
@@ -0,0 +1,105 @@
+package test.bftsmart.cluster;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bftsmart.consensus.app.BatchAppResultImpl;
+import bftsmart.tom.MessageContext;
+import bftsmart.tom.server.defaultservices.DefaultRecoverable;
+
+/**
+ * 进程内集群的节点上运行的应用；
+ * <p>
+ *
+ * 按顺序为每个请求分配一个递增的序号作为响应，各个节点的响应在共识顺序一致时相同；<br>
+ * 批次的应用哈希为批次内全部请求的哈希，不依赖各节点本地的状态；
+ *
+ */
+public class ClusterService extends DefaultRecoverable {
+
+	private final AtomicLong executed = new AtomicLong();
+
+	/**
+	 * 已执行的请求数；
+	 *
+	 * @return
+	 */
+	public long getExecuted() {
+		return executed.get();
+	}
+
+	@Override
+	public BatchAppResultImpl preComputeAppHash(int cid, byte[][] commands, long timestamp) {
+		long first = executed.getAndAdd(commands.length);
+		List<byte[]> responses = new ArrayList<byte[]>(commands.length);
+		ByteBuffer batch = ByteBuffer.allocate(8 + commands.length * 36);
+		batch.putLong(first);
+		for (int i = 0; i < commands.length; i++) {
+			responses.add(ByteBuffer.allocate(8).putLong(first + i).array());
+			batch.putInt(commands[i].length);
+			batch.put(computeHash(commands[i]));
+		}
+		return new BatchAppResultImpl(responses, computeHash(batch.array()), "batch-" + cid,
+				computeHash(new byte[0]));
+	}
+
+	@Override
+	public List<byte[]> updateAppResponses(List<byte[]> asyncResponseLinkedList, byte[] commonHash,
+			boolean isConsistent) {
+		return asyncResponseLinkedList;
+	}
+
+	@Override
+	public void preComputeAppCommit(int cid, String batchId) {
+	}
+
+	@Override
+	public void preComputeAppRollback(int cid, String batchId) {
+	}
+
+	@Override
+	public byte[][] appExecuteBatch(byte[][] commands, MessageContext[] msgCtxs, boolean fromConsensus) {
+		// 执行已在预计算阶段完成，这里只处理状态传输后的重放；
+		if (!fromConsensus) {
+			executed.addAndGet(commands.length);
+		}
+		byte[][] replies = new byte[commands.length][];
+		for (int i = 0; i < commands.length; i++) {
+			replies[i] = new byte[0];
+		}
+		return replies;
+	}
+
+	@Override
+	public byte[] appExecuteUnordered(byte[] command, MessageContext msgCtx) {
+		return ByteBuffer.allocate(8).putLong(executed.get()).array();
+	}
+
+	@Override
+	public void installSnapshot(byte[] state) {
+		executed.set(ByteBuffer.wrap(state).getLong());
+	}
+
+	@Override
+	public byte[] getBlockHashByCid(int cid) {
+		return ByteBuffer.allocate(8).putLong(executed.get()).array();
+	}
+
+	@Override
+	public int getCommandsNumByCid(int cid) {
+		return 0;
+	}
+
+	@Override
+	public byte[][] getCommandsByCid(int cid, int currCidCommandsNum) {
+		return new byte[0][];
+	}
+
+	@Override
+	public long getTimestampByCid(int cid) {
+		return 0;
+	}
+
+}
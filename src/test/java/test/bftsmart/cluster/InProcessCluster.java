@@ -0,0 +1,319 @@
+package test.bftsmart.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bftsmart.communication.MacKey;
+import bftsmart.communication.MacKeyGenerator;
+import bftsmart.communication.MessageHandler;
+import bftsmart.communication.ServerCommunicationSystem;
+import bftsmart.communication.ServerCommunicationSystemImpl;
+import bftsmart.communication.client.ClientCommunicationFactory;
+import bftsmart.communication.impl.queue.MessageQueueManager;
+import bftsmart.communication.impl.queue.QueueBasedCommunicationLayer;
+import bftsmart.reconfiguration.ServerViewController;
+import bftsmart.reconfiguration.ViewTopology;
+import bftsmart.reconfiguration.util.HostsConfig;
+import bftsmart.reconfiguration.util.TOMConfiguration;
+import bftsmart.reconfiguration.views.MemoryBasedViewStorage;
+import bftsmart.reconfiguration.views.NodeNetwork;
+import bftsmart.reconfiguration.views.View;
+import bftsmart.tom.AsynchServiceProxy;
+import bftsmart.tom.ServiceReplica;
+
+/**
+ * 进程内的多节点集群；
+ * <p>
+ *
+ * 在同一个 JVM 中启动 n 个 {@link ServiceReplica}，节点之间通过 {@link SimulatedNetwork} 通讯；<br>
+ * 客户端仍通过本机回环地址上的 Netty 连接接入，每个节点的客户端端口在启动时随机分配；
+ * <p>
+ *
+ * 用法：
+ *
+ * <pre>
+ * try (InProcessCluster cluster = new InProcessCluster(4, systemConfigs, new SimulatedNetwork(seed))) {
+ * 	cluster.start();
+ * 	AsynchServiceProxy client = cluster.newClient();
+ * 	...
+ * 	cluster.crash(cluster.getLeader());
+ * }
+ * </pre>
+ *
+ */
+public class InProcessCluster implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(InProcessCluster.class);
+
+	/**
+	 * 客户端 ID 的起始值，与节点 ID 区分；
+	 */
+	public static final int FIRST_CLIENT_ID = 10000;
+
+	/**
+	 * 等待节点就绪的最长时间（毫秒）；
+	 */
+	private static final long READY_TIMEOUT = 60000;
+
+	private final int size;
+
+	private final Properties systemConfigs;
+
+	private final SimulatedNetwork network;
+
+	private final String realmName;
+
+	private final int[] processIds;
+
+	private final ServiceReplica[] replicas;
+
+	private final ClusterService[] services;
+
+	private final Map<Integer, MacKeyGenerator> macKeyGenerators = new ConcurrentHashMap<Integer, MacKeyGenerator>();
+
+	private final List<AsynchServiceProxy> clients = new ArrayList<AsynchServiceProxy>();
+
+	private final AtomicInteger nextClientId = new AtomicInteger(FIRST_CLIENT_ID);
+
+	private HostsConfig hostsConfig;
+
+	private View view;
+
+	/**
+	 * @param size          节点数；
+	 * @param systemConfigs 系统配置，未指定的配置项采用默认值；
+	 * @param network       节点之间的模拟网络；
+	 */
+	public InProcessCluster(int size, Properties systemConfigs, SimulatedNetwork network) {
+		this.size = size;
+		this.systemConfigs = systemConfigs;
+		this.network = network;
+		this.realmName = "in-process-cluster-" + System.nanoTime();
+		this.processIds = new int[size];
+		for (int i = 0; i < size; i++) {
+			processIds[i] = i;
+		}
+		this.replicas = new ServiceReplica[size];
+		this.services = new ClusterService[size];
+	}
+
+	/**
+	 * 并行启动全部节点，在全部节点就绪（完成启动时的状态检查与领导者确认）后返回；
+	 *
+	 * @throws Exception
+	 */
+	public void start() throws Exception {
+		hostsConfig = new HostsConfig();
+		NodeNetwork[] addresses = new NodeNetwork[size];
+		for (int i = 0; i < size; i++) {
+			int clientPort = freePort();
+			hostsConfig.add(processIds[i], "127.0.0.1", clientPort, -1);
+			addresses[i] = new NodeNetwork("127.0.0.1", clientPort, -1, false, false);
+		}
+		TOMConfiguration conf = newConfiguration(processIds[0]);
+		view = new View(0, processIds, conf.getF(), addresses);
+
+		ExecutorService starter = Executors.newFixedThreadPool(size);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < size; i++) {
+				final int index = i;
+				futures.add(starter.submit(() -> {
+					startReplica(index);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			starter.shutdown();
+		}
+		awaitReady(READY_TIMEOUT);
+		LOGGER.info("In-process cluster of {} replicas started!", size);
+	}
+
+	private void awaitReady(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (int i = 0; i < size; i++) {
+			while (!replicas[i].getTomLayer().isReady()) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IllegalStateException("Replica[" + processIds[i] + "] is not ready after "
+							+ timeoutMillis + " milliseconds!");
+				}
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	private void startReplica(int index) {
+		int id = processIds[index];
+		TOMConfiguration conf = newConfiguration(id);
+		ServerViewController controller = new ServerViewController(conf, new MemoryBasedViewStorage(view));
+		MessageHandler messageHandler = new MessageHandler();
+		macKeyGenerators.computeIfAbsent(id, k -> new MacKeyGenerator(conf.getRSAPublicKey(),
+				conf.getRSAPrivateKey(), conf.getDHG(), conf.getDHP()));
+		QueueBasedCommunicationLayer serversCommunication = new KeyedCommunicationLayer(realmName, controller,
+				network.getEndpoint(id));
+		ServerCommunicationSystem cs = new ServerCommunicationSystemImpl(
+				ClientCommunicationFactory.createServerSide(controller), messageHandler, controller,
+				serversCommunication);
+
+		ClusterService service = new ClusterService();
+		services[index] = service;
+		replicas[index] = new ServiceReplica(messageHandler, cs, conf, service, service, -1L, view, realmName);
+	}
+
+	private TOMConfiguration newConfiguration(int processId) {
+		// 解析配置时会移除已读取的配置项，每个节点使用各自的副本；
+		Properties configs = (Properties) systemConfigs.clone();
+		return new TOMConfiguration(processId, configs, hostsConfig);
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * 创建一个新的客户端；客户端在集群关闭时一同关闭；
+	 *
+	 * @return
+	 */
+	public AsynchServiceProxy newClient() {
+		TOMConfiguration conf = newConfiguration(nextClientId.getAndIncrement());
+		AsynchServiceProxy client = new AsynchServiceProxy(conf, new MemoryBasedViewStorage(view));
+		synchronized (clients) {
+			clients.add(client);
+		}
+		return client;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getF() {
+		return (size - 1) / 3;
+	}
+
+	public SimulatedNetwork getNetwork() {
+		return network;
+	}
+
+	public ServiceReplica getReplica(int processId) {
+		return replicas[processId];
+	}
+
+	public ClusterService getService(int processId) {
+		return services[processId];
+	}
+
+	/**
+	 * 返回存活节点所认定的当前领导者；
+	 *
+	 * @return
+	 */
+	public int getLeader() {
+		for (int i = 0; i < size; i++) {
+			if (!network.isCrashed(processIds[i]) && replicas[i] != null) {
+				return replicas[i].getTomLayer().leader();
+			}
+		}
+		throw new IllegalStateException("All replicas are crashed!");
+	}
+
+	/**
+	 * 返回指定节点最后执行的共识 ID；
+	 *
+	 * @param processId
+	 * @return
+	 */
+	public int getLastExec(int processId) {
+		return replicas[processId].getTomLayer().getLastExec();
+	}
+
+	/**
+	 * 使节点宕机：先在模拟网络中隔离该节点，再停止节点；
+	 *
+	 * @param processId
+	 */
+	public void crash(int processId) {
+		LOGGER.info("Crash replica[{}] of in-process cluster!", processId);
+		network.crash(processId);
+		replicas[processId].kill();
+	}
+
+	/**
+	 * 使当前的领导者宕机；
+	 *
+	 * @return 宕机的领导者；
+	 */
+	public int crashLeader() {
+		int leader = getLeader();
+		crash(leader);
+		return leader;
+	}
+
+	@Override
+	public void close() {
+		synchronized (clients) {
+			for (AsynchServiceProxy client : clients) {
+				client.close();
+			}
+			clients.clear();
+		}
+		for (int i = 0; i < size; i++) {
+			if (replicas[i] != null && !network.isCrashed(processIds[i])) {
+				try {
+					replicas[i].kill();
+				} catch (RuntimeException e) {
+					LOGGER.warn("Error occurred while stopping replica[" + processIds[i] + "]! --" + e.getMessage(), e);
+				}
+			}
+		}
+		network.close();
+	}
+
+	/**
+	 * 进程内的连接不经过握手，不会协商 MAC 密钥；<br>
+	 * 由集群以各节点的 DH 公钥直接生成共享密钥，使共识证明与领导者切换中的 MAC 认证与真实网络一致；
+	 */
+	private class KeyedCommunicationLayer extends QueueBasedCommunicationLayer {
+
+		private final Map<Integer, MacKey> macKeys = new ConcurrentHashMap<Integer, MacKey>();
+
+		private KeyedCommunicationLayer(String realmName, ViewTopology topology, MessageQueueManager messageNetwork) {
+			super(realmName, topology, messageNetwork);
+		}
+
+		@Override
+		public MacKey getMacKey(int id) {
+			MacKey macKey = macKeys.get(id);
+			if (macKey == null) {
+				MacKeyGenerator remote = macKeyGenerators.get(id);
+				if (remote == null) {
+					return null;
+				}
+				macKey = macKeys.computeIfAbsent(id,
+						k -> macKeyGenerators.get(getId()).exchange(remote.getDHPubKeyCertificate()));
+			}
+			return macKey;
+		}
+	}
+
+}
@@ -0,0 +1,180 @@
+package test.bftsmart.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import bftsmart.tom.PipelinedServiceProxy;
+import bftsmart.tom.core.TOMLayer;
+import utils.io.FileUtils;
+
+/**
+ * 进程内集群的负载测试，运行时间较长，不随构建自动运行；
+ *
+ */
+public class InProcessClusterTest_ {
+
+	private static final int NODE_SIZE = 4;
+
+	@Test
+	public void testClosedLoop() throws Exception {
+		SimulatedNetwork network = new SimulatedNetwork(1);
+		network.setDefaultLink(LinkProfile.of(1, 1, 1000, 0));
+		try (InProcessCluster cluster = new InProcessCluster(NODE_SIZE, loadSystemConfigs(), network)) {
+			cluster.start();
+			LoadGenerator generator = new LoadGenerator(cluster, 8, 256);
+			LoadReport report = generator.runClosedLoop(10, TimeUnit.SECONDS);
+			System.out.println(report);
+
+			assertEquals(0, report.getFailed());
+			assertTrue(report.getCompleted() > 0);
+		}
+	}
+
+	@Test
+	public void testOpenLoop() throws Exception {
+		SimulatedNetwork network = new SimulatedNetwork(2);
+		network.setDefaultLink(LinkProfile.of(5, 2, 100, 0));
+		try (InProcessCluster cluster = new InProcessCluster(NODE_SIZE, loadSystemConfigs(), network)) {
+			cluster.start();
+			LoadGenerator generator = new LoadGenerator(cluster, 4, 256);
+			LoadReport report = generator.runOpenLoop(200, 10, TimeUnit.SECONDS);
+			System.out.println(report);
+
+			assertEquals(0, report.getFailed());
+			assertEquals(report.getSent(), report.getCompleted());
+		}
+	}
+
+	@Test
+	public void testLeaderCrash() throws Exception {
+		SimulatedNetwork network = new SimulatedNetwork(3);
+		network.setDefaultLink(LinkProfile.of(1, 1, 1000, 0));
+		try (InProcessCluster cluster = new InProcessCluster(NODE_SIZE, loadSystemConfigs(), network)) {
+			cluster.start();
+			LoadGenerator generator = new LoadGenerator(cluster, 4, 256);
+			generator.setRequestTimeout(30);
+			System.out.println(generator.runOpenLoop(100, 5, TimeUnit.SECONDS));
+
+			int crashedLeader = cluster.crashLeader();
+			LoadReport report = generator.runOpenLoop(100, 20, TimeUnit.SECONDS);
+			System.out.println(report);
+
+			assertNotEquals(crashedLeader, cluster.getLeader());
+			// 领导者切换期间的请求延迟反映在尾部百分位中；
+			assertTrue(report.getCompleted() > 0);
+		}
+	}
+
+	@Test
+	public void testPipelinedProxy() throws Exception {
+		SimulatedNetwork network = new SimulatedNetwork(4);
+		network.setDefaultLink(LinkProfile.of(1, 1, 1000, 0));
+		try (InProcessCluster cluster = new InProcessCluster(NODE_SIZE, loadSystemConfigs(), network)) {
+			cluster.start();
+			try (PipelinedServiceProxy proxy = new PipelinedServiceProxy(cluster.newClient(), 8, 32,
+					PipelinedServiceProxy.DEFAULT_MAX_BATCH_BYTES)) {
+				List<CompletableFuture<byte[]>> results = new ArrayList<CompletableFuture<byte[]>>();
+				for (int i = 0; i < 2000; i++) {
+					results.add(proxy.invokeOrdered(new byte[] { (byte) i, 1, 2, 3 }));
+				}
+				// 每个命令按共识顺序得到各自的序号；
+				Set<Long> sequences = new HashSet<Long>();
+				for (CompletableFuture<byte[]> result : results) {
+					sequences.add(ByteBuffer.wrap(result.get(30, TimeUnit.SECONDS)).getLong());
+				}
+				assertEquals(results.size(), sequences.size());
+				assertEquals(results.size(), cluster.getService(0).getExecuted());
+			}
+		}
+	}
+
+	@Test
+	public void testFollowersPipelineConsensus() throws Exception {
+		int pipelineDepth = 4;
+		Properties configs = loadSystemConfigs();
+		configs.setProperty("system.totalordermulticast.pipeline_depth", String.valueOf(pipelineDepth));
+		// 小的批次使在途的请求分布在多个共识中，且领导者提议之间不等待；
+		configs.setProperty("system.totalordermulticast.maxbatchsize", "4");
+		configs.setProperty("system.epoch.delay", "0");
+		SimulatedNetwork network = new SimulatedNetwork(5);
+		network.setDefaultLink(LinkProfile.of(2, 1, 1000, 0));
+		try (InProcessCluster cluster = new InProcessCluster(NODE_SIZE, configs, network)) {
+			cluster.start();
+			int follower = (cluster.getLeader() + 1) % NODE_SIZE;
+			TOMLayer tomLayer = cluster.getReplica(follower).getTomLayer();
+
+			// 在跟随节点上采样已处理 PROPOSE 而未决议的共识数；
+			AtomicInteger maxInFlight = new AtomicInteger();
+			AtomicBoolean sampling = new AtomicBoolean(true);
+			Thread sampler = new Thread(() -> {
+				while (sampling.get()) {
+					int lastExec = tomLayer.getLastExec();
+					int inFlight = 0;
+					for (int cid = lastExec + 1; cid <= lastExec + pipelineDepth; cid++) {
+						if (tomLayer.getExecManager().isProposed(cid) && cid > tomLayer.getLastExec()) {
+							inFlight++;
+						}
+					}
+					maxInFlight.accumulateAndGet(inFlight, Math::max);
+					Thread.yield();
+				}
+			});
+			sampler.start();
+
+			int count = 1000;
+			try (PipelinedServiceProxy proxy = new PipelinedServiceProxy(cluster.newClient(), 16, 4,
+					PipelinedServiceProxy.DEFAULT_MAX_BATCH_BYTES)) {
+				List<CompletableFuture<byte[]>> results = new ArrayList<CompletableFuture<byte[]>>();
+				for (int i = 0; i < count; i++) {
+					results.add(proxy.invokeOrdered(new byte[] { (byte) i, 1, 2, 3 }));
+				}
+				Set<Long> sequences = new HashSet<Long>();
+				for (CompletableFuture<byte[]> result : results) {
+					sequences.add(ByteBuffer.wrap(result.get(30, TimeUnit.SECONDS)).getLong());
+				}
+				assertEquals(count, sequences.size());
+			} finally {
+				sampling.set(false);
+				sampler.join();
+			}
+			System.out.println("Max consensus instances in flight at follower[" + follower + "]: " + maxInFlight);
+
+			// 跟随节点同时处理多个共识，执行结果仍一致；
+			assertTrue(maxInFlight.get() >= 2);
+			for (int i = 0; i < NODE_SIZE; i++) {
+				long deadline = System.currentTimeMillis() + 10000;
+				while (cluster.getService(i).getExecuted() < count && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(count, cluster.getService(i).getExecuted());
+			}
+		}
+	}
+
+	private static Properties loadSystemConfigs() throws IOException {
+		try (FileInputStream in = new FileInputStream("config/system_" + NODE_SIZE + ".config")) {
+			Properties configs = FileUtils.readProperties(in);
+			configs.setProperty("system.totalordermulticast.log_to_disk", "false");
+			configs.setProperty("system.totalordermulticast.heartBeatTimeout", "3000");
+			configs.setProperty("system.totalordermulticast.heartBeatPeriod", "500");
+			return configs;
+		}
+	}
+
+}
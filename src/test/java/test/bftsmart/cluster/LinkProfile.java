@@ -0,0 +1,96 @@
+package test.bftsmart.cluster;
+
+/**
+ * 模拟网络中一条单向链路的特性；
+ * <p>
+ *
+ * 消息经过链路的耗时为“排队等待 + 传输时间(消息长度 / 带宽) + 传播延迟(延迟 + 随机抖动)”，同一链路上的消息按发送顺序到达；<br>
+ * 消息以 {@link #getDropRate()} 的概率丢失，丢失的消息不会重传；
+ *
+ */
+public final class LinkProfile {
+
+	/**
+	 * 无延迟、不限带宽、不丢包的理想链路；
+	 */
+	public static final LinkProfile IDEAL = new LinkProfile(0, 0, 0, 0);
+
+	private final long delayMicros;
+
+	private final long jitterMicros;
+
+	private final long bandwidth;
+
+	private final double dropRate;
+
+	/**
+	 * @param delayMicros  传播延迟（微秒）；
+	 * @param jitterMicros 随机抖动的上限（微秒），每个消息在 [0, jitterMicros] 之间均匀取值；
+	 * @param bandwidth    带宽（字节/秒），0 表示不限；
+	 * @param dropRate     丢包率，取值 [0, 1]；
+	 */
+	public LinkProfile(long delayMicros, long jitterMicros, long bandwidth, double dropRate) {
+		if (delayMicros < 0 || jitterMicros < 0 || bandwidth < 0) {
+			throw new IllegalArgumentException("Negative delay, jitter or bandwidth of link!");
+		}
+		if (dropRate < 0 || dropRate > 1) {
+			throw new IllegalArgumentException("Illegal drop rate[" + dropRate + "] of link!");
+		}
+		this.delayMicros = delayMicros;
+		this.jitterMicros = jitterMicros;
+		this.bandwidth = bandwidth;
+		this.dropRate = dropRate;
+	}
+
+	/**
+	 * 以毫秒为单位的延迟和抖动，以 Mbit/s 为单位的带宽创建链路；
+	 *
+	 * @param delayMillis
+	 * @param jitterMillis
+	 * @param megabitsPerSecond 带宽（Mbit/s），0 表示不限；
+	 * @param dropRate
+	 * @return
+	 */
+	public static LinkProfile of(double delayMillis, double jitterMillis, double megabitsPerSecond, double dropRate) {
+		return new LinkProfile((long) (delayMillis * 1000), (long) (jitterMillis * 1000),
+				(long) (megabitsPerSecond * 1000 * 1000 / 8), dropRate);
+	}
+
+	public long getDelayMicros() {
+		return delayMicros;
+	}
+
+	public long getJitterMicros() {
+		return jitterMicros;
+	}
+
+	/**
+	 * 带宽（字节/秒）；0 表示不限；
+	 *
+	 * @return
+	 */
+	public long getBandwidth() {
+		return bandwidth;
+	}
+
+	public double getDropRate() {
+		return dropRate;
+	}
+
+	/**
+	 * 以指定的长度传输消息所需的时间（纳秒）；
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	long transmissionNanos(int bytes) {
+		return bandwidth == 0 ? 0 : (long) (bytes * 1000000000.0 / bandwidth);
+	}
+
+	@Override
+	public String toString() {
+		return "Link[delay=" + delayMicros + "us, jitter=" + jitterMicros + "us, bandwidth=" + bandwidth
+				+ "B/s, drop=" + dropRate + "]";
+	}
+
+}
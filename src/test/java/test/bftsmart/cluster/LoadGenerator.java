@@ -0,0 +1,252 @@
+package test.bftsmart.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bftsmart.communication.client.ReplyListener;
+import bftsmart.tom.AsynchServiceProxy;
+import bftsmart.tom.RequestContext;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.metrics.LatencyHistogram;
+
+/**
+ * 进程内集群的负载生成器；
+ * <p>
+ *
+ * 支持两种模式：<br>
+ * 1. 闭环（{@link #runClosedLoop(long, TimeUnit)}）：每个客户端一个线程，收到上一个请求的响应后立即发出下一个请求，
+ * 用于测量系统的最大吞吐；<br>
+ * 2. 开环（{@link #runOpenLoop(int, long, TimeUnit)}）：按固定速率发出请求，不等待响应，延迟从请求计划发出的时间开始计算，
+ * 发送滞后的时间也计入延迟（避免协调遗漏），用于测量指定负载下的延迟分布；
+ * <p>
+ *
+ * 请求收到 f+1 个内容一致的响应即视为完成；
+ *
+ */
+public class LoadGenerator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+
+	/**
+	 * 延迟直方图的子桶位数，相对误差不超过 1/2048；
+	 */
+	private static final int LATENCY_PRECISION_BITS = 11;
+
+	private final InProcessCluster cluster;
+
+	private final AsynchServiceProxy[] clients;
+
+	private final byte[] request;
+
+	private long drainTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * @param cluster     已启动的集群；
+	 * @param clients     客户端数；
+	 * @param requestSize 请求的长度（字节）；
+	 */
+	public LoadGenerator(InProcessCluster cluster, int clients, int requestSize) {
+		this.cluster = cluster;
+		this.clients = new AsynchServiceProxy[clients];
+		for (int i = 0; i < clients; i++) {
+			this.clients[i] = cluster.newClient();
+		}
+		this.request = new byte[requestSize];
+		new Random(requestSize).nextBytes(request);
+	}
+
+	/**
+	 * 设置请求的超时时长；闭环模式下超时的请求计为失败；
+	 *
+	 * @param seconds
+	 */
+	public void setRequestTimeout(int seconds) {
+		for (AsynchServiceProxy client : clients) {
+			client.setInvokeTimeout(seconds);
+		}
+		this.drainTimeoutNanos = TimeUnit.SECONDS.toNanos(seconds);
+	}
+
+	/**
+	 * 以闭环模式运行指定的时长；
+	 *
+	 * @param duration
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public LoadReport runClosedLoop(long duration, TimeUnit unit) throws InterruptedException {
+		LatencyHistogram latencies = new LatencyHistogram("latency", LATENCY_PRECISION_BITS);
+		AtomicLong sent = new AtomicLong();
+		AtomicLong failed = new AtomicLong();
+		long startTime = System.nanoTime();
+		long endTime = startTime + unit.toNanos(duration);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (AsynchServiceProxy client : clients) {
+			Thread thread = new Thread(() -> {
+				while (System.nanoTime() < endTime) {
+					long begin = System.nanoTime();
+					sent.incrementAndGet();
+					byte[] reply;
+					try {
+						reply = client.invokeOrdered(request);
+					} catch (RuntimeException e) {
+						LOGGER.debug("Request of client[" + client.getProcessId() + "] failed! --" + e.getMessage(), e);
+						reply = null;
+					}
+					if (reply == null) {
+						failed.incrementAndGet();
+					} else {
+						latencies.record(System.nanoTime() - begin);
+					}
+				}
+			}, "closed loop client " + client.getProcessId());
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return new LoadReport("closed-loop, clients=" + clients.length, System.nanoTime() - startTime, sent.get(),
+				failed.get(), latencies);
+	}
+
+	/**
+	 * 以开环模式按指定的速率运行指定的时长；结束发送后等待未完成的请求，超过请求超时时长仍未完成的计为失败；
+	 *
+	 * @param requestsPerSecond 每秒发出的请求数；
+	 * @param duration
+	 * @param unit
+	 * @return
+	 */
+	public LoadReport runOpenLoop(int requestsPerSecond, long duration, TimeUnit unit) {
+		if (requestsPerSecond <= 0) {
+			throw new IllegalArgumentException("Illegal request rate[" + requestsPerSecond + "]!");
+		}
+		LatencyHistogram latencies = new LatencyHistogram("latency", LATENCY_PRECISION_BITS);
+		int quorum = cluster.getF() + 1;
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+		long startTime = System.nanoTime();
+		long endTime = startTime + unit.toNanos(duration);
+
+		ConcurrentHashMap<PendingRequest, AsynchServiceProxy> pendings = new ConcurrentHashMap<PendingRequest, AsynchServiceProxy>();
+		long sent = 0;
+		for (long intended = startTime; intended < endTime; intended += intervalNanos) {
+			long wait = intended - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			AsynchServiceProxy client = clients[(int) (sent % clients.length)];
+			PendingRequest pending = new PendingRequest(client, intended, quorum, latencies, pendings);
+			pendings.put(pending, client);
+			pending.setOperationId(client.invokeAsynchRequest(request, pending, TOMMessageType.ORDERED_REQUEST));
+			sent++;
+		}
+		long sendingEnd = System.nanoTime();
+
+		// 等待在途的请求完成；
+		long drainDeadline = sendingEnd + drainTimeoutNanos;
+		while (!pendings.isEmpty() && System.nanoTime() < drainDeadline) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		long failed = 0;
+		for (PendingRequest pending : pendings.keySet()) {
+			if (pending.abandon()) {
+				failed++;
+			}
+		}
+		return new LoadReport("open-loop, rate=" + requestsPerSecond + "/s, clients=" + clients.length,
+				sendingEnd - startTime, sent, failed, latencies);
+	}
+
+	/**
+	 * 一个在途的开环请求，收集响应直到有 f+1 个一致的响应；
+	 */
+	private static class PendingRequest implements ReplyListener {
+
+		private final AsynchServiceProxy client;
+
+		private final long intendedTime;
+
+		private final int quorum;
+
+		private final LatencyHistogram latencies;
+
+		private final ConcurrentHashMap<PendingRequest, AsynchServiceProxy> pendings;
+
+		private final List<byte[]> replies = new ArrayList<byte[]>();
+
+		private int operationId = -1;
+
+		private boolean done = false;
+
+		private PendingRequest(AsynchServiceProxy client, long intendedTime, int quorum, LatencyHistogram latencies,
+				ConcurrentHashMap<PendingRequest, AsynchServiceProxy> pendings) {
+			this.client = client;
+			this.intendedTime = intendedTime;
+			this.quorum = quorum;
+			this.latencies = latencies;
+			this.pendings = pendings;
+		}
+
+		private synchronized void setOperationId(int operationId) {
+			this.operationId = operationId;
+		}
+
+		@Override
+		public synchronized void reset() {
+			replies.clear();
+		}
+
+		@Override
+		public synchronized void replyReceived(RequestContext context, TOMMessage reply) {
+			if (done) {
+				return;
+			}
+			byte[] content = reply.getContent();
+			int matched = 1;
+			for (byte[] received : replies) {
+				if (Arrays.equals(received, content)) {
+					matched++;
+				}
+			}
+			replies.add(content);
+			if (matched >= quorum) {
+				done = true;
+				latencies.record(System.nanoTime() - intendedTime);
+				client.cleanAsynchRequest(context.getOperationId());
+				pendings.remove(this);
+			}
+		}
+
+		/**
+		 * 放弃未完成的请求；
+		 *
+		 * @return 请求是否未完成；
+		 */
+		private synchronized boolean abandon() {
+			if (done) {
+				return false;
+			}
+			done = true;
+			if (operationId >= 0) {
+				client.cleanAsynchRequest(operationId);
+			}
+			pendings.remove(this);
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package test.bftsmart.cluster;
+
+import java.util.concurrent.TimeUnit;
+
+import bftsmart.tom.metrics.LatencyHistogram;
+
+/**
+ * 一次负载测试的结果；
+ *
+ */
+public class LoadReport {
+
+	private final String mode;
+
+	private final long durationNanos;
+
+	private final long sent;
+
+	private final long failed;
+
+	private final LatencyHistogram latencies;
+
+	LoadReport(String mode, long durationNanos, long sent, long failed, LatencyHistogram latencies) {
+		this.mode = mode;
+		this.durationNanos = durationNanos;
+		this.sent = sent;
+		this.failed = failed;
+		this.latencies = latencies;
+	}
+
+	/**
+	 * 负载模式；
+	 *
+	 * @return
+	 */
+	public String getMode() {
+		return mode;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * 发出的请求数；
+	 *
+	 * @return
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	/**
+	 * 完成（收到足够的一致响应）的请求数；
+	 *
+	 * @return
+	 */
+	public long getCompleted() {
+		return latencies.getCount();
+	}
+
+	/**
+	 * 超时或失败的请求数；
+	 *
+	 * @return
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * 吞吐量（完成的请求数/秒）；
+	 *
+	 * @return
+	 */
+	public double getThroughput() {
+		return durationNanos == 0 ? 0 : getCompleted() * 1000000000.0 / durationNanos;
+	}
+
+	/**
+	 * 完成的请求的延迟（纳秒）；
+	 *
+	 * @return
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[%s] sent=%d, completed=%d, failed=%d, throughput=%.1f ops/s, latency: %s", mode, sent,
+				getCompleted(), failed, getThroughput(), summary(TimeUnit.MILLISECONDS));
+	}
+
+	private String summary(TimeUnit unit) {
+		return String.format("mean=%.3f, p50=%.3f, p90=%.3f, p99=%.3f, p99.9=%.3f, max=%.3f (%s)",
+				convert(latencies.getMean(), unit), convert(latencies.getValueAtPercentile(50), unit),
+				convert(latencies.getValueAtPercentile(90), unit), convert(latencies.getValueAtPercentile(99), unit),
+				convert(latencies.getValueAtPercentile(99.9), unit), convert(latencies.getMax(), unit), unit);
+	}
+
+	private static double convert(double nanos, TimeUnit unit) {
+		return nanos / unit.toNanos(1);
+	}
+
+}
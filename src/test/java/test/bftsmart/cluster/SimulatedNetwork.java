@@ -0,0 +1,388 @@
+package test.bftsmart.cluster;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bftsmart.communication.IllegalMessageException;
+import bftsmart.communication.MessageQueue;
+import bftsmart.communication.SystemMessage;
+import bftsmart.communication.SystemMessageCodec;
+import bftsmart.communication.SystemMessageCodecRegistry;
+import bftsmart.communication.impl.queue.MessageQueueManager;
+import bftsmart.communication.impl.queue.QueueBasedCommunicationLayer;
+
+/**
+ * 进程内的模拟网络；
+ * <p>
+ *
+ * 每个节点通过 {@link #getEndpoint(int)} 得到的 {@link MessageQueueManager} 创建
+ * {@link QueueBasedCommunicationLayer}，节点之间的消息都经过模拟网络投递：<br>
+ * 1. 消息在发送时序列化并反序列化为一个新的对象，节点之间不共享消息对象，序列化的长度用于计算传输时间；<br>
+ * 2. 按链路的 {@link LinkProfile} 计算到达时间，由投递线程在到达时放入目标节点的接收队列；<br>
+ * 3. 可以使节点宕机（{@link #crash(int)}），或者把节点划分为互不连通的分区（{@link #partition(int[]...)}）；
+ * <p>
+ *
+ * 丢包和抖动由以指定种子初始化的随机数决定，相同的种子和相同的消息序列得到相同的网络行为；
+ *
+ */
+public class SimulatedNetwork implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SimulatedNetwork.class);
+
+	private final Random random;
+
+	private final Map<Integer, MessageQueue> inQueues = new ConcurrentHashMap<Integer, MessageQueue>();
+
+	private final Map<Long, LinkProfile> profiles = new ConcurrentHashMap<Long, LinkProfile>();
+
+	private final Map<Long, LinkState> links = new ConcurrentHashMap<Long, LinkState>();
+
+	private final Set<Integer> crashed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * 节点所属的分区；没有分区时为空；
+	 */
+	private volatile Map<Integer, Integer> partitions = new ConcurrentHashMap<Integer, Integer>();
+
+	private volatile LinkProfile defaultProfile = LinkProfile.IDEAL;
+
+	private final DelayQueue<Delivery> deliveries = new DelayQueue<Delivery>();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final AtomicLong sentMessages = new AtomicLong();
+
+	private final AtomicLong sentBytes = new AtomicLong();
+
+	private final AtomicLong droppedMessages = new AtomicLong();
+
+	private final Thread deliverer;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @param seed 丢包和抖动的随机种子；
+	 */
+	public SimulatedNetwork(long seed) {
+		this.random = new Random(seed);
+		this.deliverer = new Thread(this::deliver, "simulated network");
+		this.deliverer.setDaemon(true);
+		this.deliverer.start();
+	}
+
+	/**
+	 * 返回指定节点接入网络的端点；
+	 *
+	 * @param processId
+	 * @return
+	 */
+	public MessageQueueManager getEndpoint(int processId) {
+		return new Endpoint(processId);
+	}
+
+	/**
+	 * 设置未单独指定的链路的特性；
+	 *
+	 * @param profile
+	 */
+	public void setDefaultLink(LinkProfile profile) {
+		this.defaultProfile = profile;
+	}
+
+	/**
+	 * 设置从 from 到 to 的单向链路的特性；
+	 *
+	 * @param from
+	 * @param to
+	 * @param profile
+	 */
+	public void setLink(int from, int to, LinkProfile profile) {
+		profiles.put(linkKey(from, to), profile);
+	}
+
+	/**
+	 * 设置指定节点与其它节点之间双向链路的特性；
+	 *
+	 * @param processId
+	 * @param peers
+	 * @param profile
+	 */
+	public void setLinks(int processId, int[] peers, LinkProfile profile) {
+		for (int peer : peers) {
+			if (peer != processId) {
+				setLink(processId, peer, profile);
+				setLink(peer, processId, profile);
+			}
+		}
+	}
+
+	/**
+	 * 节点宕机：不再发出和接收任何消息，包括已经在途的消息；
+	 *
+	 * @param processId
+	 */
+	public void crash(int processId) {
+		crashed.add(processId);
+	}
+
+	/**
+	 * 恢复宕机的节点；
+	 *
+	 * @param processId
+	 */
+	public void recover(int processId) {
+		crashed.remove(processId);
+	}
+
+	public boolean isCrashed(int processId) {
+		return crashed.contains(processId);
+	}
+
+	/**
+	 * 把节点划分为互不连通的分区；未列出的节点与所有节点连通；
+	 *
+	 * @param groups
+	 */
+	public void partition(int[]... groups) {
+		Map<Integer, Integer> newPartitions = new ConcurrentHashMap<Integer, Integer>();
+		for (int i = 0; i < groups.length; i++) {
+			for (int id : groups[i]) {
+				newPartitions.put(id, i);
+			}
+		}
+		this.partitions = newPartitions;
+	}
+
+	/**
+	 * 消除分区；
+	 */
+	public void heal() {
+		this.partitions = new ConcurrentHashMap<Integer, Integer>();
+	}
+
+	public long getSentMessages() {
+		return sentMessages.get();
+	}
+
+	public long getSentBytes() {
+		return sentBytes.get();
+	}
+
+	public long getDroppedMessages() {
+		return droppedMessages.get();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		deliverer.interrupt();
+		deliveries.clear();
+	}
+
+	private boolean isConnected(int from, int to) {
+		if (crashed.contains(from) || crashed.contains(to)) {
+			return false;
+		}
+		Map<Integer, Integer> currentPartitions = partitions;
+		Integer fromGroup = currentPartitions.get(from);
+		Integer toGroup = currentPartitions.get(to);
+		return fromGroup == null || toGroup == null || fromGroup.equals(toGroup);
+	}
+
+	private void transmit(int from, int to, MessageQueue.SystemMessageType type, SystemMessage message) {
+		if (closed) {
+			return;
+		}
+		byte[] bytes = SystemMessageCodec.serialize(message);
+		sentMessages.incrementAndGet();
+		sentBytes.addAndGet(bytes.length);
+		if (!isConnected(from, to)) {
+			droppedMessages.incrementAndGet();
+			return;
+		}
+
+		LinkProfile profile = profiles.getOrDefault(linkKey(from, to), defaultProfile);
+		boolean drop;
+		long jitterNanos;
+		synchronized (random) {
+			drop = profile.getDropRate() > 0 && random.nextDouble() < profile.getDropRate();
+			jitterNanos = profile.getJitterMicros() == 0 ? 0
+					: TimeUnit.MICROSECONDS.toNanos((long) (random.nextDouble() * profile.getJitterMicros()));
+		}
+
+		long arrivalNanos;
+		LinkState link = links.computeIfAbsent(linkKey(from, to), key -> new LinkState());
+		synchronized (link) {
+			// 消息在链路上依次传输，丢失的消息同样占用带宽；
+			long now = System.nanoTime();
+			link.busyUntil = Math.max(now, link.busyUntil) + profile.transmissionNanos(bytes.length);
+			arrivalNanos = link.busyUntil + TimeUnit.MICROSECONDS.toNanos(profile.getDelayMicros()) + jitterNanos;
+			// 同一链路上的消息按发送的顺序到达；
+			arrivalNanos = Math.max(arrivalNanos, link.lastArrival);
+			link.lastArrival = arrivalNanos;
+		}
+		if (drop) {
+			droppedMessages.incrementAndGet();
+			return;
+		}
+
+		SystemMessage copy;
+		try {
+			copy = SystemMessageCodecRegistry.getDefault().deserialize(bytes, 0, bytes.length);
+		} catch (IllegalMessageException e) {
+			throw new IllegalStateException("Error occurred while copying message! --" + e.getMessage(), e);
+		}
+		// 模拟网络的链路是可信的，与环回连接一致；
+		copy.authenticated = true;
+		deliveries.put(new Delivery(arrivalNanos, sequence.incrementAndGet(), from, to, type, copy));
+	}
+
+	private void deliver() {
+		while (!closed) {
+			Delivery delivery;
+			try {
+				delivery = deliveries.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (!isConnected(delivery.from, delivery.to)) {
+				droppedMessages.incrementAndGet();
+				continue;
+			}
+			MessageQueue queue = inQueues.get(delivery.to);
+			if (queue == null) {
+				droppedMessages.incrementAndGet();
+				continue;
+			}
+			try {
+				queue.put(delivery.type, delivery.message);
+			} catch (InterruptedException e) {
+				if (closed) {
+					return;
+				}
+			} catch (RuntimeException e) {
+				LOGGER.warn("Error occurred while delivering message from " + delivery.from + " to " + delivery.to
+						+ "! --" + e.getMessage(), e);
+			}
+		}
+	}
+
+	private static long linkKey(int from, int to) {
+		return ((long) from << 32) | (to & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * 节点接入网络的端点：注册节点的接收队列，并以经过模拟链路的队列代表其它节点；
+	 */
+	private class Endpoint extends MessageQueueManager {
+
+		private final int processId;
+
+		private Endpoint(int processId) {
+			this.processId = processId;
+		}
+
+		@Override
+		public MessageQueue getQueue(int remoteId) {
+			return new LinkQueue(processId, remoteId);
+		}
+
+		@Override
+		public void register(int id, MessageQueue queue) {
+			inQueues.put(id, queue);
+		}
+	}
+
+	/**
+	 * 代表一条出站链路的队列，只支持放入；
+	 */
+	private class LinkQueue implements MessageQueue {
+
+		private final int from;
+
+		private final int to;
+
+		private LinkQueue(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean offer(SystemMessageType type, SystemMessage sm) {
+			transmit(from, to, type, sm);
+			return true;
+		}
+
+		@Override
+		public void put(SystemMessageType type, SystemMessage sm) {
+			transmit(from, to, type, sm);
+		}
+
+		@Override
+		public SystemMessage poll(SystemMessageType type, long timeout, TimeUnit unit) {
+			throw new UnsupportedOperationException("Link[" + from + " -> " + to + "] is write only!");
+		}
+
+		@Override
+		public SystemMessage take(SystemMessageType type) {
+			throw new UnsupportedOperationException("Link[" + from + " -> " + to + "] is write only!");
+		}
+	}
+
+	private static class LinkState {
+
+		private long busyUntil = Long.MIN_VALUE;
+
+		private long lastArrival = Long.MIN_VALUE;
+	}
+
+	private static class Delivery implements Delayed {
+
+		private final long arrivalNanos;
+
+		private final long sequence;
+
+		private final int from;
+
+		private final int to;
+
+		private final MessageQueue.SystemMessageType type;
+
+		private final SystemMessage message;
+
+		private Delivery(long arrivalNanos, long sequence, int from, int to, MessageQueue.SystemMessageType type,
+				SystemMessage message) {
+			this.arrivalNanos = arrivalNanos;
+			this.sequence = sequence;
+			this.from = from;
+			this.to = to;
+			this.type = type;
+			this.message = message;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(arrivalNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			Delivery other = (Delivery) o;
+			if (arrivalNanos != other.arrivalNanos) {
+				return arrivalNanos - other.arrivalNanos < 0 ? -1 : 1;
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+}
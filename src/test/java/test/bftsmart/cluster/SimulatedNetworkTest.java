@@ -0,0 +1,105 @@
+package test.bftsmart.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import bftsmart.communication.MessageQueue;
+import bftsmart.communication.MessageQueue.SystemMessageType;
+import bftsmart.communication.impl.MessageQueueFactory;
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.MessageFactory;
+
+public class SimulatedNetworkTest {
+
+	@Test
+	public void testDelayAndOrder() throws InterruptedException {
+		try (SimulatedNetwork network = new SimulatedNetwork(1)) {
+			network.setDefaultLink(LinkProfile.of(50, 20, 0, 0));
+			MessageQueue inQueue = register(network, 1);
+			MessageQueue link = network.getEndpoint(0).getQueue(1);
+
+			long startTime = System.nanoTime();
+			for (int i = 0; i < 10; i++) {
+				link.put(SystemMessageType.CONSENSUS, newMessage(0, i));
+			}
+			// 抖动不会打乱同一链路上消息的顺序；
+			for (int i = 0; i < 10; i++) {
+				ConsensusMessage message = (ConsensusMessage) inQueue.poll(SystemMessageType.CONSENSUS, 5,
+						TimeUnit.SECONDS);
+				assertEquals(i, message.getNumber());
+				assertEquals(0, message.getSender());
+			}
+			assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(50));
+			assertEquals(10, network.getSentMessages());
+			assertEquals(0, network.getDroppedMessages());
+		}
+	}
+
+	@Test
+	public void testCrashAndPartition() throws InterruptedException {
+		try (SimulatedNetwork network = new SimulatedNetwork(1)) {
+			MessageQueue inQueue1 = register(network, 1);
+			MessageQueue inQueue2 = register(network, 2);
+
+			network.crash(1);
+			network.getEndpoint(0).getQueue(1).put(SystemMessageType.CONSENSUS, newMessage(0, 1));
+			assertNull(inQueue1.poll(SystemMessageType.CONSENSUS, 200, TimeUnit.MILLISECONDS));
+			network.recover(1);
+			network.getEndpoint(0).getQueue(1).put(SystemMessageType.CONSENSUS, newMessage(0, 2));
+			assertEquals(2, ((ConsensusMessage) inQueue1.poll(SystemMessageType.CONSENSUS, 5, TimeUnit.SECONDS))
+					.getNumber());
+
+			network.partition(new int[] { 0, 1 }, new int[] { 2 });
+			network.getEndpoint(0).getQueue(2).put(SystemMessageType.CONSENSUS, newMessage(0, 3));
+			network.getEndpoint(0).getQueue(1).put(SystemMessageType.CONSENSUS, newMessage(0, 4));
+			assertEquals(4, ((ConsensusMessage) inQueue1.poll(SystemMessageType.CONSENSUS, 5, TimeUnit.SECONDS))
+					.getNumber());
+			assertNull(inQueue2.poll(SystemMessageType.CONSENSUS, 200, TimeUnit.MILLISECONDS));
+			network.heal();
+			network.getEndpoint(0).getQueue(2).put(SystemMessageType.CONSENSUS, newMessage(0, 5));
+			assertEquals(5, ((ConsensusMessage) inQueue2.poll(SystemMessageType.CONSENSUS, 5, TimeUnit.SECONDS))
+					.getNumber());
+
+			assertEquals(2, network.getDroppedMessages());
+		}
+	}
+
+	@Test
+	public void testDropIsDeterministic() throws InterruptedException {
+		assertEquals(countDelivered(42), countDelivered(42));
+	}
+
+	private static int countDelivered(long seed) throws InterruptedException {
+		try (SimulatedNetwork network = new SimulatedNetwork(seed)) {
+			network.setDefaultLink(LinkProfile.of(0, 0, 0, 0.3));
+			MessageQueue inQueue = register(network, 1);
+			MessageQueue link = network.getEndpoint(0).getQueue(1);
+			for (int i = 0; i < 200; i++) {
+				link.put(SystemMessageType.CONSENSUS, newMessage(0, i));
+			}
+			int delivered = 0;
+			while (inQueue.poll(SystemMessageType.CONSENSUS, 200, TimeUnit.MILLISECONDS) != null) {
+				delivered++;
+			}
+			assertEquals(200, delivered + network.getDroppedMessages());
+			assertTrue(delivered > 100 && delivered < 180);
+			return delivered;
+		}
+	}
+
+	private static MessageQueue register(SimulatedNetwork network, int processId) {
+		MessageQueue queue = MessageQueueFactory.newMessageQueue(MessageQueue.QueueDirection.IN, 1024);
+		network.getEndpoint(processId).register(processId, queue);
+		return queue;
+	}
+
+	private static ConsensusMessage newMessage(int sender, int number) {
+		return new ConsensusMessage(MessageFactory.PROPOSE, number, 0, sender, new byte[] { 1, 2, 3 });
+	}
+
+}
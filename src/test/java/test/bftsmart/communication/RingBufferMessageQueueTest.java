@@ -0,0 +1,197 @@
+package test.bftsmart.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import bftsmart.communication.MessageQueue;
+import bftsmart.communication.MessageQueue.SystemMessageType;
+import bftsmart.communication.SystemMessage;
+import bftsmart.communication.impl.MessageQueueFactory;
+import bftsmart.communication.impl.MpscRingBuffer;
+import bftsmart.communication.impl.RingBufferMessageQueue;
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.MessageFactory;
+import bftsmart.tom.leaderchange.HeartBeatMessage;
+import bftsmart.tom.leaderchange.LCMessage;
+
+public class RingBufferMessageQueueTest {
+
+	@Test
+	public void testRingBuffer() throws InterruptedException {
+		MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(5);
+		assertEquals(8, ring.capacity());
+		for (int i = 0; i < 8; i++) {
+			assertTrue(ring.offer(i));
+		}
+		assertFalse(ring.offer(8));
+		assertEquals(8, ring.size());
+		assertEquals(0, ring.poll().intValue());
+		assertTrue(ring.offer(8));
+
+		List<Integer> drained = new ArrayList<Integer>();
+		assertEquals(8, ring.drain(drained::add, 100));
+		for (int i = 0; i < 8; i++) {
+			assertEquals(i + 1, drained.get(i).intValue());
+		}
+		assertNull(ring.poll());
+
+		// 多个生产者并发写入，每个生产者的元素保持顺序，且不丢失；
+		final int producers = 4;
+		final int count = 20000;
+		MpscRingBuffer<long[]> buffer = new MpscRingBuffer<long[]>(64);
+		CountDownLatch latch = new CountDownLatch(producers);
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			new Thread(() -> {
+				for (int i = 0; i < count; i++) {
+					long[] element = new long[] { producer, i };
+					while (!buffer.offer(element)) {
+						Thread.yield();
+					}
+				}
+				latch.countDown();
+			}).start();
+		}
+		long[] expected = new long[producers];
+		int total = 0;
+		while (total < producers * count) {
+			long[] element = buffer.poll();
+			if (element == null) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals(expected[(int) element[0]]++, element[1]);
+			total++;
+		}
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertNull(buffer.poll());
+	}
+
+	@Test
+	public void testBackpressure() throws InterruptedException {
+		MessageQueue queue = MessageQueueFactory.newMessageQueue(MessageQueue.QueueDirection.IN, 8,
+				MessageQueueFactory.RING_QUEUE);
+		assertTrue(queue instanceof RingBufferMessageQueue);
+		RingBufferMessageQueue ringQueue = (RingBufferMessageQueue) queue;
+
+		TestFlowControl flowOfPeer1 = new TestFlowControl();
+		TestFlowControl flowOfPeer2 = new TestFlowControl();
+		for (int i = 0; i < 3; i++) {
+			assertTrue(queue.offer(SystemMessageType.CONSENSUS, newConsensusMessage(i, 1), flowOfPeer1));
+		}
+		assertEquals(0, flowOfPeer1.paused.get());
+
+		// 节点的积压达到容量的 1/2 时只暂停该节点；
+		assertTrue(queue.offer(SystemMessageType.CONSENSUS, newConsensusMessage(3, 1), flowOfPeer1));
+		assertEquals(1, flowOfPeer1.paused.get());
+		assertTrue(ringQueue.isPaused(1));
+		for (int i = 0; i < 3; i++) {
+			assertTrue(queue.offer(SystemMessageType.CONSENSUS, newConsensusMessage(100 + i, 2), flowOfPeer2));
+		}
+		assertEquals(0, flowOfPeer2.paused.get());
+		assertFalse(ringQueue.isPaused(2));
+
+		// 暂停生效之前到达的共识消息超出容量也不丢弃；
+		for (int i = 4; i < 10; i++) {
+			assertTrue(queue.offer(SystemMessageType.CONSENSUS, newConsensusMessage(i, 1), flowOfPeer1));
+		}
+		assertEquals(1, flowOfPeer1.paused.get());
+		assertEquals(13, ringQueue.size(SystemMessageType.CONSENSUS));
+		// 不提供流量控制时，队列满则拒绝；
+		assertFalse(queue.offer(SystemMessageType.CONSENSUS, newConsensusMessage(200, 3)));
+		// 心跳和领导者切换消息不受影响；
+		assertTrue(queue.offer(SystemMessageType.HEART, new HeartBeatMessage(1, 0, 0), flowOfPeer1));
+		assertTrue(queue.offer(SystemMessageType.LC, new LCMessage(), flowOfPeer1));
+		assertEquals(1, flowOfPeer1.paused.get());
+
+		// 全部的消息按到达的顺序取出，节点的积压降到容量的 1/4 以下时恢复该节点；
+		List<SystemMessage> drained = new ArrayList<SystemMessage>();
+		assertEquals(13, queue.drain(SystemMessageType.CONSENSUS, message -> {
+			drained.add(message);
+			if (((ConsensusMessage) message).getNumber() == 6) {
+				assertTrue(ringQueue.isPaused(1));
+			}
+		}, 100));
+		int[] expected = { 0, 1, 2, 3, 100, 101, 102, 4, 5, 6, 7, 8, 9 };
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], ((ConsensusMessage) drained.get(i)).getNumber());
+		}
+		assertEquals(1, flowOfPeer1.resumed.get());
+		assertFalse(ringQueue.isPaused(1));
+		assertEquals(0, flowOfPeer2.resumed.get());
+		assertNull(queue.poll(SystemMessageType.CONSENSUS, 10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testPriority() throws InterruptedException {
+		RingBufferMessageQueue queue = new RingBufferMessageQueue(1024);
+
+		// 心跳消息总是放入队列，不受背压的影响；
+		TestFlowControl flowControl = new TestFlowControl();
+		for (int i = 0; i < 2000; i++) {
+			assertTrue(queue.offer(SystemMessageType.HEART, new HeartBeatMessage(1, 0, i), flowControl));
+		}
+		assertEquals(0, flowControl.paused.get());
+		assertEquals(2000, queue.size(SystemMessageType.HEART));
+
+		// 有未处理的心跳消息时，共识消息的处理线程让出，但不会被饿死；
+		ConsensusMessage consensusMessage = newConsensusMessage(1);
+		queue.offer(SystemMessageType.CONSENSUS, consensusMessage);
+		long startTime = System.nanoTime();
+		assertSame(consensusMessage, queue.poll(SystemMessageType.CONSENSUS, 0, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - startTime >= TimeUnit.MICROSECONDS.toNanos(500));
+
+		for (int i = 0; i < 2000; i++) {
+			HeartBeatMessage message = (HeartBeatMessage) queue.take(SystemMessageType.HEART);
+			assertEquals(i, message.getLastRegency());
+		}
+
+		// 阻塞等待的处理线程在消息到达时被唤醒；
+		Thread producer = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+			}
+			queue.offer(SystemMessageType.CONSENSUS, consensusMessage);
+		});
+		producer.start();
+		assertSame(consensusMessage, queue.poll(SystemMessageType.CONSENSUS, 5, TimeUnit.SECONDS));
+		producer.join();
+	}
+
+	private static ConsensusMessage newConsensusMessage(int number) {
+		return newConsensusMessage(number, 1);
+	}
+
+	private static ConsensusMessage newConsensusMessage(int number, int sender) {
+		return new ConsensusMessage(MessageFactory.PROPOSE, number, 0, sender, new byte[] { 1, 2, 3 });
+	}
+
+	private static class TestFlowControl implements MessageQueue.FlowControl {
+
+		private final AtomicInteger paused = new AtomicInteger();
+
+		private final AtomicInteger resumed = new AtomicInteger();
+
+		@Override
+		public void pause() {
+			paused.incrementAndGet();
+		}
+
+		@Override
+		public void resume() {
+			resumed.incrementAndGet();
+		}
+	}
+}
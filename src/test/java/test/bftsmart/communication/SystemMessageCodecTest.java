@@ -2,8 +2,12 @@ package test.bftsmart.communication;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.security.PublicKey;
+import java.util.HashMap;
 import java.util.Properties;
 
 import org.junit.Test;
@@ -13,12 +17,21 @@ import bftsmart.communication.IllegalMessageException;
 import bftsmart.communication.MacKey;
 import bftsmart.communication.MacKeyGenerator;
 import bftsmart.communication.MessageAuthenticationException;
+import bftsmart.communication.SystemMessage;
 import bftsmart.communication.SystemMessageCodec;
+import bftsmart.communication.SystemMessageCodecRegistry;
 import bftsmart.consensus.messages.ConsensusMessage;
 import bftsmart.consensus.messages.MessageFactory;
 import bftsmart.reconfiguration.util.HostsConfig;
 import bftsmart.reconfiguration.util.TOMConfiguration;
+import bftsmart.reconfiguration.views.NodeNetwork;
+import bftsmart.reconfiguration.views.View;
+import bftsmart.statemanagement.strategy.StandardSMMessage;
 import bftsmart.tom.ReplicaConfiguration;
+import bftsmart.tom.leaderchange.HeartBeatMessage;
+import bftsmart.tom.leaderchange.LCMessage;
+import bftsmart.tom.leaderchange.LeaderRegency;
+import bftsmart.tom.leaderchange.LeaderRequestMessage;
 import utils.security.RandomUtils;
 
 public class SystemMessageCodecTest {
@@ -64,6 +77,130 @@ public class SystemMessageCodecTest {
 		assertMessageEquals(message1, decodedMessageOfNode0);
 	}
 	
+	@Test
+	public void testEncodeSerialized() throws MessageAuthenticationException, IllegalMessageException {
+		final int[] viewProcessIds = { 0, 1, 2, 3 };
+
+		ReplicaConfiguration conf0 = generateConfig(0, viewProcessIds);
+		MacKeyGenerator macKeyGen0 = new MacKeyGenerator(conf0.getRSAPublicKey(0), conf0.getRSAPrivateKey(),
+				conf0.getDHG(), conf0.getDHP());
+		ReplicaConfiguration conf1 = generateConfig(1, viewProcessIds);
+		MacKeyGenerator macKeyGen1 = new MacKeyGenerator(conf0.getRSAPublicKey(0), conf1.getRSAPrivateKey(),
+				conf1.getDHG(), conf1.getDHP());
+
+		MacKey macKey_0_to_1 = macKeyGen0.exchange(macKeyGen1.getDHPubKeyCertificate());
+		MacKey macKey_1_to_0 = macKeyGen1.exchange(macKeyGen0.getDHPubKeyCertificate());
+
+		SystemMessageCodec messageCodec0 = new SystemMessageCodec(true, macKey_0_to_1);
+		SystemMessageCodec messageCodec1 = new SystemMessageCodec(true, macKey_1_to_0);
+
+		// 广播时消息只序列化一次，分段编码的结果与直接编码一致；
+		ConsensusMessage message0 = createTestMessage(0);
+		byte[] serializedMessage = SystemMessageCodec.serialize(message0);
+
+		byte[] encodedBytes = messageCodec0.encode(message0);
+		assertArrayEquals(encodedBytes, messageCodec0.encodeSerialized(serializedMessage));
+
+		byte[] header = messageCodec0.encodeHeader(serializedMessage);
+		byte[] trailer = messageCodec0.encodeMacTrailer(serializedMessage);
+		byte[] composedBytes = new byte[header.length + serializedMessage.length + trailer.length];
+		System.arraycopy(header, 0, composedBytes, 0, header.length);
+		System.arraycopy(serializedMessage, 0, composedBytes, header.length, serializedMessage.length);
+		System.arraycopy(trailer, 0, composedBytes, header.length + serializedMessage.length, trailer.length);
+		assertArrayEquals(encodedBytes, composedBytes);
+
+		ConsensusMessage decodedMessage = (ConsensusMessage) messageCodec1.decode(composedBytes);
+		assertMessageEquals(message0, decodedMessage);
+	}
+
+	@Test
+	public void testBinaryFormat() throws IllegalMessageException {
+		SystemMessageCodecRegistry registry = SystemMessageCodecRegistry.getDefault();
+
+		// 共识消息：包括原始提议值的哈希和 MAC 向量证明；
+		ConsensusMessage accept = new MessageFactory(2).createAccept(10, 1, RandomUtils.generateRandomBytes(32));
+		accept.setOrigPropValue(RandomUtils.generateRandomBytes(32));
+		HashMap<Integer, byte[]> macVector = new HashMap<>();
+		macVector.put(0, RandomUtils.generateRandomBytes(32));
+		macVector.put(1, RandomUtils.generateRandomBytes(32));
+		accept.setProof(macVector);
+
+		byte[] bytes = registry.serialize(accept, SystemMessageCodecRegistry.BINARY_FORMAT);
+		assertEquals(SystemMessageCodecRegistry.BINARY_FORMAT, SystemMessageCodecRegistry.formatOf(bytes, 0));
+		assertTrue(bytes.length < registry.serialize(accept, SystemMessageCodecRegistry.LEGACY_FORMAT).length);
+
+		ConsensusMessage decodedAccept = (ConsensusMessage) registry.deserialize(bytes, 0, bytes.length);
+		assertMessageEquals(accept, decodedAccept);
+		assertEquals(accept.getType(), decodedAccept.getType());
+		assertArrayEquals(accept.getOrigPropValue(), decodedAccept.getOrigPropValue());
+		@SuppressWarnings("unchecked")
+		HashMap<Integer, byte[]> decodedMacVector = (HashMap<Integer, byte[]>) decodedAccept.getProof();
+		assertEquals(2, decodedMacVector.size());
+		assertArrayEquals(macVector.get(1), decodedMacVector.get(1));
+
+		// 心跳消息；
+		HeartBeatMessage heartBeat = new HeartBeatMessage(3, 1, 7);
+		HeartBeatMessage decodedHeartBeat = (HeartBeatMessage) roundTrip(registry, heartBeat);
+		assertEquals(3, decodedHeartBeat.getSender());
+		assertEquals(1, decodedHeartBeat.getLeader());
+		assertEquals(7, decodedHeartBeat.getLastRegency());
+
+		// 领导者切换消息；
+		View view = new View(2, new int[] { 3, 0, 2, 1 }, 1, new NodeNetwork[4]);
+		byte[] payload = RandomUtils.generateRandomBytes(64);
+		LCMessage stop = LCMessage.createSTOP(1, new LeaderRegency(2, 5), view, payload);
+		LCMessage decodedStop = (LCMessage) roundTrip(registry, stop);
+		assertEquals(stop.getType(), decodedStop.getType());
+		assertEquals(2, decodedStop.getLeader());
+		assertEquals(5, decodedStop.getReg());
+		assertTrue(decodedStop.matchesView(view));
+		assertArrayEquals(payload, decodedStop.getPayload());
+
+		// 状态传输消息：应用状态为空；
+		StandardSMMessage smMessage = new StandardSMMessage(1, 100, 3, 2, null, view, 5, 2);
+		StandardSMMessage decodedSMMessage = (StandardSMMessage) roundTrip(registry, smMessage);
+		assertEquals(100, decodedSMMessage.getCID());
+		assertEquals(2, decodedSMMessage.getReplica());
+		assertNull(decodedSMMessage.getState());
+		assertEquals(view.getId(), decodedSMMessage.getView().getId());
+
+		// 未注册的消息类型采用 Java 对象序列化；
+		bytes = registry.serialize(new LeaderRequestMessage(1, 2), SystemMessageCodecRegistry.BINARY_FORMAT);
+		assertEquals(SystemMessageCodecRegistry.LEGACY_FORMAT, SystemMessageCodecRegistry.formatOf(bytes, 0));
+		assertEquals(1, registry.deserialize(bytes, 0, bytes.length).getSender());
+	}
+
+	@Test
+	public void testFormatNegotiation() throws MessageAuthenticationException, IllegalMessageException {
+		assertEquals(SystemMessageCodecRegistry.LEGACY_FORMAT, SystemMessageCodecRegistry.negotiate(1, 0));
+		assertEquals(SystemMessageCodecRegistry.LEGACY_FORMAT, SystemMessageCodecRegistry.negotiate(0, 1));
+		assertEquals(SystemMessageCodecRegistry.BINARY_FORMAT, SystemMessageCodecRegistry.negotiate(1, 1));
+		// 远端支持更高的版本时，采用本地支持的最高版本；
+		assertEquals(SystemMessageCodecRegistry.LATEST_FORMAT, SystemMessageCodecRegistry.negotiate(9, 9));
+
+		// 与旧版本节点的连接采用 Java 对象序列化，且不能复用以二进制格式共享的序列化消息；
+		SystemMessageCodec legacyCodec = new SystemMessageCodec();
+		legacyCodec.setFormat(SystemMessageCodecRegistry.LEGACY_FORMAT);
+		SystemMessageCodec binaryCodec = new SystemMessageCodec();
+
+		ConsensusMessage message = createTestMessage(0);
+		byte[] serializedMessage = SystemMessageCodec.serialize(message);
+		assertTrue(binaryCodec.isCompatible(serializedMessage));
+		assertFalse(legacyCodec.isCompatible(serializedMessage));
+		assertTrue(legacyCodec.isCompatible(SystemMessageCodec.serialize(message, SystemMessageCodecRegistry.LEGACY_FORMAT)));
+
+		// 解码时自动识别格式；
+		assertMessageEquals(message, (ConsensusMessage) binaryCodec.decode(legacyCodec.encode(message)));
+		assertMessageEquals(message, (ConsensusMessage) legacyCodec.decode(binaryCodec.encode(message)));
+	}
+
+	private static SystemMessage roundTrip(SystemMessageCodecRegistry registry, SystemMessage message)
+			throws IllegalMessageException {
+		byte[] bytes = registry.serialize(message, SystemMessageCodecRegistry.BINARY_FORMAT);
+		assertEquals(SystemMessageCodecRegistry.BINARY_FORMAT, SystemMessageCodecRegistry.formatOf(bytes, 0));
+		return registry.deserialize(bytes, 0, bytes.length);
+	}
+
 	private void assertMessageEquals(ConsensusMessage expecedMessage, ConsensusMessage actualMessage) {
 		assertEquals(expecedMessage.getNumber(), actualMessage.getNumber());
 		assertEquals(expecedMessage.getEpoch(), actualMessage.getEpoch());
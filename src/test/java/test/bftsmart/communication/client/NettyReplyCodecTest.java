@@ -0,0 +1,82 @@
+package test.bftsmart.communication.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+import bftsmart.communication.client.netty.NettyClientServerSession;
+import bftsmart.communication.client.netty.NettyTOMMessageDecoder;
+import bftsmart.communication.client.netty.NettyTOMMessageEncoder;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.TOMUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+public class NettyReplyCodecTest {
+
+	@Test
+	public void testRepliesWrittenTogether() throws Exception {
+		testReplies(false);
+	}
+
+	@Test
+	public void testRepliesWithMAC() throws Exception {
+		testReplies(true);
+	}
+
+	private void testReplies(boolean useMAC) throws Exception {
+		Map<Integer, NettyClientServerSession> serverSessions = new HashMap<Integer, NettyClientServerSession>();
+		Map<Integer, NettyClientServerSession> clientSessions = new HashMap<Integer, NettyClientServerSession>();
+		int macLength = 0;
+		if (useMAC) {
+			SecretKeySpec key = new SecretKeySpec(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, "HmacSHA256");
+			Mac serverMac = Mac.getInstance("HmacSHA256");
+			serverMac.init(key);
+			Mac clientMac = Mac.getInstance("HmacSHA256");
+			clientMac.init(key);
+			macLength = serverMac.getMacLength();
+			// 节点以与客户端的会话发送，客户端以与节点的会话验证；
+			serverSessions.put(1000, new NettyClientServerSession(null, serverMac, null, 0));
+			clientSessions.put(0, new NettyClientServerSession(null, null, clientMac, 0));
+		}
+		EmbeddedChannel server = new EmbeddedChannel(
+				new NettyTOMMessageEncoder(false, serverSessions, macLength, new ReentrantReadWriteLock(),
+						TOMUtil.VARIABLE_SIGNATURE_SIZE, useMAC));
+		EmbeddedChannel client = new EmbeddedChannel(new NettyTOMMessageDecoder(true, clientSessions, macLength, null,
+				new ReentrantReadWriteLock(), TOMUtil.VARIABLE_SIGNATURE_SIZE, useMAC));
+
+		for (int i = 0; i < 3; i++) {
+			TOMMessage reply = new TOMMessage(0, 1, i, i, new byte[] { (byte) i, 2, 3 }, null, 0,
+					TOMMessageType.ORDERED_REQUEST);
+			reply.destination = 1000;
+			server.write(reply);
+		}
+		// 写入的响应在刷新前不发出；
+		assertNull(server.readOutbound());
+		server.flush();
+
+		ByteBuf data;
+		while ((data = server.readOutbound()) != null) {
+			client.writeInbound(data);
+		}
+		for (int i = 0; i < 3; i++) {
+			TOMMessage received = client.readInbound();
+			assertEquals(0, received.getSender());
+			assertEquals(i, received.getSequence());
+			assertArrayEquals(new byte[] { (byte) i, 2, 3 }, received.getContent());
+		}
+		assertTrue(client.inboundMessages().isEmpty());
+	}
+
+}
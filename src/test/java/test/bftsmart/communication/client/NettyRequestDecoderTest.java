@@ -0,0 +1,227 @@
+package test.bftsmart.communication.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.junit.Test;
+
+import bftsmart.communication.client.netty.NettyClientServerSession;
+import bftsmart.communication.client.netty.NettyTOMMessageDecoder;
+import bftsmart.communication.client.netty.NettyTOMMessageEncoder;
+import bftsmart.reconfiguration.ViewTopology;
+import bftsmart.reconfiguration.util.HostsConfig;
+import bftsmart.reconfiguration.util.TOMConfiguration;
+import bftsmart.reconfiguration.views.NodeNetwork;
+import bftsmart.reconfiguration.views.View;
+import bftsmart.tom.ReplicaConfiguration;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.TOMUtil;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+
+public class NettyRequestDecoderTest {
+
+	private static final int SERVER_ID = 0;
+
+	private static final int CLIENT_ID = 1000;
+
+	@Test
+	public void testDecodeRequestsOfNewClient() throws Exception {
+		decodeRequestsOfNewClient(TOMUtil.VARIABLE_SIGNATURE_SIZE);
+	}
+
+	@Test
+	public void testDecodeRequestsWithLegacySignatureSize() throws Exception {
+		// 旧版本的格式不带签名长度，签名的长度固定；
+		decodeRequestsOfNewClient(3);
+	}
+
+	private void decodeRequestsOfNewClient(int signatureLength) throws Exception {
+		TOMConfiguration conf = newConfiguration();
+		Map<Integer, NettyClientServerSession> serverSessions = new ConcurrentHashMap<Integer, NettyClientServerSession>();
+		Map<Integer, NettyClientServerSession> clientSessions = new ConcurrentHashMap<Integer, NettyClientServerSession>();
+		// 客户端以与节点相同的方式生成 MAC 密钥；
+		clientSessions.put(SERVER_ID, new NettyClientServerSession(null, newMac(conf), null, SERVER_ID));
+		int macLength = newMac(conf).getMacLength();
+
+		BlockingQueue<TOMMessage> received = new LinkedBlockingQueue<TOMMessage>();
+		DefaultEventLoopGroup group = new DefaultEventLoopGroup(2);
+		try {
+			LocalAddress address = new LocalAddress("request-decoder-test-" + signatureLength);
+			new ServerBootstrap().group(group).channel(LocalServerChannel.class)
+					.childHandler(new ChannelInitializer<LocalChannel>() {
+						@Override
+						protected void initChannel(LocalChannel ch) {
+							ch.pipeline().addLast(new NettyTOMMessageDecoder(false, serverSessions, macLength,
+									new StaticTopology(conf), new ReentrantReadWriteLock(), signatureLength, true));
+							ch.pipeline().addLast(new SimpleChannelInboundHandler<TOMMessage>() {
+								@Override
+								protected void channelRead0(ChannelHandlerContext ctx, TOMMessage msg) {
+									received.add(msg);
+								}
+							});
+						}
+					}).bind(address).sync();
+			Channel client = new Bootstrap().group(group).channel(LocalChannel.class)
+					.handler(new NettyTOMMessageEncoder(true, clientSessions, macLength, new ReentrantReadWriteLock(),
+							signatureLength, true))
+					.connect(address).sync().channel();
+
+			// 会话建立之前发出的请求在会话建立之后按顺序交付；
+			int count = 20;
+			for (int i = 0; i < count; i++) {
+				client.writeAndFlush(newRequest(i, i % 2 == 0 ? null : new byte[] { (byte) i, 9, 9 }));
+			}
+			for (int i = 0; i < count; i++) {
+				TOMMessage request = received.poll(10, TimeUnit.SECONDS);
+				assertNotNull(request);
+				assertEquals(CLIENT_ID, request.getSender());
+				assertEquals(i, request.getSequence());
+				assertArrayEquals(new byte[] { (byte) i, 1, 2, 3 }, request.getContent());
+				assertArrayEquals(TOMMessage.messageToBytes(request), request.getSerializedMessage());
+				if (i % 2 == 0) {
+					assertFalse(request.signed);
+					assertNull(request.serializedMessageSignature);
+				} else {
+					assertTrue(request.signed);
+					assertArrayEquals(new byte[] { (byte) i, 9, 9 }, request.serializedMessageSignature);
+				}
+			}
+			assertTrue(serverSessions.containsKey(CLIENT_ID));
+
+			// MAC 错误的请求被丢弃；
+			clientSessions.put(SERVER_ID, new NettyClientServerSession(null, newMac(newConfiguration(), 1), null,
+					SERVER_ID));
+			client.writeAndFlush(newRequest(count, null)).sync();
+			clientSessions.put(SERVER_ID, new NettyClientServerSession(null, newMac(conf), null, SERVER_ID));
+			client.writeAndFlush(newRequest(count + 1, null));
+			assertEquals(count + 1, received.poll(10, TimeUnit.SECONDS).getSequence());
+			client.close().sync();
+		} finally {
+			group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+		}
+	}
+
+	private static TOMMessage newRequest(int sequence, byte[] signature) {
+		TOMMessage request = new TOMMessage(CLIENT_ID, 0, sequence, sequence, new byte[] { (byte) sequence, 1, 2, 3 },
+				null, 0, TOMMessageType.ORDERED_REQUEST);
+		request.serializedMessage = TOMMessage.messageToBytes(request);
+		request.destination = SERVER_ID;
+		if (signature != null) {
+			request.serializedMessageSignature = signature;
+			request.signed = true;
+		}
+		return request;
+	}
+
+	private static Mac newMac(TOMConfiguration conf) throws Exception {
+		return newMac(conf, CLIENT_ID);
+	}
+
+	private static Mac newMac(TOMConfiguration conf, int clientId) throws Exception {
+		SecretKeyFactory fac = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
+		PBEKeySpec spec = new PBEKeySpec((clientId + ":" + SERVER_ID).toCharArray());
+		SecretKey authKey = fac.generateSecret(spec);
+		Mac mac = Mac.getInstance(conf.getHmacAlgorithm());
+		mac.init(authKey);
+		return mac;
+	}
+
+	private static TOMConfiguration newConfiguration() {
+		HostsConfig hosts = new HostsConfig();
+		hosts.add(SERVER_ID, "localhost", 0, 0);
+		return new TOMConfiguration(SERVER_ID, new Properties(), hosts);
+	}
+
+	private static class StaticTopology implements ViewTopology {
+
+		private final TOMConfiguration conf;
+
+		private StaticTopology(TOMConfiguration conf) {
+			this.conf = conf;
+		}
+
+		@Override
+		public int getCurrentProcessId() {
+			return SERVER_ID;
+		}
+
+		@Override
+		public View getCurrentView() {
+			return null;
+		}
+
+		@Override
+		public View getLastView() {
+			return null;
+		}
+
+		@Override
+		public NodeNetwork getRemoteAddress(int id) {
+			return null;
+		}
+
+		@Override
+		public InetSocketAddress getRemoteSocketAddress(int id) {
+			return null;
+		}
+
+		@Override
+		public ReplicaConfiguration getStaticConf() {
+			return conf;
+		}
+
+		@Override
+		public int getCurrentViewId() {
+			return 0;
+		}
+
+		@Override
+		public int getCurrentViewF() {
+			return 0;
+		}
+
+		@Override
+		public int getCurrentViewN() {
+			return 1;
+		}
+
+		@Override
+		public int getCurrentViewPos(int id) {
+			return 0;
+		}
+
+		@Override
+		public int[] getCurrentViewProcesses() {
+			return new int[] { SERVER_ID };
+		}
+	}
+
+}
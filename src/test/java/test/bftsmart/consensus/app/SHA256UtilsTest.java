@@ -0,0 +1,109 @@
+package test.bftsmart.consensus.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import bftsmart.consensus.app.SHA256Utils;
+import utils.security.RandomUtils;
+
+public class SHA256UtilsTest {
+
+	@Test
+	public void testSlices() {
+		SHA256Utils md = new SHA256Utils();
+		byte[] data = RandomUtils.generateRandomBytes(10000);
+		byte[] expected = md.hash(Arrays.copyOfRange(data, 100, 9000));
+
+		assertEquals(32, expected.length);
+		assertArrayEquals(expected, md.hash(data, 100, 8900));
+
+		ByteBuffer heapBuffer = ByteBuffer.wrap(data, 100, 8900);
+		assertArrayEquals(expected, md.hash(heapBuffer));
+		// 不改变缓冲区的位置；
+		assertEquals(100, heapBuffer.position());
+
+		ByteBuffer directBuffer = ByteBuffer.allocateDirect(data.length);
+		directBuffer.put(data);
+		directBuffer.position(100);
+		directBuffer.limit(9000);
+		assertArrayEquals(expected, md.hash(directBuffer));
+
+		assertArrayEquals(expected, md.hash(ByteBuffer.wrap(data, 100, 4000), ByteBuffer.wrap(data, 4100, 4900)));
+	}
+
+	@Test
+	public void testConcurrentHash() throws Exception {
+		SHA256Utils md = new SHA256Utils();
+		byte[][] data = new byte[16][];
+		byte[][] expected = new byte[data.length][];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = RandomUtils.generateRandomBytes(1000 + i * 100);
+			expected[i] = md.hash(data[i]);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			@SuppressWarnings("unchecked")
+			Future<Boolean>[] results = new Future[data.length * 8];
+			for (int i = 0; i < results.length; i++) {
+				final int index = i % data.length;
+				results[i] = executor.submit(() -> {
+					for (int j = 0; j < 200; j++) {
+						if (!Arrays.equals(expected[index], md.hash(data[index]))) {
+							return false;
+						}
+					}
+					return true;
+				});
+			}
+			for (Future<Boolean> result : results) {
+				assertEquals(Boolean.TRUE, result.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testMerkleHash() {
+		SHA256Utils md = new SHA256Utils();
+		byte[] data = RandomUtils.generateRandomBytes(2500);
+
+		// 只有一个叶子时是叶子的哈希；
+		assertArrayEquals(leaf(md, data, 0, data.length), md.merkleHash(data, 4096));
+
+		// 3 个叶子：root = node(node(leaf0, leaf1), leaf2)；
+		byte[] leaf0 = leaf(md, data, 0, 1000);
+		byte[] leaf1 = leaf(md, data, 1000, 1000);
+		byte[] leaf2 = leaf(md, data, 2000, 500);
+		byte[] expected = node(md, node(md, leaf0, leaf1), leaf2);
+		assertArrayEquals(expected, md.merkleHash(data, 1000));
+		assertArrayEquals(expected, md.merkleHash(data, 1000));
+
+		assertFalse(Arrays.equals(md.hash(data), md.merkleHash(data, 1000)));
+	}
+
+	private static byte[] leaf(SHA256Utils md, byte[] data, int offset, int length) {
+		byte[] bytes = new byte[length + 1];
+		System.arraycopy(data, offset, bytes, 1, length);
+		return md.hash(bytes);
+	}
+
+	private static byte[] node(SHA256Utils md, byte[] left, byte[] right) {
+		byte[] bytes = new byte[1 + left.length + right.length];
+		bytes[0] = 1;
+		System.arraycopy(left, 0, bytes, 1, left.length);
+		System.arraycopy(right, 0, bytes, 1 + left.length, right.length);
+		return md.hash(bytes);
+	}
+}
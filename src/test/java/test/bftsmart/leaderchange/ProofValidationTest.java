@@ -0,0 +1,140 @@
+package test.bftsmart.leaderchange;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import bftsmart.consensus.app.SHA256Utils;
+import bftsmart.consensus.messages.ConsensusMessage;
+import bftsmart.consensus.messages.MessageFactory;
+import bftsmart.reconfiguration.ViewTopology;
+import bftsmart.reconfiguration.util.HostsConfig;
+import bftsmart.reconfiguration.util.TOMConfiguration;
+import bftsmart.reconfiguration.views.NodeNetwork;
+import bftsmart.reconfiguration.views.View;
+import bftsmart.tom.ReplicaConfiguration;
+import bftsmart.tom.core.TOMLayer;
+import bftsmart.tom.leaderchange.CertifiedDecision;
+import bftsmart.tom.leaderchange.LCManager;
+
+public class ProofValidationTest {
+
+	private static final int MERKLE_HASH_THRESHOLD = 1024;
+
+	@Test
+	public void testProofOfLargeDecisionWithMerkleHash() {
+		SHA256Utils md = new SHA256Utils();
+		LCManager lcManager = new LCManager(null, new StaticTopology(newConfiguration(MERKLE_HASH_THRESHOLD)), md);
+
+		// 超过阈值的决议以 merkle 树计算哈希，与普通的 SHA256 不同；
+		byte[] decision = new byte[600 * 1024];
+		new Random(7).nextBytes(decision);
+		byte[] hash = TOMLayer.computeHash(md, decision, MERKLE_HASH_THRESHOLD);
+		assertFalse(Arrays.equals(md.hash(decision), hash));
+
+		assertTrue(lcManager.hasValidProof(new CertifiedDecision(0, 5, decision, newProof(5, hash))));
+		// 证明中的哈希与决议不符；
+		assertFalse(lcManager.hasValidProof(new CertifiedDecision(0, 5, decision, newProof(5, md.hash(decision)))));
+
+		// 未超过阈值的决议仍以普通的 SHA256 计算哈希；
+		byte[] smallDecision = new byte[] { 1, 2, 3 };
+		assertTrue(lcManager.hasValidProof(
+				new CertifiedDecision(0, 6, smallDecision, newProof(6, md.hash(smallDecision)))));
+	}
+
+	private static Set<ConsensusMessage> newProof(int cid, byte[] hash) {
+		Set<ConsensusMessage> proof = new HashSet<ConsensusMessage>();
+		for (int sender = 0; sender < 3; sender++) {
+			ConsensusMessage accept = new ConsensusMessage(MessageFactory.ACCEPT, cid, 0, sender, hash);
+			accept.setOrigPropValue(hash);
+			accept.setProof(new HashMap<Integer, byte[]>());
+			proof.add(accept);
+		}
+		return proof;
+	}
+
+	private static TOMConfiguration newConfiguration(int merkleHashThreshold) {
+		HostsConfig hosts = new HostsConfig();
+		for (int i = 0; i < 4; i++) {
+			hosts.add(i, "localhost", 0, 0);
+		}
+		Properties properties = new Properties();
+		properties.setProperty("system.totalordermulticast.merkle_hash_threshold",
+				String.valueOf(merkleHashThreshold));
+		return new TOMConfiguration(0, properties, hosts);
+	}
+
+	private static class StaticTopology implements ViewTopology {
+
+		private final TOMConfiguration conf;
+
+		private StaticTopology(TOMConfiguration conf) {
+			this.conf = conf;
+		}
+
+		@Override
+		public int getCurrentProcessId() {
+			return 0;
+		}
+
+		@Override
+		public View getCurrentView() {
+			return null;
+		}
+
+		@Override
+		public View getLastView() {
+			return null;
+		}
+
+		@Override
+		public NodeNetwork getRemoteAddress(int id) {
+			return null;
+		}
+
+		@Override
+		public InetSocketAddress getRemoteSocketAddress(int id) {
+			return null;
+		}
+
+		@Override
+		public ReplicaConfiguration getStaticConf() {
+			return conf;
+		}
+
+		@Override
+		public int getCurrentViewId() {
+			return 0;
+		}
+
+		@Override
+		public int getCurrentViewF() {
+			return 1;
+		}
+
+		@Override
+		public int getCurrentViewN() {
+			return 4;
+		}
+
+		@Override
+		public int getCurrentViewPos(int id) {
+			return id;
+		}
+
+		@Override
+		public int[] getCurrentViewProcesses() {
+			return new int[] { 0, 1, 2, 3 };
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+package test.bftsmart.leaderchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.leaderchange.WatchedRequests;
+
+public class WatchedRequestsTest {
+
+	@Test
+	public void testTimeout() {
+		WatchedRequests watched = new WatchedRequests(10);
+
+		// 请求按接收时间分布在多个时间槽中，来自不同的客户端；
+		List<TOMMessage> requests = new ArrayList<TOMMessage>();
+		for (int i = 0; i < 100; i++) {
+			TOMMessage request = newRequest(100 - i % 3, i, 1000 + i * 5);
+			requests.add(request);
+			watched.watch(request);
+		}
+		assertEquals(100, watched.size());
+
+		List<TOMMessage> timeoutRequests = new ArrayList<TOMMessage>();
+		watched.collectTimeout(1000 + 50 * 5 + 2000, 2000, timeoutRequests);
+		assertEquals(50, timeoutRequests.size());
+		assertEquals(sequences(0, 50), sequencesOf(timeoutRequests));
+
+		// 以另一个实例（例如共识决定的批次中的请求）取消跟踪；
+		TOMMessage[] ordered = new TOMMessage[10];
+		for (int i = 0; i < ordered.length; i++) {
+			ordered[i] = newRequest(100 - i % 3, i, 0);
+		}
+		watched.unwatch(ordered);
+		assertEquals(90, watched.size());
+
+		timeoutRequests.clear();
+		watched.collectTimeout(1000 + 50 * 5 + 2000, 2000, timeoutRequests);
+		assertEquals(sequences(10, 50), sequencesOf(timeoutRequests));
+
+		// 更短的超时阈值；
+		timeoutRequests.clear();
+		watched.collectTimeout(1000 + 50 * 5 + 2000, 1800, timeoutRequests);
+		assertEquals(sequences(10, 90), sequencesOf(timeoutRequests));
+
+		watched.clear();
+		assertEquals(0, watched.size());
+		timeoutRequests.clear();
+		watched.collectTimeout(Long.MAX_VALUE, 0, timeoutRequests);
+		assertTrue(timeoutRequests.isEmpty());
+
+		// 清除之后可以继续跟踪；
+		watched.watch(requests.get(0));
+		watched.collectTimeout(Long.MAX_VALUE, 0, timeoutRequests);
+		assertEquals(1, timeoutRequests.size());
+	}
+
+	@Test
+	public void testConcurrentWatch() throws InterruptedException {
+		WatchedRequests watched = new WatchedRequests(1);
+		int threads = 4;
+		int count = 10000;
+		CountDownLatch latch = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final int client = t;
+			new Thread(() -> {
+				for (int i = 0; i < count; i++) {
+					TOMMessage request = newRequest(client, i, System.currentTimeMillis());
+					watched.watch(request);
+					if (i % 2 == 0) {
+						watched.unwatch(request);
+					}
+				}
+				latch.countDown();
+			}).start();
+		}
+		// 检查超时时回收空的时间槽，与加入请求并发进行；
+		List<TOMMessage> timeoutRequests = new ArrayList<TOMMessage>();
+		while (!latch.await(1, TimeUnit.MILLISECONDS)) {
+			timeoutRequests.clear();
+			watched.collectTimeout(System.currentTimeMillis(), 0, timeoutRequests);
+		}
+		assertEquals(threads * count / 2, watched.size());
+
+		timeoutRequests.clear();
+		watched.collectTimeout(Long.MAX_VALUE, 0, timeoutRequests);
+		assertEquals(threads * count / 2, timeoutRequests.size());
+	}
+
+	private static Set<Integer> sequences(int from, int to) {
+		Set<Integer> sequences = new HashSet<Integer>();
+		for (int i = from; i < to; i++) {
+			sequences.add(i);
+		}
+		return sequences;
+	}
+
+	private static Set<Integer> sequencesOf(List<TOMMessage> requests) {
+		Set<Integer> sequences = new HashSet<Integer>();
+		for (TOMMessage request : requests) {
+			sequences.add(request.getSequence());
+		}
+		assertEquals(requests.size(), sequences.size());
+		return sequences;
+	}
+
+	private static TOMMessage newRequest(int client, int sequence, long receptionTime) {
+		TOMMessage request = new TOMMessage(client, 0, sequence, sequence, new byte[] { 1 }, null, 0,
+				TOMMessageType.ORDERED_REQUEST);
+		request.receptionTime = receptionTime;
+		return request;
+	}
+}
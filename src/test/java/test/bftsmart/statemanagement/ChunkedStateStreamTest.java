@@ -0,0 +1,193 @@
+package test.bftsmart.statemanagement;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bftsmart.statemanagement.ApplicationState;
+import bftsmart.statemanagement.strategy.durability.CSTState;
+import bftsmart.statemanagement.strategy.durability.ChunkedStateStream;
+import bftsmart.tom.server.defaultservices.CheckpointFile;
+import bftsmart.tom.server.defaultservices.FileRecoverer;
+
+public class ChunkedStateStreamTest {
+
+	@Test
+	public void testTransferFromMemory() throws Exception {
+		byte[] state = randomBytes(10 * 1024 + 17);
+		CSTState sent = new CSTState(state, new byte[] { 1, 2 }, null, null, null, null, 9, 20, 1);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ChunkedStateStream.write(sent, out, 1024);
+		// 发送之后状态仍保留在原对象中；
+		assertArrayEquals(state, sent.getSerializedState());
+
+		CSTState received = (CSTState) ChunkedStateStream.read(new ByteArrayInputStream(out.toByteArray()));
+		assertArrayEquals(state, received.getSerializedState());
+		assertArrayEquals(new byte[] { 1, 2 }, received.getHashCheckpoint());
+		assertEquals(9, received.getCheckpointCID());
+		assertEquals(20, received.getLastCID());
+	}
+
+	@Test
+	public void testTransferWithoutState() throws Exception {
+		CSTState sent = new CSTState(null, null, null, new byte[] { 3 }, null, null, 9, 20, 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ChunkedStateStream.write(sent, out);
+
+		ApplicationState received = ChunkedStateStream.read(new ByteArrayInputStream(out.toByteArray()));
+		assertNull(received.getSerializedState());
+		assertArrayEquals(new byte[] { 3 }, ((CSTState) received).getHashLogLower());
+	}
+
+	@Test
+	public void testTransferFromCheckpointFile() throws Exception {
+		byte[] state = randomBytes(100 * 1024 + 3);
+		byte[] hash = new byte[] { 5, 6, 7 };
+		File file = File.createTempFile("bftsmart-checkpoint-", ".ckp");
+		try {
+			CheckpointFile.write(file, state, hash, 99, false);
+
+			// 与原有的检查点读取方式兼容；
+			FileRecoverer recoverer = new FileRecoverer(0, file.getParent());
+			assertArrayEquals(state, recoverer.getCkpState(file.getPath()));
+			assertArrayEquals(hash, recoverer.getCkpStateHash());
+			assertEquals(99, recoverer.getCkpLastConsensusId());
+
+			CSTState sent = new CSTState(null, null, null, null, null, null, 99, 120, 1);
+			sent.setCheckpoint(CheckpointFile.open(file));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ChunkedStateStream.write(sent, out, 4096);
+
+			ApplicationState received = ChunkedStateStream.read(new ByteArrayInputStream(out.toByteArray()));
+			assertArrayEquals(state, received.getSerializedState());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCorruptedChunk() throws Exception {
+		byte[] state = randomBytes(8 * 1024);
+		CSTState sent = new CSTState(state, null, null, null, null, null, 9, 20, 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ChunkedStateStream.write(sent, out, 1024);
+
+		byte[] stream = out.toByteArray();
+		stream[stream.length - 40 - 512] ^= 0x01;
+		try {
+			ChunkedStateStream.read(new ByteArrayInputStream(stream));
+			fail("The corrupted chunk should be detected!");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("does not match"));
+		}
+	}
+
+	@Test
+	public void testVersionHeader() throws Exception {
+		CSTState sent = new CSTState(randomBytes(100), null, null, null, null, null, 9, 20, 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ChunkedStateStream.write(sent, out, 1024);
+
+		byte[] stream = out.toByteArray();
+		ByteBuffer header = ByteBuffer.wrap(stream);
+		assertEquals(ChunkedStateStream.MAGIC, header.getInt());
+		assertEquals(ChunkedStateStream.VERSION, header.get());
+
+		// 不支持的版本；
+		stream[4] = (byte) (ChunkedStateStream.VERSION + 1);
+		try {
+			ChunkedStateStream.read(new ByteArrayInputStream(stream));
+			fail("The unsupported version should be detected!");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("Unsupported version"));
+		}
+	}
+
+	@Test
+	public void testReadLegacyStream() throws Exception {
+		// 旧版本整体 Java 序列化的状态；
+		byte[] state = randomBytes(3 * 1024);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+			objectOut.writeObject(new CSTState(state, new byte[] { 1 }, null, null, null, null, 9, 20, 1));
+		}
+
+		CSTState received = (CSTState) ChunkedStateStream.read(new ByteArrayInputStream(out.toByteArray()));
+		assertArrayEquals(state, received.getSerializedState());
+		assertArrayEquals(new byte[] { 1 }, received.getHashCheckpoint());
+		assertEquals(20, received.getLastCID());
+	}
+
+	@Test
+	public void testWriteLegacyStream() throws Exception {
+		byte[] state = randomBytes(5 * 1024);
+		byte[] hash = new byte[] { 4 };
+		File file = File.createTempFile("bftsmart-checkpoint-", ".ckp");
+		try {
+			CheckpointFile.write(file, state, hash, 9, false);
+			CSTState sent = new CSTState(null, null, null, null, null, null, 9, 20, 1);
+			sent.setCheckpoint(CheckpointFile.open(file));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ChunkedStateStream.writeLegacy(sent, out);
+			// 状态不保留在原对象中；
+			assertNull(sent.getSerializedState());
+
+			// 未升级的节点整体反序列化旧版本格式的状态；
+			byte[] stream = out.toByteArray();
+			CSTState received;
+			try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(stream))) {
+				received = (CSTState) objectIn.readObject();
+			}
+			assertArrayEquals(state, received.getSerializedState());
+			assertEquals(20, received.getLastCID());
+
+			received = (CSTState) ChunkedStateStream.read(new ByteArrayInputStream(stream));
+			assertArrayEquals(state, received.getSerializedState());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testDiscardCheckpoint() throws Exception {
+		File file = File.createTempFile("bftsmart-checkpoint-", ".ckp");
+		try {
+			CheckpointFile.write(file, randomBytes(1024), new byte[] { 1 }, 9, false);
+			CheckpointFile checkpoint = CheckpointFile.open(file);
+			CSTState state = new CSTState(null, null, null, null, null, null, 9, 20, 1);
+			state.setCheckpoint(checkpoint);
+
+			// 放弃发送时关闭检查点文件；
+			ChunkedStateStream.discard(state);
+			try {
+				checkpoint.map(0, 1024);
+				fail("The checkpoint should be closed!");
+			} catch (ClosedChannelException e) {
+			}
+			ChunkedStateStream.discard(state);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+}
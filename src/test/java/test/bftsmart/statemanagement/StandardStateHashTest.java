@@ -0,0 +1,38 @@
+package test.bftsmart.statemanagement;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bftsmart.consensus.app.SHA256Utils;
+import bftsmart.statemanagement.ApplicationState;
+import bftsmart.statemanagement.strategy.StandardStateManager;
+import bftsmart.tom.core.TOMLayer;
+import bftsmart.tom.server.defaultservices.DefaultApplicationState;
+import bftsmart.tom.util.TOMUtil;
+
+public class StandardStateHashTest {
+
+	@Test
+	public void testStateHashAboveMerkleThreshold() throws Exception {
+		int merkleHashThreshold = 1024;
+		byte[] state = new byte[16 * 1024 + 3];
+		new Random(7).nextBytes(state);
+
+		// 其它节点发送的状态哈希是 DefaultRecoverable 计算的 SHA-256；
+		ApplicationState otherReplicaState = new DefaultApplicationState(null, 9, 20, null,
+				TOMUtil.computeHash(state), 1);
+		ApplicationState received = new DefaultApplicationState(null, 9, 20, state, TOMUtil.computeHash(state), 2);
+
+		// 状态大小超过阈值时，提议值的哈希是默克尔根，不能用于校验状态；
+		byte[] proposalHash = TOMLayer.computeHash(new SHA256Utils(), state, merkleHashThreshold);
+		assertFalse(Arrays.equals(proposalHash, otherReplicaState.getStateHash()));
+
+		assertArrayEquals(otherReplicaState.getStateHash(),
+				StandardStateManager.computeStateHash(received.getSerializedState()));
+	}
+}
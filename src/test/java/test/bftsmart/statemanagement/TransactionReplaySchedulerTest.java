@@ -0,0 +1,153 @@
+package test.bftsmart.statemanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import bftsmart.statemanagement.TransactionReplayState;
+import bftsmart.statemanagement.strategy.TransactionReplayScheduler;
+import bftsmart.tom.server.defaultservices.CommandsInfo;
+import bftsmart.tom.server.defaultservices.DefaultTransactionReplayState;
+
+public class TransactionReplaySchedulerTest {
+
+	@Test
+	public void testReplayFromMultipleSenders() throws Exception {
+		int startCid = 10;
+		int endCid = 10 + 5 * TransactionReplayScheduler.CHUNK_SIZE + 123;
+		int deadSender = 3;
+
+		ExecutorService network = Executors.newFixedThreadPool(4);
+		Set<Integer> targets = ConcurrentHashMap.newKeySet();
+		AtomicInteger maxPending = new AtomicInteger();
+		List<Integer> applied = Collections.synchronizedList(new ArrayList<Integer>());
+		CountDownLatch completed = new CountDownLatch(1);
+		TransactionReplayScheduler[] scheduler = new TransactionReplayScheduler[1];
+
+		scheduler[0] = new TransactionReplayScheduler(startCid, endCid, new int[] { 1, 2, deadSender }, 200,
+				new TransactionReplayScheduler.ReplayHandler() {
+
+					@Override
+					public void request(int target, int chunkStartCid, int chunkEndCid) {
+						targets.add(target);
+						maxPending.accumulateAndGet(scheduler[0].getPendingChunks(), Math::max);
+						if (target == deadSender) {
+							// 失效的节点不响应，由超时重试改向其它节点请求；
+							return;
+						}
+						// 响应以乱序到达；
+						network.execute(() -> {
+							sleep((chunkStartCid * 7) % 20);
+							scheduler[0].onReply(target, chunkStartCid, chunkEndCid,
+									newState(chunkStartCid, chunkEndCid));
+						});
+					}
+
+					@Override
+					public void apply(TransactionReplayState state) {
+						for (int cid = state.getStartCid(); cid <= state.getEndCid(); cid++) {
+							applied.add(cid);
+						}
+					}
+
+					@Override
+					public void complete(int lastCid) {
+						completed.countDown();
+					}
+
+					@Override
+					public void fail(int chunkStartCid, Throwable error) {
+					}
+				});
+		scheduler[0].start();
+
+		assertTrue(completed.await(10, TimeUnit.SECONDS));
+		network.shutdownNow();
+
+		assertEquals(endCid - startCid + 1, applied.size());
+		for (int i = 0; i < applied.size(); i++) {
+			assertEquals(startCid + i, applied.get(i).intValue());
+		}
+		assertEquals(3, targets.size());
+		assertTrue(maxPending.get() <= TransactionReplayScheduler.CHUNKS_PER_SENDER * 3);
+		assertTrue(scheduler[0].isStopped());
+	}
+
+	@Test
+	public void testApplyFailure() throws Exception {
+		int startCid = 0;
+		int endCid = 3 * TransactionReplayScheduler.CHUNK_SIZE - 1;
+		int failedCid = TransactionReplayScheduler.CHUNK_SIZE;
+
+		AtomicInteger applied = new AtomicInteger();
+		AtomicInteger completed = new AtomicInteger();
+		AtomicInteger failedChunk = new AtomicInteger(-1);
+		CountDownLatch failed = new CountDownLatch(1);
+		TransactionReplayScheduler[] scheduler = new TransactionReplayScheduler[1];
+
+		scheduler[0] = new TransactionReplayScheduler(startCid, endCid, new int[] { 1 }, 10000,
+				new TransactionReplayScheduler.ReplayHandler() {
+
+					@Override
+					public void request(int target, int chunkStartCid, int chunkEndCid) {
+						scheduler[0].onReply(target, chunkStartCid, chunkEndCid, newState(chunkStartCid, chunkEndCid));
+					}
+
+					@Override
+					public void apply(TransactionReplayState state) {
+						if (state.getStartCid() == failedCid) {
+							throw new IllegalStateException("Broken state!");
+						}
+						applied.incrementAndGet();
+					}
+
+					@Override
+					public void complete(int lastCid) {
+						completed.incrementAndGet();
+					}
+
+					@Override
+					public void fail(int chunkStartCid, Throwable error) {
+						failedChunk.set(chunkStartCid);
+						failed.countDown();
+					}
+				});
+		scheduler[0].start();
+
+		// 执行失败时停止重放并通知处理者，后续的分段不再执行；
+		assertTrue(failed.await(10, TimeUnit.SECONDS));
+		assertEquals(failedCid, failedChunk.get());
+		assertTrue(scheduler[0].isStopped());
+		sleep(100);
+		assertEquals(1, applied.get());
+		assertEquals(0, completed.get());
+	}
+
+	private static TransactionReplayState newState(int startCid, int endCid) {
+		CommandsInfo[] batches = new CommandsInfo[endCid - startCid + 1];
+		for (int i = 0; i < batches.length; i++) {
+			batches[i] = new CommandsInfo(new byte[][] { { (byte) i } });
+		}
+		return new DefaultTransactionReplayState(batches, startCid, endCid, 1);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
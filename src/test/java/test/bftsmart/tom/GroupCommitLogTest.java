@@ -0,0 +1,167 @@
+package test.bftsmart.tom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import bftsmart.tom.server.defaultservices.CommandsInfo;
+import bftsmart.tom.server.defaultservices.FileRecoverer;
+import bftsmart.tom.server.defaultservices.GroupCommitLog;
+import bftsmart.tom.server.defaultservices.GroupCommitLog.Durability;
+
+public class GroupCommitLogTest {
+
+	@Test
+	public void testAppendAndRecover() throws Exception {
+		for (Durability durability : Durability.values()) {
+			File file = File.createTempFile("bftsmart-group-commit-", ".log");
+			try {
+				GroupCommitLog log = new GroupCommitLog(file, durability);
+				List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+				for (int cid = 0; cid < 100; cid++) {
+					futures.add(log.append(cid, serialize(cid)));
+				}
+				for (int cid = 0; cid < 100; cid++) {
+					assertEquals(cid, futures.get(cid).get(5, TimeUnit.SECONDS).intValue());
+				}
+				log.close();
+
+				// 重新打开时追加在已有的记录之后；
+				log = new GroupCommitLog(file, durability);
+				log.append(100, serialize(100));
+				log.flush();
+				assertTrue(log.getPosition() > 0);
+				log.close();
+
+				FileRecoverer recoverer = new FileRecoverer(0, file.getParent());
+				CommandsInfo[] batches = recoverer.getLogState(0, file.getPath());
+				assertEquals(101, batches.length);
+				for (int cid = 0; cid <= 100; cid++) {
+					assertArrayEquals(new byte[] { (byte) cid }, batches[cid].commands[0]);
+				}
+				assertEquals(100, recoverer.getLogLastConsensusId());
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testRoll() throws Exception {
+		for (Durability durability : Durability.values()) {
+			File first = File.createTempFile("bftsmart-group-commit-", ".log");
+			File second = File.createTempFile("bftsmart-group-commit-", ".log");
+			try {
+				GroupCommitLog log = new GroupCommitLog(first, durability);
+				for (int cid = 0; cid < 50; cid++) {
+					log.append(cid, serialize(cid));
+				}
+				// 切换之前追加的记录写入原来的文件，之后的记录写入新的文件；
+				log.roll(second);
+				CompletableFuture<Integer> last = null;
+				for (int cid = 50; cid < 80; cid++) {
+					last = log.append(cid, serialize(cid));
+				}
+				assertEquals(79, last.get(5, TimeUnit.SECONDS).intValue());
+				log.close();
+
+				FileRecoverer recoverer = new FileRecoverer(0, first.getParent());
+				CommandsInfo[] batches = recoverer.getLogState(0, first.getPath());
+				assertEquals(50, batches.length);
+				assertEquals(49, recoverer.getLogLastConsensusId());
+				batches = recoverer.getLogState(0, second.getPath());
+				assertEquals(30, batches.length);
+				assertArrayEquals(new byte[] { (byte) 50 }, batches[0].commands[0]);
+				assertEquals(79, recoverer.getLogLastConsensusId());
+			} finally {
+				first.delete();
+				second.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testWriteFailure() throws Exception {
+		// 切换到 /dev/full 注入写入失败（写入时返回 ENOSPC）；
+		File full = new File("/dev/full");
+		Assume.assumeTrue(full.exists() && full.canWrite());
+		for (Durability durability : Durability.values()) {
+			File first = File.createTempFile("bftsmart-group-commit-", ".log");
+			File second = File.createTempFile("bftsmart-group-commit-", ".log");
+			try {
+				GroupCommitLog log = new GroupCommitLog(first, durability);
+				for (int cid = 0; cid < 10; cid++) {
+					log.append(cid, serialize(cid));
+				}
+				log.roll(full);
+				CompletableFuture<Integer> failed = log.append(10, serialize(10));
+				assertFailed(failed);
+
+				// 写入失败之后不再接受新的记录，日志中不会出现空缺；
+				assertFailed(log.append(11, serialize(11)));
+				try {
+					log.roll(second);
+					fail("Roll after a write failure!");
+				} catch (IOException e) {
+				}
+				try {
+					log.flush();
+					fail("Flush after a write failure!");
+				} catch (IOException e) {
+				}
+				try {
+					log.close();
+					fail("Close after a write failure without error!");
+				} catch (IOException e) {
+				}
+				assertEquals(0, second.length());
+
+				FileRecoverer recoverer = new FileRecoverer(0, first.getParent());
+				CommandsInfo[] batches = recoverer.getLogState(0, first.getPath());
+				assertEquals(10, batches.length);
+				assertEquals(9, recoverer.getLogLastConsensusId());
+			} finally {
+				first.delete();
+				second.delete();
+			}
+		}
+	}
+
+	@Test
+	public void testDurabilityOf() {
+		assertEquals(Durability.EVERY_CID, Durability.of("every-cid"));
+		assertEquals(Durability.BATCH, Durability.of(" Batch "));
+		assertEquals(Durability.NONE, Durability.of("none"));
+	}
+
+	private static void assertFailed(CompletableFuture<Integer> future) throws Exception {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("The record is written!");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	private static byte[] serialize(int cid) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(new CommandsInfo(new byte[][] { { (byte) cid } }));
+		out.flush();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,159 @@
+package test.bftsmart.tom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import bftsmart.communication.CommunicationLayer;
+import bftsmart.communication.ServerCommunicationSystem;
+import bftsmart.communication.SystemMessage;
+import bftsmart.communication.client.ClientCommunicationServerSide;
+import bftsmart.communication.client.RequestReceiver;
+import bftsmart.tom.core.ReplyManager;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import utils.concurrent.AsyncFuture;
+
+public class ReplyManagerTest {
+
+	@Test
+	public void testRepliesOfBatchesKeepOrder() throws InterruptedException {
+		int clients = 10;
+		int rounds = 50;
+		RecordingClientCommunication clientCommunication = new RecordingClientCommunication(clients * rounds);
+		ReplyManager replyManager = new ReplyManager(4, new FakeServerCommunicationSystem(clientCommunication));
+
+		for (int round = 0; round < rounds; round++) {
+			List<TOMMessage> batch = new ArrayList<TOMMessage>();
+			for (int client = 0; client < clients; client++) {
+				batch.add(newRequest(1000 + client, round));
+			}
+			replyManager.send(batch);
+		}
+		assertTrue(clientCommunication.await());
+
+		// 每个客户端按发送顺序收到全部响应；
+		for (int client = 0; client < clients; client++) {
+			List<Integer> sequences = clientCommunication.sequences.get(1000 + client);
+			assertEquals(rounds, sequences.size());
+			for (int round = 0; round < rounds; round++) {
+				assertEquals(round, (int) sequences.get(round));
+			}
+		}
+	}
+
+	@Test
+	public void testSingleRepliesKeepOrder() throws InterruptedException {
+		RecordingClientCommunication clientCommunication = new RecordingClientCommunication(300);
+		ReplyManager replyManager = new ReplyManager(3, new FakeServerCommunicationSystem(clientCommunication));
+		for (int i = 0; i < 100; i++) {
+			for (int client = 0; client < 3; client++) {
+				replyManager.send(newRequest(2000 + client, i));
+			}
+		}
+		assertTrue(clientCommunication.await());
+		for (int client = 0; client < 3; client++) {
+			List<Integer> sequences = clientCommunication.sequences.get(2000 + client);
+			for (int i = 0; i < 100; i++) {
+				assertEquals(i, (int) sequences.get(i));
+			}
+		}
+	}
+
+	private static TOMMessage newRequest(int clientId, int sequence) {
+		TOMMessage request = new TOMMessage(clientId, 0, sequence, sequence, new byte[] { 1 }, null, 0,
+				TOMMessageType.ORDERED_REQUEST);
+		request.reply = new TOMMessage(0, 0, sequence, sequence, new byte[] { 2 }, null, 0,
+				TOMMessageType.ORDERED_REQUEST);
+		return request;
+	}
+
+	private static class RecordingClientCommunication implements ClientCommunicationServerSide {
+
+		private final Map<Integer, List<Integer>> sequences = new ConcurrentHashMap<Integer, List<Integer>>();
+
+		private final CountDownLatch latch;
+
+		private RecordingClientCommunication(int expectedReplies) {
+			this.latch = new CountDownLatch(expectedReplies);
+		}
+
+		private boolean await() throws InterruptedException {
+			return latch.await(10, TimeUnit.SECONDS);
+		}
+
+		@Override
+		public void send(int[] targets, TOMMessage sm, boolean serializeClassHeaders) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void send(int target, List<TOMMessage> sms) {
+			List<Integer> received = sequences.computeIfAbsent(target, k -> new CopyOnWriteArrayList<Integer>());
+			for (TOMMessage sm : sms) {
+				received.add(sm.getSequence());
+				latch.countDown();
+			}
+		}
+
+		@Override
+		public int[] getClients() {
+			return new int[0];
+		}
+
+		@Override
+		public void setRequestReceiver(RequestReceiver requestReceiver) {
+		}
+
+		@Override
+		public void shutdown() {
+		}
+	}
+
+	private static class FakeServerCommunicationSystem implements ServerCommunicationSystem {
+
+		private final ClientCommunicationServerSide clientCommunication;
+
+		private FakeServerCommunicationSystem(ClientCommunicationServerSide clientCommunication) {
+			this.clientCommunication = clientCommunication;
+		}
+
+		@Override
+		public void updateServersConnections() {
+		}
+
+		@Override
+		public void send(int[] targets, SystemMessage sm) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public CommunicationLayer getServersCommunication() {
+			return null;
+		}
+
+		@Override
+		public ClientCommunicationServerSide getClientCommunication() {
+			return clientCommunication;
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		@Override
+		public AsyncFuture<Void> start() {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+package test.bftsmart.tom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import bftsmart.tom.server.defaultservices.CommandsInfo;
+import bftsmart.tom.server.defaultservices.GroupCommitLog.Durability;
+import bftsmart.tom.server.defaultservices.SegmentedCommandLog;
+
+public class SegmentedCommandLogTest {
+
+	@Test
+	public void testReadAndTruncate() throws Exception {
+		File dir = Files.createTempDirectory("bftsmart-segmented-log-").toFile();
+		try {
+			// 段的容量很小，每个段只容纳少量记录；
+			SegmentedCommandLog log = new SegmentedCommandLog(dir, 1024, Durability.NONE);
+			for (int cid = 0; cid < 100; cid++) {
+				log.append(cid, serialize(cid));
+			}
+			assertTrue(log.getSegmentCount() > 1);
+			assertEquals(0, log.getFirstCid());
+			assertEquals(99, log.getLastCid());
+
+			CommandsInfo[] batches = log.read(40, 59);
+			assertEquals(20, batches.length);
+			for (int i = 0; i < batches.length; i++) {
+				assertArrayEquals(new byte[] { (byte) (40 + i) }, batches[i].commands[0]);
+			}
+			assertEquals(0, log.read(100, 120).length);
+			assertEquals(5, log.read(95, 120).length);
+
+			// 检查点之前的段被整个删除，检查点之后的记录保留；
+			log.roll();
+			log.truncateBefore(50);
+			assertTrue(log.getFirstCid() <= 50);
+			assertEquals(99, log.getLastCid());
+			for (int cid = 100; cid < 110; cid++) {
+				log.append(cid, serialize(cid));
+			}
+			log.truncateBefore(100);
+			assertEquals(100, log.getFirstCid());
+			log.close();
+
+			// 重新打开时从记录头重建索引，并在已有的记录之后追加；
+			log = new SegmentedCommandLog(dir, 1024, Durability.BATCH);
+			assertEquals(100, log.getFirstCid());
+			assertEquals(109, log.getLastCid());
+			log.append(110, serialize(110));
+			assertEquals(110, log.getLastCid());
+			batches = log.read(100, 110);
+			assertEquals(11, batches.length);
+			assertArrayEquals(new byte[] { (byte) 110 }, batches[10].commands[0]);
+			assertNull(log.read(99));
+			log.close();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testAppendOutOfOrder() throws Exception {
+		File dir = Files.createTempDirectory("bftsmart-segmented-log-").toFile();
+		SegmentedCommandLog log = new SegmentedCommandLog(dir, 1024, Durability.NONE);
+		try {
+			log.append(10, serialize(10));
+			try {
+				log.append(10, serialize(10));
+				fail("Appending a consensus id not greater than the last one should be rejected!");
+			} catch (IllegalArgumentException e) {
+			}
+			assertEquals(10, log.getLastCid());
+		} finally {
+			log.close();
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testSegmentsShareAppender() throws Exception {
+		File dir = Files.createTempDirectory("bftsmart-segmented-log-").toFile();
+		SegmentedCommandLog log = new SegmentedCommandLog(dir, 1024, Durability.BATCH);
+		try {
+			log.append(0, serialize(0)).get();
+			Set<Thread> appenders = getAppenders();
+
+			// 每次生成检查点时开启新的段，沿用同一个追加线程；
+			for (int cid = 1; cid < 200; cid++) {
+				log.append(cid, serialize(cid));
+				if (cid % 10 == 0) {
+					log.roll();
+				}
+			}
+			assertTrue(log.getSegmentCount() >= 20);
+			assertEquals(appenders, getAppenders());
+
+			CommandsInfo[] batches = log.read(0, 199);
+			assertEquals(200, batches.length);
+			for (int cid = 0; cid < 200; cid++) {
+				assertArrayEquals(new byte[] { (byte) cid }, batches[cid].commands[0]);
+			}
+		} finally {
+			log.close();
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testReopenWithPartialRecord() throws Exception {
+		File dir = Files.createTempDirectory("bftsmart-segmented-log-").toFile();
+		try {
+			SegmentedCommandLog log = new SegmentedCommandLog(dir, 1024 * 1024, Durability.BATCH);
+			for (int cid = 0; cid < 5; cid++) {
+				log.append(cid, serialize(cid));
+			}
+			log.close();
+
+			// 模拟写入中途崩溃：文件末尾标记被一条不完整的记录覆盖；
+			File[] files = dir.listFiles();
+			assertEquals(1, files.length);
+			try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+				long end = file.length() - 8;
+				file.setLength(end);
+				file.seek(end);
+				file.writeInt(100);
+				file.writeInt(5);
+				file.write(new byte[] { 1, 2, 3 });
+			}
+
+			// 重新打开时截掉不完整的记录，新的记录按索引的位置写入；
+			log = new SegmentedCommandLog(dir, 1024 * 1024, Durability.BATCH);
+			assertEquals(4, log.getLastCid());
+			log.append(5, serialize(5));
+			log.append(6, serialize(6));
+			assertArrayEquals(serialize(5), log.read(5));
+			CommandsInfo[] batches = log.read(0, 6);
+			assertEquals(7, batches.length);
+			for (int cid = 0; cid < 7; cid++) {
+				assertArrayEquals(new byte[] { (byte) cid }, batches[cid].commands[0]);
+			}
+			log.close();
+
+			log = new SegmentedCommandLog(dir, 1024 * 1024, Durability.BATCH);
+			assertEquals(6, log.getLastCid());
+			assertArrayEquals(serialize(6), log.read(6));
+			log.close();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testWriteFailure() throws Exception {
+		File full = new File("/dev/full");
+		Assume.assumeTrue(full.exists() && full.canWrite());
+		File dir = Files.createTempDirectory("bftsmart-segmented-log-").toFile();
+		try {
+			SegmentedCommandLog log = new SegmentedCommandLog(dir, 1024 * 1024, Durability.BATCH);
+			for (int cid = 0; cid < 10; cid++) {
+				log.append(cid, serialize(cid));
+			}
+			log.flush();
+
+			// 下一个段链接到 /dev/full，注入写入失败（写入时返回 ENOSPC）；
+			File next = new File(dir, String.format("%010d", 10) + ".seg");
+			Files.createSymbolicLink(next.toPath(), full.toPath());
+			log.roll();
+			CompletableFuture<Integer> failed = null;
+			for (int cid = 10; cid < 15; cid++) {
+				failed = log.append(cid, serialize(cid));
+			}
+			try {
+				failed.get(5, TimeUnit.SECONDS);
+				fail("The record is written!");
+			} catch (ExecutionException e) {
+			}
+
+			// 写入失败的记录不被索引；
+			assertEquals(9, log.getLastCid());
+			assertNull(log.read(10));
+			assertNull(log.read(14));
+			log.close();
+
+			next.delete();
+			log = new SegmentedCommandLog(dir, 1024 * 1024, Durability.BATCH);
+			assertEquals(9, log.getLastCid());
+			assertEquals(10, log.read(0, 20).length);
+			log.close();
+		} finally {
+			delete(dir);
+		}
+	}
+
+	private static Set<Thread> getAppenders() {
+		Set<Thread> appenders = new HashSet<Thread>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("LOG-APPENDER-") && thread.isAlive()) {
+				appenders.add(thread);
+			}
+		}
+		return appenders;
+	}
+
+	private static byte[] serialize(int cid) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(new CommandsInfo(new byte[][] { { (byte) cid } }));
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,95 @@
+package test.bftsmart.tom.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import bftsmart.tom.metrics.ConsensusMetrics;
+import bftsmart.tom.metrics.ConsensusPhase;
+import bftsmart.tom.metrics.DefaultMetricsRegistry;
+import bftsmart.tom.metrics.JmxMetricsRegistry;
+import bftsmart.tom.metrics.LatencyHistogram;
+import bftsmart.tom.metrics.MetricsRegistry;
+
+public class ConsensusMetricsTest {
+
+	@Test
+	public void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram("test");
+		for (long i = 1; i <= 100000; i++) {
+			histogram.record(i * 1000);
+		}
+
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000000L, histogram.getMax());
+		assertEquals(50000500.0, histogram.getMean(), 0.001);
+
+		// 分桶的相对误差不超过 1/32；
+		assertWithinError(50000000L, histogram.getP50());
+		assertWithinError(99000000L, histogram.getP99());
+		assertWithinError(99900000L, histogram.getP999());
+		assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getP99());
+	}
+
+	@Test
+	public void testPhases() {
+		MetricsRegistry registry = new DefaultMetricsRegistry();
+		ConsensusMetrics metrics = new ConsensusMetrics(registry);
+
+		for (ConsensusPhase phase : ConsensusPhase.values()) {
+			metrics.mark(0, phase);
+		}
+		// 未收到 PROPOSE 的共识不记录；
+		metrics.mark(1, ConsensusPhase.WRITE_QUORUM);
+		metrics.mark(1, ConsensusPhase.EXECUTE);
+		// 被放弃的共识不记录总时延；
+		metrics.mark(2, ConsensusPhase.PROPOSE);
+		metrics.mark(2, ConsensusPhase.WRITE_QUORUM);
+		metrics.discard(2);
+		metrics.mark(2, ConsensusPhase.EXECUTE);
+
+		assertEquals(2, registry.latency(ConsensusPhase.WRITE_QUORUM.getMetricName()).getCount());
+		assertEquals(1, registry.latency(ConsensusPhase.PRECOMPUTE.getMetricName()).getCount());
+		assertEquals(1, registry.latency(ConsensusPhase.EXECUTE.getMetricName()).getCount());
+		assertEquals(1, registry.latency(ConsensusPhase.TOTAL_METRIC).getCount());
+
+		// 关闭后不再记录；
+		metrics.close();
+		metrics.mark(3, ConsensusPhase.PROPOSE);
+		metrics.mark(3, ConsensusPhase.WRITE_QUORUM);
+		assertFalse(metrics.isEnabled());
+		assertEquals(2, registry.latency(ConsensusPhase.WRITE_QUORUM.getMetricName()).getCount());
+	}
+
+	@Test
+	public void testJmxRegistry() throws Exception {
+		MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+		JmxMetricsRegistry registry = new JmxMetricsRegistry(3, mbeanServer);
+		ConsensusMetrics metrics = new ConsensusMetrics(registry);
+		metrics.mark(10, ConsensusPhase.PROPOSE);
+		metrics.mark(10, ConsensusPhase.WRITE_QUORUM);
+
+		ObjectName name = new ObjectName("bftsmart:type=Latency,replica=3,name="
+				+ ObjectName.quote(ConsensusPhase.WRITE_QUORUM.getMetricName()));
+		assertTrue(mbeanServer.isRegistered(name));
+		assertEquals(1L, mbeanServer.getAttribute(name, "Count"));
+
+		metrics.close();
+		assertFalse(mbeanServer.isRegistered(name));
+	}
+
+	private static void assertWithinError(long expected, long actual) {
+		assertTrue("expected " + expected + " but was " + actual,
+				Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKET_COUNT);
+	}
+}
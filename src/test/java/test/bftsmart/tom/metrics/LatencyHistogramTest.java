@@ -0,0 +1,57 @@
+package test.bftsmart.tom.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bftsmart.tom.metrics.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testSmallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram("test", 11);
+		assertEquals(2048, histogram.getSubBucketCount());
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000, histogram.getMax());
+		assertEquals(500.5, histogram.getMean(), 0.0001);
+		assertEquals(500, histogram.getValueAtPercentile(50));
+		assertEquals(990, histogram.getValueAtPercentile(99));
+		assertEquals(1000, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testPercentilesWithinPrecision() {
+		for (int bits : new int[] { 5, 11 }) {
+			LatencyHistogram histogram = new LatencyHistogram("test", bits);
+			Random random = new Random(7);
+			long[] values = new long[100000];
+			for (int i = 0; i < values.length; i++) {
+				// 对数均匀分布在 1us 到 1s 之间的纳秒延迟；
+				values[i] = (long) Math.pow(10, 3 + random.nextDouble() * 6);
+				histogram.record(values[i]);
+			}
+			Arrays.sort(values);
+			for (double percentile : new double[] { 10, 50, 90, 99, 99.9 }) {
+				long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+				long actual = histogram.getValueAtPercentile(percentile);
+				assertTrue("p" + percentile + ": expected " + expected + " but " + actual, actual >= expected
+						&& actual - expected <= expected / histogram.getSubBucketCount() + 1);
+			}
+			assertEquals(values[values.length - 1], histogram.getMax());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalPrecision() {
+		new LatencyHistogram("test", 0);
+	}
+
+}
@@ -0,0 +1,145 @@
+package test.bftsmart.tom.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Test;
+
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.BatchBuilder;
+import bftsmart.tom.util.BatchReader;
+import bftsmart.tom.util.SignatureScheme;
+import bftsmart.tom.util.TOMUtil;
+import test.bftsmart.benchmark.BenchmarkTopology;
+
+public class BatchCodecTest {
+
+	@Test
+	public void testInPlaceRoundTrip() {
+		BenchmarkTopology topology = BenchmarkTopology.create(0, new int[] { 0, 1, 2, 3 }, new Properties());
+
+		List<TOMMessage> requests = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			byte[] content = new byte[i * 10];
+			for (int j = 0; j < content.length; j++) {
+				content[j] = (byte) (i + j);
+			}
+			TOMMessage request = new TOMMessage(1000 + i, 1, i, i, content, null, 0, TOMMessageType.ORDERED_REQUEST);
+			request.serializedMessage = TOMMessage.messageToBytes(request);
+			requests.add(request);
+		}
+
+		byte[] batch = new BatchBuilder(1).makeBatch(requests, 0, 123456L, topology);
+		TOMMessage[] decoded = new BatchReader(batch, false).deserialiseRequests(topology);
+
+		assertEquals(requests.size(), decoded.length);
+		for (int i = 0; i < decoded.length; i++) {
+			TOMMessage expected = requests.get(i);
+			assertEquals(expected, decoded[i]);
+			assertEquals(expected.getId(), decoded[i].getId());
+			assertEquals(123456L, decoded[i].timestamp);
+			assertEquals(expected.serializedMessage.length, decoded[i].getSerializedMessageLength());
+			assertArrayEquals(expected.getContent(), decoded[i].getContent());
+			assertArrayEquals(expected.serializedMessage, decoded[i].getSerializedMessage());
+			assertNull(decoded[i].getViewContent());
+		}
+
+		// 从批次中解析出的请求不需要复制即可重新打包；
+		byte[] rebatched = new BatchBuilder(1).makeBatch(Arrays.asList(
+				new BatchReader(batch, false).deserialiseRequests(topology)), 0, 123456L, topology);
+		assertArrayEquals(batch, rebatched);
+	}
+
+	@Test
+	public void testVariableSizeSignatures() {
+		Properties configs = new Properties();
+		configs.setProperty("system.communication.useSignatures", "1");
+		configs.setProperty(SignatureScheme.CONFIG_KEY, "ecdsa");
+		BenchmarkTopology topology = BenchmarkTopology.create(0, new int[] { 0, 1, 2, 3 }, configs);
+
+		// ECDSA 的签名是 DER 编码，长度不固定；第一个请求不带签名；
+		List<TOMMessage> requests = new ArrayList<>();
+		Set<Integer> signatureSizes = new HashSet<>();
+		for (int i = 0; i < 40; i++) {
+			TOMMessage request = new TOMMessage(1000 + i, 1, i, i, new byte[] { (byte) i }, null, 0,
+					TOMMessageType.ORDERED_REQUEST);
+			request.serializedMessage = TOMMessage.messageToBytes(request);
+			if (i > 0) {
+				request.serializedMessageSignature = TOMUtil
+						.signMessage(topology.getStaticConf().getRSAPrivateKey(), request.serializedMessage);
+				signatureSizes.add(request.serializedMessageSignature.length);
+			}
+			requests.add(request);
+		}
+		assertTrue(signatureSizes.size() > 1);
+
+		byte[] batch = new BatchBuilder(1).makeBatch(requests, 0, 123456L, topology);
+		TOMMessage[] decoded = new BatchReader(batch, true).deserialiseRequests(topology);
+
+		assertEquals(requests.size(), decoded.length);
+		assertNull(decoded[0].serializedMessageSignature);
+		assertFalse(decoded[0].signed);
+		for (int i = 1; i < decoded.length; i++) {
+			assertEquals(requests.get(i), decoded[i]);
+			assertTrue(decoded[i].signed);
+			assertArrayEquals(requests.get(i).serializedMessageSignature, decoded[i].serializedMessageSignature);
+			assertTrue(TOMUtil.verifySignature(topology.getStaticConf().getRSAPublicKey(1000 + i),
+					decoded[i].getSerializedMessage(), decoded[i].serializedMessageSignature));
+		}
+	}
+
+	@Test
+	public void testLegacySignatureLayout() {
+		Properties configs = new Properties();
+		configs.setProperty("system.communication.useSignatures", "1");
+		configs.setProperty("system.communication.messageFormat", "0");
+		BenchmarkTopology topology = BenchmarkTopology.create(0, new int[] { 0, 1, 2, 3 }, configs);
+		int signatureSize = TOMUtil.getSignatureSize(topology);
+		assertTrue(signatureSize > 0);
+
+		List<TOMMessage> requests = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			TOMMessage request = new TOMMessage(1000 + i, 1, i, i, new byte[] { (byte) i }, null, 0,
+					TOMMessageType.ORDERED_REQUEST);
+			request.serializedMessage = TOMMessage.messageToBytes(request);
+			request.serializedMessageSignature = TOMUtil.signMessage(topology.getStaticConf().getRSAPrivateKey(),
+					request.serializedMessage);
+			requests.add(request);
+		}
+
+		// 旧版本的格式中签名不带长度；
+		byte[] batch = new BatchBuilder(1).makeBatch(requests, 0, 123456L, topology);
+		int messagesSize = 0;
+		for (TOMMessage request : requests) {
+			messagesSize += 4 + request.serializedMessage.length + signatureSize;
+		}
+		assertEquals(20 + messagesSize, batch.length);
+
+		TOMMessage[] decoded = new BatchReader(batch, true).deserialiseRequests(topology);
+		assertEquals(requests.size(), decoded.length);
+		for (int i = 0; i < decoded.length; i++) {
+			assertEquals(requests.get(i), decoded[i]);
+			assertTrue(decoded[i].signed);
+			assertArrayEquals(requests.get(i).serializedMessageSignature, decoded[i].serializedMessageSignature);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLegacyFormatRequiresRSA() {
+		Properties configs = new Properties();
+		configs.setProperty("system.communication.messageFormat", "0");
+		configs.setProperty(SignatureScheme.CONFIG_KEY, "ecdsa");
+		BenchmarkTopology.create(0, new int[] { 0, 1, 2, 3 }, configs);
+	}
+}
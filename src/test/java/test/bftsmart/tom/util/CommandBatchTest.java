@@ -0,0 +1,95 @@
+package test.bftsmart.tom.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.CommandBatch;
+
+public class CommandBatchTest {
+
+	@Test
+	public void testPackAndUnpack() {
+		List<byte[]> commands = new ArrayList<byte[]>();
+		commands.add(new byte[] { 1, 2, 3 });
+		commands.add(new byte[0]);
+		commands.add(new byte[1000]);
+
+		byte[][] unpacked = CommandBatch.unpack(CommandBatch.pack(commands));
+		assertEquals(commands.size(), unpacked.length);
+		for (int i = 0; i < unpacked.length; i++) {
+			assertArrayEquals(commands.get(i), unpacked[i]);
+		}
+	}
+
+	@Test
+	public void testEmptyBatch() {
+		// 不含命令的批量请求被拒绝；
+		assertNull(CommandBatch.unpack(CommandBatch.pack(new ArrayList<byte[]>())));
+
+		TOMMessage empty = new TOMMessage(1000, 0, 10, 10, CommandBatch.pack(new ArrayList<byte[]>()), null, 0,
+				TOMMessageType.ORDERED_REQUEST);
+		empty.setCommandBatch(true);
+		assertNull(empty.getCommands());
+	}
+
+	@Test
+	public void testMalformedBatch() {
+		byte[] batch = CommandBatch.pack(Arrays.asList(new byte[] { 1, 2 }, new byte[] { 3 }));
+		assertNull(CommandBatch.unpack(null));
+		assertNull(CommandBatch.unpack(new byte[3]));
+		// 截断、多余的字节；
+		assertNull(CommandBatch.unpack(Arrays.copyOf(batch, batch.length - 1)));
+		assertNull(CommandBatch.unpack(Arrays.copyOf(batch, batch.length + 1)));
+		// 命令数、命令长度超出范围；
+		byte[] tampered = batch.clone();
+		tampered[0] = 0x7F;
+		assertNull(CommandBatch.unpack(tampered));
+		tampered = batch.clone();
+		tampered[4] = (byte) 0xFF;
+		assertNull(CommandBatch.unpack(tampered));
+	}
+
+	@Test
+	public void testRequestWithCommandBatch() throws Exception {
+		byte[] batch = CommandBatch.pack(Arrays.asList(new byte[] { 1, 2 }, new byte[] { 3 }));
+		TOMMessage request = new TOMMessage(1000, 0, 7, 7, batch, null, 0, TOMMessageType.ORDERED_REQUEST);
+		request.setCommandBatch(true);
+
+		// 批量标志随请求序列化；
+		byte[] bytes = TOMMessage.messageToBytes(request);
+		for (TOMMessage received : new TOMMessage[] { TOMMessage.bytesToMessage(bytes),
+				TOMMessage.fromBytes(bytes, 0, bytes.length) }) {
+			assertTrue(received.isCommandBatch());
+			assertEquals(TOMMessageType.ORDERED_REQUEST, received.getReqType());
+			byte[][] commands = received.getCommands();
+			assertEquals(2, commands.length);
+			assertArrayEquals(new byte[] { 1, 2 }, commands[0]);
+			assertArrayEquals(new byte[] { 3 }, commands[1]);
+		}
+
+		// 普通请求的内容即是唯一的命令；
+		TOMMessage single = TOMMessage.bytesToMessage(TOMMessage.messageToBytes(
+				new TOMMessage(1000, 0, 8, 8, batch, null, 0, TOMMessageType.ORDERED_REQUEST)));
+		assertFalse(single.isCommandBatch());
+		assertEquals(1, single.getCommands().length);
+		assertArrayEquals(batch, single.getCommands()[0]);
+
+		// 格式错误的批量请求；
+		TOMMessage malformed = new TOMMessage(1000, 0, 9, 9, new byte[] { 0, 0, 0, 1 }, null, 0,
+				TOMMessageType.ORDERED_REQUEST);
+		malformed.setCommandBatch(true);
+		assertNull(malformed.getCommands());
+	}
+
+}
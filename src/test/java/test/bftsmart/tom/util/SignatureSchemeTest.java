@@ -0,0 +1,114 @@
+package test.bftsmart.tom.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Properties;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import bftsmart.communication.SystemMessageCodecRegistry;
+import bftsmart.reconfiguration.util.HostsConfig;
+import bftsmart.reconfiguration.util.TOMConfiguration;
+import bftsmart.tom.util.SignatureScheme;
+import bftsmart.tom.util.TOMUtil;
+
+public class SignatureSchemeTest {
+
+	@Test
+	public void testSignAndVerify() throws Exception {
+		for (SignatureScheme scheme : SignatureScheme.values()) {
+			TOMConfiguration conf = newConfiguration(scheme.name().toLowerCase());
+			assertEquals(scheme, conf.getSignatureScheme());
+
+			PrivateKey privateKey = conf.getRSAPrivateKey();
+			PublicKey publicKey = conf.getRSAPublicKey(1);
+			// 根据密钥的类型确定签名方案；
+			assertEquals(scheme, SignatureScheme.of(privateKey));
+			assertEquals(scheme, SignatureScheme.of(publicKey));
+
+			byte[] message = ("message of " + scheme).getBytes("UTF-8");
+			byte[] signature = TOMUtil.signMessage(privateKey, message);
+			assertTrue(scheme.name(), TOMUtil.verifySignature(publicKey, message, signature));
+
+			byte[] tamperedMessage = message.clone();
+			tamperedMessage[0] ^= 1;
+			assertFalse(scheme.name(), TOMUtil.verifySignature(publicKey, tamperedMessage, signature));
+
+			// 格式错误的签名视为无效签名，不抛出异常；
+			byte[] tamperedSignature = signature.clone();
+			tamperedSignature[tamperedSignature.length / 2] ^= 1;
+			assertFalse(scheme.name(), scheme.verify(publicKey, message, tamperedSignature));
+			assertFalse(scheme.name(), scheme.verify(publicKey, message, new byte[3]));
+		}
+	}
+
+	@Test
+	public void testConcurrentVerify() throws Exception {
+		for (SignatureScheme scheme : SignatureScheme.values()) {
+			TOMConfiguration conf = newConfiguration(scheme.name());
+			PrivateKey privateKey = conf.getRSAPrivateKey();
+			PublicKey publicKey = conf.getRSAPublicKey(0);
+
+			byte[][] messages = new byte[64][];
+			byte[][] signatures = new byte[messages.length][];
+			for (int i = 0; i < messages.length; i++) {
+				messages[i] = new byte[] { (byte) i, 1, 2, 3 };
+				signatures[i] = scheme.sign(privateKey, messages[i]);
+			}
+			// 各线程使用各自的签名实例；
+			assertTrue(scheme.name(), IntStream.range(0, messages.length * 4).parallel()
+					.allMatch(i -> scheme.verify(publicKey, messages[i % messages.length], signatures[i % messages.length])));
+		}
+	}
+
+	@Test
+	public void testUnsupportedScheme() {
+		assertEquals(SignatureScheme.RSA, newConfiguration(null).getSignatureScheme());
+		assertEquals(SignatureScheme.ED25519, SignatureScheme.of(" Ed25519 "));
+		try {
+			SignatureScheme.of("dsa");
+			fail("Unsupported signature scheme should be rejected!");
+		} catch (IllegalArgumentException e) {
+			// expected;
+		}
+	}
+
+	@Test
+	public void testDefaultMessageFormat() {
+		// RSA 默认采用旧版本的格式，其它签名方案默认采用二进制格式；
+		assertEquals(SystemMessageCodecRegistry.LEGACY_FORMAT, newConfiguration(null).getMessageFormat());
+		assertEquals(SystemMessageCodecRegistry.BINARY_FORMAT, newConfiguration("ed25519").getMessageFormat());
+		assertEquals(SystemMessageCodecRegistry.BINARY_FORMAT, newConfiguration("rsa", "1").getMessageFormat());
+		try {
+			newConfiguration("ecdsa", "0");
+			fail("The signature scheme without the binary format should be rejected!");
+		} catch (IllegalArgumentException e) {
+			// expected;
+		}
+	}
+
+	private static TOMConfiguration newConfiguration(String scheme) {
+		return newConfiguration(scheme, null);
+	}
+
+	private static TOMConfiguration newConfiguration(String scheme, String messageFormat) {
+		Properties configs = new Properties();
+		if (scheme != null) {
+			configs.setProperty(SignatureScheme.CONFIG_KEY, scheme);
+		}
+		if (messageFormat != null) {
+			configs.setProperty("system.communication.messageFormat", messageFormat);
+		}
+		HostsConfig hosts = new HostsConfig();
+		hosts.add(0, "localhost", 0, 0);
+		hosts.add(1, "localhost", 0, 0);
+		return new TOMConfiguration(0, configs, hosts);
+	}
+
+}